@@ -0,0 +1,61 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+
+        for (int i = 0; i < 90; i++) {
+            histogram.increment(3);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.increment(1000);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(3, histogram.getPercentile(0.5));
+        Assert.assertEquals(3, histogram.getPercentile(0.9));
+        Assert.assertEquals(1023, histogram.getPercentile(0.95));
+        Assert.assertEquals(1023, histogram.getPercentile(1.0));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void calculatorDelta() {
+        Histogram histogram = new Histogram();
+        HistogramCalculator calc = new HistogramCalculator(histogram)
+                .setCountName("count").addPercentileName(0.99, "p99");
+        Assert.assertEquals(2, calc.getNames().size());
+
+        histogram.increment(5000);
+        Assert.assertEquals(8191L, calc.getData().get(1));
+        calc.reset();
+
+        histogram.increment(2);
+        Assert.assertEquals(1L, calc.getData().get(0));
+        Assert.assertEquals(3L, calc.getData().get(1));
+    }
+}
@@ -81,6 +81,13 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mysql_shutdown_timeout = KnownKey.newKey(60);
 
+    // attribute DB pool wait and hold times to the code that asked for the connection; this captures a stack trace
+    // on every getConnection, so it is off by default
+    public static final KnownKey zimbra_db_pool_call_site_stats = KnownKey.newKey(false);
+
+    // minimum seconds between two traces of an exhausted DB connection pool
+    public static final KnownKey zimbra_db_pool_exhaustion_trace_interval = KnownKey.newKey(60);
+
     @Supported
     public static final KnownKey zimbra_ldap_userdn = KnownKey.newKey("uid=zimbra,cn=admins,cn=zimbra");
 
@@ -164,6 +171,15 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_galsync_cache = KnownKey.newKey(10000);
 
+    // Bytes of direct memory that hold items trimmed from the mailbox item caches; 0 disables the overflow tier.
+    public static final KnownKey zimbra_mailbox_overflow_cache_size = KnownKey.newKey(64 * 1024 * 1024);
+
+    // Number of independently locked regions the overflow item cache is split into.
+    public static final KnownKey zimbra_mailbox_overflow_cache_shards = KnownKey.newKey(16);
+
+    // upper bound on the bytes of message data the message cache keeps in memory
+    public static final KnownKey zimbra_message_cache_max_data_size = KnownKey.newKey(64 * 1024 * 1024);
+
     @Supported
     public static final KnownKey zimbra_mailbox_change_checkpoint_frequency = KnownKey.newKey(100);
 
@@ -175,6 +191,12 @@ public final class LC {
 
     public static final KnownKey zimbra_mailbox_lock_readwrite = KnownKey.newKey(true);
 
+    // how long a node keeps an idle distributed read lock grant for reuse by later local readers
+    public static final KnownKey zimbra_mailbox_lock_read_lease_ms = KnownKey.newKey(1000);
+
+    // number of workers replaying uncommitted redo ops during crash recovery; ops for one mailbox stay ordered
+    public static final KnownKey redolog_crash_recovery_threads = KnownKey.newKey(8);
+
     @Supported
     public static final KnownKey zimbra_index_threads = KnownKey.newKey(10);
 
@@ -196,6 +218,16 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_index_reader_cache_ttl = KnownKey.newKey(300);
 
+    // if > 0, cached index searchers are refreshed from the live index writer in the background and may lag
+    // behind indexing by up to this many milliseconds; 0 reopens them synchronously after each index commit
+    public static final KnownKey zimbra_index_nrt_max_staleness_ms = KnownKey.newKey(0);
+
+    // mailboxes that may wait in the server-wide indexing pipeline; more are turned away until the next trigger
+    public static final KnownKey zimbra_index_queue_size = KnownKey.newKey(1000);
+
+    // threads that commit tokenized items to the index; zimbra_index_threads threads tokenize them
+    public static final KnownKey zimbra_index_write_threads = KnownKey.newKey(2);
+
     @Supported
     public static final KnownKey zimbra_index_deferred_items_failure_delay = KnownKey.newKey(300);
 
@@ -275,6 +307,9 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_session_max_pending_notifications = KnownKey.newKey(400);
 
+    // threads that wake up SOAP push channels off the committing mailbox thread; 0 wakes them up inline
+    public static final KnownKey zimbra_session_notify_threads = KnownKey.newKey(2);
+
     @Supported
     public static final KnownKey zimbra_converter_enabled_uuencode = KnownKey.newKey(true);
 
@@ -482,6 +517,14 @@ public final class LC {
     public static final KnownKey ldap_cache_reverseproxylookup_server_maxsize = KnownKey.newKey(100);
     public static final KnownKey ldap_cache_reverseproxylookup_server_maxage = KnownKey.newKey(15);
 
+    // the local ephemeral backend (zimbraEphemeralBackendURL=local:<directory>) appends to its log this often;
+    // a crash loses the changes made since the last append
+    public static final KnownKey ephemeral_local_flush_interval_ms = KnownKey.newKey(100L);
+    // the log is rewritten without overwritten and expired values once it is this large and twice its size after
+    // the previous rewrite, or when it hasn't been rewritten for the interval
+    public static final KnownKey ephemeral_local_compact_min_bytes = KnownKey.newKey(4L * 1024 * 1024);
+    public static final KnownKey ephemeral_local_compact_interval_ms = KnownKey.newKey(Constants.MILLIS_PER_HOUR);
+
     // This combination will consume 128M (128K per target) of memory if the cache is full
     public static final KnownKey acl_cache_target_maxsize = KnownKey.newKey(1024);
     public static final KnownKey acl_cache_target_maxage = KnownKey.newKey(15);
@@ -661,6 +704,8 @@ public final class LC {
     @Supported
     public static final KnownKey calendar_cache_range_months = KnownKey.newKey(3);
     public static final KnownKey calendar_cache_max_stale_items = KnownKey.newKey(10);
+    // widest range, in days, a cached calendar summary grows to as clients page outside the default range
+    public static final KnownKey calendar_cache_max_range_days = KnownKey.newKey(366);
     public static final KnownKey calendar_exchange_form_auth_url = KnownKey.newKey("/exchweb/bin/auth/owaauth.dll");
     public static final KnownKey calendar_item_get_max_retries = KnownKey.newKey(100);
 
@@ -696,6 +741,12 @@ public final class LC {
     public static final KnownKey imap_throttle_acct_limit = KnownKey.newKey(5000);
     public static final KnownKey imap_throttle_command_limit = KnownKey.newKey(25);
     public static final KnownKey imap_throttle_fetch = KnownKey.newKey(true);
+    // keep the ENVELOPE and BODYSTRUCTURE (BODY is derived from it) of newly stored messages in their metadata, so
+    // that FETCHing them doesn't read the blob; structures longer than the max length are left to be computed on FETCH
+    public static final KnownKey imap_persist_fetch_structures = KnownKey.newKey(true);
+    public static final KnownKey imap_fetch_structures_max_length = KnownKey.newKey(8 * 1024);
+    // when a folder is selected, compute and store the structures of its older messages in the background
+    public static final KnownKey imap_fetch_structures_backfill = KnownKey.newKey(false);
     public static final KnownKey data_source_imap_reuse_connections = KnownKey.newKey(false);
 
     @Supported
@@ -832,6 +883,10 @@ public final class LC {
     public static final KnownKey zimbra_active_waitset_timeout_minutes = KnownKey.newKey(20);
 
     public static final KnownKey zimbra_waitset_max_per_account = KnownKey.newKey(5);
+
+    // threads that deliver waitset notifications off the committing mailbox thread; 0 delivers them inline
+    public static final KnownKey zimbra_waitset_notify_threads = KnownKey.newKey(4);
+
     public static final KnownKey zmdisklog_warn_threshold = KnownKey.newKey(85);
     public static final KnownKey zmdisklog_critical_threshold = KnownKey.newKey(95);
 
@@ -841,6 +896,14 @@ public final class LC {
     public static final KnownKey zimbra_archive_formatter_disable_timeout = KnownKey.newKey(true);
     public static final KnownKey zimbra_csv_formatter_disable_timeout = KnownKey.newKey(true);
     public static final KnownKey zimbra_archive_formatter_search_chunk_size = KnownKey.newKey(4096);
+    // threads shared by all archive exports for reading blobs ahead of the writer and for tgz compression; 0 disables both
+    public static final KnownKey zimbra_archive_formatter_threads = KnownKey.newKey(4);
+    // blob bytes a single export may hold in memory ahead of the writer
+    public static final KnownKey zimbra_archive_formatter_prefetch_bytes = KnownKey.newKey(16 * 1024 * 1024);
+    // larger blobs are streamed by the writer instead of being read ahead
+    public static final KnownKey zimbra_archive_formatter_prefetch_item_size = KnownKey.newKey(1024 * 1024);
+    // store documents whose content is already compressed (zip, jpeg, ...) without compressing them again
+    public static final KnownKey zimbra_archive_formatter_store_compressed = KnownKey.newKey(true);
     public static final KnownKey zimbra_gal_sync_disable_timeout = KnownKey.newKey(true);
     // for bug 79865
     /**
@@ -912,6 +975,10 @@ public final class LC {
     public static final KnownKey yauth_baseuri = KnownKey.newKey("https://login.yahoo.com/WSLogin/V1");
 
     public static final KnownKey purge_initial_sleep_ms = KnownKey.newKey(30 * Constants.MILLIS_PER_MINUTE);
+    // number of mailboxes the purge thread purges concurrently
+    public static final KnownKey purge_threads = KnownKey.newKey(2);
+    // items and blobs all concurrent purges may delete per second, combined; 0 means unlimited
+    public static final KnownKey purge_max_deletes_per_second = KnownKey.newKey(0);
 
     public static final KnownKey conversation_max_age_ms = KnownKey.newKey(31 * Constants.MILLIS_PER_DAY);
     public static final KnownKey tombstone_max_age_ms = KnownKey.newKey(3 * Constants.MILLIS_PER_MONTH);
@@ -1071,6 +1138,11 @@ public final class LC {
     public static final KnownKey zimbra_lmtp_validate_messages = KnownKey.newKey(true);
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
 
+    // threads that deliver to local mailboxes in parallel, in addition to the LMTP thread; 0 delivers serially
+    public static final KnownKey zimbra_lmtp_delivery_threads = KnownKey.newKey(4);
+    // minimum number of local mailboxes a message must go to before it is delivered in parallel
+    public static final KnownKey zimbra_lmtp_parallel_delivery_min_recipients = KnownKey.newKey(20);
+
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_contacts = KnownKey.newKey(true);
@@ -1212,6 +1284,9 @@ public final class LC {
     // Remove this in 8.0.
     public static final KnownKey filter_null_env_sender_for_dsn_redirect = KnownKey.newKey(true);
 
+    // max number of distinct parsed Sieve scripts shared across accounts
+    public static final KnownKey zimbra_filter_script_cache_size = KnownKey.newKey(1000);
+
     //appliance
     public static final KnownKey zimbra_vami_user = KnownKey.newKey("vmware");
     public static final KnownKey zimbra_vami_password = KnownKey.newKey("vmware").protect();
@@ -1373,6 +1448,17 @@ public final class LC {
 
     public static final KnownKey uncompressed_cache_min_lifetime = KnownKey.newKey(Constants.MILLIS_PER_MINUTE);
 
+    // FileBlobStore hard links a delivered blob to an existing copy with the same digest, looked up in a
+    // per-volume index of the most recently stored blobs
+    public static final KnownKey zimbra_blob_dedup_inline_enabled = KnownKey.newKey(true);
+    public static final KnownKey zimbra_blob_dedup_min_size = KnownKey.newKey(8192);
+    public static final KnownKey zimbra_blob_dedup_index_size = KnownKey.newKey(100000);
+
+    // threads running asynchronous blob store operations, and the smallest blob that is sent to a client straight
+    // from the blob file instead of being copied through a stream
+    public static final KnownKey zimbra_blob_store_async_threads = KnownKey.newKey(8);
+    public static final KnownKey zimbra_blob_zero_copy_min_size = KnownKey.newKey(256 * 1024);
+
     public static final KnownKey check_dl_membership_enabled = KnownKey.newKey(true);
 
     public static final KnownKey octopus_public_static_folder = KnownKey.newKey("${zimbra_home}/jetty/static");
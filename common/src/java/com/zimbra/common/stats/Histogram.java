@@ -0,0 +1,105 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A <code>StopWatch</code> that also records the distribution of the values
+ * passed to {@link #increment(long)}, so that percentiles can be reported in
+ * addition to the count and average.
+ * <p>
+ * Values are counted in power-of-two buckets: bucket <tt>0</tt> holds values
+ * <tt>&lt;= 0</tt> and bucket <tt>n</tt> holds values in
+ * <tt>[2<sup>n-1</sup>, 2<sup>n</sup>)</tt>.  Percentiles are reported as the
+ * upper bound of the matching bucket, which is accurate enough for latency and
+ * batch size reporting while keeping {@link #increment} lock-free.
+ */
+public class Histogram
+extends StopWatch {
+
+    static final int NUM_BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+
+    @Override
+    public void increment(long value) {
+        super.increment(value);
+        mBuckets.incrementAndGet(bucketOf(value));
+    }
+
+    /**
+     * Returns a copy of the current bucket counts.
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = mBuckets.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the approximate value below which <tt>percentile</tt> (between
+     * <tt>0.0</tt> and <tt>1.0</tt>) of the values recorded since the last call
+     * to {@link #reset} fall.
+     */
+    public long getPercentile(double percentile) {
+        return getPercentile(getBuckets(), percentile);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        return bucket >= NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    static long getPercentile(long[] buckets, double percentile) {
+        long count = 0;
+        for (long c : buckets) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.max(0.0, Math.min(1.0, percentile)));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(buckets.length - 1);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calculates the count, average and percentiles of the wrapped <tt>Histogram</tt>
+ * between subsequent calls to {@link #reset}.
+ */
+public class HistogramCalculator
+implements Accumulator {
+
+    private final Histogram mHistogram;
+    private final DeltaCalculator mDelta;
+    private long[] mLastBuckets = new long[Histogram.NUM_BUCKETS];
+
+    private final List<Double> mPercentiles = new ArrayList<Double>();
+    private final List<String> mPercentileNames = new ArrayList<String>();
+    private List<String> mNames = Collections.emptyList();
+
+    public HistogramCalculator(Histogram histogram) {
+        mHistogram = histogram;
+        mDelta = new DeltaCalculator(histogram);
+    }
+
+    /**
+     * @see DeltaCalculator#setCountName(String)
+     */
+    public HistogramCalculator setCountName(String name) {
+        mDelta.setCountName(name);
+        updateNames();
+        return this;
+    }
+
+    /**
+     * @see DeltaCalculator#setAverageName(String)
+     */
+    public HistogramCalculator setAverageName(String name) {
+        mDelta.setAverageName(name);
+        updateNames();
+        return this;
+    }
+
+    /**
+     * The given name will be returned by {@link #getNames()} and the value
+     * at the given percentile (between <tt>0.0</tt> and <tt>1.0</tt>) will
+     * be returned by {@link #getData()}.
+     */
+    public HistogramCalculator addPercentileName(double percentile, String name) {
+        mPercentiles.add(percentile);
+        mPercentileNames.add(name);
+        updateNames();
+        return this;
+    }
+
+    private void updateNames() {
+        List<String> names = new ArrayList<String>();
+        if (mDelta.getNames() != null) {
+            names.addAll(mDelta.getNames());
+        }
+        names.addAll(mPercentileNames);
+        mNames = Collections.unmodifiableList(names);
+    }
+
+    private long[] getDeltaBuckets() {
+        long[] current = mHistogram.getBuckets();
+        long[] delta = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            delta[i] = Math.max(0, current[i] - mLastBuckets[i]);
+        }
+        return delta;
+    }
+
+    /**
+     * Returns the value at the given percentile since the last call to {@link #reset}.
+     */
+    public long getPercentile(double percentile) {
+        synchronized (mHistogram) {
+            return Histogram.getPercentile(getDeltaBuckets(), percentile);
+        }
+    }
+
+    ////////////// Accumulator implementation ///////////////////
+
+    @Override
+    public List<String> getNames() {
+        return mNames;
+    }
+
+    @Override
+    public List<Object> getData() {
+        List<Object> data = new ArrayList<Object>(mNames.size());
+        synchronized (mHistogram) {
+            data.addAll(mDelta.getData());
+            long[] delta = getDeltaBuckets();
+            for (double percentile : mPercentiles) {
+                data.add(Histogram.getPercentile(delta, percentile));
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public void reset() {
+        synchronized (mHistogram) {
+            mDelta.reset();
+            mLastBuckets = mHistogram.getBuckets();
+        }
+    }
+}
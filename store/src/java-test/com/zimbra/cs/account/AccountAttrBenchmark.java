@@ -0,0 +1,139 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.zimbra.common.account.ProvisioningConstants;
+import com.zimbra.common.util.DateUtil;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.util.MemoryUnitUtil;
+
+/**
+ * Measures the throughput of typed {@link Account} getters from concurrent threads: the generated getters, which
+ * read the entry's {@link TypedAttrSnapshot}, against looking the same attributes up with {@code getAttr} and
+ * parsing them on every call as the getters used to. Half of the attributes are set on the account and half are
+ * inherited from its COS.
+ * <p>
+ * Usage: {@code AccountAttrBenchmark [threads] [calls per thread]}
+ */
+public class AccountAttrBenchmark {
+
+    private final int threads;
+    private final int calls;
+    private final Account account;
+
+    public AccountAttrBenchmark(int threads, int calls) throws Exception {
+        this.threads = threads;
+        this.calls = calls;
+        Provisioning prov = Provisioning.getInstance();
+        Map<String, Object> cosAttrs = new HashMap<String, Object>();
+        cosAttrs.put(Provisioning.A_zimbraContactMaxNumEntries, "5000");
+        cosAttrs.put(Provisioning.A_zimbraMailIdleSessionTimeout, "10m");
+        cosAttrs.put(Provisioning.A_zimbraMailMinPollingInterval, "2m");
+        Cos cos = new MockCos("bench", "bench-cos", cosAttrs, prov);
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "1GB");
+        attrs.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, ProvisioningConstants.TRUE);
+        attrs.put(Provisioning.A_zimbraMailMessageLifetime, "30d");
+        account = new Account("attrbench@zimbra.com", "attrbench", attrs, cos.getAccountDefaults(), prov);
+    }
+
+    private long getters() {
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            sum += account.getMailQuota();
+            sum += account.getContactMaxNumEntries();
+            sum += account.isFeatureMobileSyncEnabled() ? 1 : 0;
+            sum += account.getMailIdleSessionTimeout();
+            sum += account.getMailMinPollingInterval();
+            sum += account.getMailMessageLifetime();
+        }
+        return sum;
+    }
+
+    private long parsing() {
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            String quota = account.getAttr(Provisioning.A_zimbraMailQuota, true, true);
+            sum += MemoryUnitUtil.isMemoryUnit(quota) ?
+                    new MemoryUnitUtil(1024).convertToBytes(quota) : Long.parseLong(quota);
+            sum += Integer.parseInt(account.getAttr(Provisioning.A_zimbraContactMaxNumEntries, true, true));
+            sum += ProvisioningConstants.TRUE.equals(
+                    account.getAttr(Provisioning.A_zimbraFeatureMobileSyncEnabled, true, true)) ? 1 : 0;
+            sum += DateUtil.getTimeInterval(account.getAttr(Provisioning.A_zimbraMailIdleSessionTimeout, true, true), 0L);
+            sum += DateUtil.getTimeInterval(account.getAttr(Provisioning.A_zimbraMailMinPollingInterval, true, true), 0L);
+            sum += DateUtil.getTimeInterval(account.getAttr(Provisioning.A_zimbraMailMessageLifetime, true, true), 0L);
+        }
+        return sum;
+    }
+
+    private long time(final boolean snapshot) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long sum = snapshot ? getters() : parsing();
+                        if (sum == 42) {
+                            System.out.print("");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    public void run() throws Exception {
+        long getters = time(true);
+        long parsing = time(false);
+        long total = 6L * calls * threads;
+        p("%d threads x %d calls x 6 attributes", threads, calls);
+        p("  parse per call %.1f M/s, typed snapshot %.1f M/s", rate(total, parsing), rate(total, getters));
+    }
+
+    private static double rate(long count, long nanos) {
+        return count * 1000.0 / nanos;
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        AccountAttrBenchmark benchmark = new AccountAttrBenchmark(threads, calls);
+        benchmark.run();  // warm up
+        benchmark.run();
+    }
+}
@@ -238,7 +238,7 @@ public final class MockProvisioning extends Provisioning {
                        if (add) {
                            map.put(realKey, value);
                        } else {
-                           return;
+                           break;
                        }
                     } else {
                         List<Object> list = null;
@@ -266,6 +266,7 @@ public final class MockProvisioning extends Provisioning {
                 map.remove(attr.getKey());
             }
         }
+        entry.setAttrs(map);  // modified in place, drop what the entry derived from it
     }
 
     @Override
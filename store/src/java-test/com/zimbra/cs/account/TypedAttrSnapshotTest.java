@@ -0,0 +1,135 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public class TypedAttrSnapshotTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Test
+    public void snapshot() {
+        TypedAttrSnapshot snapshot = TypedAttrSnapshot.empty();
+        Assert.assertEquals(-1, snapshot.find("a", TypedAttrSnapshot.INT));
+        for (int i = 0; i < 100; i++) {
+            snapshot = snapshot.with("a" + i, TypedAttrSnapshot.INT, i % 3 != 0, i);
+        }
+        snapshot = snapshot.with("a1", TypedAttrSnapshot.LONG, true, -1L);
+        Assert.assertEquals(101, snapshot.size());
+        for (int i = 0; i < 100; i++) {
+            int slot = snapshot.find(new String("a" + i), TypedAttrSnapshot.INT);
+            Assert.assertEquals(i % 3 != 0, snapshot.isSet(slot));
+            Assert.assertEquals(i, snapshot.value(slot));
+        }
+        Assert.assertEquals(-1L, snapshot.value(snapshot.find("a1", TypedAttrSnapshot.LONG)));
+        Assert.assertEquals(-1, snapshot.find("a1", TypedAttrSnapshot.BOOLEAN));
+
+        Assert.assertTrue(snapshot.isCurrent());
+        TypedAttrSnapshot.defaultsChanged();
+        Assert.assertFalse(snapshot.isCurrent());
+        Assert.assertTrue(TypedAttrSnapshot.empty().isCurrent());
+    }
+
+    @Test
+    public void getters() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "10MB");
+        attrs.put(Provisioning.A_zimbraContactMaxNumEntries, "bogus");
+        attrs.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, "TRUE");
+        attrs.put(Provisioning.A_zimbraMailIdleSessionTimeout, "2m");
+        Account account = new Account("typed@zimbra.com", "typed", attrs, null, Provisioning.getInstance());
+
+        Assert.assertEquals(10L * 1024 * 1024, account.getMailQuota());
+        Assert.assertEquals(10000, account.getContactMaxNumEntries());  // unparseable, generated default
+        Assert.assertEquals(7, account.getIntAttr(Provisioning.A_zimbraContactMaxNumEntries, 7));
+        Assert.assertTrue(account.isFeatureMobileSyncEnabled());
+        Assert.assertEquals(120000L, account.getMailIdleSessionTimeout());
+        Assert.assertEquals(120L, account.getTimeIntervalSecs(Provisioning.A_zimbraMailIdleSessionTimeout, 0L));
+        Assert.assertEquals(5L, account.getTimeIntervalSecs(Provisioning.A_zimbraMailMessageLifetime, 5L));
+        Assert.assertEquals(0L, account.getMailMessageLifetime());
+
+        Map<String, Object> changed = new HashMap<String, Object>(attrs);
+        changed.put(Provisioning.A_zimbraContactMaxNumEntries, "20");
+        changed.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, "FALSE");
+        changed.remove(Provisioning.A_zimbraMailIdleSessionTimeout);
+        account.setAttrs(changed);
+        Assert.assertEquals(20, account.getContactMaxNumEntries());
+        Assert.assertFalse(account.isFeatureMobileSyncEnabled());
+        Assert.assertEquals(0L, account.getMailIdleSessionTimeout());
+    }
+
+    @Test
+    public void resetRace() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "1");
+        final Account account = new Account("race@zimbra.com", "race", attrs, null, Provisioning.getInstance());
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    account.getMailQuota();
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 2; i < 5000; i++) {
+                attrs = new HashMap<String, Object>();
+                attrs.put(Provisioning.A_zimbraMailQuota, String.valueOf(i));
+                account.setAttrs(attrs);
+                Assert.assertEquals(i, account.getMailQuota());
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+    }
+
+    @Test
+    public void inheritedDefaults() throws Exception {
+        Provisioning prov = Provisioning.getInstance();
+        Map<String, Object> cosAttrs = new HashMap<String, Object>();
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "1000");
+        Cos cos = new MockCos("typed", "typed-cos", cosAttrs, prov);
+        Account account = new Account("inherit@zimbra.com", "inherit", new HashMap<String, Object>(),
+                cos.getAccountDefaults(), prov);
+        Assert.assertEquals(1000L, account.getMailQuota());
+
+        // the COS refills the map the account holds on to
+        Map<String, Object> changed = new HashMap<String, Object>(cosAttrs);
+        changed.put(Provisioning.A_zimbraMailQuota, "2000");
+        cos.setAttrs(changed);
+        Assert.assertEquals(2000L, account.getMailQuota());
+
+        prov.modifyAttrs(account, Collections.singletonMap(Provisioning.A_zimbraMailQuota, "3000"));
+        Assert.assertEquals(3000L, account.getMailQuota());
+    }
+}
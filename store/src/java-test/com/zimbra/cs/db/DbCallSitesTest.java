@@ -0,0 +1,89 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public class DbCallSitesTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private static StackTraceElement frame(String cls, String method) {
+        return new StackTraceElement(cls, method, null, -1);
+    }
+
+    @Test
+    public void callerOf() {
+        StackTraceElement[] stack = {
+            frame("com.zimbra.cs.db.DbPool", "getConnection"),
+            frame("com.zimbra.cs.mailbox.Mailbox$MailboxTransaction", "getConnection"),
+            frame("com.zimbra.cs.mailbox.Mailbox", "getOperationConnection"),
+            frame("com.zimbra.cs.db.DbMailItem", "create"),
+            frame("com.zimbra.cs.mailbox.Mailbox", "addMessageInternal"),
+            frame("com.zimbra.cs.mailbox.Mailbox", "addMessage")
+        };
+        Assert.assertEquals("Mailbox.addMessageInternal", DbCallSites.callerOf(stack));
+        Assert.assertEquals(DbCallSites.OTHER, DbCallSites.callerOf(new StackTraceElement[0]));
+    }
+
+    @Test
+    public void bounded() {
+        DbCallSites sites = new DbCallSites(2);
+        Assert.assertEquals("a", sites.get("a").name);
+        Assert.assertEquals("b", sites.get("b").name);
+        Assert.assertEquals(DbCallSites.OTHER, sites.get("c").name);
+        Assert.assertSame(sites.get("a"), sites.get("a"));
+        Assert.assertEquals(3, sites.size());
+
+        sites.get("b").active.incrementAndGet();
+        Assert.assertEquals("b", sites.top(1).get(0).name);
+    }
+
+    private static int active(DbCallSites sites) {
+        int active = 0;
+        for (DbCallSites.Site site : sites.top(Integer.MAX_VALUE)) {
+            active += site.active.get();
+        }
+        return active;
+    }
+
+    @Test
+    public void holdTime() throws Exception {
+        DbCallSites sites = DbPool.getCallSites();
+        DbPool.setTrackCallSites(true);
+        try {
+            int before = active(sites);
+            DbConnection conn = DbPool.getConnection();
+            try {
+                Assert.assertEquals(before + 1, active(sites));
+            } finally {
+                conn.close();
+            }
+            Assert.assertEquals(before, active(sites));
+        } finally {
+            DbPool.setTrackCallSites(false);
+        }
+    }
+}
@@ -205,6 +205,38 @@ public final class DbSearchTest {
         Assert.assertEquals("SUBJECT0000000104", result.get(2).getSortValue());
     }
 
+    @Test
+    public void dateKeyset() throws Exception {
+        for (int id = 101; id <= 105; id++) {
+            DbUtil.executeUpdate(conn, "INSERT INTO mboxgroup1.mail_item " +
+                    "(mailbox_id, id, type, flags, date, size, tags, mod_metadata, mod_content) " +
+                    "VALUES(?, ?, ?, 0, ?, 0, 0, 0, 0)", mbox.getId(), id, MailItem.Type.MESSAGE.toByte(),
+                    id <= 103 ? 100 : 200);
+        }
+
+        DbSearchConstraints.Leaf constraints = new DbSearchConstraints.Leaf();
+        constraints.keyset = new DbSearchConstraints.Keyset(100000, 102, true, SortBy.DATE_ASC);
+        List<DbSearch.Result> result = new DbSearch(mbox).search(conn, constraints, SortBy.DATE_ASC, 0, 100,
+                DbSearch.FetchMode.ID);
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals(103, result.get(0).getId());
+        Assert.assertEquals(104, result.get(1).getId());
+        Assert.assertEquals(105, result.get(2).getId());
+
+        constraints = new DbSearchConstraints.Leaf();
+        constraints.keyset = new DbSearchConstraints.Keyset(100000, 102, true, SortBy.DATE_DESC);
+        result = new DbSearch(mbox).search(conn, constraints, SortBy.DATE_DESC, 0, 100, DbSearch.FetchMode.ID);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(101, result.get(0).getId());
+
+        constraints = new DbSearchConstraints.Leaf();
+        constraints.keyset = new DbSearchConstraints.Keyset(200000, 105, false, SortBy.DATE_DESC);
+        Assert.assertEquals(0, new DbSearch(mbox).countResults(conn, constraints));
+        constraints = new DbSearchConstraints.Leaf();
+        constraints.keyset = new DbSearchConstraints.Keyset(100000, 102, false, SortBy.DATE_DESC);
+        Assert.assertEquals(3, new DbSearch(mbox).countResults(conn, constraints));
+    }
+
     @Test
     public void mdate() throws Exception {
         DbUtil.executeUpdate(conn, "INSERT INTO mboxgroup1.mail_item " +
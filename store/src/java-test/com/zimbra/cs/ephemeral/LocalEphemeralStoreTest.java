@@ -0,0 +1,98 @@
+package com.zimbra.cs.ephemeral;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.zimbra.cs.ephemeral.EphemeralInput.AbsoluteExpiration;
+import com.zimbra.cs.ephemeral.EphemeralStoreTest.TestLocation;
+
+public class LocalEphemeralStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void reopen() throws Exception {
+        File dir = tmp.newFolder("ephemeral");
+        LocalEphemeralStore store = new LocalEphemeralStore(dir, false);
+        EphemeralLocation target = new TestLocation("acct1");
+        EphemeralKey key = new EphemeralKey("foo");
+        store.update(new EphemeralInput(key, "bar"), target);
+        store.update(new EphemeralInput(key, "baz"), target);
+        store.update(new EphemeralInput(new EphemeralKey("foo", "1"), "dynamic"), target);
+        store.set(new EphemeralInput(new EphemeralKey("last"), "1"), target);
+        store.set(new EphemeralInput(new EphemeralKey("last"), "2"), target);
+        store.set(new EphemeralInput(key, "gone"), new TestLocation("acct2"));
+        store.flush();
+
+        // appended after the rewrite on the first flush
+        store.delete(key, "bar", target);
+        store.deleteData(new TestLocation("acct2"));
+        store.close();
+
+        store.update(new EphemeralInput(key, "qux"), target);
+        assertArrayEquals(new String[] {"baz", "qux"}, store.get(key, target).getValues());
+        assertEquals("dynamic", store.get(new EphemeralKey("foo", "1"), target).getValue());
+        assertEquals("2", store.get(new EphemeralKey("last"), target).getValue());
+        assertFalse(store.has(key, new TestLocation("acct2")));
+        store.close();
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        File dir = tmp.newFolder("ephemeral");
+        LocalEphemeralStore store = new LocalEphemeralStore(dir, true);
+        EphemeralLocation target = new TestLocation();
+        store.set(new EphemeralInput(new EphemeralKey("foo"), "bar"), target);
+        store.close();
+        File log = new File(dir, LocalEphemeralStore.LOG_FILE);
+        long length = log.length();
+        assertTrue(length > 0);
+
+        FileOutputStream out = new FileOutputStream(log, true);
+        try {
+            out.write(new byte[] {0, 0, 0, 40, 1, 2, 3});  // a crash in the middle of an append
+        } finally {
+            out.close();
+        }
+        assertEquals("bar", store.get(new EphemeralKey("foo"), target).getValue());
+        assertEquals(length, log.length());
+        store.close();
+    }
+
+    @Test
+    public void expiredValuesCompacted() throws Exception {
+        File dir = tmp.newFolder("ephemeral");
+        LocalEphemeralStore store = new LocalEphemeralStore(dir, false);
+        EphemeralLocation target = new TestLocation();
+        EphemeralKey key = new EphemeralKey("token");
+        EphemeralInput expired = new EphemeralInput(key, "old");
+        expired.setExpiration(new AbsoluteExpiration(1000L));
+        EphemeralInput live = new EphemeralInput(key, "new");
+        live.setExpiration(new AbsoluteExpiration(System.currentTimeMillis() + 3600000L));
+        store.update(expired, target);
+        store.update(live, target);
+        store.flush();  // first flush after opening rewrites the log
+
+        assertArrayEquals(new String[] {"new"}, store.get(key, target).getValues());
+        store.close();
+        assertArrayEquals(new String[] {"new"}, store.get(key, target).getValues());
+        store.close();
+    }
+
+    @Test
+    public void url() throws Exception {
+        assertEquals("/opt/zimbra/data/ephemeral", LocalEphemeralStore.getDirectory("local:/opt/zimbra/data/ephemeral"));
+        assertEquals("/opt/zimbra/data/ephemeral", LocalEphemeralStore.getDirectory("local:///opt/zimbra/data/ephemeral"));
+        new LocalEphemeralStore.Factory().test("local:" + tmp.getRoot().getAbsolutePath());
+    }
+}
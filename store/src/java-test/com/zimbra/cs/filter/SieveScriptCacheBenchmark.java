@@ -0,0 +1,156 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.parser.generated.Node;
+
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryContext;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Measures filter evaluation over the scripts and messages used by the filter tests: parsing every script per
+ * delivery against looking it up in {@link SieveScriptCache}, and evaluating the scripts with a fresh
+ * {@link ZimbraMailAdapter} each (headers extracted per script) against one adapter per message (headers extracted
+ * once).
+ * <p>
+ * Usage: {@code SieveScriptCacheBenchmark [iterations]}
+ */
+public class SieveScriptCacheBenchmark {
+
+    private static final String[] SCRIPTS = {
+        "require [\"fileinto\", \"tag\"];\n"
+            + "if header :contains \"Subject\" \"report\" { tag \"report\"; }\n"
+            + "if header :is \"X-Spam-Flag\" \"YES\" { fileinto \"Junk\"; stop; }\n",
+        "require [\"tag\"];\n"
+            + "if address :domain :is \"from\" \"cosmonaut.zimbra.com\" { tag \"internal\"; }\n"
+            + "if address :localpart :matches [\"to\", \"cc\"] \"user*\" { tag \"users\"; }\n",
+        "require [\"tag\", \"relational\", \"comparator-i;ascii-numeric\"];\n"
+            + "if header :value \"gt\" :comparator \"i;ascii-numeric\" \"X-Priority\" \"2\" { tag \"low\"; }\n"
+            + "if anyof (header :contains \"List-Id\" \"zimbra\", exists \"List-Unsubscribe\") { tag \"list\"; }\n",
+        "require [\"tag\", \"variables\"];\n"
+            + "if header :matches \"Subject\" \"*\" { set \"subject\" \"${1}\"; }\n"
+            + "if allof (address :all :contains \"from\" \"user1\", not header :contains \"Subject\" \"test\") {\n"
+            + "  tag \"${subject}\";\n"
+            + "}\n",
+        "require [\"tag\"];\n"
+            + "if header :comparator \"i;ascii-casemap\" :contains [\"Subject\", \"Comments\"] \"meeting\" { tag \"m\"; }\n"
+            + "elsif address :is \"reply-to\" \"noreply@example.com\" { discard; }\n"
+            + "else { keep; }\n"
+    };
+
+    private static final String[] MESSAGES = {
+        "TestFilter-testBodyContains.msg",
+        "TestFilter-testBackslashDotInAddress.msg",
+        "TestFilter-testQuotesInAddress.msg",
+        "TestFilter-testQuestionMarkCommaInAddress.msg"
+    };
+
+    private final int iterations;
+    private final Mailbox mbox;
+    private final List<byte[]> messages = new ArrayList<byte[]>();
+
+    public SieveScriptCacheBenchmark(int iterations) throws Exception {
+        this.iterations = iterations;
+        Account account = Provisioning.getInstance().createAccount("sievebench@zimbra.com", "secret",
+                new HashMap<String, Object>());
+        mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        for (String name : MESSAGES) {
+            messages.add(ByteUtil.getContent(getClass().getResourceAsStream(name), -1));
+        }
+    }
+
+    public void run() throws Exception {
+        SieveScriptCache cache = new SieveScriptCache(100);
+        long parse = 0, lookup = 0, perScript = 0, perMessage = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            for (String script : SCRIPTS) {
+                RuleManager.parse(script);
+            }
+            parse += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Node[] nodes = new Node[SCRIPTS.length];
+            for (int s = 0; s < SCRIPTS.length; s++) {
+                nodes[s] = cache.get(SCRIPTS[s]);
+            }
+            lookup += System.nanoTime() - start;
+
+            for (byte[] raw : messages) {
+                // both passes evaluate the same cached trees against a freshly parsed message
+                ParsedMessage pm = new ParsedMessage(raw, false);
+                start = System.nanoTime();
+                for (Node node : nodes) {
+                    evaluate(adapter(pm), node);
+                }
+                perScript += System.nanoTime() - start;
+
+                pm = new ParsedMessage(raw, false);
+                start = System.nanoTime();
+                ZimbraMailAdapter adapter = adapter(pm);
+                for (Node node : nodes) {
+                    evaluate(adapter, node);
+                }
+                perMessage += System.nanoTime() - start;
+            }
+        }
+        p("%d scripts x %d messages, %d iterations", SCRIPTS.length, messages.size(), iterations);
+        p("  parse per delivery %.3f ms, shared lookup %.3f ms", ms(parse), ms(lookup));
+        p("  evaluate: headers per script %.3f ms, headers per message %.3f ms", ms(perScript), ms(perMessage));
+    }
+
+    private ZimbraMailAdapter adapter(ParsedMessage pm) {
+        IncomingMessageHandler handler = new IncomingMessageHandler(new OperationContext(mbox),
+                new DeliveryContext(), mbox, "sievebench@zimbra.com", pm, 0, Mailbox.ID_FOLDER_INBOX, true);
+        return new ZimbraMailAdapter(mbox, handler);
+    }
+
+    private static void evaluate(ZimbraMailAdapter adapter, Node node) throws Exception {
+        SieveFactory factory = RuleManager.getSieveFactory();
+        factory.evaluate(adapter, node);
+        adapter.resetValues();
+        adapter.resetCapabilities();
+    }
+
+    private double ms(long totalNanos) {
+        return totalNanos / 1000000.0 / iterations;
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        SieveScriptCacheBenchmark benchmark = new SieveScriptCacheBenchmark(iterations);
+        benchmark.run();  // warm up
+        benchmark.run();
+    }
+}
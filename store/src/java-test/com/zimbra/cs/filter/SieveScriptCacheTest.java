@@ -0,0 +1,124 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.filter;
+
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+
+import org.apache.jsieve.parser.generated.Node;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.filter.RuleManager.AdminFilterType;
+import com.zimbra.cs.filter.RuleManager.FilterType;
+import com.zimbra.cs.mailbox.DeliveryContext;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+
+public class SieveScriptCacheTest {
+
+    private static final String SCRIPT = "require [\"fileinto\", \"tag\"];\n"
+            + "if header :contains \"Subject\" \"report\" { tag \"report\"; }\n"
+            + "if address :domain \"From\" \"example.com\" { fileinto \"Example\"; }\n";
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("sievecache1@zimbra.com", "secret", new HashMap<String, Object>());
+        prov.createAccount("sievecache2@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void sharedAcrossAccounts() throws Exception {
+        Provisioning prov = Provisioning.getInstance();
+        Account account1 = prov.getAccountByName("sievecache1@zimbra.com");
+        Account account2 = prov.getAccountByName("sievecache2@zimbra.com");
+        account1.setAdminSieveScriptBefore(SCRIPT);
+        account2.setAdminSieveScriptAfter(SCRIPT);
+        RuleManager.clearCachedRules(account1);
+        RuleManager.clearCachedRules(account2);
+
+        Node node1 = RuleManager.getRulesNode(account1,
+                RuleManager.getAdminScriptCacheKey(FilterType.INCOMING, AdminFilterType.BEFORE));
+        Node node2 = RuleManager.getRulesNode(account2,
+                RuleManager.getAdminScriptCacheKey(FilterType.INCOMING, AdminFilterType.AFTER));
+        Assert.assertSame(node1, node2);
+
+        account2.setAdminSieveScriptAfter(SCRIPT + "keep;\n");
+        RuleManager.clearCachedRules(account2);
+        Node node3 = RuleManager.getRulesNode(account2,
+                RuleManager.getAdminScriptCacheKey(FilterType.INCOMING, AdminFilterType.AFTER));
+        Assert.assertNotSame(node1, node3);
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        SieveScriptCache cache = new SieveScriptCache(2);
+        Node keep = cache.get("keep;");
+        Assert.assertSame(keep, cache.get("keep;"));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        cache.get("discard;");
+        cache.get("stop;");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotSame(keep, cache.get("keep;"));  // evicted
+    }
+
+    @Test
+    public void headerCache() throws Exception {
+        Account account = Provisioning.getInstance().getAccountByName("sievecache1@zimbra.com");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        String raw = "From: sender@example.com\n"
+                + "To: sievecache1@zimbra.com\n"
+                + "Subject: weekly report\n"
+                + "\n"
+                + "Hello World.";
+        IncomingMessageHandler handler = new IncomingMessageHandler(new OperationContext(mbox),
+                new DeliveryContext(), mbox, account.getName(), new ParsedMessage(raw.getBytes(), false),
+                0, Mailbox.ID_FOLDER_INBOX, true);
+        ZimbraMailAdapter adapter = new ZimbraMailAdapter(mbox, handler);
+
+        Assert.assertSame(adapter.getHeader("Subject"), adapter.getHeader("subject"));
+        Assert.assertEquals("weekly report", adapter.getHeader("Subject").get(0));
+        Assert.assertEquals("example.com", adapter.parseAddresses("From")[0].getDomain());
+        Assert.assertTrue(adapter.getHeader("X-Report").isEmpty());
+
+        MimeMessage mm = adapter.getMimeMessage();
+        mm.setHeader("Subject", "monthly report");
+        mm.setHeader("X-Report", "1");
+        Assert.assertEquals("weekly report", adapter.getHeader("Subject").get(0));
+        adapter.clearHeaderCache();
+        Assert.assertEquals("monthly report", adapter.getHeader("Subject").get(0));
+        Assert.assertEquals("1", adapter.getHeader("X-Report").get(0));
+        Assert.assertTrue(adapter.getHeaderNames().contains("X-Report"));
+    }
+}
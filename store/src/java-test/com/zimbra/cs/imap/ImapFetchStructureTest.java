@@ -0,0 +1,172 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+
+public class ImapFetchStructureTest {
+
+    private static final String RAW = "From: Bob Evans <bob@example.com>\r\n"
+            + "To: Jimmy Dean <jdean@example.com>, undisclosed-recipients:;\r\n"
+            + "Subject: =?utf-8?B?w6lsw6hWZQ==?=\r\n"
+            + "Message-ID: <fetch-structure@example.com>\r\n"
+            + "MIME-Version: 1.0\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"b\"\r\n"
+            + "\r\n"
+            + "--b\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "\r\n"
+            + "hello\r\n"
+            + "world\r\n"
+            + "--b\r\n"
+            + "Content-Type: application/octet-stream; name=\"a.bin\"\r\n"
+            + "Content-Disposition: attachment; filename=\"a.bin\"\r\n"
+            + "Content-Transfer-Encoding: base64\r\n"
+            + "\r\n"
+            + "AAEC\r\n"
+            + "--b--\r\n";
+
+    // a forwarded message, a part ID that has to go out as a literal, and a multipart with no parts
+    private static final String NESTED = "From: Bob Evans <bob@example.com>\r\n"
+            + "Subject: fwd\r\n"
+            + "MIME-Version: 1.0\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"o\"\r\n"
+            + "Content-Location: http://example.com/\"x\"\r\n"
+            + "\r\n"
+            + "--o\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-ID: <\u00e9\"1\"@example.com>\r\n"
+            + "Content-Language: en, fr\r\n"
+            + "\r\n"
+            + "see below\r\n"
+            + "--o\r\n"
+            + "Content-Type: message/rfc822\r\n"
+            + "Content-Disposition: inline\r\n"
+            + "\r\n"
+            + RAW
+            + "--o\r\n"
+            + "Content-Type: multipart/alternative; boundary=\"e\"\r\n"
+            + "\r\n"
+            + "--e--\r\n"
+            + "--o--\r\n";
+
+    private Mailbox mbox;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+    }
+
+    /** Checks that the stored structures are what FETCH would have built from the blob. */
+    private static void assertMatchesBlob(Message msg) throws Exception {
+        ImapFetchStructure structure = msg.getImapFetchStructure();
+        Assert.assertNotNull(structure);
+        MimeMessage mm = msg.getMimeMessage(false);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream(), actual = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(expected, true, Charsets.UTF_8.name());
+        ImapMessage.serializeEnvelope(ps, mm);
+        ps.print(' ');
+        ImapMessage.serializeStructure(ps, mm, false);
+        ps.print(' ');
+        ImapMessage.serializeStructure(ps, mm, true);
+
+        ps = new PrintStream(actual, true, Charsets.UTF_8.name());
+        structure.writeEnvelope(ps);
+        ps.print(' ');
+        structure.writeBody(ps);
+        ps.print(' ');
+        structure.writeBodyStructure(ps);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void delivered() throws Exception {
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        Message msg = mbox.addMessage(null, new ParsedMessage(RAW.getBytes(Charsets.UTF_8), false), dopt, null);
+        assertMatchesBlob(msg);
+
+        // and it survives a round trip through the metadata
+        mbox.purge(MailItem.Type.MESSAGE);
+        assertMatchesBlob(mbox.getMessageById(null, msg.getId()));
+    }
+
+    @Test
+    public void nested() throws Exception {
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        Message msg = mbox.addMessage(null, new ParsedMessage(NESTED.getBytes(Charsets.UTF_8), false), dopt, null);
+        assertMatchesBlob(msg);
+        Assert.assertFalse(msg.getImapFetchStructure().encodeMetadata().containsKey("b"));
+    }
+
+    @Test
+    public void backfill() throws Exception {
+        // a message built in memory isn't stored with structures
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("backfill"), dopt, null);
+        Assert.assertNull(msg.getImapFetchStructure());
+        int modseq = msg.getModifiedSequence();
+        int folderModseq = mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getImapMODSEQ();
+
+        Assert.assertEquals(1, ImapFetchStructure.backfill(mbox, Mailbox.ID_FOLDER_INBOX));
+        mbox.purge(MailItem.Type.MESSAGE);
+        mbox.purge(MailItem.Type.FOLDER);
+        msg = mbox.getMessageById(null, msg.getId());
+        assertMatchesBlob(msg);
+        // caching the structures isn't a change a client should resync
+        Assert.assertEquals(modseq, msg.getModifiedSequence());
+        Assert.assertEquals(folderModseq, mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getImapMODSEQ());
+        Assert.assertEquals(0, ImapFetchStructure.backfill(mbox, Mailbox.ID_FOLDER_INBOX));
+    }
+
+    @Test
+    public void tooLong() throws Exception {
+        LC.imap_fetch_structures_max_length.setDefault(64);
+        try {
+            DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+            Message msg = mbox.addMessage(null, new ParsedMessage(RAW.getBytes(Charsets.UTF_8), false), dopt, null);
+            Assert.assertNull(msg.getImapFetchStructure());
+        } finally {
+            LC.imap_fetch_structures_max_length.setDefault(8 * 1024);
+        }
+    }
+}
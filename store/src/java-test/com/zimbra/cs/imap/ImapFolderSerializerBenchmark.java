@@ -0,0 +1,110 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Compares Java serialization of cached {@link ImapFolder}s with {@link ImapFolderSerializer}.
+ * <p>
+ * Usage: {@code ImapFolderSerializerBenchmark [iterations] [folder sizes...]}
+ */
+public class ImapFolderSerializerBenchmark {
+    private final int iterations;
+
+    public ImapFolderSerializerBenchmark(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public void run(int size) throws Exception {
+        ImapFolder folder = ImapFolderSerializerTest.newFolder(size);
+
+        byte[] java = javaSerialize(folder);
+        byte[] compact = ImapFolderSerializer.serialize(folder);
+        p("%,d messages: java %,d bytes, compact %,d bytes (%.1f%%)", size, java.length, compact.length,
+                100.0 * compact.length / java.length);
+
+        long javaWrite = 0, javaRead = 0, compactWrite = 0, compactRead = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            javaSerialize(folder);
+            javaWrite += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            javaDeserialize(java);
+            javaRead += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ImapFolderSerializer.serialize(folder);
+            compactWrite += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ImapFolderSerializer.deserialize(compact);
+            compactRead += System.nanoTime() - start;
+        }
+        p("  java:    serialize %.3f ms, deserialize %.3f ms", ms(javaWrite), ms(javaRead));
+        p("  compact: serialize %.3f ms, deserialize %.3f ms", ms(compactWrite), ms(compactRead));
+    }
+
+    private double ms(long totalNanos) {
+        return totalNanos / 1000000.0 / iterations;
+    }
+
+    private static byte[] javaSerialize(ImapFolder folder) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(folder);
+        oout.close();
+        return bout.toByteArray();
+    }
+
+    private static Object javaDeserialize(byte[] data) throws Exception {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return oin.readObject();
+        } finally {
+            oin.close();
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        ImapFolderSerializerBenchmark benchmark = new ImapFolderSerializerBenchmark(iterations);
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                benchmark.run(Integer.parseInt(args[i]));
+            }
+        } else {
+            // warm up before the measured runs
+            benchmark.run(10000);
+            for (int size : new int[] { 10000, 100000, 1000000 }) {
+                benchmark.run(size);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public class ImapFolderSerializerTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    static ImapFolder newFolder(int count) {
+        ImapFlagCache tagset = new ImapFlagCache();
+        tagset.cache(new ImapFlag("work", "work", 64, 0, true, true, true));
+        ImapFolder i4folder = new ImapFolder(new ItemIdentifier("12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f", 2),
+                1234, null, EnumSet.of(MailItem.Type.MESSAGE, MailItem.Type.CONTACT), tagset,
+                new ArrayList<ImapMessage>());
+        List<ImapMessage> sequence = i4folder.getSequence();
+        int uid = 300;
+        for (int i = 1; i <= count; i++) {
+            uid += 1 + (i % 7 == 0 ? 5 : 0);
+            int flags = i % 3 == 0 ? Flag.BITMASK_UNREAD : Flag.BITMASK_FLAGGED;
+            String[] tags = i % 10 == 0 ? new String[] { "work" } : null;
+            ImapMessage i4msg = new ImapMessage(i % 50 == 0 ? uid + 100000 : uid, uid, flags,
+                    i % 2 == 0 ? ImapMessage.FLAG_RECENT : 0, tags);
+            i4msg.sequence = i;
+            sequence.add(i4msg);
+        }
+        return i4folder;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ImapFolder original = newFolder(1000);
+        byte[] data = ImapFolderSerializer.serialize(original);
+        Assert.assertTrue(ImapFolderSerializer.isEncoded(data));
+
+        ImapFolder copy = ImapFolderSerializer.deserialize(data);
+        Assert.assertEquals(original.getItemIdentifier().toString(), copy.getItemIdentifier().toString());
+        Assert.assertEquals(original.getUIDValidity(), copy.getUIDValidity());
+        Assert.assertFalse(copy.isVirtual());
+        Assert.assertEquals(original.getTypeConstraint(), copy.getTypeConstraint());
+        Assert.assertNotNull(copy.getTagset().getByImapName("work"));
+        Assert.assertEquals(original.getSize(), copy.getSize());
+        for (int seq = 1; seq <= original.getSize(); seq++) {
+            ImapMessage expected = original.getBySequence(seq, true);
+            ImapMessage actual = copy.getBySequence(seq, true);
+            Assert.assertEquals(expected.sequence, actual.sequence);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertEquals(expected.sflags, actual.sflags);
+            Assert.assertArrayEquals(expected.tags, actual.tags);
+        }
+        Assert.assertNotNull(copy.getById(original.getBySequence(50).msgId));
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws Exception {
+        ImapFolder folder = newFolder(10000);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(folder);
+        oout.close();
+        Assert.assertTrue(ImapFolderSerializer.serialize(folder).length * 4 < bout.size());
+    }
+
+    @Test
+    public void rejectsJavaSerialization() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(newFolder(10));
+        oout.close();
+        Assert.assertFalse(ImapFolderSerializer.isEncoded(bout.toByteArray()));
+    }
+}
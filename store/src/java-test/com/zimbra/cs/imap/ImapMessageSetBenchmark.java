@@ -0,0 +1,143 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
+import com.zimbra.cs.imap.ImapMessage.SequenceComparator;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Compares {@link ImapMessageSet} with the {@code TreeSet} ordered by sequence number that it replaced, on the set
+ * operations behind SEARCH, STORE and COPY over a large folder: building "1:*", intersecting and subtracting it with
+ * a scattered set (every third message, as a flag search would return), and walking the result.  Reports the time
+ * and the bytes allocated per operation.
+ * <p>
+ * Usage: {@code ImapMessageSetBenchmark [iterations] [folder size]}
+ */
+public class ImapMessageSetBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int iterations;
+    private final ImapFolder i4folder;
+    private final List<ImapMessage> sequence;
+
+    public ImapMessageSetBenchmark(int iterations, int size) {
+        this.iterations = iterations;
+        this.i4folder = ImapFolderSerializerTest.newFolder(size);
+        this.sequence = i4folder.getSequence();
+    }
+
+    /** One implementation under test. */
+    private abstract static class Sets {
+        final String name;
+        long buildTime, buildBytes, algebraTime, algebraBytes, iterateTime;
+
+        Sets(String name) {
+            this.name = name;
+        }
+
+        abstract Collection<ImapMessage> create();
+    }
+
+    public void run() {
+        Sets tree = new Sets("TreeSet") {
+            @Override
+            Collection<ImapMessage> create() {
+                return new TreeSet<ImapMessage>(new SequenceComparator());
+            }
+        };
+        Sets bitmap = new Sets("ImapMessageSet") {
+            @Override
+            Collection<ImapMessage> create() {
+                return new ImapMessageSet(i4folder);
+            }
+        };
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += run(tree) + run(bitmap);
+        }
+        p("%,d messages, %d iterations (checksum %d)", sequence.size(), iterations, checksum);
+        for (Sets sets : new Sets[] { tree, bitmap }) {
+            p("  %-14s build 1:* %.2f ms %,d KB, retain+remove %.2f ms %,d KB, iterate %.2f ms", sets.name,
+                    ms(sets.buildTime), kb(sets.buildBytes), ms(sets.algebraTime), kb(sets.algebraBytes),
+                    ms(sets.iterateTime));
+        }
+    }
+
+    private long run(Sets sets) {
+        long tid = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        Collection<ImapMessage> all = sets.create();
+        all.addAll(sequence);
+        if (all instanceof ImapMessageSet) {
+            ((ImapMessageSet) all).compact();
+        }
+        sets.buildTime += System.nanoTime() - start;
+        sets.buildBytes += THREADS.getThreadAllocatedBytes(tid) - bytes;
+
+        Collection<ImapMessage> flagged = sets.create();
+        for (int i = 0; i < sequence.size(); i += 3) {
+            flagged.add(sequence.get(i));
+        }
+        Collection<ImapMessage> range = sets.create();
+        range.addAll(sequence.subList(sequence.size() / 4, sequence.size() / 2));
+
+        bytes = THREADS.getThreadAllocatedBytes(tid);
+        start = System.nanoTime();
+        all.retainAll(flagged);
+        all.removeAll(range);
+        sets.algebraTime += System.nanoTime() - start;
+        sets.algebraBytes += THREADS.getThreadAllocatedBytes(tid) - bytes;
+
+        start = System.nanoTime();
+        long sum = 0;
+        for (ImapMessage i4msg : all) {
+            sum += i4msg.sequence;
+        }
+        sets.iterateTime += System.nanoTime() - start;
+        return sum;
+    }
+
+    private double ms(long totalNanos) {
+        return totalNanos / 1000000.0 / iterations;
+    }
+
+    private long kb(long totalBytes) {
+        return totalBytes / 1024 / iterations;
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        ImapMessageSetBenchmark benchmark = new ImapMessageSetBenchmark(iterations, size);
+        benchmark.run();  // warm up
+        benchmark.run();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
+
+public class ImapMessageSetTest {
+
+    private static ImapMessageSet subsequence(ImapFolder i4folder, String seq) throws Exception {
+        return i4folder.getSubsequence(null, seq, false);
+    }
+
+    private static void assertSequence(ImapMessageSet i4set, Integer... expected) {
+        List<Integer> actual = new ArrayList<Integer>();
+        for (ImapMessage i4msg : i4set) {
+            actual.add(i4msg == null ? null : i4msg.sequence);
+        }
+        Assert.assertEquals(Arrays.asList(expected), actual);
+    }
+
+    @Test
+    public void algebra() throws Exception {
+        ImapFolder i4folder = ImapFolderSerializerTest.newFolder(100000);
+        ImapMessageSet all = i4folder.getAllMessages();
+        Assert.assertEquals(100000, all.size());
+        Assert.assertEquals(1, all.first().sequence);
+        Assert.assertEquals(100000, all.last().sequence);
+
+        ImapMessageSet a = subsequence(i4folder, "1:10,50000:50010");
+        a.retainAll(subsequence(i4folder, "5:50005"));
+        assertSequence(a, 5, 6, 7, 8, 9, 10, 50000, 50001, 50002, 50003, 50004, 50005);
+
+        a.addAll(subsequence(i4folder, "2,99999"));
+        a.removeAll(subsequence(i4folder, "6:50001"));
+        assertSequence(a, 2, 5, 50002, 50003, 50004, 50005, 99999);
+        Assert.assertTrue(a.contains(i4folder.getBySequence(50003)));
+        Assert.assertFalse(a.contains(i4folder.getBySequence(50006)));
+
+        ImapMessageSet rest = i4folder.getAllMessages();
+        rest.removeAll(a);
+        Assert.assertEquals(100000 - 7, rest.size());
+        rest.addAll(a);
+        Assert.assertEquals(all, rest);
+
+        // a plain collection goes through the generic path
+        ImapMessageSet b = new ImapMessageSet(i4folder, Arrays.asList(i4folder.getBySequence(3),
+                i4folder.getBySequence(1)));
+        b.retainAll(Arrays.asList(i4folder.getBySequence(3)));
+        assertSequence(b, 3);
+    }
+
+    @Test
+    public void nulls() throws Exception {
+        ImapFolder i4folder = ImapFolderSerializerTest.newFolder(10);
+        ImapMessageSet i4set = new ImapMessageSet(i4folder);
+        Assert.assertTrue(i4set.isEmpty());
+        i4set.add(i4folder.getBySequence(4));
+        Assert.assertTrue(i4set.add(null));
+        Assert.assertFalse(i4set.add(null));
+        i4set.add(i4folder.getBySequence(2));
+        // like the old SequenceComparator, null sorts first
+        assertSequence(i4set, null, 2, 4);
+        Assert.assertNull(i4set.first());
+        Assert.assertEquals(4, i4set.last().sequence);
+
+        ImapMessageSet other = new ImapMessageSet(i4folder);
+        other.add(i4folder.getBySequence(4));
+        i4set.retainAll(other);
+        assertSequence(i4set, 4);
+
+        i4set.add(null);
+        Iterator<ImapMessage> it = i4set.iterator();
+        Assert.assertNull(it.next());
+        it.remove();
+        Assert.assertEquals(4, it.next().sequence);
+        it.remove();
+        Assert.assertFalse(it.hasNext());
+        Assert.assertTrue(i4set.isEmpty());
+    }
+
+    @Test
+    public void expunge() throws Exception {
+        ImapFolder i4folder = ImapFolderSerializerTest.newFolder(10);
+        ImapMessageSet i4set = subsequence(i4folder, "3:6");
+        ImapMessage gone = i4folder.getBySequence(4);
+
+        // once a message leaves the folder the others are renumbered, but the set still holds the same ones
+        List<ImapMessage> sequence = i4folder.getSequence();
+        sequence.remove(gone);
+        for (int i = 0; i < sequence.size(); i++) {
+            sequence.get(i).sequence = i + 1;
+        }
+        assertSequence(i4set, 3, 4, 5);
+        // size and contains agree with iteration, though the departed UID stays in the bitmap
+        Assert.assertEquals(3, i4set.size());
+        Assert.assertFalse(i4set.contains(gone));
+        Assert.assertEquals(4, i4set.uids().length);
+
+        // a set whose messages have all left the folder is empty
+        ImapMessageSet departed = new ImapMessageSet(i4folder);
+        departed.add(gone);
+        Assert.assertTrue(departed.isEmpty());
+        Assert.assertEquals(0, departed.size());
+        Assert.assertFalse(departed.iterator().hasNext());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public class ImapPageFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private static void assertSameMessages(ImapFolder expected, ImapFolder actual) {
+        Assert.assertEquals(expected.getSize(), actual.getSize());
+        for (int seq = 1; seq <= expected.getSize(); seq++) {
+            ImapMessage i4expected = expected.getBySequence(seq, true);
+            ImapMessage i4actual = actual.getBySequence(seq, true);
+            Assert.assertEquals(seq, i4actual.sequence);
+            Assert.assertEquals(i4expected.imapUid, i4actual.imapUid);
+            Assert.assertEquals(i4expected.msgId, i4actual.msgId);
+            Assert.assertEquals(i4expected.flags, i4actual.flags);
+            Assert.assertEquals(i4expected.sflags, i4actual.sflags);
+            Assert.assertArrayEquals(i4expected.tags, i4actual.tags);
+        }
+    }
+
+    @Test
+    public void fullPage() throws Exception {
+        ImapFolder folder = ImapFolderSerializerTest.newFolder(1000);
+        File file = new File(tmp.getRoot(), "full.i4c");
+        Assert.assertFalse(ImapPageFile.write(file, folder, null));
+
+        ImapPageFile page = ImapPageFile.load(file);
+        Assert.assertFalse(page.isDelta());
+        ImapFolder copy = page.toFolder();
+        Assert.assertEquals(folder.getUIDValidity(), copy.getUIDValidity());
+        Assert.assertNotNull(copy.getTagset().getByImapName("work"));
+        // lazily materialized messages keep their identity
+        Assert.assertSame(copy.getBySequence(500), copy.getBySequence(500));
+        Assert.assertSame(copy.getBySequence(500), copy.getByImapId(copy.getBySequence(500).imapUid));
+        assertSameMessages(folder, copy);
+    }
+
+    @Test
+    public void deltaPage() throws Exception {
+        ImapFolder folder = ImapFolderSerializerTest.newFolder(1000);
+        File baseFile = new File(tmp.getRoot(), "base.i4c");
+        ImapPageFile.write(baseFile, folder, null);
+
+        folder.getBySequence(10).flags |= Flag.BITMASK_DELETED;
+        folder.getBySequence(20).tags = new String[] { "home" };
+        ImapMessage last = folder.getBySequence(folder.getSize());
+        folder.getSequence().add(new ImapMessage(last.imapUid + 1, last.imapUid + 1, 0, (short) 0, null));
+        File deltaFile = new File(tmp.getRoot(), "delta.i4c");
+        Assert.assertTrue(ImapPageFile.write(deltaFile, folder, ImapPageFile.open(baseFile)));
+        Assert.assertTrue(deltaFile.length() < baseFile.length() / 10);
+
+        ImapPageFile page = ImapPageFile.load(deltaFile);
+        Assert.assertTrue(page.isDelta());
+        ImapFolder copy = page.toFolder();
+        assertSameMessages(folder, copy);
+
+        // too many changes for a delta
+        for (int seq = 1; seq <= folder.getSize(); seq += 2) {
+            folder.getBySequence(seq).flags ^= Flag.BITMASK_FLAGGED;
+        }
+        Assert.assertFalse(ImapPageFile.write(new File(tmp.getRoot(), "full.i4c"), folder, ImapPageFile.open(baseFile)));
+    }
+
+    @Test
+    public void deltaWithoutBase() throws Exception {
+        ImapFolder folder = ImapFolderSerializerTest.newFolder(100);
+        File baseFile = new File(tmp.getRoot(), "base.i4c");
+        ImapPageFile.write(baseFile, folder, null);
+        File deltaFile = new File(tmp.getRoot(), "delta.i4c");
+        ImapPageFile.write(deltaFile, folder, ImapPageFile.open(baseFile));
+        baseFile.delete();
+        try {
+            ImapPageFile.load(deltaFile);
+            Assert.fail("delta page loaded without its base page");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void structuralChangeAndSerialization() throws Exception {
+        ImapFolder folder = ImapFolderSerializerTest.newFolder(100);
+        File file = new File(tmp.getRoot(), "full.i4c");
+        ImapPageFile.write(file, folder, null);
+        ImapFolder copy = ImapPageFile.load(file).toFolder();
+
+        ImapMessage first = copy.getBySequence(1);
+        copy.getSequence().remove(0);
+        Assert.assertEquals(99, copy.getSize());
+        Assert.assertNotSame(first, copy.getSequence().get(0));
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(ImapPageFile.load(file).toFolder());
+        oout.close();
+        ImapFolder deserialized = (ImapFolder) new ObjectInputStream(
+                new ByteArrayInputStream(bout.toByteArray())).readObject();
+        assertSameMessages(folder, deserialized);
+    }
+}
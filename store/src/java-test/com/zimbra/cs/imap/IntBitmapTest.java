@@ -0,0 +1,150 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntBitmapTest {
+
+    /** Fills the bitmap and the reference set with a mix of sparse values, dense stretches and long runs. */
+    private static void fill(IntBitmap bitmap, TreeSet<Integer> expected, Random rnd) {
+        for (int chunk = 0; chunk < 6; chunk++) {
+            int base = rnd.nextInt(8) << 16;
+            switch (rnd.nextInt(3)) {
+            case 0:  // sparse
+                for (int i = 0; i < 500; i++) {
+                    add(bitmap, expected, base + rnd.nextInt(65536));
+                }
+                break;
+            case 1:  // dense
+                for (int i = 0; i < 30000; i++) {
+                    add(bitmap, expected, base + rnd.nextInt(65536));
+                }
+                break;
+            default:  // runs
+                for (int i = 0; i < 5; i++) {
+                    int start = base + rnd.nextInt(60000), end = start + rnd.nextInt(5000);
+                    for (int v = start; v < end; v++) {
+                        add(bitmap, expected, v);
+                    }
+                }
+            }
+        }
+        if (rnd.nextBoolean()) {
+            bitmap.optimize();
+        }
+    }
+
+    private static void add(IntBitmap bitmap, TreeSet<Integer> expected, int value) {
+        Assert.assertEquals(expected.add(value), bitmap.add(value));
+    }
+
+    private static void check(TreeSet<Integer> expected, IntBitmap bitmap) {
+        Assert.assertEquals(expected.size(), bitmap.cardinality());
+        Assert.assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        if (!expected.isEmpty()) {
+            Assert.assertEquals(expected.first().intValue(), bitmap.first());
+            Assert.assertEquals(expected.last().intValue(), bitmap.last());
+        }
+        int[] values = bitmap.toArray();
+        Iterator<Integer> it = expected.iterator();
+        for (int value : values) {
+            Assert.assertEquals(it.next().intValue(), value);
+        }
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void addRemove() {
+        Random rnd = new Random(1);
+        IntBitmap bitmap = new IntBitmap();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        fill(bitmap, expected, rnd);
+        check(expected, bitmap);
+
+        for (int i = 0; i < 20000; i++) {
+            int value = rnd.nextInt(8 << 16);
+            Assert.assertEquals(expected.contains(value), bitmap.contains(value));
+            Assert.assertEquals(expected.remove(value), bitmap.remove(value));
+            Integer ceiling = expected.ceiling(value);
+            Assert.assertEquals(ceiling == null ? -1 : ceiling.intValue(), bitmap.next(value));
+        }
+        check(expected, bitmap);
+
+        // draining every value of a run container leaves nothing behind
+        IntBitmap run = new IntBitmap();
+        for (int v = 100; v < 2100; v++) {
+            run.add(v);
+        }
+        run.optimize();
+        for (int v = 2099; v >= 100; v--) {
+            Assert.assertTrue(run.remove(v));
+        }
+        Assert.assertTrue(run.isEmpty());
+        Assert.assertEquals(-1, run.first());
+        Assert.assertEquals(-1, run.next(0));
+    }
+
+    @Test
+    public void algebra() {
+        Random rnd = new Random(2);
+        for (int round = 0; round < 20; round++) {
+            IntBitmap a = new IntBitmap(), b = new IntBitmap();
+            TreeSet<Integer> ea = new TreeSet<Integer>(), eb = new TreeSet<Integer>();
+            fill(a, ea, rnd);
+            fill(b, eb, rnd);
+
+            IntBitmap or = a.copy();
+            or.or(b);
+            TreeSet<Integer> eor = new TreeSet<Integer>(ea);
+            eor.addAll(eb);
+            check(eor, or);
+
+            IntBitmap and = a.copy();
+            and.and(b);
+            TreeSet<Integer> eand = new TreeSet<Integer>(ea);
+            eand.retainAll(eb);
+            check(eand, and);
+
+            IntBitmap andNot = a.copy();
+            andNot.andNot(b);
+            TreeSet<Integer> eandNot = new TreeSet<Integer>(ea);
+            eandNot.removeAll(eb);
+            check(eandNot, andNot);
+
+            // the operands are untouched
+            check(ea, a);
+            check(eb, b);
+        }
+    }
+
+    @Test
+    public void extremes() {
+        IntBitmap bitmap = new IntBitmap();
+        Assert.assertTrue(bitmap.add(Integer.MAX_VALUE));
+        Assert.assertTrue(bitmap.add(0));
+        Assert.assertFalse(bitmap.contains(-1));
+        Assert.assertEquals(Integer.MAX_VALUE, bitmap.last());
+        Assert.assertEquals(Integer.MAX_VALUE, bitmap.next(1));
+        Assert.assertArrayEquals(new int[] { 0, Integer.MAX_VALUE }, bitmap.toArray());
+    }
+}
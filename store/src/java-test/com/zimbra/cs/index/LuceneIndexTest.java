@@ -16,6 +16,21 @@
  */
 package com.zimbra.cs.index;
 
+import java.util.Collections;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Contact;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mime.ParsedContact;
+
 /**
  * Unit test for {@link LuceneIndex}.
  */
@@ -27,4 +42,57 @@ public final class LuceneIndexTest extends AbstractIndexStoreTest {
         // Default for LC.zimbra_class_index_store_factory.value() is USUALLY this
         return "com.zimbra.cs.index.LuceneIndex$Factory";
     }
+
+    @Test
+    public void nearRealTime() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Folder folder = mbox.getFolderById(null, Mailbox.ID_FOLDER_CONTACTS);
+        Contact contact1 = createContact(mbox, "nrt1@zimbra.com");
+        Contact contact2 = createContact(mbox, "nrt2@zimbra.com");
+        mbox.index.indexDeferredItems(); // Make sure we don't index items after the deleteIndex() below
+
+        LuceneIndex index = (LuceneIndex) mbox.index.getIndexStore();
+        index.deleteIndex();
+        LuceneIndex.setNearRealTime(true);
+        try {
+            Indexer indexer = index.openIndexer();
+            indexer.addDocument(folder, contact1, contact1.generateIndexData());
+            index.evict();
+            // opened from the live writer, so the uncommitted document is visible
+            ZimbraIndexSearcher searcher = index.openSearcher();
+            Assert.assertEquals(1, countHits(searcher));
+            searcher.close();
+            indexer.close();
+            // the cached searcher must not keep the writer open
+            awaitWriterClosed(index);
+
+            indexer = index.openIndexer();
+            indexer.addDocument(folder, contact2, contact2.generateIndexData());
+            indexer.close();
+            awaitWriterClosed(index);
+            searcher = index.openSearcher(); // reopened from the directory now that the writer is gone
+            Assert.assertEquals(2, countHits(searcher));
+            searcher.close();
+            Assert.assertFalse(index.isWriterOpen());
+        } finally {
+            LuceneIndex.setNearRealTime(false);
+        }
+    }
+
+    private static int countHits(ZimbraIndexSearcher searcher) throws Exception {
+        return searcher.search(new TermQuery(new Term(LuceneFields.L_CONTACT_DATA, "@zimbra.com")), 100).getTotalHits();
+    }
+
+    private static void awaitWriterClosed(LuceneIndex index) throws Exception {
+        // the writer is released by the merge that follows each commit
+        for (int i = 0; i < 100 && index.isWriterOpen(); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertFalse("writer still open", index.isWriterOpen());
+    }
+
+    private static Contact createContact(Mailbox mbox, String email) throws Exception {
+        return mbox.createContact(null, new ParsedContact(
+                Collections.singletonMap(ContactConstants.A_email, email)), Mailbox.ID_FOLDER_CONTACTS, null);
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.redolog.MockRedoLogProvider;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.RedoLogProvider;
+import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.redolog.op.StoreIncomingBlob;
+
+public class ZimbraLmtpBackendTest {
+
+    // no Message-ID, so that several recipients in one mailbox each get a copy rather than being deduped
+    private static final String RAW = "From: sender@example.com\r\n"
+            + "To: everyone@example.com\r\n"
+            + "Subject: fanout\r\n"
+            + "\r\n"
+            + "hello\r\n";
+
+    private static final int MIN_RECIPIENTS = 5;
+    private static final Set<String> deliveryThreads = ConcurrentHashMap.newKeySet();
+
+    private RedoLogManager originalRedoLogManager;
+    private CountingRedoLogManager redoLogManager;
+    private int accounts;
+
+    /** Counts the redo ops that store the shared incoming blob. */
+    private static final class CountingRedoLogManager extends RedoLogManager {
+        final AtomicInteger storeIncomingBlobs = new AtomicInteger();
+
+        CountingRedoLogManager() {
+            super(new File("build/test/redo/redo.log"), new File("build/test/redo"), false);
+        }
+
+        @Override
+        public void log(RedoableOp op, boolean synchronous) {
+            if (op instanceof StoreIncomingBlob) {
+                storeIncomingBlobs.incrementAndGet();
+            }
+            super.log(op, synchronous);
+        }
+    }
+
+    /** Counts how many times a status is set, since every recipient must get exactly one. */
+    private static final class Recipient extends LmtpAddress {
+        final AtomicInteger statuses = new AtomicInteger();
+
+        Recipient(String address) {
+            super("<" + address + ">", null, null);
+        }
+
+        @Override
+        public void setDeliveryStatus(LmtpReply reply) {
+            statuses.incrementAndGet();
+            super.setDeliveryStatus(reply);
+        }
+    }
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        ZimbraLmtpBackend.addCallback(new LmtpCallback() {
+            @Override
+            public void afterDelivery(Account account, Mailbox mbox, String envelopeSender, String recipientEmail,
+                    Message newMessage) {
+                deliveryThreads.add(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void forwardWithoutDelivery(Account account, Mailbox mbox, String envelopeSender,
+                    String recipientEmail, ParsedMessage pm) {
+            }
+        });
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        LC.zimbra_lmtp_parallel_delivery_min_recipients.setDefault(MIN_RECIPIENTS);
+        deliveryThreads.clear();
+        originalRedoLogManager = RedoLogProvider.getInstance().getRedoLogManager();
+        redoLogManager = new CountingRedoLogManager();
+        ((MockRedoLogProvider) RedoLogProvider.getInstance()).setRedoLogManager(redoLogManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LC.zimbra_lmtp_parallel_delivery_min_recipients.setDefault(20);
+        ((MockRedoLogProvider) RedoLogProvider.getInstance()).setRedoLogManager(originalRedoLogManager);
+    }
+
+    private Account createAccount(Map<String, Object> attrs) throws Exception {
+        attrs.put(Provisioning.A_zimbraId, UUID.randomUUID().toString());
+        return Provisioning.getInstance().createAccount("lmtp" + (accounts++) + "@example.com", "secret", attrs);
+    }
+
+    private List<Recipient> createRecipients(int count) throws Exception {
+        List<Recipient> recipients = new ArrayList<Recipient>(count);
+        for (int i = 0; i < count; i++) {
+            recipients.add(new Recipient(createAccount(new HashMap<String, Object>()).getName()));
+        }
+        return recipients;
+    }
+
+    private void deliver(List<Recipient> recipients) throws Exception {
+        LmtpEnvelope env = new LmtpEnvelope();
+        env.setSender(new LmtpAddress("<sender@example.com>", null, null));
+        for (Recipient recipient : recipients) {
+            env.addLocalRecipient(recipient);
+        }
+        byte[] raw = RAW.getBytes(Charsets.UTF_8);
+        new ZimbraLmtpBackend(LmtpConfig.getInstance()).deliver(env, new ByteArrayInputStream(raw), raw.length);
+    }
+
+    private static List<Integer> getInboxMessages(String address) throws Exception {
+        Account account = Provisioning.getInstance().getAccountByName(address);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        List<Integer> ids = mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE);
+        return ids == null ? new ArrayList<Integer>() : ids;
+    }
+
+    private static void assertDelivered(Recipient recipient) throws Exception {
+        Assert.assertEquals(recipient.getEmailAddress(), 1, recipient.statuses.get());
+        Assert.assertEquals(recipient.getEmailAddress(), LmtpReply.DELIVERY_OK, recipient.getDeliveryStatus());
+    }
+
+    @Test
+    public void parallel() throws Exception {
+        List<Recipient> recipients = createRecipients(MIN_RECIPIENTS * 2);
+        deliver(recipients);
+
+        for (Recipient recipient : recipients) {
+            assertDelivered(recipient);
+            Assert.assertEquals(recipient.getEmailAddress(), 1, getInboxMessages(recipient.getEmailAddress()).size());
+        }
+        // the delivery threads took part, and only the first delivery stored the blob
+        boolean parallel = false;
+        for (String thread : deliveryThreads) {
+            parallel |= thread.startsWith("LmtpDelivery-");
+        }
+        Assert.assertTrue(deliveryThreads.toString(), parallel);
+        Assert.assertEquals(1, redoLogManager.storeIncomingBlobs.get());
+    }
+
+    @Test
+    public void serialBelowThreshold() throws Exception {
+        List<Recipient> recipients = createRecipients(MIN_RECIPIENTS - 1);
+        deliver(recipients);
+
+        for (Recipient recipient : recipients) {
+            assertDelivered(recipient);
+        }
+        for (String thread : deliveryThreads) {
+            Assert.assertFalse(thread, thread.startsWith("LmtpDelivery-"));
+        }
+        Assert.assertEquals(1, redoLogManager.storeIncomingBlobs.get());
+    }
+
+    @Test
+    public void sameMailbox() throws Exception {
+        Account account = createAccount(new HashMap<String, Object>());
+        List<Recipient> recipients = createRecipients(MIN_RECIPIENTS);
+        List<Recipient> aliases = new ArrayList<Recipient>();
+        for (int i = 0; i < 3; i++) {
+            String alias = "alias" + i + "-" + account.getName();
+            Provisioning.getInstance().addAlias(account, alias);
+            Recipient recipient = new Recipient(alias);
+            recipient.setSkipFilters(true);
+            recipient.setFolder("lane" + i);
+            aliases.add(recipient);
+            // spread out among the other recipients
+            recipients.add(i * 2 + 1, recipient);
+        }
+        deliver(recipients);
+
+        for (Recipient recipient : recipients) {
+            assertDelivered(recipient);
+        }
+        // all of them went to the one mailbox, in envelope order
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        int last = 0;
+        for (int i = 0; i < aliases.size(); i++) {
+            List<Integer> ids = mbox.getItemIds(null, mbox.getFolderByPath(null, "lane" + i).getId())
+                    .getIds(MailItem.Type.MESSAGE);
+            Assert.assertEquals(1, ids.size());
+            Assert.assertTrue(ids.get(0) > last);
+            last = ids.get(0);
+        }
+        Assert.assertEquals(1, redoLogManager.storeIncomingBlobs.get());
+    }
+
+    @Test
+    public void oneFails() throws Exception {
+        List<Recipient> recipients = createRecipients(MIN_RECIPIENTS * 2);
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "1");
+        Recipient overQuota = new Recipient(createAccount(attrs).getName());
+        recipients.add(MIN_RECIPIENTS, overQuota);
+        deliver(recipients);
+
+        Assert.assertEquals(1, overQuota.statuses.get());
+        Assert.assertEquals(LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA, overQuota.getDeliveryStatus());
+        Assert.assertTrue(getInboxMessages(overQuota.getEmailAddress()).isEmpty());
+        for (Recipient recipient : recipients) {
+            if (recipient != overQuota) {
+                assertDelivered(recipient);
+                Assert.assertEquals(1, getInboxMessages(recipient.getEmailAddress()).size());
+            }
+        }
+        Assert.assertEquals(1, redoLogManager.storeIncomingBlobs.get());
+    }
+}
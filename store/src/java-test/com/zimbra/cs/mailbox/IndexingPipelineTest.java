@@ -0,0 +1,118 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.index.SortBy;
+import com.zimbra.cs.index.ZimbraQueryResults;
+
+public class IndexingPipelineTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        for (int i = 1; i <= 3; i++) {
+            prov.createAccount("pipeline" + i + "@zimbra.com", "secret", new HashMap<String, Object>());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static MailboxIndex index(int i) throws Exception {
+        Account account = Provisioning.getInstance().getAccountByName("pipeline" + i + "@zimbra.com");
+        return MailboxManager.getInstance().getMailboxByAccount(account).index;
+    }
+
+    @Test
+    public void queue() throws Exception {
+        IndexingPipeline pipeline = new IndexingPipeline(2, 0, 0); // no threads, so units stay queued
+        Assert.assertTrue(pipeline.submit(index(1), IndexingPipeline.PRIORITY_BATCH));
+        Assert.assertTrue(pipeline.submit(index(2), IndexingPipeline.PRIORITY_BATCH));
+        Assert.assertTrue(pipeline.submit(index(1), IndexingPipeline.PRIORITY_BATCH)); // already queued
+        Assert.assertEquals(2, pipeline.size());
+
+        Assert.assertFalse(pipeline.submit(index(3), IndexingPipeline.PRIORITY_SEARCH)); // full
+        Assert.assertTrue(pipeline.submit(index(2), IndexingPipeline.PRIORITY_SEARCH)); // moves up
+        Assert.assertEquals(2, pipeline.size());
+
+        Assert.assertSame(index(2), pipeline.take().index);
+        Assert.assertTrue(pipeline.submit(index(2), IndexingPipeline.PRIORITY_BATCH)); // taken, so queued again
+        Assert.assertSame(index(1), pipeline.take().index);
+        Assert.assertSame(index(2), pipeline.take().index);
+        Assert.assertEquals(0, pipeline.size());
+    }
+
+    @Test
+    public void parseAndWrite() throws Exception {
+        MailboxIndex index = index(1);
+        Mailbox mbox = index.getMailbox();
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        for (int i = 0; i < 5; i++) {
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("pipeline subject " + i), dopt, null);
+        }
+        Assert.assertEquals(5, index.getDeferredIds(EnumSet.noneOf(MailItem.Type.class)).size());
+
+        IndexingPipeline pipeline = new IndexingPipeline(2, 1, 1);
+        Assert.assertTrue(pipeline.submit(index, IndexingPipeline.PRIORITY_BATCH));
+        awaitBatch(index);
+
+        ZimbraQueryResults results = index.search(new OperationContext(mbox), "subject:pipeline",
+                EnumSet.of(MailItem.Type.MESSAGE), SortBy.NONE, 100);
+        int hits = 0;
+        while (results.hasNext()) {
+            results.getNext();
+            hits++;
+        }
+        results.close();
+        Assert.assertEquals(5, hits);
+
+        // indexLock must have been released, otherwise the next batch would be skipped
+        mbox.addMessage(null, MailboxTestUtil.generateMessage("pipeline again"), dopt, null);
+        Assert.assertTrue(pipeline.submit(index, IndexingPipeline.PRIORITY_BATCH));
+        awaitBatch(index);
+    }
+
+    /**
+     * Waits until the pipeline has committed every deferred item, then until the batch has released indexLock. The
+     * parser thread took the lock, and the last chunk release, which frees it, may run on the writer thread.
+     */
+    private static void awaitBatch(MailboxIndex index) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!index.getDeferredIds(EnumSet.noneOf(MailItem.Type.class)).isEmpty()) {
+            Assert.assertTrue("deferred items not indexed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        while (!index.tryBeginBatch()) {
+            Assert.assertTrue("indexLock not released", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        index.endBatch();
+    }
+}
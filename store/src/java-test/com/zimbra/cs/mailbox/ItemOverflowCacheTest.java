@@ -0,0 +1,117 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mime.ParsedContact;
+
+public class ItemOverflowCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    @Test
+    public void putTake() {
+        ItemOverflowCache cache = new ItemOverflowCache(64 * 1024, 1);
+        long key = ItemOverflowCache.key(7, 42);
+        Assert.assertTrue(cache.put(key, 1, payload(100, 1)));
+        Assert.assertTrue(cache.weight(7) > 100);
+
+        Assert.assertNull(cache.take(key, 2));  // another generation, and dropped
+        Assert.assertNull(cache.take(key, 1));
+        Assert.assertEquals(0, cache.weight(7));
+
+        cache.put(key, 1, payload(100, 1));
+        cache.put(key, 1, payload(50, 2));
+        Assert.assertArrayEquals(payload(50, 2), cache.take(key, 1));
+        Assert.assertNull(cache.take(key, 1));
+
+        cache.put(key, 1, payload(100, 1));
+        cache.remove(key);
+        Assert.assertNull(cache.take(key, 1));
+        Assert.assertEquals(0, cache.weight(7));
+    }
+
+    @Test
+    public void wrap() {
+        ItemOverflowCache cache = new ItemOverflowCache(64 * 1024, 1);
+        for (int id = 1; id <= 10000; id++) {
+            Assert.assertTrue(cache.put(ItemOverflowCache.key(1, id), 1, payload(100 + id % 37, id)));
+        }
+        // the oldest entries were overwritten, the newest are intact
+        Assert.assertNull(cache.take(ItemOverflowCache.key(1, 1), 1));
+        for (int id = 10000; id > 9900; id--) {
+            Assert.assertArrayEquals(payload(100 + id % 37, id), cache.take(ItemOverflowCache.key(1, id), 1));
+        }
+        Assert.assertTrue(cache.weight(1) <= 64 * 1024);
+        Assert.assertTrue(cache.weight(1) > 32 * 1024);
+        Assert.assertFalse(cache.put(ItemOverflowCache.key(1, 1), 1, payload(32 * 1024, 0)));  // too large
+    }
+
+    @Test
+    public void mailItem() throws Exception {
+        MailboxTestUtil.clearData();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Folder folder = mbox.createFolder(null, "overflow", new Folder.FolderOptions());
+
+        ItemOverflowCache cache = new ItemOverflowCache(64 * 1024, 4);
+        Assert.assertTrue(cache.put(mbox.getId(), 3, folder, 17));
+        ItemOverflowCache.Spilled spilled = cache.take(mbox, 3, folder.getId());
+        Assert.assertEquals(17, spilled.spilledAt);
+        Assert.assertNotSame(folder, spilled.item);
+        Assert.assertEquals(folder.getId(), spilled.item.getId());
+        Assert.assertEquals(folder.getName(), spilled.item.getName());
+        Assert.assertEquals(folder.getUuid(), spilled.item.getUuid());
+        Assert.assertEquals(folder.getModifiedSequence(), spilled.item.getModifiedSequence());
+    }
+
+    @Test
+    public void evictedDuringTransaction() throws Exception {
+        MailboxTestUtil.clearData();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        int[] ids = new int[LC.zimbra_mailbox_active_cache.intValue() + 100];
+        for (int i = 0; i < ids.length; i++) {
+            Map<String, Object> fields = new HashMap<String, Object>();
+            fields.put(ContactConstants.A_firstName, "First" + i);
+            ids[i] = mbox.createContact(null, new ParsedContact(fields), Mailbox.ID_FOLDER_CONTACTS, null).getId();
+        }
+
+        // loads more items than the cache holds, so some are spilled before they're flagged
+        mbox.alterTag(null, ids, MailItem.Type.CONTACT, Flag.FlagInfo.FLAGGED, true, null);
+        for (int id : ids) {
+            Assert.assertTrue("contact " + id, mbox.getContactById(null, id).isFlagged());
+        }
+    }
+}
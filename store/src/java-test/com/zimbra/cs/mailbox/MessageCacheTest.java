@@ -0,0 +1,205 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link MessageCache}.
+ */
+public final class MessageCacheTest {
+
+    private static final String UUENCODED = "From: Bob Evans <bob@example.com>\r\n" +
+            "To: Jimmy Dean <jdean@example.com>\r\n" +
+            "Subject: uuencoded\r\n" +
+            "\r\n" +
+            "see attached\r\n" +
+            "\r\n" +
+            "begin 644 hello.txt\r\n" +
+            ",:&5L;&\\@=V]R;&0*\r\n" +
+            "`\r\n" +
+            "end\r\n";
+
+    private int originalCacheSize;
+    private String originalMaxDataSize;
+    private Mailbox mbox;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        originalCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
+        originalMaxDataSize = LC.zimbra_message_cache_max_data_size.value();
+        MessageCache.clear();
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LC.zimbra_message_cache_max_data_size.setDefault(originalMaxDataSize);
+        resize(originalCacheSize);
+        MessageCache.clear();
+    }
+
+    private static void resize(int size) throws Exception {
+        Provisioning.getInstance().getLocalServer().setMessageCacheSize(size);
+        MessageCache.loadSettings();
+    }
+
+    private Message add(String subject) throws Exception {
+        return mbox.addMessage(null, MailboxTestUtil.generateMessage(subject), MailboxTest.STANDARD_DELIVERY_OPTIONS,
+                null);
+    }
+
+    private Message addUuencoded() throws Exception {
+        return mbox.addMessage(null, new ParsedMessage(UUENCODED.getBytes("US-ASCII"), false),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+    }
+
+    @Test
+    public void hitAndMiss() throws Exception {
+        LC.zimbra_message_cache_max_data_size.setDefault(0);
+        resize(10);
+        Message msg = add("hit and miss");
+        Assert.assertFalse(MessageCache.contains(msg.getDigest()));
+
+        MimeMessage mm = MessageCache.getMimeMessage(msg, false); // miss
+        Assert.assertTrue(MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals(1, MessageCache.getSize());
+        Assert.assertEquals(msg.getSize(), MessageCache.getDataSize());
+        Assert.assertSame(mm, MessageCache.getMimeMessage(msg, false)); // hit
+        Assert.assertEquals(msg.getSize(), MessageCache.getDataSize());
+
+        MessageCache.purge(msg.getDigest());
+        Assert.assertFalse(MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals(0, MessageCache.getDataSize());
+        Assert.assertNotSame(mm, MessageCache.getMimeMessage(msg, false)); // miss again
+        MessageCache.purge(msg);
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void evict() throws Exception {
+        LC.zimbra_message_cache_max_data_size.setDefault(0); // one entry weighs one
+        resize(2);
+        Message msg1 = add("evict 1");
+        Message msg2 = add("evict 2");
+        Message msg3 = add("evict 3");
+
+        MessageCache.getMimeMessage(msg1, false);
+        MessageCache.getMimeMessage(msg2, false);
+        MessageCache.getMimeMessage(msg1, false); // msg2 is now the least recently used
+        MessageCache.getMimeMessage(msg3, false);
+        Assert.assertEquals(2, MessageCache.getSize());
+        Assert.assertTrue(MessageCache.contains(msg1.getDigest()));
+        Assert.assertFalse(MessageCache.contains(msg2.getDigest()));
+        Assert.assertTrue(MessageCache.contains(msg3.getDigest()));
+        Assert.assertEquals(msg1.getSize() + msg3.getSize(), MessageCache.getDataSize());
+
+        MessageCache.purge(msg1);
+        MessageCache.purge(msg3);
+        Assert.assertEquals(0, MessageCache.getSize());
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void expand() throws Exception {
+        Message msg = addUuencoded();
+        long size = msg.getSize();
+        // unexpanded weighs 1 + 2, expanded 1 + 3, both within the cache size
+        LC.zimbra_message_cache_max_data_size.setDefault(4 * size);
+        resize(4);
+
+        MimeMessage mm = MessageCache.getMimeMessage(msg, false);
+        Assert.assertEquals(size, MessageCache.getDataSize());
+        MimeMessage expanded = MessageCache.getMimeMessage(msg, true); // put back with its new weight
+        Assert.assertNotSame(mm, expanded);
+        Assert.assertTrue(MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals(2 * size, MessageCache.getDataSize());
+        Assert.assertSame(expanded, MessageCache.getMimeMessage(msg, true));
+
+        MessageCache.purge(msg);
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void expandBeyondCacheSize() throws Exception {
+        Message msg = addUuencoded();
+        long size = msg.getSize();
+        // unexpanded weighs 1 + 1, expanded 1 + 2, which alone exceeds the cache size
+        LC.zimbra_message_cache_max_data_size.setDefault(2 * size);
+        resize(2);
+
+        MessageCache.getMimeMessage(msg, false);
+        Assert.assertEquals(size, MessageCache.getDataSize());
+        MessageCache.getMimeMessage(msg, true); // replaced, then evicted for its new weight
+        Assert.assertFalse(MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void loadSettings() throws Exception {
+        LC.zimbra_message_cache_max_data_size.setDefault(0);
+        resize(3);
+        Message[] msgs = new Message[] { add("resize 1"), add("resize 2"), add("resize 3") };
+        long total = 0;
+        for (Message msg : msgs) {
+            MessageCache.getMimeMessage(msg, false);
+            total += msg.getSize();
+        }
+        Assert.assertEquals(3, MessageCache.getSize());
+        Assert.assertEquals(total, MessageCache.getDataSize());
+
+        resize(5); // entries carry over
+        Assert.assertEquals(3, MessageCache.getSize());
+        Assert.assertEquals(total, MessageCache.getDataSize());
+
+        resize(1); // all but one are evicted
+        Assert.assertEquals(1, MessageCache.getSize());
+        long remaining = 0;
+        for (Message msg : msgs) {
+            if (MessageCache.contains(msg.getDigest())) {
+                remaining += msg.getSize();
+            }
+        }
+        Assert.assertEquals(remaining, MessageCache.getDataSize());
+
+        for (Message msg : msgs) {
+            MessageCache.purge(msg);
+        }
+        Assert.assertEquals(0, MessageCache.getSize());
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+}
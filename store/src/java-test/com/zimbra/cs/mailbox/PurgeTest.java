@@ -40,6 +40,7 @@ import com.zimbra.cs.account.Config;
 import com.zimbra.cs.account.Cos;
 import com.zimbra.cs.account.MockProvisioning;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.db.DbMailbox;
 import com.zimbra.cs.mailbox.MailServiceException.NoSuchItemException;
 import com.zimbra.qa.unittest.TestUtil;
 import com.zimbra.soap.mail.type.Policy;
@@ -847,4 +848,21 @@ public class PurgeTest {
         mbox.purgeMessages(null);
         assertTrue("kept was purged", messageExists(kept.getId()));
     }
+
+    /**
+     * Confirms that the purge thread purges the mailboxes that were purged longest ago first, and that bigger
+     * mailboxes go first among mailboxes that were purged at about the same time.
+     */
+    @Test
+    public void prioritize() {
+        long now = System.currentTimeMillis();
+        Map<Integer, DbMailbox.PurgeStatus> status = new HashMap<Integer, DbMailbox.PurgeStatus>();
+        status.put(1, new DbMailbox.PurgeStatus(1, now - Constants.MILLIS_PER_HOUR, 100));
+        status.put(2, new DbMailbox.PurgeStatus(2, now - Constants.MILLIS_PER_DAY, 100));
+        status.put(3, new DbMailbox.PurgeStatus(3, now - Constants.MILLIS_PER_DAY, 100000));
+        status.put(4, new DbMailbox.PurgeStatus(4, 0, 10));
+
+        assertEquals(Arrays.asList(4, 3, 2, 1), PurgeThread.prioritize(Arrays.asList(1, 2, 3, 4), status, now));
+        assertEquals(Arrays.asList(5, 3, 1), PurgeThread.prioritize(Arrays.asList(1, 3, 5), status, now));
+    }
 }
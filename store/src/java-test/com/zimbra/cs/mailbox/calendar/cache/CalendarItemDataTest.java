@@ -0,0 +1,57 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailItem;
+
+public class CalendarItemDataTest {
+
+    private static CalendarItemData item(long start, long end, long... instStarts) {
+        CalendarItemData data = new CalendarItemData(MailItem.Type.APPOINTMENT, 10, 257, "", new String[0], "", 1, 1,
+                0L, 0L, 0L, "uid", true, false, true, null, null);
+        for (long instStart : instStarts) {
+            data.addInstance(new InstanceData("R" + instStart, instStart, 10L, null, null, null, null, null));
+        }
+        data.setActualRange(start, end);
+        return data;
+    }
+
+    @Test
+    public void merge() {
+        CalendarItemData cur = item(100, 210, 100, 200);
+        CalendarItemData before = item(50, 110, 50, 100);  // the instance at 100 straddles the boundary
+        CalendarItemData after = item(200, 310, 200, 300);
+
+        CalendarItemData merged = CalendarItemData.merge(cur, Arrays.asList(before, cur, after));
+        Assert.assertEquals(4, merged.getNumInstances());
+        Iterator<InstanceData> iter = merged.instanceIterator();
+        for (long expected : new long[] {50, 100, 200, 300}) {
+            Assert.assertEquals(expected, iter.next().getDtStart().longValue());
+        }
+        Assert.assertEquals(50, merged.getActualRangeStart());
+        Assert.assertEquals(310, merged.getActualRangeEnd());
+        Assert.assertEquals(cur.getModMetadata(), merged.getModMetadata());
+
+        Assert.assertSame(cur, CalendarItemData.merge(cur, Arrays.asList(cur)));
+    }
+}
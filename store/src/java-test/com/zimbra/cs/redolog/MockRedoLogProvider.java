@@ -53,4 +53,9 @@ public class MockRedoLogProvider extends RedoLogProvider {
     public void initRedoLogManager() {
     }
 
+    /** Replaces the manager new redo ops log to, e.g. with one that records them. */
+    public void setRedoLogManager(RedoLogManager redoLogManager) {
+        mRedoLogManager = redoLogManager;
+    }
+
 }
@@ -0,0 +1,80 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog;
+
+import java.util.List;
+
+/**
+ * Measures crash recovery replay of a synthetic set of uncommitted redo ops with different numbers of
+ * {@link RedoPlayer} worker threads.  Each op blocks for a fixed time in place of the I/O of a real redo, and every
+ * {@code barrierInterval}th op spans all mailboxes.
+ * <p>
+ * Usage: {@code RedoPlayerBenchmark [ops] [mailboxes] [redo micros] [barrier interval] [threads...]}
+ */
+public class RedoPlayerBenchmark {
+    private final int numOps;
+    private final int mailboxes;
+    private final long workNanos;
+    private final int barrierInterval;
+
+    public RedoPlayerBenchmark(int numOps, int mailboxes, long workMicros, int barrierInterval) {
+        this.numOps = numOps;
+        this.mailboxes = mailboxes;
+        this.workNanos = workMicros * 1000;
+        this.barrierInterval = barrierInterval;
+    }
+
+    public long run(int numThreads) throws Exception {
+        List<RedoPlayerTest.SyntheticOp> ops = RedoPlayerTest.newOps(numOps, mailboxes, barrierInterval, workNanos);
+        RedoPlayerTest.SyntheticRedoPlayer player = new RedoPlayerTest.SyntheticRedoPlayer(ops);
+        long start = System.nanoTime();
+        player.run(numThreads);
+        return System.nanoTime() - start;
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numOps = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int mailboxes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        long workMicros = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        int barrierInterval = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int[] threads = new int[] { 1, 2, 4, 8, 16 };
+        if (args.length > 4) {
+            threads = new int[args.length - 4];
+            for (int i = 4; i < args.length; i++) {
+                threads[i - 4] = Integer.parseInt(args[i]);
+            }
+        }
+
+        RedoPlayerBenchmark benchmark = new RedoPlayerBenchmark(numOps, mailboxes, workMicros, barrierInterval);
+        benchmark.run(4);  // warm up
+        p("%,d ops over %,d mailboxes, %d us per redo, barrier every %,d ops", numOps, mailboxes, workMicros,
+                barrierInterval);
+        long baseline = 0;
+        for (int numThreads : threads) {
+            long elapsed = benchmark.run(numThreads);
+            if (baseline == 0) {
+                baseline = elapsed;
+            }
+            p("  %2d threads: %,8.1f ms, %,10.0f ops/s, %.2fx", numThreads, elapsed / 1000000.0,
+                    numOps * 1000000000.0 / elapsed, (double) baseline / elapsed);
+        }
+    }
+}
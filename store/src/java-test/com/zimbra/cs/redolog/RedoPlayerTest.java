@@ -0,0 +1,154 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+public class RedoPlayerTest {
+
+    /**
+     * Uncommitted op whose redo records the order in which it ran.
+     */
+    static class SyntheticOp extends RedoableOp {
+        final int index;
+        final long workNanos;
+        int completedAt = -1;
+        int pendingBefore;  // for barriers: ops before this one that had not finished when it ran
+
+        SyntheticOp(int index, int mboxId, long workNanos) {
+            super(MailboxOperation.Preview, null);
+            this.index = index;
+            this.workNanos = workNanos;
+            setMailboxId(mboxId);
+        }
+
+        @Override
+        public void redo() throws Exception {
+            if (workNanos > 0) {
+                // stands in for the database and blob store I/O of a real redo
+                LockSupport.parkNanos(workNanos);
+            }
+        }
+
+        @Override
+        protected String getPrintableData() {
+            return "index=" + index;
+        }
+
+        @Override
+        protected void serializeData(RedoLogOutput out) throws IOException {
+        }
+
+        @Override
+        protected void deserializeData(RedoLogInput in) throws IOException {
+        }
+    }
+
+    /**
+     * Redoes ops without writing COMMIT/ABORT records, and numbers them in order of completion.
+     */
+    static class SyntheticRedoPlayer extends RedoPlayer {
+        final AtomicInteger completed = new AtomicInteger();
+        final List<SyntheticOp> ops;
+
+        SyntheticRedoPlayer(List<SyntheticOp> ops) {
+            super(false);
+            this.ops = ops;
+        }
+
+        @Override
+        protected void recoverOp(RedoableOp op, RedoLogManager redoLogMgr) {
+            SyntheticOp sop = (SyntheticOp) op;
+            if (op.getMailboxId() == RedoableOp.MAILBOX_ID_ALL) {
+                for (int i = 0; i < sop.index; i++) {
+                    if (ops.get(i).completedAt < 0) {
+                        sop.pendingBefore++;
+                    }
+                }
+            }
+            try {
+                op.redo();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            sop.completedAt = completed.getAndIncrement();
+        }
+
+        void run(int numThreads) throws Exception {
+            redoInParallel(new ArrayList<RedoableOp>(ops), null, numThreads);
+        }
+    }
+
+    static List<SyntheticOp> newOps(int count, int mailboxes, int barrierInterval, long workNanos) {
+        List<SyntheticOp> ops = new ArrayList<SyntheticOp>(count);
+        for (int i = 0; i < count; i++) {
+            boolean barrier = barrierInterval > 0 && i % barrierInterval == barrierInterval - 1;
+            ops.add(new SyntheticOp(i, barrier ? RedoableOp.MAILBOX_ID_ALL : 1 + i % mailboxes, workNanos));
+        }
+        return ops;
+    }
+
+    @Test
+    public void mailboxOrderPreserved() throws Exception {
+        List<SyntheticOp> ops = newOps(5000, 37, 0, 0);
+        new SyntheticRedoPlayer(ops).run(8);
+
+        int[] lastCompleted = new int[38];
+        Arrays.fill(lastCompleted, -1);
+        for (SyntheticOp op : ops) {
+            Assert.assertTrue("op " + op.index + " not redone", op.completedAt >= 0);
+            Assert.assertTrue("op " + op.index + " redone out of order",
+                    op.completedAt > lastCompleted[op.getMailboxId()]);
+            lastCompleted[op.getMailboxId()] = op.completedAt;
+        }
+    }
+
+    @Test
+    public void barrier() throws Exception {
+        List<SyntheticOp> ops = newOps(2000, 10, 250, 10000);
+        new SyntheticRedoPlayer(ops).run(4);
+
+        for (SyntheticOp op : ops) {
+            if (op.getMailboxId() == RedoableOp.MAILBOX_ID_ALL) {
+                Assert.assertEquals("ops pending before barrier " + op.index, 0, op.pendingBefore);
+                for (SyntheticOp later : ops.subList(op.index + 1, ops.size())) {
+                    Assert.assertTrue(later.completedAt > op.completedAt);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singleThread() throws Exception {
+        List<SyntheticOp> ops = newOps(100, 3, 10, 0);
+        new SyntheticRedoPlayer(ops).run(1);
+        for (SyntheticOp op : ops) {
+            Assert.assertEquals(op.index, op.completedAt);
+        }
+    }
+}
@@ -13,7 +13,14 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class  FileLogWriterTest {
     @Rule public TemporaryFolder folder = new TemporaryFolder();
@@ -71,4 +78,125 @@ public class  FileLogWriterTest {
     public void logBeforeOpen() throws Exception {
         logWriter.log(null, null, false);
     }
+
+    @Test
+    public void concurrentSynchronousLog() throws Exception {
+        logWriter.open();
+        final RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                                  .withConstructor(MailboxOperation.Preview)
+                                  .createMock();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()),
+                                          i % 2 == 0 /* synchronous */);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertEquals("file size incorrect.",
+                            FileHeader.HEADER_LEN + 8 * 200 * 10, logWriter.getSize());
+        logWriter.close();
+        Assert.assertEquals(FileHeader.HEADER_LEN + 8 * 200 * 10, new File(folder.getRoot(), "logfile").length());
+    }
+
+    @Test
+    public void logLargeRecord() throws Exception {
+        logWriter.open();
+        RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                            .withConstructor(MailboxOperation.Preview)
+                            .createMock();
+        byte[] data = new byte[200 * 1024 + 17];
+        logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), false);
+        logWriter.log(op, new ByteArrayInputStream(data), true);
+        logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), true);
+        Assert.assertEquals("file size incorrect.",
+                            FileHeader.HEADER_LEN + 20 + data.length, logWriter.getSize());
+        logWriter.close();
+    }
+
+    @Test
+    public void failedBatch() throws Exception {
+        logWriter.open();
+        final RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                                  .withConstructor(MailboxOperation.Preview)
+                                  .createMock();
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        ReentrantLock commitLock = logWriter.mCommitLock;
+        commitLock.lock();  // hold off the committers until the queue is set up
+        try {
+            // the first record fails while its tail is streamed, failing the batch it is in
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        logWriter.log(op, new FailingInputStream(64 * 1024), true);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            // fill that batch up to its limit of 256 records
+            for (int t = 0; t < 255; t++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), true);
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+                while (!commitLock.hasQueuedThread(thread)) {  // queued its record, waiting to commit
+                    Thread.sleep(1);
+                }
+            }
+            // our record is in the next batch, so the failure of the one we commit first is not ours
+            logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), true);
+        } finally {
+            commitLock.unlock();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(256, failures.get());
+        logWriter.close();
+    }
+
+    private static final class FailingInputStream extends InputStream {
+        private int remaining;
+
+        FailingInputStream(int length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                throw new IOException("read failed");
+            }
+            remaining--;
+            return 'x';
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.formatter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+public class ParallelGzipOutputStreamTest {
+    private static final ExecutorService pool = Executors.newFixedThreadPool(3);
+
+    @AfterClass
+    public static void destroy() {
+        pool.shutdown();
+    }
+
+    private static byte[] gunzip(byte[] gz) throws Exception {
+        return ByteUtil.getContent(new GZIPInputStream(new ByteArrayInputStream(gz)), -1);
+    }
+
+    /** Hands out one byte per read and never reports anything available, like a slow request body. */
+    private static final class TrickleInputStream extends FilterInputStream {
+        TrickleInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void blocks() throws Exception {
+        byte[] data = new byte[100000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(baos, pool, 4096, 2, Deflater.DEFAULT_COMPRESSION);
+        gzip.write(data, 0, 10);
+        gzip.write(data[10]);
+        gzip.flush();  // doesn't cut the current block
+        gzip.write(data, 11, data.length - 11);
+        gzip.close();
+
+        assertArrayEquals(data, gunzip(baos.toByteArray()));
+        assertEquals(data.length, gzip.getBytesIn());
+        assertEquals(baos.size(), gzip.getBytesOut());
+        assertTrue(baos.size() < data.length / 2);
+        // one member: a single deflate stream runs from the header to the 8 byte trailer
+        byte[] gz = baos.toByteArray();
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(gz, 10, gz.length - 10);
+        byte[] inflated = new byte[data.length + 1];
+        assertEquals(data.length, inflater.inflate(inflated));
+        assertTrue(inflater.finished());
+        assertEquals(8, inflater.getRemaining());
+        inflater.end();
+    }
+
+    @Test
+    public void unavailable() throws Exception {
+        byte[] data = new byte[50000];
+        Random random = new Random(7);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(baos, pool, 1024, 3, Deflater.BEST_SPEED);
+        gzip.write(data, 0, 20000);
+        gzip.setCompressing(false);
+        gzip.write(data, 20000, 10000);
+        gzip.setCompressing(true);
+        gzip.write(data, 30000, data.length - 30000);
+        gzip.close();
+
+        InputStream in = new GZIPInputStream(new TrickleInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertArrayEquals(data, ByteUtil.getContent(in, -1));
+    }
+
+    @Test
+    public void stored() throws Exception {
+        byte[] data = new byte[20000];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(baos, pool, 8192, 4, Deflater.DEFAULT_COMPRESSION);
+        gzip.write(data, 0, 100);
+        gzip.setCompressing(false);
+        gzip.write(data, 100, data.length - 200);
+        gzip.setCompressing(true);
+        gzip.write(data, data.length - 100, 100);
+        gzip.close();
+
+        assertArrayEquals(data, gunzip(baos.toByteArray()));
+        assertTrue(baos.size() > data.length - 200);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(baos, pool, 1024, 1, Deflater.BEST_SPEED).close();
+        assertEquals(0, gunzip(baos.toByteArray()).length);
+    }
+
+    @Test
+    public void compressedTypes() {
+        assertTrue(BlobPrefetcher.isCompressedType("image/jpeg"));
+        assertTrue(BlobPrefetcher.isCompressedType("Application/ZIP; name=\"a.zip\""));
+        assertTrue(BlobPrefetcher.isCompressedType("application/vnd.openxmlformats-officedocument.wordprocessingml.document"));
+        assertFalse(BlobPrefetcher.isCompressedType("text/plain"));
+        assertFalse(BlobPrefetcher.isCompressedType("image/bmp"));
+        assertFalse(BlobPrefetcher.isCompressedType(null));
+    }
+}
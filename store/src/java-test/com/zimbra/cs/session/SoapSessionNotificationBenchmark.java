@@ -0,0 +1,137 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.soap.ZimbraSoapContext;
+
+/**
+ * Applies a bulk change of 100k item modifications to a {@link SoapSession} with a slow persistent push channel, the
+ * way a bulk move or import reaches it one transaction at a time, and reports the time spent on the committing
+ * thread, how many times the channel was woken up, and the size of the queued notifications.
+ * <p>
+ * Usage: {@code SoapSessionNotificationBenchmark [modifications] [items] [batch]}
+ */
+public class SoapSessionNotificationBenchmark {
+
+    private final int modifications;
+    private final int batch;
+    private final Mailbox mbox;
+    private final List<Message> msgs = new ArrayList<Message>();
+
+    public SoapSessionNotificationBenchmark(int modifications, int items, int batch) throws Exception {
+        this.modifications = modifications;
+        this.batch = batch;
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        for (int i = 0; i < items; i++) {
+            msgs.add(mbox.addMessage(null, MailboxTestUtil.generateMessage("bench " + i),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null));
+        }
+    }
+
+    private static class SlowChannel implements SoapSession.PushChannel {
+        final AtomicInteger pushes = new AtomicInteger();
+
+        @Override
+        public void closePushChannel() {
+        }
+
+        @Override
+        public int getLastKnownSequence() {
+            return 0;
+        }
+
+        @Override
+        public ZimbraSoapContext getSoapContext() {
+            return null;
+        }
+
+        @Override
+        public boolean localChangesOnly() {
+            return false;
+        }
+
+        @Override
+        public boolean isPersistent() {
+            return true;
+        }
+
+        @Override
+        public void notificationsReady() {
+            pushes.incrementAndGet();
+            try {
+                Thread.sleep(1);  // writing to the client
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        SoapSession session = SoapSessionNotificationTest.newSession(mbox);
+        try {
+            SlowChannel channel = new SlowChannel();
+            session.registerNotificationConnection(channel);
+
+            long commit = 0;
+            int next = 0;
+            for (int applied = 0; applied < modifications; applied += batch) {
+                List<Message> changed = new ArrayList<Message>(batch);
+                for (int i = 0; i < batch; i++) {
+                    changed.add(msgs.get(next++ % msgs.size()));
+                }
+                PendingLocalModifications pms = SoapSessionNotificationTest.modified(changed);
+                long start = System.nanoTime();
+                session.notifyPendingChanges(pms, mbox.getLastChangeID(), null);
+                commit += System.nanoTime() - start;
+            }
+            while (SoapSession.getPushQueueSize() > 0) {
+                Thread.sleep(10);
+            }
+            p("%d modifications of %d items in batches of %d", modifications, msgs.size(), batch);
+            p("  committing thread %.3f ms total, %.1f us per batch", commit / 1000000.0,
+                    commit / 1000.0 / (modifications / batch));
+            p("  %d pushes, %d queued notifications, refresh %b", channel.pushes.get(),
+                    session.changes.getScaledNotificationCount(), session.requiresRefresh(0));
+        } finally {
+            session.unregister();
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.clearData();
+        int modifications = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int items = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int batch = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        SoapSessionNotificationBenchmark benchmark = new SoapSessionNotificationBenchmark(modifications, items, batch);
+        benchmark.run();  // warm up
+        benchmark.run();
+    }
+}
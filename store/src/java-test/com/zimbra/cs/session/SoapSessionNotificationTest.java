@@ -0,0 +1,152 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.AuthProvider;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.soap.ZimbraSoapContext;
+
+public class SoapSessionNotificationTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    static SoapSession newSession(Mailbox mbox) throws Exception {
+        Account acct = Provisioning.getInstance().getAccountById(mbox.getAccountId());
+        ZimbraSoapContext zsc = new ZimbraSoapContext(AuthProvider.getAuthToken(acct), acct.getId(),
+                SoapProtocol.Soap12, SoapProtocol.Soap12);
+        return new SoapSession(zsc).register();
+    }
+
+    static PendingLocalModifications modified(List<Message> msgs) {
+        PendingLocalModifications pms = new PendingLocalModifications();
+        for (Message msg : msgs) {
+            pms.recordModified(msg, Change.FLAGS);
+        }
+        return pms;
+    }
+
+    static class Channel implements SoapSession.PushChannel {
+        final CountDownLatch ready = new CountDownLatch(1);
+        volatile String thread;
+
+        @Override
+        public void closePushChannel() {
+        }
+
+        @Override
+        public int getLastKnownSequence() {
+            return 0;
+        }
+
+        @Override
+        public ZimbraSoapContext getSoapContext() {
+            return null;
+        }
+
+        @Override
+        public boolean localChangesOnly() {
+            return false;
+        }
+
+        @Override
+        public boolean isPersistent() {
+            return false;
+        }
+
+        @Override
+        public void notificationsReady() {
+            thread = Thread.currentThread().getName();
+            ready.countDown();
+        }
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        List<Message> msgs = new ArrayList<Message>();
+        for (int i = 0; i < 10; i++) {
+            msgs.add(mbox.addMessage(null, MailboxTestUtil.generateMessage("msg " + i),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null));
+        }
+        SoapSession session = newSession(mbox);
+        try {
+            // the same items changed over and over queue one notification each
+            for (int i = 0; i < 1000; i++) {
+                session.notifyPendingChanges(modified(msgs), mbox.getLastChangeID(), null);
+            }
+            Assert.assertFalse(session.requiresRefresh(0));
+            Assert.assertEquals(10, session.changes.getScaledNotificationCount());
+            Assert.assertEquals(0, session.changes.getScaledNotificationCount(modified(msgs)));
+
+            // too many distinct items degrade to a refresh
+            PendingLocalModifications pms = new PendingLocalModifications();
+            for (int id = 1000; id < 3000; id++) {
+                pms.recordDeleted(mbox.getAccountId(), id, Mailbox.ID_FOLDER_INBOX, MailItem.Type.MESSAGE);
+            }
+            session.notifyPendingChanges(pms, mbox.getLastChangeID(), null);
+            Assert.assertTrue(session.requiresRefresh(0));
+            Assert.assertEquals(0, session.changes.getScaledNotificationCount());
+        } finally {
+            session.unregister();
+        }
+    }
+
+    @Test
+    public void push() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        SoapSession session = newSession(mbox);
+        try {
+            Channel channel = new Channel();
+            Assert.assertEquals(SoapSession.RegisterNotificationResult.BLOCKING,
+                    session.registerNotificationConnection(channel));
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("pushed"), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+            Assert.assertTrue(channel.ready.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(channel.thread, channel.thread.startsWith("SoapNotify-"));
+            Assert.assertTrue(session.changes.hasNotifications());
+        } finally {
+            session.unregister();
+        }
+    }
+}
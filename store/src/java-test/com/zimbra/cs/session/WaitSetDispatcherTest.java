@@ -0,0 +1,151 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.util.Pair;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public class WaitSetDispatcherTest {
+
+    private static final Set<MailItem.Type> INTEREST = EnumSet.of(MailItem.Type.MESSAGE);
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static class Callback extends WaitSetCallback {
+        volatile String thread;
+
+        Callback() {
+            completedLatch = new CountDownLatch(1);
+        }
+
+        @Override
+        public void dataReady(IWaitSet wset, String seqNum, boolean setCanceled, List<WaitSetError> inErrors,
+                Set<WaitSetSession> signalledSessions, Set<String> signalledAccounts,
+                Map<String, PendingModifications> pms) {
+            thread = Thread.currentThread().getName();
+            super.dataReady(wset, seqNum, setCanceled, inErrors, signalledSessions, signalledAccounts, pms);
+        }
+
+        boolean await() throws InterruptedException {
+            return completedLatch.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void laneOrder() throws Exception {
+        WaitSetDispatcher dispatcher = new WaitSetDispatcher(2);
+        SomeAccountsWaitSet ws = new SomeAccountsWaitSet("owner", "WaitSet-order", INTEREST);
+        final List<Integer> delivered = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            dispatcher.execute(ws, new Runnable() {
+                @Override
+                public void run() {
+                    delivered.add(n);
+                }
+            });
+        }
+        dispatcher.execute(ws, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(100, delivered.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, delivered.get(i).intValue());
+        }
+        Assert.assertEquals(0, dispatcher.size());
+    }
+
+    @Test
+    public void signal() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        String accountId = mbox.getAccountId();
+        Pair<String, List<WaitSetError>> created = WaitSetMgr.create(accountId, true, INTEREST, false,
+                Collections.singletonList(new WaitSetAccount(accountId, null, INTEREST, null)));
+        IWaitSet ws = WaitSetMgr.lookup(created.getFirst());
+        try {
+            // delivered off the committing thread
+            Callback cb = new Callback();
+            ws.doWait(cb, "0", null, null);
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("first"), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+            Assert.assertTrue(cb.await());
+            Assert.assertTrue(cb.signalledAccounts.contains(accountId));
+            Assert.assertTrue(cb.thread, cb.thread.startsWith("WaitSetNotify-"));
+
+            // a burst queued behind a busy lane is delivered as one signal
+            WaitSetSession session = cb.signalledSessions.get(accountId);
+            WaitSetDispatcher dispatcher = new WaitSetDispatcher(1);
+            final CountDownLatch busy = new CountDownLatch(1);
+            final CountDownLatch gate = new CountDownLatch(1);
+            dispatcher.execute((WaitSetBase) ws, new Runnable() {
+                @Override
+                public void run() {
+                    busy.countDown();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            });
+            Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 5; i++) {
+                dispatcher.signal(session, mbox.getLastChangeID() + i, null);
+            }
+            Assert.assertEquals(1, dispatcher.size());
+
+            Callback cb2 = new Callback();
+            ws.doWait(cb2, cb.seqNo, null, null);
+            gate.countDown();
+            Assert.assertTrue(cb2.await());
+            Assert.assertEquals(Collections.singleton(accountId), cb2.signalledAccounts);
+            Assert.assertEquals(0, dispatcher.size());
+        } finally {
+            WaitSetMgr.destroy(null, accountId, created.getFirst());
+        }
+    }
+}
@@ -16,9 +16,28 @@
  */
 package com.zimbra.cs.store;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.file.FileBlobStore;
+import com.zimbra.cs.store.file.VolumeStagedBlob;
+import com.zimbra.qa.unittest.TestUtil;
 
 public class FileBlobStoreTest extends AbstractStoreManagerTest {
 
@@ -33,4 +52,118 @@ public class FileBlobStoreTest extends AbstractStoreManagerTest {
     protected StoreManager getStoreManager() {
         return new FileBlobStore();
     }
+
+    @Test
+    public void inlineDedup() throws Exception {
+        byte[] bytes = new byte[100000];
+        new Random().nextBytes(bytes);
+        StoreManager sm = StoreManager.getInstance();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        long saved = ZimbraPerf.COUNTER_BLOB_DEDUP_BYTES_SAVED.getTotal();
+
+        // the same message delivered separately three times
+        Blob blob1 = sm.storeIncoming(new ByteArrayInputStream(bytes));
+        MailboxBlob mblob1 = sm.link(sm.stage(blob1, mbox), mbox, 101, 1);
+        sm.delete(blob1);
+
+        Blob blob2 = sm.storeIncoming(new ByteArrayInputStream(bytes));
+        MailboxBlob mblob2 = sm.link(sm.stage(blob2, mbox), mbox, 102, 1);
+        sm.delete(blob2);
+
+        VolumeStagedBlob staged3 = (VolumeStagedBlob) sm.stage(new ByteArrayInputStream(bytes), mbox);
+        MailboxBlob mblob3 = sm.renameTo(staged3, mbox, 103, 1);
+
+        Assert.assertTrue(Files.isSameFile(mblob1.getLocalBlob().getFile().toPath(),
+                mblob2.getLocalBlob().getFile().toPath()));
+        Assert.assertTrue(Files.isSameFile(mblob1.getLocalBlob().getFile().toPath(),
+                mblob3.getLocalBlob().getFile().toPath()));
+        Assert.assertFalse("staged blob consumed by renameTo", staged3.getLocalBlob().getFile().exists());
+        Assert.assertEquals(2 * mblob1.getLocalBlob().getFile().length(),
+                ZimbraPerf.COUNTER_BLOB_DEDUP_BYTES_SAVED.getTotal() - saved);
+        Assert.assertEquals(bytes.length, mblob3.getSize());
+        Assert.assertTrue(TestUtil.bytesEqual(bytes, mblob3.getLocalBlob().getInputStream()));
+
+        // deleting the indexed copy doesn't affect the others, and the next delivery is stored again
+        sm.delete(mblob1);
+        Assert.assertTrue(TestUtil.bytesEqual(bytes, mblob2.getLocalBlob().getInputStream()));
+        Blob blob4 = sm.storeIncoming(new ByteArrayInputStream(bytes));
+        MailboxBlob mblob4 = sm.link(sm.stage(blob4, mbox), mbox, 104, 1);
+        sm.delete(blob4);
+        Assert.assertFalse(Files.isSameFile(mblob2.getLocalBlob().getFile().toPath(),
+                mblob4.getLocalBlob().getFile().toPath()));
+
+        sm.delete(mblob2);
+        sm.delete(mblob3);
+        sm.delete(mblob4);
+    }
+
+    @Test
+    public void asyncTransfer() throws Exception {
+        byte[] bytes = new byte[300000];
+        new Random().nextBytes(bytes);
+        StoreManager sm = StoreManager.getInstance();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+
+        StagedBlob staged = sm.stageAsync(new ByteArrayInputStream(bytes), bytes.length, mbox).get();
+        MailboxBlob mblob = sm.linkAsync(staged, mbox, 201, 1).get();
+        sm.quietDelete(staged);
+
+        FileChannel channel = sm.openRawContentChannel(mblob);
+        Assert.assertEquals(bytes.length, channel.size());
+        channel.close();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Assert.assertEquals(bytes.length, sm.transferContent(mblob, Channels.newChannel(bout)).get().longValue());
+        Assert.assertArrayEquals(bytes, bout.toByteArray());
+
+        bout.reset();
+        Assert.assertEquals(bytes.length, sm.transferContent(mblob, new TrickleChannel(bout)).get().longValue());
+        Assert.assertArrayEquals(bytes, bout.toByteArray());
+
+        sm.delete(mblob);
+    }
+
+    /**
+     * Asynchronous channel that accepts at most 1000 bytes per write.
+     */
+    private static class TrickleChannel implements AsynchronousByteChannel {
+        private final ByteArrayOutputStream out;
+
+        TrickleChannel(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public <A> void write(ByteBuffer src, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            int n = Math.min(src.remaining(), 1000);
+            byte[] chunk = new byte[n];
+            src.get(chunk);
+            out.write(chunk, 0, n);
+            handler.completed(n, attachment);
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlobDigestIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File blob;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        blob = tmp.newFile("1-1.msg");
+        FileOutputStream out = new FileOutputStream(blob);
+        out.write(new byte[100]);
+        out.close();
+        indexFile = new File(tmp.getRoot(), "1.idx");
+    }
+
+    @Test
+    public void persistent() throws Exception {
+        BlobDigestIndex index = new BlobDigestIndex(indexFile, 100);
+        index.putIfAbsent("digest1", blob);
+        index.putIfAbsent("digest2", blob);
+        index.close();
+
+        index = new BlobDigestIndex(indexFile, 100);
+        Assert.assertEquals(2, index.size());
+        BlobDigestIndex.Entry entry = index.get("digest1");
+        Assert.assertEquals(blob.getPath(), entry.path);
+        Assert.assertTrue(entry.matches(blob));
+
+        FileOutputStream out = new FileOutputStream(blob, true);
+        out.write(1);
+        out.close();
+        Assert.assertFalse("modified after it was indexed", entry.matches(blob));
+        index.close();
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        BlobDigestIndex index = new BlobDigestIndex(indexFile, 600);
+        for (int i = 0; i < 2500; i++) {
+            index.putIfAbsent("digest" + i, blob);
+            index.get("digest0");  // keep the first entry recently used
+        }
+        Assert.assertEquals(600, index.size());
+        long compacted = indexFile.length();
+        index.close();
+
+        index = new BlobDigestIndex(indexFile, 600);
+        Assert.assertEquals(600, index.size());
+        Assert.assertNotNull(index.get("digest0"));
+        Assert.assertNull(index.get("digest1"));
+        Assert.assertNotNull(index.get("digest2499"));
+        Assert.assertTrue(compacted < 2500 * 30);
+        index.close();
+    }
+
+    @Test
+    public void tornRecord() throws Exception {
+        BlobDigestIndex index = new BlobDigestIndex(indexFile, 100);
+        for (int i = 0; i < 10; i++) {
+            index.putIfAbsent("digest" + i, blob);
+        }
+        index.close();
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        index = new BlobDigestIndex(indexFile, 100);
+        Assert.assertEquals(9, index.size());
+        Assert.assertNull(index.get("digest9"));
+        index.putIfAbsent("digest10", blob);
+        index.close();
+
+        index = new BlobDigestIndex(indexFile, 100);
+        Assert.assertEquals(10, index.size());
+        Assert.assertNotNull(index.get("digest10"));
+        index.close();
+    }
+
+    @Test
+    public void unknownFormat() throws Exception {
+        FileOutputStream out = new FileOutputStream(indexFile);
+        out.write("not an index".getBytes());
+        out.close();
+
+        BlobDigestIndex index = new BlobDigestIndex(indexFile, 100);
+        Assert.assertEquals(0, index.size());
+        index.putIfAbsent("digest", blob);
+        index.close();
+
+        index = new BlobDigestIndex(indexFile, 100);
+        Assert.assertNotNull(index.get("digest"));
+        index.close();
+    }
+}
@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +45,7 @@ import com.zimbra.client.ZJSONObject;
 import com.zimbra.common.account.ProvisioningConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.DateUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.AttributeManager.IDNType;
@@ -101,6 +103,11 @@ public abstract class Entry implements ToZJSONObject {
     private Locale mLocale;
     private final Provisioning mProvisioning;
     private AttributeManager mAttrMgr;
+    // parsed values for the typed getters; replaced whenever the attributes change
+    private volatile TypedAttrSnapshot typedAttrs = TypedAttrSnapshot.empty();
+
+    private static final AtomicReferenceFieldUpdater<Entry, TypedAttrSnapshot> TYPED_ATTRS =
+            AtomicReferenceFieldUpdater.newUpdater(Entry.class, TypedAttrSnapshot.class, "typedAttrs");
 
     protected static String[] sEmptyMulti = new String[0];
     protected static List<byte[]> sEmptyListMulti = new ArrayList<byte[]>();
@@ -200,6 +207,7 @@ public abstract class Entry implements ToZJSONObject {
         if (mData != null)
             mData.clear();
         mLocale = null;
+        typedAttrs = TypedAttrSnapshot.empty();
     }
 
     /**
@@ -448,6 +456,9 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected boolean getBooleanAttr(String name, boolean defaultValue, boolean skipEphemeralCheck) {
+        if (skipEphemeralCheck || !mAttrMgr.isEphemeral(name)) {
+            return getTypedAttr(name, TypedAttrSnapshot.BOOLEAN, defaultValue ? 1L : 0L) != 0L;
+        }
         String v = getAttr(name, true, skipEphemeralCheck);
         return v == null ? defaultValue : ProvisioningConstants.TRUE.equals(v);
     }
@@ -490,6 +501,9 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected int getIntAttr(String name, int defaultValue, boolean skipEphemeralCheck) {
+        if (skipEphemeralCheck || !mAttrMgr.isEphemeral(name)) {
+            return (int) getTypedAttr(name, TypedAttrSnapshot.INT, defaultValue);
+        }
         String v = getAttr(name, true, skipEphemeralCheck);
         try {
             return v == null ? defaultValue : Integer.parseInt(v);
@@ -525,6 +539,9 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected long getLongAttr(String name, long defaultValue, boolean skipEphemeralCheck) {
+        if (skipEphemeralCheck || !mAttrMgr.isEphemeral(name)) {
+            return getTypedAttr(name, TypedAttrSnapshot.LONG, defaultValue);
+        }
         String v = getAttr(name, true, skipEphemeralCheck);
         try {
             if (MemoryUnitUtil.isMemoryUnit(v))
@@ -686,6 +703,9 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected long getTimeInterval(String name, long defaultValue, boolean skipEphemeralCheck) {
+        if (skipEphemeralCheck || !mAttrMgr.isEphemeral(name)) {
+            return getTypedAttr(name, TypedAttrSnapshot.DURATION, defaultValue);
+        }
         String v = getAttr(name, true, skipEphemeralCheck);
         return DateUtil.getTimeInterval(v, defaultValue);
     }
@@ -702,9 +722,66 @@ public abstract class Entry implements ToZJSONObject {
      * @return interval in seconds
      */
     public long getTimeIntervalSecs(String name, long defaultValue) {
+        if (!mAttrMgr.isEphemeral(name)) {
+            // parsed intervals are never negative
+            long millis = getTypedAttr(name, TypedAttrSnapshot.DURATION, -1L);
+            return millis < 0 ? defaultValue : Math.round((float) millis / Constants.MILLIS_PER_SECOND);
+        }
         return DateUtil.getTimeIntervalSecs(getAttr(name), defaultValue);
     }
 
+    private TypedAttrSnapshot getTypedAttrs() {
+        TypedAttrSnapshot snapshot = typedAttrs;
+        if (!snapshot.isCurrent()) {
+            TYPED_ATTRS.compareAndSet(this, snapshot, TypedAttrSnapshot.empty());
+            snapshot = typedAttrs;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a single-valued attribute parsed as {@code kind} from the typed snapshot, parsing it and adding it to
+     * the snapshot on first use. Falls back to {@code defaultValue} if the attribute isn't set or can't be parsed.
+     */
+    private long getTypedAttr(String name, byte kind, long defaultValue) {
+        TypedAttrSnapshot snapshot = getTypedAttrs();
+        int slot = snapshot.find(name, kind);
+        if (slot >= 0) {
+            return snapshot.isSet(slot) ? snapshot.value(slot) : defaultValue;
+        }
+
+        // the snapshot was read first and every reset installs a new one, so a concurrent reset makes the update
+        // below fail rather than leave a value parsed from the old attributes behind
+        String v = objectToString(getObject(name, true));
+        boolean set = v != null;
+        long value = 0L;
+        if (set) {
+            try {
+                switch (kind) {
+                    case TypedAttrSnapshot.BOOLEAN:
+                        value = ProvisioningConstants.TRUE.equals(v) ? 1L : 0L;
+                        break;
+                    case TypedAttrSnapshot.INT:
+                        value = Integer.parseInt(v);
+                        break;
+                    case TypedAttrSnapshot.LONG:
+                        value = MemoryUnitUtil.isMemoryUnit(v) ?
+                                new MemoryUnitUtil(1024).convertToBytes(v) : Long.parseLong(v);
+                        break;
+                    default:
+                        value = DateUtil.getTimeInterval(v);
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                set = false;
+            } catch (ServiceException e) {
+                set = false;
+            }
+        }
+        TYPED_ATTRS.compareAndSet(this, snapshot, snapshot.with(name, kind, set, value));
+        return set ? value : defaultValue;
+    }
+
     /**
      * temporarily associate a key/value pair with this entry. When an entry is reloaded,
      * any cached data is cleared via a call to resetData.
@@ -767,10 +844,15 @@ public abstract class Entry implements ToZJSONObject {
     protected void getDefaults(AttributeFlag flag, Map<String,Object> defaults)
     throws ServiceException {
         defaults.clear();
-        Set<String> attrs = AttributeManager.getInstance().getAttrsWithFlag(flag);
-        for (String a : attrs) {
-            Object obj = getObject(a, true);
-            if (obj != null) defaults.put(a, obj);
+        try {
+            Set<String> attrs = AttributeManager.getInstance().getAttrsWithFlag(flag);
+            for (String a : attrs) {
+                Object obj = getObject(a, true);
+                if (obj != null) defaults.put(a, obj);
+            }
+        } finally {
+            // entries inheriting from us hold on to this map, so their typed values are stale now
+            TypedAttrSnapshot.defaultsChanged();
         }
         //return Collections.unmodifiableMap(defaults);
     }
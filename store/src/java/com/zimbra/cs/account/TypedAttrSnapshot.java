@@ -0,0 +1,155 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable table of parsed single-valued attributes of one {@link Entry}, so that the generated typed getters
+ * don't look the attribute up in the attribute and default maps and parse it again on every call.
+ * <p>
+ * Values are added copy-on-write as they are first read, keyed by attribute name and the kind of parse applied to
+ * it; a slot either holds the parsed value or records that the attribute was missing or couldn't be parsed, in
+ * which case the caller's default applies. An entry drops its snapshot when its attributes are reset. Defaults maps
+ * are refilled in place by the entries they are inherited from, so that bumps a global generation and every
+ * snapshot taken before it is discarded on next use.
+ */
+final class TypedAttrSnapshot {
+
+    static final byte BOOLEAN = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DURATION = 4;
+
+    private static final byte UNSET = (byte) 0x80;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final AtomicLong defaultsGeneration = new AtomicLong();
+    // never written to; copies made by with() get their own arrays
+    private static final String[] NO_NAMES = new String[1];
+    private static final byte[] NO_KINDS = new byte[1];
+    private static final long[] NO_VALUES = new long[1];
+
+    private final long generation;
+    private final String[] names;
+    private final byte[] kinds;
+    private final long[] values;
+    private final int size;
+
+    private TypedAttrSnapshot(long generation) {
+        this.generation = generation;
+        this.names = NO_NAMES;
+        this.kinds = NO_KINDS;
+        this.values = NO_VALUES;
+        this.size = 0;
+    }
+
+    private TypedAttrSnapshot(TypedAttrSnapshot other, int capacity) {
+        this.generation = other.generation;
+        this.names = new String[capacity];
+        this.kinds = new byte[capacity];
+        this.values = new long[capacity];
+        this.size = other.size + 1;
+        for (int i = 0; i < other.names.length; i++) {
+            if (other.names[i] != null) {
+                int slot = free(other.names[i], other.kinds[i] & ~UNSET);
+                names[slot] = other.names[i];
+                kinds[slot] = other.kinds[i];
+                values[slot] = other.values[i];
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot with no values for the current defaults generation. Every call returns a new instance, so
+     * that an entry's compare-and-set can tell a reset apart from the empty snapshot it started from.
+     */
+    static TypedAttrSnapshot empty() {
+        return new TypedAttrSnapshot(defaultsGeneration.get());
+    }
+
+    /**
+     * Invalidates every snapshot; called after a defaults map has been refilled in place.
+     */
+    static void defaultsChanged() {
+        defaultsGeneration.incrementAndGet();
+    }
+
+    boolean isCurrent() {
+        return generation == defaultsGeneration.get();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the slot holding {@code name} parsed as {@code kind}, or -1 if it hasn't been read yet.
+     */
+    int find(String name, byte kind) {
+        int mask = names.length - 1;
+        for (int slot = hash(name, kind) & mask; ; slot = (slot + 1) & mask) {
+            String n = names[slot];
+            if (n == null) {
+                return -1;
+            } else if ((kinds[slot] & ~UNSET) == kind && (n == name || n.equals(name))) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Whether the slot holds a value; if not, the attribute was missing or unparseable.
+     */
+    boolean isSet(int slot) {
+        return (kinds[slot] & UNSET) == 0;
+    }
+
+    long value(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Returns a copy of this snapshot with {@code name} added; {@code set} is false if it has no usable value.
+     */
+    TypedAttrSnapshot with(String name, byte kind, boolean set, long value) {
+        int capacity = Math.max(names.length, INITIAL_CAPACITY);
+        while ((size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+        TypedAttrSnapshot copy = new TypedAttrSnapshot(this, capacity);
+        int slot = copy.free(name, kind);
+        copy.names[slot] = name;
+        copy.kinds[slot] = set ? kind : (byte) (kind | UNSET);
+        copy.values[slot] = value;
+        return copy;
+    }
+
+    private int free(String name, int kind) {
+        int mask = names.length - 1;
+        int slot = hash(name, kind) & mask;
+        while (names[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(String name, int kind) {
+        int h = name.hashCode() * 31 + kind;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zimbra.common.stats.Histogram;
+
+/**
+ * Connection pool usage broken down by the code that asked for the connection.  A call site is the first frame of
+ * the requesting stack outside this package and outside the mailbox transaction plumbing, as
+ * <tt>SimpleClassName.method</tt>; for each one we keep the number of connections it holds right now, and how long
+ * it waited for and then held its connections.
+ */
+final class DbCallSites {
+
+    static final String OTHER = "other";
+
+    static final class Site {
+        final String name;
+        final AtomicInteger active = new AtomicInteger();
+        final Histogram waitTime = new Histogram();  // ms spent waiting on the pool
+        final Histogram holdTime = new Histogram();  // ms between getting and closing the connection
+
+        Site(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d in use, %d taken, wait p99 %dms, hold avg %.1fms p99 %dms", name,
+                    active.get(), holdTime.getCount(), waitTime.getPercentile(0.99), holdTime.getAverage(),
+                    holdTime.getPercentile(0.99));
+        }
+    }
+
+    private final ConcurrentMap<String, Site> sites = new ConcurrentHashMap<String, Site>();
+    private final int maxSites;
+
+    DbCallSites(int maxSites) {
+        this.maxSites = maxSites;
+    }
+
+    /** Returns the site, folding new sites into {@link #OTHER} once {@code maxSites} are tracked. */
+    Site get(String name) {
+        Site site = sites.get(name);
+        if (site == null) {
+            if (sites.size() >= maxSites) {
+                name = OTHER;
+            }
+            site = new Site(name);
+            Site existing = sites.putIfAbsent(name, site);
+            if (existing != null) {
+                site = existing;
+            }
+        }
+        return site;
+    }
+
+    /** Returns the call site of the stack, which was captured inside the pool. */
+    static String callerOf(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String cls = frame.getClassName();
+            if (cls.startsWith("com.zimbra.cs.db.")) {
+                continue;
+            }
+            if (cls.startsWith("com.zimbra.cs.mailbox.Mailbox") &&
+                    (frame.getMethodName().equals("getConnection") ||
+                     frame.getMethodName().equals("getOperationConnection"))) {
+                continue;
+            }
+            return cls.substring(cls.lastIndexOf('.') + 1) + '.' + frame.getMethodName();
+        }
+        return OTHER;
+    }
+
+    /** Returns up to {@code limit} sites, the ones holding the most connections first. */
+    List<Site> top(int limit) {
+        List<Site> all = new ArrayList<Site>(sites.values());
+        Collections.sort(all, new Comparator<Site>() {
+            @Override
+            public int compare(Site s1, Site s2) {
+                int c = s2.active.get() - s1.active.get();
+                return c != 0 ? c : Long.compare(s2.holdTime.getTotal(), s1.holdTime.getTotal());
+            }
+        });
+        return all.size() > limit ? all.subList(0, limit) : all;
+    }
+
+    int size() {
+        return sites.size();
+    }
+}
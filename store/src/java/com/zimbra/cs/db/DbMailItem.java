@@ -993,6 +993,32 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Rewrites an item's metadata with data derived from its content, without touching its change numbers: nothing
+     * the client can see has changed, so neither the item nor its folder's highest MODSEQ should look modified.
+     * The row is left alone if the content has changed since {@link MailItem#getSavedSequence()}.
+     */
+    public static void saveDerivedMetadata(MailItem item, String metadata) throws ServiceException {
+        Mailbox mbox = item.getMailbox();
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(item) +
+                        " SET metadata = ?" +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ? AND mod_content = ?");
+            int pos = 1;
+            stmt.setString(pos++, checkMetadataLength(metadata));
+            pos = setMailboxId(stmt, mbox, pos);
+            stmt.setInt(pos++, item.getId());
+            stmt.setInt(pos++, item.getSavedSequence());
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("writing metadata for mailbox " + item.getMailboxId() + ", item " + item.getId(), e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static void persistCounts(MailItem item, Metadata metadata) throws ServiceException {
         Mailbox mbox = item.getMailbox();
         DbConnection conn = mbox.getOperationConnection();
@@ -865,6 +865,50 @@ public final class DbMailbox {
         }
     }
 
+    /** The purge-related state of one mailbox, as returned by {@link #listPurgeStatus}. */
+    public static class PurgeStatus {
+        public final int mailboxId;
+        /** Time of the last complete purge, in milliseconds, or 0 if the mailbox has never been purged. */
+        public final long lastPurgeAt;
+        /** Highest item id allocated so far; an upper bound on the number of items in the mailbox. */
+        public final int itemIdCheckpoint;
+
+        public PurgeStatus(int mailboxId, long lastPurgeAt, int itemIdCheckpoint) {
+            this.mailboxId = mailboxId;
+            this.lastPurgeAt = lastPurgeAt;
+            this.itemIdCheckpoint = itemIdCheckpoint;
+        }
+    }
+
+    /**
+     * Returns the last purge time and item id checkpoint of every mailbox.
+     *
+     * @param conn An open database connection.
+     * @throws ServiceException
+     */
+    public static List<PurgeStatus> listPurgeStatus(DbConnection conn) throws ServiceException {
+        List<PurgeStatus> result = new ArrayList<PurgeStatus>();
+        if (DebugConfig.externalMailboxDirectory) {
+            return result;
+        }
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT id, last_purge_at, item_id_checkpoint FROM mailbox");
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.add(new PurgeStatus(rs.getInt(1), rs.getInt(2) * 1000L, rs.getInt(3)));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("fetching mailbox purge status", e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static final int CHANGE_CHECKPOINT_INCREMENT = Zimbra.isAlwaysOn() ? 1 : Math.max(1, LC.zimbra_mailbox_change_checkpoint_frequency.intValue());
     public static final int ITEM_CHECKPOINT_INCREMENT   = Zimbra.isAlwaysOn() ? 1 : 20;
 
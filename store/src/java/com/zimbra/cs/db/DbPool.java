@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.dbcp.ConnectionFactory;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
@@ -55,9 +56,16 @@ public class DbPool {
 
     static ValueCounter<String> sConnectionStackCounter = new ValueCounter<String>();
 
+    private static volatile boolean sTrackCallSites = LC.zimbra_db_pool_call_site_stats.booleanValue();
+    private static final DbCallSites sCallSites = new DbCallSites(500);
+    private static final AtomicLong sLastExhaustionTrace = new AtomicLong();
+    private static volatile boolean sGrowWhenExhausted;
+
     public static class DbConnection {
         private final Connection connection;
         private Throwable mStackTrace;
+        private DbCallSites.Site callSite;
+        private long openedAt;
         Integer mboxId;
 
         DbConnection(Connection conn) {
@@ -160,6 +168,16 @@ public class DbPool {
                         sConnectionStackCounter.decrement(stackTrace);
                     }
                 }
+                if (openedAt != 0) {
+                    long held = System.currentTimeMillis() - openedAt;
+                    ZimbraPerf.HISTOGRAM_DB_CONN_HOLD.increment(held);
+                    openedAt = 0;
+                    if (callSite != null) {
+                        callSite.active.decrementAndGet();
+                        callSite.holdTime.increment(held);
+                        callSite = null;
+                    }
+                }
             }
         }
 
@@ -168,6 +186,17 @@ public class DbPool {
             mStackTrace = t;
         }
 
+        /** Starts the hold time of a connection taken from the pool. */
+        void setOpened() {
+            openedAt = System.currentTimeMillis();
+        }
+
+        /** Charges the connection to the call site until it is closed. */
+        void setCallSite(DbCallSites.Site site) {
+            callSite = site;
+            site.active.incrementAndGet();
+        }
+
         public void closeQuietly() {
             try {
                 if (!connection.isClosed()) {
@@ -212,6 +241,10 @@ public class DbPool {
         boolean mSupportsStatsCallback;
         Properties mDatabaseProperties;
         byte whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+        int mMaxIdle = -1;      // idle connections kept open; -1 keeps up to mPoolSize
+        int mMinIdle = 0;       // idle connections kept open by the evictor
+        long mMaxWait = -1;     // ms to wait on an exhausted pool before failing; -1 waits forever
+        long mIdleTimeout = -1; // ms after which the evictor closes idle connections above mMinIdle; -1 never
     }
 
     /**
@@ -279,7 +312,16 @@ public class DbPool {
             return sPoolingDataSource;
 
         PoolConfig pconfig = Db.getInstance().getPoolConfig();
-        sConnectionPool = new GenericObjectPool(null, pconfig.mPoolSize, pconfig.whenExhaustedAction, -1, pconfig.mPoolSize);
+        // with mMaxIdle or mIdleTimeout set, the pool opens connections as load requires and closes them as it drops
+        int maxIdle = pconfig.mMaxIdle < 0 ? pconfig.mPoolSize : pconfig.mMaxIdle;
+        boolean evict = pconfig.mIdleTimeout > 0;
+        sConnectionPool = new GenericObjectPool(null, pconfig.mPoolSize, pconfig.whenExhaustedAction, pconfig.mMaxWait,
+                maxIdle, pconfig.mMinIdle, false, false,
+                evict ? Math.max(pconfig.mIdleTimeout / 4, 1000) : -1, Math.max(pconfig.mPoolSize, 3),
+                evict ? pconfig.mIdleTimeout : GenericObjectPool.DEFAULT_MIN_EVICTABLE_IDLE_TIME_MILLIS, false);
+        sGrowWhenExhausted = pconfig.whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_GROW;
+        ZimbraLog.dbconn.info("connection pool: max %d, idle %d-%d, max wait %dms, idle timeout %dms",
+                pconfig.mPoolSize, pconfig.mMinIdle, maxIdle, pconfig.mMaxWait, pconfig.mIdleTimeout);
         ConnectionFactory cfac = ZimbraConnectionFactory.getConnectionFactory(pconfig);
 
         boolean defAutoCommit = false, defReadOnly = false;
@@ -335,10 +377,27 @@ public class DbPool {
             PoolingDataSource pool = getPool();
             checkPoolUsage();
 
+            boolean trackCallSite = sTrackCallSites;
+            Throwable t = trackCallSite || ZimbraLog.dbconn.isDebugEnabled() ? new Throwable() : null;
+            DbCallSites.Site site = trackCallSite ? sCallSites.get(DbCallSites.callerOf(t.getStackTrace())) : null;
+            boolean exhausted = isExhausted();
+
             Connection dbconn = null;
             DbConnection conn = null;
             try {
-                dbconn = pool.getConnection();
+                long waitStart = System.currentTimeMillis();
+                try {
+                    dbconn = pool.getConnection();
+                } finally {
+                    long waited = System.currentTimeMillis() - waitStart;
+                    ZimbraPerf.HISTOGRAM_DB_POOL_WAIT.increment(waited);
+                    if (site != null) {
+                        site.waitTime.increment(waited);
+                    }
+                    if (exhausted) {
+                        traceExhaustion();
+                    }
+                }
 
                 if (dbconn.getAutoCommit() != false)
                     dbconn.setAutoCommit(false);
@@ -360,9 +419,12 @@ public class DbPool {
                 throw ServiceException.FAILURE("getting database connection", e);
             }
 
+            conn.setOpened();
+            if (site != null) {
+                conn.setCallSite(site);
+            }
             // If we're debugging, update the counter with the current stack trace
             if (ZimbraLog.dbconn.isDebugEnabled()) {
-                Throwable t = new Throwable();
                 conn.setStackTrace(t);
 
                 String stackTrace = SystemUtil.getStackTrace(t);
@@ -414,6 +476,45 @@ public class DbPool {
         }
     }
 
+    /**
+     * Returns true if a new connection would have to wait for another one to be returned to the pool.
+     */
+    private static boolean isExhausted() {
+        int maxActive = sConnectionPool.getMaxActive();
+        return maxActive > 0 && !sGrowWhenExhausted && sConnectionPool.getNumActive() >= maxActive;
+    }
+
+    /**
+     * Counts a request that found the pool exhausted and, at most once per
+     * <tt>zimbra_db_pool_exhaustion_trace_interval</tt>, logs which call sites hold the connections.
+     */
+    private static void traceExhaustion() {
+        ZimbraPerf.COUNTER_DB_POOL_EXHAUSTED.increment();
+        long now = System.currentTimeMillis();
+        long last = sLastExhaustionTrace.get();
+        if (now - last < LC.zimbra_db_pool_exhaustion_trace_interval.longValue() * 1000 ||
+                !sLastExhaustionTrace.compareAndSet(last, now)) {
+            return;
+        }
+        StringBuilder buf = new StringBuilder();
+        for (DbCallSites.Site site : sCallSites.top(10)) {
+            buf.append("\n  ").append(site);
+        }
+        if (buf.length() == 0) {
+            buf.append(" unknown, set zimbra_db_pool_call_site_stats to true to track them");
+        }
+        ZimbraLog.dbconn.warn("Connection pool exhausted (%d connections out of a maximum of %d in use).  Call sites:%s",
+                sConnectionPool.getNumActive(), sConnectionPool.getMaxActive(), buf);
+    }
+
+    static DbCallSites getCallSites() {
+        return sCallSites;
+    }
+
+    static void setTrackCallSites(boolean track) {
+        sTrackCallSites = track;
+    }
+
     /**
      * Returns a new database connection for maintenance operations, such as
      * restore. Does not specify the name of the default database. This
@@ -428,6 +428,9 @@ public final class DbSearch {
         if (constraint.cursorRange != null) {
             needAnd = needAnd | encodeCursorRange(constraint.cursorRange, needAnd);
         }
+        if (constraint.keyset != null) {
+            needAnd = needAnd | encodeKeyset(constraint.keyset, needAnd);
+        }
 
         for (Map.Entry<DbSearchConstraints.RangeType, DbSearchConstraints.Range> entry : constraint.ranges.entries()) {
             switch (entry.getKey()) {
@@ -1189,6 +1192,27 @@ public final class DbSearch {
         return true;
     }
 
+    /**
+     * (sortcol, id) > (?, ?) spelled out, since row value comparisons are not portable. The tie-breaker follows the
+     * ORDER BY from {@link #orderBy(SortBy, boolean)}.
+     */
+    private boolean encodeKeyset(DbSearchConstraints.Keyset keyset, boolean and) {
+        // Can't use SORT_COLUMN_ALIAS because column aliases in SELECT are illegal to use in WHERE
+        String col = toSortField(keyset.sortBy);
+        String op = (keyset.sortBy.getDirection() == SortBy.Direction.ASC) == keyset.after ? " > ?" : " < ?";
+        Object value = keyset.sortValue;
+        if (keyset.sortBy.getKey() == Key.DATE) {
+            value = (int) Math.min(keyset.sortValue / 1000, Integer.MAX_VALUE);
+        }
+        if (and) {sql.append(" AND "); }
+        sql.append("(").append(col).append(op).append(" OR (").append(col).append(" = ? AND mi.id").append(op)
+                .append("))");
+        params.add(value);
+        params.add(value);
+        params.add(keyset.itemId);
+        return true;
+    }
+
     private void setParameters(PreparedStatement stmt) throws SQLException {
         int pos = 0;
         for (Object param : params) {
@@ -164,6 +164,25 @@ public class MySQL extends Db {
                 }
             }
             ZimbraLog.misc.debug("Setting connection pool size to " + mPoolSize);
+
+            // let the pool shrink when idle and fail fast when exhausted, if configured
+            mMaxIdle = (int) getLongProperty("maxIdle", mMaxIdle);
+            mMinIdle = (int) getLongProperty("minIdle", mMinIdle);
+            mMaxWait = getLongProperty("maxWait", mMaxWait);
+            mIdleTimeout = getLongProperty("minEvictableIdleTimeMillis", mIdleTimeout);
+        }
+
+        private long getLongProperty(String name, long defaultValue) {
+            String value = (String) mDatabaseProperties.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException nfe) {
+                ZimbraLog.system.warn("exception parsing '" + name + "' pref; defaulting to " + defaultValue, nfe);
+                return defaultValue;
+            }
         }
 
         protected String getDriverClassName() {
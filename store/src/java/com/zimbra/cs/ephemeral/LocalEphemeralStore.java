@@ -0,0 +1,628 @@
+package com.zimbra.cs.ephemeral;
+
+import static com.zimbra.common.util.TaskUtil.newDaemonThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * EphemeralStore that keeps its data in memory and persists it to an append-only log in a local directory, so that
+ * logins and token updates on a single mailbox server don't each cost an LDAP write. Selected with
+ * {@code zimbraEphemeralBackendURL=local:<directory>}; the data is not shared with other servers.
+ * <p>
+ * Changes are applied in memory and appended to the log in batches every {@code ephemeral_local_flush_interval_ms},
+ * so a crash loses the changes made since the last batch. Every record carries a checksum and a partially written
+ * tail is truncated when the log is next read. The log is rewritten from the live data, without overwritten and
+ * expired values, once it has doubled in size or every {@code ephemeral_local_compact_interval_ms}.
+ * <p>
+ * Several processes may share a directory, as the server and {@code zmmigrateattrs} do during a migration: appends
+ * and rewrites are serialized with a file lock, and each process reads what the others appended before writing.
+ * A store opened as a migration target writes through, so values are on disk before the migration removes them
+ * from LDAP.
+ */
+public class LocalEphemeralStore extends EphemeralStore {
+
+    static final String LOG_FILE = "ephemeral.log";
+    static final String LOCK_FILE = "ephemeral.lock";
+    private static final String URL_PREFIX = "local:";
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte OP_SET = 1;
+    private static final byte OP_ADD = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_DELETE_LOCATION = 4;
+
+    private final Path dir;
+    private final Path logPath;
+    private final boolean writeThrough;
+
+    // guarded by this
+    private final Map<String, SetMultimap<String, String>> storeMap =
+            new HashMap<String, SetMultimap<String, String>>();
+    private final List<Record> pending = new ArrayList<Record>();
+
+    // guarded by fileLock; taken before this when both are needed
+    private final Object fileLock = new Object();
+    private volatile boolean opened = false;
+    private FileChannel lockChannel;
+    private FileChannel log;
+    private Object logKey;
+    private long position;
+    private long compactedSize;
+    private long lastCompaction;
+    private ScheduledExecutorService flusher;
+
+    LocalEphemeralStore(File dir, boolean writeThrough) {
+        this.dir = dir == null ? null : dir.toPath();
+        this.logPath = dir == null ? null : this.dir.resolve(LOG_FILE);
+        this.writeThrough = writeThrough;
+        setAttributeEncoder(new DynamicExpirationEncoder());
+    }
+
+    @Override
+    public EphemeralResult get(EphemeralKey key, EphemeralLocation target) throws ServiceException {
+        DynamicResultsHelper helper = new DynamicResultsHelper(key, target, encoder, null);
+        return helper.get(getValues(target, encodeKey(key, target)));
+    }
+
+    @Override
+    public void set(EphemeralInput attribute, EphemeralLocation target) throws ServiceException {
+        write(Collections.singletonList(new Record(OP_SET, locationKey(target),
+                encodeKey(attribute, target), encodeValue(attribute, target))));
+    }
+
+    @Override
+    public void update(EphemeralInput attribute, EphemeralLocation target) throws ServiceException {
+        write(Collections.singletonList(new Record(OP_ADD, locationKey(target),
+                encodeKey(attribute, target), encodeValue(attribute, target))));
+    }
+
+    @Override
+    public void delete(EphemeralKey key, String valueToDelete, EphemeralLocation target) throws ServiceException {
+        String encodedKey = encodeKey(key, target);
+        DynamicResultsHelper helper = new DynamicResultsHelper(key, target, encoder, null);
+        removeValues(target, encodedKey, helper.delete(getValues(target, encodedKey), valueToDelete));
+    }
+
+    @Override
+    public void purgeExpired(EphemeralKey key, EphemeralLocation target) throws ServiceException {
+        String encodedKey = encodeKey(key, target);
+        DynamicResultsHelper helper = new DynamicResultsHelper(key, target, encoder, null, true);
+        removeValues(target, encodedKey, helper.purge(getValues(target, encodedKey)));
+    }
+
+    @Override
+    public void deleteData(EphemeralLocation location) throws ServiceException {
+        write(Collections.singletonList(new Record(OP_DELETE_LOCATION, locationKey(location), "", "")));
+    }
+
+    @Override
+    public boolean has(EphemeralKey key, EphemeralLocation target) throws ServiceException {
+        DynamicResultsHelper helper = new DynamicResultsHelper(key, target, encoder, null);
+        return helper.has(getValues(target, encodeKey(key, target)));
+    }
+
+    private static String locationKey(EphemeralLocation target) {
+        return Joiner.on("|").join(target.getLocation());
+    }
+
+    private List<String> getValues(EphemeralLocation target, String encodedKey) throws ServiceException {
+        ensureOpen();
+        synchronized (this) {
+            SetMultimap<String, String> map = storeMap.get(locationKey(target));
+            return map == null ? Collections.<String>emptyList() : new ArrayList<String>(map.get(encodedKey));
+        }
+    }
+
+    private void removeValues(EphemeralLocation target, String encodedKey, List<String> values)
+    throws ServiceException {
+        if (values.isEmpty()) {
+            return;
+        }
+        String location = locationKey(target);
+        List<Record> records = new ArrayList<Record>(values.size());
+        for (String value : values) {
+            records.add(new Record(OP_REMOVE, location, encodedKey, value));
+        }
+        write(records);
+    }
+
+    private void write(List<Record> records) throws ServiceException {
+        ensureOpen();
+        synchronized (this) {
+            for (Record record : records) {
+                apply(record);
+                pending.add(record);
+            }
+        }
+        if (writeThrough) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw ServiceException.FAILURE("unable to write ephemeral log in " + dir, e);
+            }
+        }
+    }
+
+    // caller must hold this; records only ever set, add or remove values, so applying one twice is harmless
+    private void apply(Record record) {
+        SetMultimap<String, String> map = storeMap.get(record.location);
+        switch (record.op) {
+        case OP_SET:
+            if (map == null) {
+                map = LinkedHashMultimap.create();
+                storeMap.put(record.location, map);
+            }
+            map.removeAll(record.key);
+            map.put(record.key, record.value);
+            break;
+        case OP_ADD:
+            if (map == null) {
+                map = LinkedHashMultimap.create();
+                storeMap.put(record.location, map);
+            }
+            map.put(record.key, record.value);
+            break;
+        case OP_REMOVE:
+            if (map != null) {
+                map.remove(record.key, record.value);
+                if (map.isEmpty()) {
+                    storeMap.remove(record.location);
+                }
+            }
+            break;
+        case OP_DELETE_LOCATION:
+            storeMap.remove(record.location);
+            break;
+        }
+    }
+
+    private void ensureOpen() throws ServiceException {
+        if (opened) {
+            return;
+        }
+        synchronized (fileLock) {
+            if (opened) {
+                return;
+            }
+            if (dir == null) {
+                throw ServiceException.FAILURE("no directory specified for the local ephemeral store", null);
+            }
+            try {
+                Files.createDirectories(dir);
+                lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                FileLock lock = lockChannel.lock();
+                try {
+                    openLog();
+                    List<Record> records = new ArrayList<Record>();
+                    position = read(0L, records);
+                    synchronized (this) {
+                        storeMap.clear();
+                        for (Record record : records) {
+                            apply(record);
+                        }
+                    }
+                    ZimbraLog.ephemeral.info("opened local ephemeral store in %s (%d records, %d bytes)",
+                            dir, records.size(), position);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                closeChannels();
+                throw ServiceException.FAILURE("unable to open local ephemeral store in " + dir, e);
+            }
+            compactedSize = position;
+            lastCompaction = 0L;  // rewrite on the first flush, dropping what expired while we were down
+            long interval = Math.max(LC.ephemeral_local_flush_interval_ms.longValue(), 1L);
+            flusher = Executors.newSingleThreadScheduledExecutor(newDaemonThreadFactory("EphemeralLogFlusher"));
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Exception e) {
+                        ZimbraLog.ephemeral.warn("unable to write ephemeral log in %s", dir, e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+            opened = true;
+        }
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        logKey = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Flushes and closes the log; the store reopens it when it's used again.
+     */
+    void close() {
+        synchronized (fileLock) {
+            if (!opened) {
+                return;
+            }
+            flusher.shutdown();
+            try {
+                flush();
+            } catch (IOException e) {
+                ZimbraLog.ephemeral.warn("unable to write ephemeral log in %s; recent changes are lost", dir, e);
+            }
+            opened = false;
+            closeChannels();
+            synchronized (this) {
+                storeMap.clear();
+                pending.clear();
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (FileChannel channel : new FileChannel[] { log, lockChannel }) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    ZimbraLog.ephemeral.debug("error closing %s", dir, e);
+                }
+            }
+        }
+        log = null;
+        lockChannel = null;
+    }
+
+    /**
+     * Appends the pending changes to the log, after reading what other processes have appended since the last
+     * flush, and rewrites the log if it's due.
+     */
+    @VisibleForTesting
+    void flush() throws IOException {
+        synchronized (fileLock) {
+            if (!opened) {
+                return;
+            }
+            boolean idle;
+            synchronized (this) {
+                idle = pending.isEmpty();
+            }
+            if (idle && !isCompactionDue() && !isChanged()) {
+                return;
+            }
+            FileLock lock = lockChannel.lock();
+            try {
+                List<Record> batch;
+                synchronized (this) {
+                    batch = new ArrayList<Record>(pending);
+                    pending.clear();
+                }
+                try {
+                    catchUp(batch);
+                    append(batch);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        pending.addAll(0, batch);
+                    }
+                    throw e;
+                }
+                if (isCompactionDue()) {
+                    compact();
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private boolean isChanged() throws IOException {
+        Object key = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+        return (key != null && !key.equals(logKey)) || log.size() != position;
+    }
+
+    private boolean isCompactionDue() {
+        return (position > LC.ephemeral_local_compact_min_bytes.longValue() && position > compactedSize * 2) ||
+                System.currentTimeMillis() - lastCompaction > LC.ephemeral_local_compact_interval_ms.longValue();
+    }
+
+    /**
+     * Applies the records other processes appended, or reloads the log if another process rewrote it. Our own
+     * unwritten changes are applied again afterwards so that memory matches the order they will have in the log.
+     */
+    private void catchUp(List<Record> batch) throws IOException {
+        Object key = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+        boolean replaced = (key != null && !key.equals(logKey)) || log.size() < position;
+        if (!replaced && log.size() == position) {
+            return;
+        }
+        List<Record> foreign = new ArrayList<Record>();
+        if (replaced) {
+            log.close();
+            openLog();
+            position = read(0L, foreign);
+            compactedSize = position;
+        } else {
+            position = read(position, foreign);
+        }
+        synchronized (this) {
+            if (replaced) {
+                storeMap.clear();
+            }
+            for (Record record : foreign) {
+                apply(record);
+            }
+            for (Record record : batch) {
+                apply(record);
+            }
+            for (Record record : pending) {
+                apply(record);
+            }
+        }
+    }
+
+    /**
+     * Reads the records from {@code offset} to the end of the log and truncates anything after the last intact one.
+     * Caller must hold the file lock.
+     */
+    private long read(long offset, List<Record> records) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(log.position(offset)), 64 * 1024));
+        long end = offset;
+        try {
+            while (true) {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != crc) {
+                    break;
+                }
+                records.add(Record.decode(payload));
+                end += 8 + length;
+            }
+        } catch (EOFException e) {
+            // reached the end, possibly in the middle of a record
+        }
+        if (end < log.size()) {
+            ZimbraLog.ephemeral.warn("truncating ephemeral log %s from %d to %d bytes", logPath, log.size(), end);
+            log.truncate(end);
+            log.force(false);
+        }
+        return end;
+    }
+
+    private void append(List<Record> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (Record record : batch) {
+            record.encode(buf);
+        }
+        writeFully(log, buf, position);
+        log.force(false);
+        position += buf.size();
+    }
+
+    /**
+     * Rewrites the log from the live data, dropping expired values from memory as well. Caller must hold the file
+     * lock and have appended the pending changes.
+     */
+    private void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int expired = 0;
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, SetMultimap<String, String>>> locations = storeMap.entrySet().iterator();
+                    locations.hasNext(); ) {
+                Map.Entry<String, SetMultimap<String, String>> location = locations.next();
+                for (Iterator<Map.Entry<String, String>> values = location.getValue().entries().iterator();
+                        values.hasNext(); ) {
+                    Map.Entry<String, String> value = values.next();
+                    if (isExpired(value.getKey(), value.getValue(), now)) {
+                        values.remove();
+                        expired++;
+                    } else {
+                        new Record(OP_ADD, location.getKey(), value.getKey(), value.getValue()).encode(buf);
+                    }
+                }
+                if (location.getValue().isEmpty()) {
+                    locations.remove();
+                }
+            }
+        }
+
+        Path tmp = dir.resolve(LOG_FILE + ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeFully(channel, buf, 0L);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp, logPath, StandardCopyOption.ATOMIC_MOVE);
+        long before = position;
+        log.close();
+        openLog();
+        position = log.size();
+        compactedSize = position;
+        lastCompaction = now;
+        ZimbraLog.ephemeral.debug("rewrote ephemeral log %s from %d to %d bytes, dropping %d expired values",
+                logPath, before, position, expired);
+    }
+
+    private boolean isExpired(String key, String value, long now) {
+        try {
+            EphemeralKeyValuePair kvp = encoder.decode(key, value);
+            if (kvp instanceof ExpirableEphemeralKeyValuePair) {
+                Long expiration = ((ExpirableEphemeralKeyValuePair) kvp).getExpiration();
+                return expiration != null && expiration < now;
+            }
+        } catch (ServiceException e) {
+            // keep what we can't decode; reads flag it
+        }
+        return false;
+    }
+
+    private static void writeFully(FileChannel channel, ByteArrayOutputStream buf, long offset) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf.toByteArray());
+        while (bb.hasRemaining()) {
+            offset += channel.write(bb, offset);
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the directory of a {@code local:<directory>} URL.
+     */
+    static String getDirectory(String url) throws ServiceException {
+        if (url == null || !url.startsWith(URL_PREFIX) || url.length() == URL_PREFIX.length()) {
+            throw ServiceException.INVALID_REQUEST(String.format(
+                    "'%s' is not a local ephemeral store URL; expected local:<directory>", url), null);
+        }
+        String path = url.substring(URL_PREFIX.length());
+        return path.startsWith("//") ? path.substring(2) : path;
+    }
+
+    private static final class Record {
+        final byte op;
+        final String location;
+        final String key;
+        final String value;
+
+        Record(byte op, String location, String key, String value) {
+            this.op = op;
+            this.location = location;
+            this.key = key;
+            this.value = value;
+        }
+
+        /** Writes the record framed by its length and checksum. */
+        void encode(ByteArrayOutputStream out) {
+            try {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + key.length() + value.length());
+                DataOutputStream data = new DataOutputStream(payload);
+                data.writeByte(op);
+                writeString(data, location);
+                writeString(data, key);
+                writeString(data, value);
+                byte[] bytes = payload.toByteArray();
+                DataOutputStream framed = new DataOutputStream(out);
+                framed.writeInt(bytes.length);
+                framed.writeInt(checksum(bytes));
+                framed.write(bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);  // in-memory streams don't fail
+            }
+        }
+
+        static Record decode(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            return new Record(in.readByte(), readString(in), readString(in), readString(in));
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class Factory extends EphemeralStore.Factory {
+
+        // one store per directory, as the file lock doesn't exclude other channels in the same process
+        private static final Map<String, LocalEphemeralStore> stores = new HashMap<String, LocalEphemeralStore>();
+
+        @Override
+        public EphemeralStore getStore() {
+            String dir = null;
+            try {
+                dir = getDirectory(getURL());
+            } catch (ServiceException e) {
+                ZimbraLog.ephemeral.error("unable to determine the local ephemeral store directory", e);
+            }
+            synchronized (stores) {
+                LocalEphemeralStore store = stores.get(dir);
+                if (store == null) {
+                    store = new LocalEphemeralStore(dir == null ? null : new File(dir),
+                            getBackendType() == BackendType.migration);
+                    stores.put(dir, store);
+                }
+                return store;
+            }
+        }
+
+        @Override
+        public void startup() {}
+
+        @Override
+        public void shutdown() {
+            synchronized (stores) {
+                for (LocalEphemeralStore store : stores.values()) {
+                    store.close();
+                }
+            }
+        }
+
+        @Override
+        public void test(String url) throws ServiceException {
+            File dir = new File(getDirectory(url));
+            if (!dir.isAbsolute()) {
+                throw ServiceException.INVALID_REQUEST(String.format("'%s' is not an absolute path", dir), null);
+            }
+            dir.mkdirs();
+            if (!dir.isDirectory() || !dir.canWrite()) {
+                throw ServiceException.FAILURE(String.format("'%s' is not a writable directory", dir), null);
+            }
+        }
+    }
+}
@@ -151,6 +151,7 @@ public final class RuleManager {
             Map<String, Object> attrs = new HashMap<String, Object>();
             attrs.put(sieveScriptAttrName, script);
             Provisioning.getInstance().modifyAttrs(entry, attrs);
+            SieveScriptCache.getInstance().put(script, node);
             entry.setCachedData(rulesCacheKey, node);
         } catch (ParseException e) {
             ZimbraLog.filter.error("Unable to parse script:\n" + script);
@@ -200,6 +201,7 @@ public final class RuleManager {
      * Returns the parsed filter rules for the given account.  If no cached
      * copy of the parsed rules exists, parses the script returned by
      * {@link #getRules(com.zimbra.cs.account.Account, String)} and caches the result on the <tt>Account</tt>.
+     * Accounts with identical scripts share the same parsed rules.
      *
      * @param account the owner account of the filter rule
      * @param rulesCacheKey key name for the rule node cache
@@ -223,7 +225,7 @@ public final class RuleManager {
 
             ZimbraLog.filter.debug("attrName[%s] rule[%s]", sieveScriptAttrName, script);
 
-            node = parse(script);
+            node = SieveScriptCache.getInstance().get(script);
             account.setCachedData(rulesCacheKey, node);
         }
         return node;
@@ -849,7 +851,7 @@ public final class RuleManager {
                 adminRule = "";
             }
             ZimbraLog.filter.debug("filterType[%s] rule[%s]", filterType == FilterType.INCOMING ? "incoming" : "outgoing", adminRule);
-            node = parse(adminRule);
+            node = SieveScriptCache.getInstance().get(adminRule);
             entry.setCachedData(rulesCacheKey, node);
         }
         return node;
@@ -0,0 +1,115 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Server-wide cache of parsed Sieve scripts, keyed by the SHA-256 digest of the script text.  Scripts inherited from
+ * the COS or domain, and the admin before/after scripts, are usually identical for many accounts; they are parsed
+ * once and every account evaluates the same node tree.
+ * <p>
+ * Evaluation only reads the node tree, so the cached trees are shared as is.  Callers that rewrite a tree (such as
+ * the folder and tag renamers) must parse their own copy with {@link RuleManager#parse(String)}.
+ */
+final class SieveScriptCache {
+
+    private static final SieveScriptCache INSTANCE = new SieveScriptCache(LC.zimbra_filter_script_cache_size.intValue());
+
+    private final Map<String, Node> nodes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    SieveScriptCache(final int maxSize) {
+        nodes = new LinkedHashMap<String, Node>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Node> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    static SieveScriptCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the parsed script, parsing it if no script with the same text is cached.
+     */
+    Node get(String script) throws ParseException {
+        String digest = digest(script);
+        synchronized (this) {
+            Node node = nodes.get(digest);
+            if (node != null) {
+                hits.incrementAndGet();
+                return node;
+            }
+        }
+        misses.incrementAndGet();
+        // parse outside the lock; a concurrent miss on the same script just parses it twice
+        Node node = RuleManager.parse(script);
+        return cache(digest, node);
+    }
+
+    /**
+     * Caches a tree the caller has already parsed from the script, so that the next lookup does not parse it again.
+     */
+    void put(String script, Node node) {
+        cache(digest(script), node);
+    }
+
+    /** Caches the tree unless another thread got there first, and returns the cached one. */
+    private synchronized Node cache(String digest, Node node) {
+        Node existing = nodes.get(digest);
+        if (existing != null) {
+            return existing;
+        }
+        nodes.put(digest, node);
+        return node;
+    }
+
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    synchronized void clear() {
+        nodes.clear();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    private static String digest(String script) {
+        return ByteUtil.getSHA256Digest(script.getBytes(Charsets.UTF_8), false);
+    }
+}
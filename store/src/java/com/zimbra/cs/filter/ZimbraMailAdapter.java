@@ -116,6 +116,16 @@ public class ZimbraMailAdapter implements MailAdapter, EnvelopeAccessors {
      */
     private static Set<String> addrHdrs = ImmutableSet.of("from", "sender", "to", "bcc", "cc", "reply-to");
 
+    /**
+     * Header values and addresses already read from the message, keyed by lower-cased header name.  The admin
+     * and user scripts all test the same few headers, so each one is extracted once per message rather than
+     * once per test.  Cleared when the message changes.
+     */
+    private MimeMessage headerSource;
+    private final Map<String, List<String>> headerValues = new HashMap<String, List<String>>();
+    private final Map<String, Address[]> headerAddresses = new HashMap<String, Address[]>();
+    private List<String> headerNames;
+
     /**
      * List of Actions to perform.
      */
@@ -672,44 +682,77 @@ public class ZimbraMailAdapter implements MailAdapter, EnvelopeAccessors {
         return hdrs;
     }
 
+    /**
+     * Returns the message whose headers are cached, dropping the cached headers if the handler's message is no
+     * longer the one they were read from.
+     */
+    private MimeMessage getHeaderSource() throws ServiceException {
+        MimeMessage msg = handler.getMimeMessage();
+        if (msg != headerSource) {
+            clearHeaderCache();
+            headerSource = msg;
+        }
+        return msg;
+    }
+
+    /**
+     * Drops the cached header values.  Must be called whenever the headers of the message are edited in place.
+     */
+    public void clearHeaderCache() {
+        headerSource = null;
+        headerValues.clear();
+        headerAddresses.clear();
+        headerNames = null;
+    }
+
     @Override
     public List<String> getHeader(String name) {
         MimeMessage msg;
         try {
-            msg = handler.getMimeMessage();
+            msg = getHeaderSource();
         } catch (ServiceException e) {
             ZimbraLog.filter.warn("Unable to get MimeMessage.", e);
             return Collections.emptyList();
         }
 
+        String key = name.toLowerCase();
+        List<String> values = headerValues.get(key);
+        if (values != null) {
+            return values;
+        }
         String[] headers = Mime.getHeaders(msg, name);
         if (headers == null) {
-            return Collections.emptyList();
+            values = Collections.emptyList();
+        } else if (addrHdrs.contains(key)) {
+            values = Collections.unmodifiableList(handleIDN(name, headers));
+        } else {
+            values = Collections.unmodifiableList(Arrays.asList(headers));
         }
-
-        if (addrHdrs.contains(name.toLowerCase()))
-            return handleIDN(name, headers);
-        else
-            return Arrays.asList(headers);
+        headerValues.put(key, values);
+        return values;
     }
 
     @Override
     public List<String> getHeaderNames() throws SieveMailException {
-        Set<String> headerNames = new HashSet<String>();
         MimeMessage msg;
         try {
-            msg = handler.getMimeMessage();
+            msg = getHeaderSource();
         } catch (ServiceException e) {
             ZimbraLog.filter.warn("Unable to get MimeMessage.", e);
             return Collections.emptyList();
         }
+        if (headerNames != null) {
+            return new ArrayList<String>(headerNames);
+        }
 
+        Set<String> names = new HashSet<String>();
         try {
             @SuppressWarnings("unchecked")
             Enumeration<Header> allHeaders = msg.getAllHeaders();
             while (allHeaders.hasMoreElements()) {
-                headerNames.add(allHeaders.nextElement().getName());
+                names.add(allHeaders.nextElement().getName());
             }
+            headerNames = new ArrayList<String>(names);
             return new ArrayList<String>(headerNames);
         } catch (MessagingException ex) {
             throw new SieveMailException(ex);
@@ -773,12 +816,22 @@ public class ZimbraMailAdapter implements MailAdapter, EnvelopeAccessors {
     public Address[] parseAddresses(String headerName) {
         MimeMessage msg;
         try {
-            msg = handler.getMimeMessage();
+            msg = getHeaderSource();
         } catch (ServiceException e) {
             ZimbraLog.filter.warn("Unable to get MimeMessage.", e);
             return FilterAddress.EMPTY_ADDRESS_ARRAY;
         }
 
+        String key = headerName.toLowerCase();
+        Address[] addresses = headerAddresses.get(key);
+        if (addresses == null) {
+            addresses = parseAddresses(msg, headerName);
+            headerAddresses.put(key, addresses);
+        }
+        return addresses.length == 0 ? addresses : addresses.clone();
+    }
+
+    private static Address[] parseAddresses(MimeMessage msg, String headerName) {
         String[] hdrValues = null;
         try {
             hdrValues = msg.getHeader(headerName);
@@ -919,6 +972,7 @@ public class ZimbraMailAdapter implements MailAdapter, EnvelopeAccessors {
     }
 
     public void updateIncomingBlob() {
+        clearHeaderCache();
         DeliveryContext ctxt = handler.getDeliveryContext();
         if (ctxt != null) {
             StoreManager sm = StoreManager.getInstance();
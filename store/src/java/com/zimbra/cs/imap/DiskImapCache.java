@@ -17,20 +17,20 @@
 package com.zimbra.cs.imap;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.zimbra.common.localconfig.LC;
-import com.zimbra.common.util.ByteUtil;
-import com.zimbra.cs.io.SecureObjectInputStream;
+import com.zimbra.common.util.ZimbraLog;
 
 /**
- * IMAP cache using local disk.
+ * IMAP cache using local disk. Each cached folder is a memory-mapped {@link ImapPageFile}; when a folder is cached
+ * again under a newer MODSEQ, only the records that changed since its last full page are written.
  *
  * @author dkarp
  * @author ysasaki
@@ -42,6 +42,9 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
     private static final File CACHE_DIR = new File(LC.zimbra_home.value(), CACHE_DATA_SUBDIR);
     private static final String IMAP_CACHEFILE_SUFFIX = ".i4c";
 
+    /** Most recent full page written for each folder (cache key minus MODSEQ), used as the base for delta pages. */
+    private final ConcurrentMap<String, String> basePages = new ConcurrentHashMap<String, String>();
+
     DiskImapCache() {
         CACHE_DIR.mkdirs();
 
@@ -52,36 +55,100 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
                 return o1.getName().compareTo(o2.getName());
             }
         });
+        List<File> obsolete = new ArrayList<File>();
+        List<File> survivors = new ArrayList<File>();
         File previous = null;
         String lastOwner = "", lastId = "";
         for (File cached : allCached) {
+            if (!cached.getName().endsWith(IMAP_CACHEFILE_SUFFIX)) {  // e.g. leftover temp files
+                cached.delete();
+                continue;
+            }
             String split = ImapSessionManager.isActiveKey(cached.getName()) ? "_" : ":";
             String[] parts = cached.getName().split(split);
             if (previous != null && parts.length >= 4) {
                 if (lastOwner.equals(parts[0]) && lastId.equals(parts[1])) {
-                    previous.delete();
+                    obsolete.add(previous);
                 } else {
-                    removeSessionFromFilename(previous);
+                    survivors.add(previous);
                 }
             }
             lastOwner = parts[0];  lastId = parts[1];
             previous = cached;
         }
-        removeSessionFromFilename(previous);
+        if (previous != null) {
+            survivors.add(previous);
+        }
+        // a surviving delta page has to be flattened before its base page goes away
+        for (File survivor : survivors) {
+            flatten(survivor);
+        }
+        for (File cached : obsolete) {
+            cached.delete();
+        }
+        for (File survivor : survivors) {
+            File pagefile = removeSessionFromFilename(survivor);
+            String name = pagefile.getName();
+            if (pagefile.exists() && !name.contains("+")) {
+                String key = name.substring(0, name.length() - IMAP_CACHEFILE_SUFFIX.length());
+                String folderKey = folderKey(key);
+                if (folderKey != null) {
+                    basePages.put(folderKey, key);
+                }
+            }
+        }
     }
 
     /**
      * Renames the passed-in {@link File} by removing everything from the {@code +} character to the extension. If the
      * filename does not contain {@code +}, does nothing.
+     *
+     * @return the file under its new name
      */
-    private static void removeSessionFromFilename(File file) {
-        if (file == null) {
-            return;
-        }
+    private static File removeSessionFromFilename(File file) {
         String filename = file.getName();
         if (filename.contains("+")) {
-            file.renameTo(new File(CACHE_DIR, filename.substring(0, filename.lastIndexOf("+")) + IMAP_CACHEFILE_SUFFIX));
+            File renamed = new File(CACHE_DIR, filename.substring(0, filename.lastIndexOf("+")) + IMAP_CACHEFILE_SUFFIX);
+            if (file.renameTo(renamed)) {
+                return renamed;
+            }
         }
+        return file;
+    }
+
+    /**
+     * Rewrites a delta page as a full page, so that it no longer depends on its base page.
+     */
+    private static void flatten(File pagefile) {
+        File tmpfile = new File(CACHE_DIR, pagefile.getName() + ".tmp");
+        try {
+            ImapPageFile page = ImapPageFile.load(pagefile);
+            if (!page.isDelta()) {
+                return;
+            }
+            ImapPageFile.write(tmpfile, page.toFolder(), null);
+            if (!tmpfile.renameTo(pagefile)) {
+                throw new IOException("unable to rename " + tmpfile);
+            }
+        } catch (Exception e) {
+            ZimbraLog.imap.debug("discarding unreadable IMAP cache pagefile %s", pagefile, e);
+            tmpfile.delete();
+            pagefile.delete();
+        }
+    }
+
+    /**
+     * Returns the part of the cache key that identifies the folder and its UIDVALIDITY, i.e. everything but the MODSEQ
+     * and the session, or {@code null} if the key is not in the expected format.
+     */
+    private static String folderKey(String key) {
+        int plus = key.indexOf('+');
+        if (plus >= 0) {
+            key = key.substring(0, plus);
+        }
+        String split = ImapSessionManager.isActiveKey(key) ? "_" : ":";
+        String[] parts = key.split(split);
+        return parts.length == 4 ? parts[0] + split + parts[1] + split + parts[3] : null;
     }
 
     @Override
@@ -90,20 +157,25 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
         if (pagefile.exists()) {
             return;
         }
-        FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
+        String folderKey = folderKey(key);
+        String baseKey = folderKey == null ? null : basePages.get(folderKey);
+        ImapPageFile base = null;
+        if (baseKey != null) {
+            try {
+                base = ImapPageFile.open(new File(CACHE_DIR, baseKey + IMAP_CACHEFILE_SUFFIX));
+            } catch (IOException e) {
+                basePages.remove(folderKey, baseKey);
+            }
+        }
         try {
-            oos = new ObjectOutputStream(fos = new FileOutputStream(pagefile));
-            synchronized (folder) {
-                oos.writeObject(folder);
+            boolean delta = ImapPageFile.write(pagefile, folder, base);
+            // pages cached under a session-specific key are not kept around for long enough to serve as a base
+            if (!delta && folderKey != null && !key.contains("+")) {
+                basePages.put(folderKey, key);
             }
         } catch (IOException e) {
-            ByteUtil.closeStream(oos);
-            ByteUtil.closeStream(fos);
+            ZimbraLog.imap.debug("unable to write IMAP cache pagefile %s", pagefile, e);
             pagefile.delete();
-        } finally {
-            ByteUtil.closeStream(oos);
-            ByteUtil.closeStream(fos);
         }
     }
 
@@ -113,20 +185,14 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
         if (!pagefile.exists()) {
             return null;
         }
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
         try {
-            // read serialized ImapFolder from cache
-            ois = new SecureObjectInputStream(fis = new FileInputStream(pagefile), ImapFolder.class.getName());
-            return (ImapFolder) ois.readObject();
+            // map the page; messages are only materialized as they are accessed
+            return ImapPageFile.load(pagefile).toFolder();
         } catch (Exception e) {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
+            // includes pagefiles written by older servers, and delta pages whose base page is gone
+            ZimbraLog.imap.debug("discarding unreadable IMAP cache pagefile %s", pagefile, e);
             pagefile.delete();
             return null;
-        } finally {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
         }
     }
 
@@ -134,6 +200,10 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
     public void remove(String key) {
         File pagefile = new File(CACHE_DIR, key + IMAP_CACHEFILE_SUFFIX);
         pagefile.delete();
+        String folderKey = folderKey(key);
+        if (folderKey != null) {
+            basePages.remove(folderKey, key);
+        }
     }
 
     @Override
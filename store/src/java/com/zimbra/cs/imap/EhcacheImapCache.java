@@ -26,6 +26,7 @@ import java.util.Set;
 import org.ehcache.Cache;
 import org.ehcache.spi.loaderwriter.CacheLoadingException;
 import org.ehcache.spi.loaderwriter.CacheWritingException;
+import org.ehcache.spi.serialization.SerializerException;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.util.Constants;
@@ -142,6 +143,11 @@ final class EhcacheImapCache implements ImapSessionManager.Cache<String, ImapFol
             ZimbraLog.imap.error("IMAP cache exception - removing offending key", ce);
             remove(key, true);
             return null;
+        } catch (SerializerException se) {
+            // most likely an entry persisted in an older format
+            ZimbraLog.imap.debug("IMAP cache unable to decode key %s - removing", key, se);
+            remove(key, true);
+            return null;
         }
     }
 
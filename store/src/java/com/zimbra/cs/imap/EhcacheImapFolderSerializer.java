@@ -0,0 +1,59 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+/**
+ * Ehcache value serializer for the off-heap and disk tiers of the IMAP session caches.
+ *
+ * @see ImapFolderSerializer
+ */
+public final class EhcacheImapFolderSerializer implements Serializer<ImapFolder> {
+
+    @Override
+    public ByteBuffer serialize(ImapFolder folder) throws SerializerException {
+        try {
+            return ByteBuffer.wrap(ImapFolderSerializer.serialize(folder));
+        } catch (IOException e) {
+            throw new SerializerException("Failed to serialize ImapFolder", e);
+        }
+    }
+
+    @Override
+    public ImapFolder read(ByteBuffer binary) throws SerializerException {
+        byte[] data = new byte[binary.remaining()];
+        binary.duplicate().get(data);
+        if (!ImapFolderSerializer.isEncoded(data)) {
+            throw new SerializerException("Failed to deserialize ImapFolder: unrecognized encoding");
+        }
+        try {
+            return ImapFolderSerializer.deserialize(data);
+        } catch (IOException e) {
+            throw new SerializerException("Failed to deserialize ImapFolder", e);
+        }
+    }
+
+    @Override
+    public boolean equals(ImapFolder folder, ByteBuffer binary) throws SerializerException {
+        return serialize(folder).equals(binary.duplicate());
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.MailboxStore;
+import com.zimbra.common.mailbox.ZimbraMailItem;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Pair;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailServiceException.NoSuchItemException;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.Metadata;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * The ENVELOPE, BODY and BODYSTRUCTURE of a message exactly as a FETCH response carries them.  They are computed
+ * when the message is stored and kept in its metadata, so clients resyncing headers don't make the server read and
+ * parse every blob.  Only the ENVELOPE and BODYSTRUCTURE are kept; BODY is the BODYSTRUCTURE without the extension
+ * data of each part, so it is cut out of that when needed.  Messages stored before this was kept get their
+ * structures computed on FETCH as before, and optionally filled in by a background {@link #scheduleBackfill backfill}.
+ */
+public final class ImapFetchStructure {
+
+    // bump this whenever the serialization in ImapMessage changes, so that stale structures are recomputed
+    private static final int VERSION = 1;
+
+    private static final String FN_VERSION = "v";
+    private static final String FN_ENVELOPE = "e";
+    private static final String FN_BODYSTRUCTURE = "bs";
+
+    private static final int BACKFILL_BATCH_SIZE = 100;
+    private static final ExecutorService BACKFILL_EXECUTOR = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("ImapStructureBackfill-%d").setDaemon(true).build());
+    private static final Set<String> BACKFILLED = ConcurrentHashMap.newKeySet();
+
+    private final String envelope;
+    private final String bodystructure;
+
+    private ImapFetchStructure(String envelope, String bodystructure) {
+        this.envelope = envelope;
+        this.bodystructure = bodystructure;
+    }
+
+    /**
+     * Computes the structures of a message about to be stored, or returns null if they shouldn't be kept: when the
+     * feature is off, or when the message was built in memory rather than parsed from the data being stored, in
+     * which case part sizes and line counts may not match that data.
+     */
+    public static ImapFetchStructure compute(ParsedMessage pm) {
+        if (!LC.imap_persist_fetch_structures.booleanValue() || !pm.isParsedFromRawData()) {
+            return null;
+        }
+        return compute(pm.getOriginalMessage());
+    }
+
+    /** Computes the structures of a message, or returns null if they are too long to keep or can't be built. */
+    public static ImapFetchStructure compute(MimeMessage mm) {
+        try {
+            ImapFetchStructure structure = new ImapFetchStructure(envelope(mm), structure(mm, true));
+            return structure.length() <= LC.imap_fetch_structures_max_length.intValue() ? structure : null;
+        } catch (IOException | MessagingException | RuntimeException e) {
+            ZimbraLog.imap.debug("unable to precompute FETCH structures", e);
+            return null;
+        }
+    }
+
+    private static String envelope(MimeMessage mm) throws IOException, MessagingException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(512);
+        PrintStream ps = new PrintStream(buf, false, Charsets.UTF_8.name());
+        ImapMessage.serializeEnvelope(ps, mm);
+        ps.flush();
+        return new String(buf.toByteArray(), Charsets.UTF_8);
+    }
+
+    private static String structure(MimeMessage mm, boolean extensions) throws IOException, MessagingException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(512);
+        PrintStream ps = new PrintStream(buf, false, Charsets.UTF_8.name());
+        ImapMessage.serializeStructure(ps, mm, extensions);
+        ps.flush();
+        return new String(buf.toByteArray(), Charsets.UTF_8);
+    }
+
+    /** Returns the structures kept for an item, or null if there are none. */
+    static ImapFetchStructure of(ZimbraMailItem item) {
+        return item instanceof Message ? ((Message) item).getImapFetchStructure() : null;
+    }
+
+    private int length() {
+        return envelope.length() + bodystructure.length();
+    }
+
+    void writeEnvelope(PrintStream ps) {
+        ps.print(envelope);
+    }
+
+    void writeBody(PrintStream ps) {
+        byte[] bs = bodystructure.getBytes(Charsets.UTF_8);
+        stripExtensions(bs, 0, ps);
+    }
+
+    void writeBodyStructure(PrintStream ps) {
+        ps.print(bodystructure);
+    }
+
+    /**
+     * Writes the body structure starting at {@code pos} without the extension data of any of its parts.  The layout
+     * is the one {@link ImapMessage#serializeStructure} writes: a multipart is its nested parts (or NIL) followed by
+     * the subtype; any other part has seven basic fields, then the line count of a TEXT part, or the envelope, body
+     * and line count of a MESSAGE/RFC822 part.
+     */
+    private static void stripExtensions(byte[] bs, int pos, PrintStream ps) {
+        List<int[]> fields = new ArrayList<int[]>();
+        int end = pos + 1;
+        while (bs[end] != ')') {
+            int start = bs[end] == ' ' ? end + 1 : end;
+            end = skip(bs, start);
+            fields.add(new int[] { start, end });
+        }
+
+        int keep, nested = -1;
+        if (bs[pos + 1] == '(' || bs[pos + 1] == 'N') {
+            keep = 0;
+            while (keep < fields.size() && bs[fields.get(keep)[0]] == '(') {
+                keep++;
+            }
+            keep = Math.max(keep, 1) + 1;
+        } else {
+            String type = string(bs, fields.get(0)), subtype = string(bs, fields.get(1));
+            if ("TEXT".equals(type)) {
+                keep = 8;
+            } else if ("MESSAGE".equals(type) && "RFC822".equals(subtype)) {
+                keep = 10;
+                nested = 8;
+            } else {
+                keep = 7;
+            }
+        }
+
+        ps.write('(');
+        for (int i = 0, last = pos + 1; i < Math.min(keep, fields.size()); i++) {
+            int[] field = fields.get(i);
+            ps.write(bs, last, field[0] - last);
+            if (bs[field[0]] == '(' && (nested < 0 ? i < keep - 1 : i == nested)) {
+                stripExtensions(bs, field[0], ps);
+            } else {
+                ps.write(bs, field[0], field[1] - field[0]);
+            }
+            last = field[1];
+        }
+        ps.write(')');
+    }
+
+    /** Returns the position just past the list, string, literal or atom at {@code pos}. */
+    private static int skip(byte[] bs, int pos) {
+        switch (bs[pos]) {
+            case '(':
+                pos++;
+                while (bs[pos] != ')') {
+                    pos = bs[pos] == ' ' ? pos + 1 : skip(bs, pos);
+                }
+                return pos + 1;
+            case '"':
+                pos++;
+                while (bs[pos] != '"') {
+                    pos += bs[pos] == '\\' ? 2 : 1;
+                }
+                return pos + 1;
+            case '{':
+                int close = pos + 1, length = 0;
+                while (bs[close] != '}') {
+                    length = length * 10 + bs[close++] - '0';
+                }
+                return close + 3 + length;
+            default:
+                while (pos < bs.length && bs[pos] != ' ' && bs[pos] != ')' && bs[pos] != '(') {
+                    pos++;
+                }
+                return pos;
+        }
+    }
+
+    /** Returns the value of a quoted string or literal field, or null for anything else. */
+    private static String string(byte[] bs, int[] field) {
+        if (bs[field[0]] == '"') {
+            return new String(bs, field[0] + 1, field[1] - field[0] - 2, Charsets.UTF_8);
+        } else if (bs[field[0]] == '{') {
+            int start = field[0];
+            while (bs[start] != '}') {
+                start++;
+            }
+            return new String(bs, start + 3, field[1] - start - 3, Charsets.UTF_8);
+        }
+        return null;
+    }
+
+    public Metadata encodeMetadata() {
+        Metadata meta = new Metadata();
+        meta.put(FN_VERSION, VERSION);
+        meta.put(FN_ENVELOPE, envelope);
+        meta.put(FN_BODYSTRUCTURE, bodystructure);
+        return meta;
+    }
+
+    /** Returns the structures encoded in {@code meta}, or null if there are none or they are out of date. */
+    public static ImapFetchStructure decodeMetadata(Metadata meta) throws ServiceException {
+        if (meta == null || meta.getInt(FN_VERSION, 0) != VERSION) {
+            return null;
+        }
+        String envelope = meta.get(FN_ENVELOPE, null), bodystructure = meta.get(FN_BODYSTRUCTURE, null);
+        if (envelope == null || bodystructure == null) {
+            return null;
+        }
+        return new ImapFetchStructure(envelope, bodystructure);
+    }
+
+    /**
+     * Queues a background pass over the messages of a folder that computes and stores the structures of those
+     * stored without them.  Each folder is only passed over once per server run, and folders are done one at a
+     * time so that the backfill never competes with more than one blob read.
+     */
+    static void scheduleBackfill(MailboxStore store, final int folderId) {
+        if (!LC.imap_fetch_structures_backfill.booleanValue() || !(store instanceof Mailbox)) {
+            return;
+        }
+        final Mailbox mbox = (Mailbox) store;
+        if (!BACKFILLED.add(mbox.getAccountId() + ':' + folderId)) {
+            return;
+        }
+        BACKFILL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int count = backfill(mbox, folderId);
+                    if (count > 0) {
+                        ZimbraLog.imap.info("stored FETCH structures of %d messages in folder %d", count, folderId);
+                    }
+                } catch (ServiceException e) {
+                    ZimbraLog.imap.warn("unable to backfill FETCH structures in folder %d", folderId, e);
+                }
+            }
+        });
+    }
+
+    /** Computes and stores the missing structures of the messages in a folder; returns how many were stored. */
+    static int backfill(Mailbox mbox, int folderId) throws ServiceException {
+        List<Integer> ids = mbox.listItemIds(null, MailItem.Type.MESSAGE, folderId);
+        Map<Integer, Pair<Integer, ImapFetchStructure>> batch =
+                new LinkedHashMap<Integer, Pair<Integer, ImapFetchStructure>>();
+        int count = 0;
+        for (int id : ids) {
+            Message msg;
+            try {
+                msg = mbox.getMessageById(null, id);
+            } catch (NoSuchItemException e) {
+                continue;
+            }
+            if (msg.getImapFetchStructure() != null) {
+                continue;
+            }
+            // computed outside the mailbox lock; the content sequence catches a draft saved in the meantime
+            ImapFetchStructure structure = compute(msg.getMimeMessage(false));
+            if (structure != null) {
+                batch.put(id, new Pair<Integer, ImapFetchStructure>(msg.getSavedSequence(), structure));
+            }
+            if (batch.size() >= BACKFILL_BATCH_SIZE) {
+                count += mbox.cacheImapFetchStructures(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            count += mbox.cacheImapFetchStructures(batch);
+        }
+        return count;
+    }
+}
@@ -74,7 +74,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     private final int uidValidity;
     private String query;
     private Set<MailItem.Type> typeConstraint = ImapHandler.ITEM_TYPES;
-    private final List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+    private final List<ImapMessage> sequence;
     private final ImapFlagCache tags;   // operationally could be "transient", but that makes deserialization replay depend on magic
 
     // below this point are session-specific attributes of the folder SELECT state
@@ -121,6 +121,20 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         this.mailboxStore = ImapMailboxStore.get(folder.getMailboxStore());
         this.folderIdentifier = this.mailboxStore.getTargetItemIdentifier(folder);
         this.tags = new ImapFlagCache();
+        this.sequence = new ArrayList<ImapMessage>();
+    }
+
+    /** Initializes a folder read back from the IMAP cache by {@link ImapFolderSerializer}, backed by
+     *  the given message list.  As with a Java-deserialized folder, it must be {@link #restore restored}
+     *  before use. */
+    ImapFolder(ItemIdentifier folderIdentifier, int uidValidity, String query, Set<MailItem.Type> typeConstraint,
+            ImapFlagCache tags, List<ImapMessage> sequence) {
+        this.folderIdentifier = folderIdentifier;
+        this.uidValidity = uidValidity;
+        this.query = query;
+        this.typeConstraint = typeConstraint;
+        this.tags = tags;
+        this.sequence = sequence;
     }
 
     protected void setInitialSize() {
@@ -299,6 +313,11 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
     }
 
+    /** Returns the live {@link #sequence} message list.  Callers must hold the folder's monitor. */
+    List<ImapMessage> getSequence() {
+        return sequence;
+    }
+
     public ImapPath getPath() {
         return path;
     }
@@ -336,8 +355,16 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
      *         and only if the key is found.
      * @see Collections#binarySearch(List, Object) */
     private int uidSearch(int uid) {
-        int low = 0;
+        return uidSearch(uid, 0);
+    }
+
+    /** Binary search for the given UID among the messages at or after position {@code low}, trying
+     *  {@code low} itself first so that a caller walking the folder in UID order rarely has to search. */
+    int uidSearch(int uid, int low) {
         int high = getSize() - 1;
+        if (low <= high && sequence.get(low).imapUid == uid) {
+            return low;
+        }
         while (low <= high) {
             int mid = (low + high) >> 1;
             int targetUid = sequence.get(mid).imapUid;
@@ -688,10 +715,10 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     protected ImapMessageSet getSavedSearchResults() {
         SessionData sdata = sessionData;
         if (sdata == null) {
-            return new ImapMessageSet();
+            return new ImapMessageSet(this);
         }
         if (sdata.savedSearchResults == null) {
-            sdata.savedSearchResults = new ImapMessageSet();
+            sdata.savedSearchResults = new ImapMessageSet(this);
         }
         return sdata.savedSearchResults;
     }
@@ -712,16 +739,16 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     }
 
     protected synchronized ImapMessageSet getAllMessages() {
-        ImapMessageSet result = new ImapMessageSet();
+        ImapMessageSet result = new ImapMessageSet(this);
         if (getSize() > 0) {
             result.addAll(sequence);
             result.remove(null);
         }
-        return result;
+        return result.compact();
     }
 
     protected synchronized ImapMessageSet getFlaggedMessages(ImapFlag i4flag) {
-        ImapMessageSet result = new ImapMessageSet();
+        ImapMessageSet result = new ImapMessageSet(this);
         if (i4flag != null && getSize() > 0) {
             for (ImapMessage i4msg : sequence) {
                 if (i4msg != null && i4flag.matches(i4msg)) {
@@ -895,7 +922,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     protected ImapMessageSet getSubsequence(String tag, String subseqStr, boolean byUID, boolean allowOutOfRangeMsgSeq,
             boolean includeExpunged)
     throws ImapParseException {
-        ImapMessageSet result = new ImapMessageSet();
+        ImapMessageSet result = new ImapMessageSet(this);
         if (subseqStr == null || subseqStr.trim().isEmpty()) {
             return result;
         } else if ("$".equals(subseqStr)) {
@@ -938,7 +965,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             }
         }
 
-        return result;
+        return result.compact();
     }
 
     protected String cropSubsequence(String subseqStr, boolean byUID, int croplow, int crophigh) {
@@ -0,0 +1,312 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Compact binary encoding of the cacheable state of an {@link ImapFolder}, used by all the
+ * {@link ImapSessionManager.Cache} implementations in place of Java serialization.
+ * <p>
+ * The stream starts with a magic number and a format version, followed by the folder attributes,
+ * the folder's tag cache, a dictionary of the distinct (flags, session flags) combinations and a
+ * dictionary of the distinct tag names in the folder. Each message then takes a single record of
+ * varints: the UID as a delta from the previous UID, the item ID as a delta from the UID (zero in
+ * the common case), the index of its flag combination and the indexes of its tags. A typical
+ * message is encoded in 3 or 4 bytes.
+ * <p>
+ * Neither the encoder nor the decoder buffers the whole message list, so large folders can be
+ * streamed to and from disk.
+ */
+final class ImapFolderSerializer {
+
+    private static final int MAGIC = 0x49344643; // "I4FC"
+    static final int VERSION = 1;
+
+    private ImapFolderSerializer() {
+    }
+
+    static byte[] serialize(ImapFolder folder) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+        encode(folder, bout);
+        return bout.toByteArray();
+    }
+
+    static ImapFolder deserialize(byte[] data) throws IOException {
+        return decode(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Returns whether the data starts with the header written by {@link #encode}, as opposed to
+     * data written by an older version of the server.
+     */
+    static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= 4 &&
+                ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Writes the folder to the stream. The stream is flushed but not closed.
+     */
+    static void encode(ImapFolder folder, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 8192));
+        synchronized (folder) {
+            out.writeInt(MAGIC);
+            writeVarint(out, VERSION);
+
+            writeAttributes(out, folder);
+
+            // dictionaries built in a first pass so that the records can be decoded in a single pass
+            List<ImapMessage> sequence = folder.getSequence();
+            Map<Long, Integer> flagIndex = new HashMap<Long, Integer>();
+            List<Long> flagDict = new ArrayList<Long>();
+            Map<String, Integer> tagIndex = new HashMap<String, Integer>();
+            List<String> tagDict = new ArrayList<String>();
+            for (ImapMessage i4msg : sequence) {
+                Long key = flagKey(i4msg);
+                if (!flagIndex.containsKey(key)) {
+                    flagIndex.put(key, flagDict.size());
+                    flagDict.add(key);
+                }
+                if (i4msg.tags != null) {
+                    for (String tag : i4msg.tags) {
+                        if (!tagIndex.containsKey(tag)) {
+                            tagIndex.put(tag, tagDict.size());
+                            tagDict.add(tag);
+                        }
+                    }
+                }
+            }
+            writeVarint(out, flagDict.size());
+            for (long key : flagDict) {
+                writeSignedVarlong(out, key);
+            }
+            writeVarint(out, tagDict.size());
+            for (String tag : tagDict) {
+                writeString(out, tag);
+            }
+
+            writeVarint(out, sequence.size());
+            int prevUid = 0;
+            for (ImapMessage i4msg : sequence) {
+                writeSignedVarint(out, i4msg.imapUid - prevUid);
+                writeSignedVarint(out, i4msg.msgId - i4msg.imapUid);
+                writeVarint(out, flagIndex.get(flagKey(i4msg)));
+                if (i4msg.tags == null) {
+                    writeVarint(out, 0);
+                } else {
+                    writeVarint(out, i4msg.tags.length + 1);
+                    for (String tag : i4msg.tags) {
+                        writeVarint(out, tagIndex.get(tag));
+                    }
+                }
+                prevUid = i4msg.imapUid;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a folder written by {@link #encode}. The returned folder must be restored to a session
+     * before use, just like a Java-deserialized one.
+     */
+    static ImapFolder decode(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 8192));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an encoded ImapFolder");
+        }
+        int version = readVarint(in);
+        if (version != VERSION) {
+            throw new IOException("unsupported ImapFolder encoding version " + version);
+        }
+
+        List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+        ImapFolder folder = readAttributes(in, sequence);
+
+        long[] flagDict = new long[readVarint(in)];
+        for (int i = 0; i < flagDict.length; i++) {
+            flagDict[i] = readSignedVarlong(in);
+        }
+        String[] tagDict = new String[readVarint(in)];
+        for (int i = 0; i < tagDict.length; i++) {
+            tagDict[i] = readString(in);
+        }
+
+        int count = readVarint(in);
+        int uid = 0;
+        for (int seq = 1; seq <= count; seq++) {
+            uid += readSignedVarint(in);
+            int msgId = uid + readSignedVarint(in);
+            long key = flagDict[readVarint(in)];
+            int ntags = readVarint(in);
+            String[] tags = null;
+            if (ntags > 0) {
+                tags = new String[ntags - 1];
+                for (int t = 0; t < tags.length; t++) {
+                    tags[t] = tagDict[readVarint(in)];
+                }
+            }
+            ImapMessage i4msg = new ImapMessage(msgId, uid, (int) (key >>> 16), (short) key, tags);
+            i4msg.sequence = seq;
+            sequence.add(i4msg);
+        }
+        return folder;
+    }
+
+    /**
+     * Writes the attributes of the folder itself and its tag cache, but none of its messages.
+     */
+    static void writeAttributes(DataOutputStream out, ImapFolder folder) throws IOException {
+        ItemIdentifier ident = folder.getItemIdentifier();
+        writeString(out, ident.accountId);
+        writeSignedVarint(out, ident.id);
+        writeSignedVarint(out, ident.subPartId);
+        writeSignedVarint(out, folder.getUIDValidity());
+        writeString(out, folder.isVirtual() ? folder.getQuery() : null);
+        Set<MailItem.Type> types = folder.getTypeConstraint();
+        writeVarint(out, types.size());
+        for (MailItem.Type type : types) {
+            out.writeByte(type.toByte());
+        }
+
+        List<ImapFlag> flags = new ArrayList<ImapFlag>();
+        for (ImapFlag i4flag : folder.getTagset()) {
+            flags.add(i4flag);
+        }
+        writeVarint(out, flags.size());
+        for (ImapFlag i4flag : flags) {
+            writeString(out, i4flag.mName);
+            writeString(out, i4flag.mImapName);
+            writeSignedVarint(out, i4flag.mId);
+            writeSignedVarlong(out, i4flag.mBitmask);
+            out.writeByte((i4flag.mPositive ? 0x01 : 0) | (i4flag.mPermanent ? 0x02 : 0) | (i4flag.mListed ? 0x04 : 0));
+        }
+    }
+
+    /**
+     * Reads the attributes written by {@link #writeAttributes} into a new folder backed by the given message list.
+     */
+    static ImapFolder readAttributes(DataInputStream in, List<ImapMessage> sequence) throws IOException {
+        String accountId = readString(in);
+        int id = readSignedVarint(in);
+        int subPartId = readSignedVarint(in);
+        int uidValidity = readSignedVarint(in);
+        String query = readString(in);
+        Set<MailItem.Type> types = EnumSet.noneOf(MailItem.Type.class);
+        for (int i = readVarint(in); i > 0; i--) {
+            types.add(MailItem.Type.of(in.readByte()));
+        }
+
+        ImapFlagCache tagset = new ImapFlagCache();
+        for (int i = readVarint(in); i > 0; i--) {
+            String name = readString(in);
+            String imapName = readString(in);
+            int flagId = readSignedVarint(in);
+            long bitmask = readSignedVarlong(in);
+            int bits = in.readByte();
+            tagset.cache(new ImapFlag(name, imapName, flagId, bitmask,
+                    (bits & 0x01) != 0, (bits & 0x02) != 0, (bits & 0x04) != 0));
+        }
+        return new ImapFolder(new ItemIdentifier(accountId, id, subPartId), uidValidity, query, types, tagset,
+                sequence);
+    }
+
+    static long flagKey(ImapMessage i4msg) {
+        return ((long) i4msg.flags << 16) | (i4msg.sflags & 0xFFFFL);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        writeVarlong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeSignedVarint(DataOutputStream out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static void writeSignedVarlong(DataOutputStream out, long value) throws IOException {
+        writeVarlong(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarint(DataInputStream in) throws IOException {
+        return (int) readVarlong(in);
+    }
+
+    static int readSignedVarint(DataInputStream in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readSignedVarlong(DataInputStream in) throws IOException {
+        long value = readVarlong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarlong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
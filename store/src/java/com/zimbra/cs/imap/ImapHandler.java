@@ -1875,6 +1875,7 @@ public abstract class ImapHandler {
                     false /* standalone */, true /* allowOutOfRangeMsgSeq */);
         }
 
+        ImapFetchStructure.scheduleBackfill(selectedFolderListener.getMailbox(), i4folder.getId());
         sendOK(tag, (writable ? "[READ-WRITE] " : "[READ-ONLY] ") + command + " completed");
         return true;
     }
@@ -3640,7 +3641,7 @@ public abstract class ImapHandler {
                     mboxStore.unlock();
                 }
             } else {
-                hits = unsorted ? new ImapMessageSet() : new ArrayList<ImapMessage>();
+                hits = unsorted ? new ImapMessageSet(i4folder) : new ArrayList<ImapMessage>();
                 try (ZimbraQueryHitResults zqr = runSearch(i4search, i4folder, sort,
                     requiresMODSEQ ? SearchParams.Fetch.MODSEQ : SearchParams.Fetch.IDS)) {
                     for (ZimbraQueryHit hit = zqr.getNext(); hit != null; hit = zqr.getNext()) {
@@ -3659,7 +3660,7 @@ public abstract class ImapHandler {
             //              to return the NO tagged response sets the value of the search result
             //              variable to the empty sequence."
             if (saveResults) {
-                i4folder.saveSearchResults(new ImapMessageSet());
+                i4folder.saveSearchResults(new ImapMessageSet(i4folder));
             }
             ZimbraLog.imap.warn("%s failed", command, e);
             sendNO(tag, command + " failed");
@@ -3711,9 +3712,9 @@ public abstract class ImapHandler {
         }
         if (saveResults) {
             if (size == 0 || options == RETURN_SAVE || (options & (RETURN_COUNT | RETURN_ALL)) != 0) {
-                i4folder.saveSearchResults(unsorted ? (ImapMessageSet) hits : new ImapMessageSet(hits));
+                i4folder.saveSearchResults(unsorted ? (ImapMessageSet) hits : new ImapMessageSet(i4folder, hits));
             } else {
-                ImapMessageSet saved = new ImapMessageSet();
+                ImapMessageSet saved = new ImapMessageSet(i4folder);
                 if (first != null && (options & RETURN_MIN) != 0) {
                     saved.add(first);
                 }
@@ -3969,7 +3970,7 @@ public abstract class ImapHandler {
         if (changedSince >= 0) {
             try {
                 // get a list of all the messages modified since the checkpoint
-                ImapMessageSet modified = new ImapMessageSet();
+                ImapMessageSet modified = new ImapMessageSet(i4folder);
                 for (int id : mbox.getIdsOfModifiedItemsInFolder(getContext(), changedSince, i4folder.getId())) {
                     ImapMessage i4msg = i4folder.getById(id);
                     if (i4msg != null) {
@@ -4056,23 +4057,38 @@ public abstract class ImapHandler {
                     }
 
                     if ((parts != null && !parts.isEmpty()) || (attributes & FETCH_FROM_MIME) != 0) {
-                        mm = ImapMessage.getMimeMessage(item);
+                        // structures stored with the message spare us reading the blob unless parts were asked for
+                        ImapFetchStructure structure = ImapFetchStructure.of(item);
+                        mm = structure == null || (parts != null && !parts.isEmpty()) ?
+                                ImapMessage.getMimeMessage(item) : null;
                         if ((attributes & FETCH_BODY) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("BODY ");
-                            ImapMessage.serializeStructure(result, mm, false);
+                            if (structure != null) {
+                                structure.writeBody(result);
+                            } else {
+                                ImapMessage.serializeStructure(result, mm, false);
+                            }
                             empty = false;
                         }
                         if ((attributes & FETCH_BODYSTRUCTURE) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("BODYSTRUCTURE ");
-                            ImapMessage.serializeStructure(result, mm, true);
+                            if (structure != null) {
+                                structure.writeBodyStructure(result);
+                            } else {
+                                ImapMessage.serializeStructure(result, mm, true);
+                            }
                             empty = false;
                         }
                         if ((attributes & FETCH_ENVELOPE) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("ENVELOPE ");
-                            ImapMessage.serializeEnvelope(result, mm);
+                            if (structure != null) {
+                                structure.writeEnvelope(result);
+                            } else {
+                                ImapMessage.serializeEnvelope(result, mm);
+                            }
                             empty = false;
                         }
                         if (parts != null) {
@@ -4252,7 +4268,7 @@ public abstract class ImapHandler {
         if (!modseqEnabled && modseq >= 0) {
             throw new ImapParseException(tag, "NOMODSEQ", "cannot STORE UNCHANGEDSINCE in this mailbox", true);
         }
-        ImapMessageSet modifyConflicts = modseqEnabled ? new ImapMessageSet() : null;
+        ImapMessageSet modifyConflicts = modseqEnabled ? new ImapMessageSet(i4folder) : null;
 
         String command = (byUID ? "UID STORE" : "STORE");
         List<Tag> newTags = (operation != StoreAction.REMOVE ? new ArrayList<Tag>() : null);
@@ -4314,10 +4330,12 @@ public abstract class ImapHandler {
             int i = 0;
             List<ImapMessage> i4list = new ArrayList<ImapMessage>(SUGGESTED_BATCH_SIZE);
             List<Integer> idlist = new ArrayList<Integer>(SUGGESTED_BATCH_SIZE);
-            for (ImapMessage msg : i4set) {
-                // we're sending 'em off in batches of 100
+            for (Iterator<ImapMessage> it = i4set.iterator(); it.hasNext(); ) {
+                ImapMessage msg = it.next();
+                // we're sending 'em off in batches of 100; the set's size may include expunged messages the
+                // iterator skips, so the last batch is the one that ends the iteration
                 i4list.add(msg);  idlist.add(msg.msgId);
-                if (++i % SUGGESTED_BATCH_SIZE != 0 && i != i4set.size()) {
+                if (++i % SUGGESTED_BATCH_SIZE != 0 && it.hasNext()) {
                     continue;
                 }
                 mbox.lock(true);
@@ -4519,8 +4537,8 @@ public abstract class ImapHandler {
             ItemIdentifier targetIdentifier = iidTarget.toItemIdentifier();
 
             long checkpoint = System.currentTimeMillis();
-            List<Integer> copyUIDs = extensionEnabled("UIDPLUS") ? Lists.newArrayListWithCapacity(i4set.size()) : null;
             final List<ImapMessage> i4list = Lists.newArrayList(i4set);
+            List<Integer> copyUIDs = extensionEnabled("UIDPLUS") ? Lists.newArrayListWithCapacity(i4list.size()) : null;
             final List<List<ImapMessage>> batches = Lists.partition(i4list, SUGGESTED_COPY_BATCH_SIZE);
             for (List<ImapMessage> batch : batches) {
                 if (sameMailbox && !selectedFolderInOtherMailbox) {
@@ -4537,8 +4555,8 @@ public abstract class ImapHandler {
             }
 
             if (uvv > 0 && copyUIDs != null && copyUIDs.size() > 0) {
-                List<Integer> srcUIDs = Lists.newArrayListWithCapacity(i4set.size());
-                for (ImapMessage i4msg : i4set) {
+                List<Integer> srcUIDs = Lists.newArrayListWithCapacity(i4list.size());
+                for (ImapMessage i4msg : i4list) {
                     srcUIDs.add(i4msg.imapUid);
                 }
                 copyuid = "[COPYUID " + uvv + ' ' + ImapFolder.encodeSubsequence(srcUIDs) + ' ' +
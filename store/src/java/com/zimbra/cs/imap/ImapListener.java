@@ -306,11 +306,7 @@ public abstract class ImapListener extends Session {
 
                 // save the session data in a simple form
                 if (mOriginalSessionData.savedSearchResults != null) {
-                    mSavedSearchIds = new int[mOriginalSessionData.savedSearchResults.size()];
-                    int pos = 0;
-                    for (ImapMessage i4msg : mOriginalSessionData.savedSearchResults) {
-                        mSavedSearchIds[pos++] = i4msg.imapUid;
-                    }
+                    mSavedSearchIds = mOriginalSessionData.savedSearchResults.uids();
                 }
 
                 if (!mOriginalSessionData.dirtyMessages.isEmpty()) {
@@ -348,7 +344,7 @@ public abstract class ImapListener extends Session {
             private ImapFolder.SessionData asFolderData(ImapFolder i4folder) {
                 if (mOriginalSessionData != null) {
                     if (mSavedSearchIds != null) {
-                        mOriginalSessionData.savedSearchResults = new ImapMessageSet();
+                        mOriginalSessionData.savedSearchResults = new ImapMessageSet(i4folder);
                         for (int uid : mSavedSearchIds) {
                             mOriginalSessionData.savedSearchResults.add(i4folder.getByImapId(uid));
                         }
@@ -23,6 +23,7 @@ import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
@@ -31,9 +32,9 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.TreeSet;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.InternetAddress;
@@ -83,16 +84,212 @@ import com.zimbra.soap.mail.type.ImapMessageInfo;
 public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializable {
     private static final long serialVersionUID = -1756550148606322493L;
 
-    static class ImapMessageSet extends TreeSet<ImapMessage> {
-        private static final long serialVersionUID = 4831178352505203361L;
+    /**
+     * A set of messages from one folder, stored as a compressed bitmap of their IMAP UIDs.  UIDs ascend with
+     * sequence numbers, so iteration is in sequence order; unlike sequence numbers they don't shift on EXPUNGE, so
+     * long-lived sets such as saved SEARCH results stay valid.  Messages are looked up in the folder as the set is
+     * iterated, and any that have since left the folder are skipped; {@link #size}, {@link #isEmpty} and
+     * {@link #contains} skip them too.  As in a {@code TreeSet} ordered by {@link SequenceComparator},
+     * {@code null} may be added and sorts first.
+     */
+    static final class ImapMessageSet extends AbstractSet<ImapMessage> {
+        private final ImapFolder folder;
+        private final IntBitmap uids;
+        private boolean containsNull;
+
+        ImapMessageSet(ImapFolder folder) {
+            this.folder = folder;
+            this.uids = new IntBitmap();
+        }
+
+        ImapMessageSet(ImapFolder folder, Collection<ImapMessage> msgs) {
+            this(folder);
+            addAll(msgs);
+        }
 
-        ImapMessageSet() {
-            super(new SequenceComparator());
+        /** Counts the messages still in the folder, so this walks the set like {@link #iterator}. */
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<ImapMessage> it = iterator(); it.hasNext(); it.next()) {
+                size++;
+            }
+            return size;
         }
 
-        ImapMessageSet(Collection<ImapMessage> msgs) {
-            this();
-            addAll(msgs);
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (o == null) {
+                return containsNull;
+            }
+            return o instanceof ImapMessage && uids.contains(((ImapMessage) o).imapUid) &&
+                    resolve(((ImapMessage) o).imapUid) != null;
+        }
+
+        /** Returns the number of UIDs in the set, including any that have left the folder. */
+        private int cardinality() {
+            return uids.cardinality() + (containsNull ? 1 : 0);
+        }
+
+        @Override
+        public boolean add(ImapMessage i4msg) {
+            if (i4msg == null) {
+                boolean added = !containsNull;
+                containsNull = true;
+                return added;
+            }
+            return uids.add(i4msg.imapUid);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o == null) {
+                boolean removed = containsNull;
+                containsNull = false;
+                return removed;
+            }
+            return o instanceof ImapMessage && uids.remove(((ImapMessage) o).imapUid);
+        }
+
+        @Override
+        public void clear() {
+            uids.clear();
+            containsNull = false;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends ImapMessage> c) {
+            if (!(c instanceof ImapMessageSet)) {
+                return super.addAll(c);
+            }
+            ImapMessageSet other = (ImapMessageSet) c;
+            int size = cardinality();
+            uids.or(other.uids);
+            containsNull |= other.containsNull;
+            return cardinality() != size;
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            if (!(c instanceof ImapMessageSet)) {
+                return super.retainAll(c);
+            }
+            ImapMessageSet other = (ImapMessageSet) c;
+            int size = cardinality();
+            uids.and(other.uids);
+            containsNull &= other.containsNull;
+            return cardinality() != size;
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            if (!(c instanceof ImapMessageSet)) {
+                return super.removeAll(c);
+            }
+            ImapMessageSet other = (ImapMessageSet) c;
+            int size = cardinality();
+            uids.andNot(other.uids);
+            containsNull &= !other.containsNull;
+            return cardinality() != size;
+        }
+
+        /** Returns the lowest-numbered message, or {@code null} if the set contains it. */
+        ImapMessage first() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return iterator().next();
+        }
+
+        /** Returns the highest-numbered message. */
+        ImapMessage last() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            ImapMessage i4msg = resolve(uids.last());
+            if (i4msg == null) {
+                // the last UID has left the folder; fall back to a walk
+                for (ImapMessage next : this) {
+                    i4msg = next;
+                }
+            }
+            return i4msg;
+        }
+
+        /** Returns the UIDs of the messages in the set, in ascending order. */
+        int[] uids() {
+            return uids.toArray();
+        }
+
+        /** Shrinks the set's storage once it is fully built. */
+        ImapMessageSet compact() {
+            uids.optimize();
+            return this;
+        }
+
+        private ImapMessage resolve(int uid) {
+            int pos = folder.uidSearch(uid, 0);
+            return pos < 0 ? null : folder.getBySequence(pos + 1, true);
+        }
+
+        @Override
+        public Iterator<ImapMessage> iterator() {
+            return new Iterator<ImapMessage>() {
+                private boolean nullPending = containsNull;
+                private int uid = uids.first();  // next UID to look up, or -1
+                private int pos;                 // where in the folder to look for it first
+                private ImapMessage next = lookahead();
+                private ImapMessage current;
+                private boolean removable;
+
+                /** Returns the next message still in the folder, or null once the UIDs run out. */
+                private ImapMessage lookahead() {
+                    while (uid >= 0) {
+                        int found = folder.uidSearch(uid, pos);
+                        uid = uid == Integer.MAX_VALUE ? -1 : uids.next(uid + 1);
+                        if (found >= 0) {
+                            pos = found + 1;
+                            return folder.getBySequence(found + 1, true);
+                        }
+                        pos = -found - 1;
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return nullPending || next != null;
+                }
+
+                @Override
+                public ImapMessage next() {
+                    if (nullPending) {
+                        nullPending = false;
+                        current = null;
+                    } else if (next != null) {
+                        current = next;
+                        next = lookahead();
+                    } else {
+                        throw new NoSuchElementException();
+                    }
+                    removable = true;
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (!removable) {
+                        throw new IllegalStateException();
+                    }
+                    removable = false;
+                    ImapMessageSet.this.remove(current);
+                }
+            };
         }
     }
 
@@ -159,6 +356,15 @@ public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializabl
         this.tags    = i4msg.tags;
     }
 
+    /** Restores a message from the IMAP cache, including its session flags. */
+    ImapMessage(int id, int imapId, int flags, short sflags, String[] tags) {
+        this.msgId   = id;
+        this.imapUid = imapId;
+        this.flags   = flags;
+        this.sflags  = sflags;
+        this.tags    = tags;
+    }
+
     ImapMessage(ImapMessageInfo msgInfo) {
         this.msgId   = msgInfo.getId();
         this.imapUid = msgInfo.getImapUid();
@@ -0,0 +1,433 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Memory-mapped page file holding the cached state of an {@link ImapFolder} for {@link DiskImapCache}.
+ * <p>
+ * Messages are stored as fixed-width records, so a page file can be mapped and its messages materialized on demand by
+ * index instead of being decoded up front. A page is either <i>full</i>, with one record per message, or a
+ * <i>delta</i> on top of an earlier full page of the same folder, holding only the records that differ from the base
+ * page (including any appended ones).
+ * <pre>
+ *   header   magic, version, flags, message count, record count, meta length, meta offset
+ *   records  full:  uid, item id, flag index, tag set index (-1 for none)
+ *            delta: message index, uid, item id, flag index, tag set index; sorted by message index
+ *   meta     [delta only: base page name, base message count]
+ *            flag combination dictionary, tag set dictionary, folder attributes
+ * </pre>
+ * The dictionaries of a delta page extend those of its base, so records from either page are decoded the same way.
+ */
+final class ImapPageFile {
+
+    private static final int MAGIC = 0x49345047; // "I4PG"
+    private static final int VERSION = 1;
+    private static final int FLAG_DELTA = 0x01;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 16;
+    private static final int DELTA_RECORD_SIZE = 4 + RECORD_SIZE;
+    /** A delta page is only written if it holds at most 1/MAX_DELTA_RATIO of the folder's records. */
+    private static final int MAX_DELTA_RATIO = 4;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int[] deltaIndexes; // null for a full page
+    private final String baseName;
+    private final int baseSize;
+    private final long[] flagDict;
+    private final String[][] tagDict;
+    private final byte[] meta;
+    private final int attributesOffset;
+    private ImapPageFile base;
+
+    private ImapPageFile(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("not an IMAP page file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("unsupported IMAP page file version " + version);
+        }
+        boolean delta = (buffer.getInt(8) & FLAG_DELTA) != 0;
+        size = buffer.getInt(12);
+        int records = buffer.getInt(16);
+        int metaLength = buffer.getInt(20);
+        long metaOffset = buffer.getLong(24);
+        if (size < 0 || records < 0 || metaLength < 0 || (!delta && records != size) ||
+                metaOffset != HEADER_SIZE + (long) records * (delta ? DELTA_RECORD_SIZE : RECORD_SIZE) ||
+                metaOffset + metaLength != buffer.capacity()) {
+            throw new IOException("corrupt IMAP page file header");
+        }
+
+        meta = new byte[metaLength];
+        ByteBuffer metaBuffer = buffer.duplicate();
+        metaBuffer.position((int) metaOffset);
+        metaBuffer.get(meta);
+        ByteArrayInputStream bin = new ByteArrayInputStream(meta);
+        DataInputStream in = new DataInputStream(bin);
+        if (delta) {
+            baseName = ImapFolderSerializer.readString(in);
+            baseSize = ImapFolderSerializer.readVarint(in);
+            deltaIndexes = new int[records];
+            int prev = -1;
+            for (int r = 0; r < records; r++) {
+                int index = buffer.getInt(HEADER_SIZE + r * DELTA_RECORD_SIZE);
+                if (index <= prev || index >= size) {
+                    throw new IOException("corrupt IMAP page file records");
+                }
+                deltaIndexes[r] = prev = index;
+            }
+            // every message past the end of the base page must have its own record
+            int appended = Math.max(0, size - baseSize);
+            int pos = Arrays.binarySearch(deltaIndexes, baseSize);
+            if (appended > 0 && (pos < 0 || records - pos != appended)) {
+                throw new IOException("corrupt IMAP page file records");
+            }
+        } else {
+            baseName = null;
+            baseSize = 0;
+            deltaIndexes = null;
+        }
+        flagDict = new long[ImapFolderSerializer.readVarint(in)];
+        for (int i = 0; i < flagDict.length; i++) {
+            flagDict[i] = ImapFolderSerializer.readSignedVarlong(in);
+        }
+        tagDict = new String[ImapFolderSerializer.readVarint(in)][];
+        for (int i = 0; i < tagDict.length; i++) {
+            String[] tags = new String[ImapFolderSerializer.readVarint(in)];
+            for (int t = 0; t < tags.length; t++) {
+                tags[t] = ImapFolderSerializer.readString(in);
+            }
+            tagDict[i] = tags;
+        }
+        attributesOffset = metaLength - bin.available();
+    }
+
+    /**
+     * Maps the page file, along with its base page if it is a delta.
+     */
+    static ImapPageFile load(File file) throws IOException {
+        ImapPageFile page = open(file);
+        if (page.isDelta()) {
+            ImapPageFile base = open(new File(file.getParentFile(), page.baseName));
+            if (base.isDelta() || base.size != page.baseSize || base.flagDict.length > page.flagDict.length ||
+                    base.tagDict.length > page.tagDict.length) {
+                throw new IOException("mismatched base page " + page.baseName);
+            }
+            page.base = base;
+        }
+        return page;
+    }
+
+    /**
+     * Maps the page file without resolving its base page.
+     */
+    static ImapPageFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("invalid IMAP page file length " + length);
+            }
+            // the mapping stays valid after the channel is closed
+            return new ImapPageFile(file, channel.map(MapMode.READ_ONLY, 0, length));
+        } finally {
+            raf.close();
+        }
+    }
+
+    boolean isDelta() {
+        return deltaIndexes != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a folder whose messages are materialized from this page as they are accessed. As with a deserialized
+     * folder, it must be restored to a session before use.
+     */
+    ImapFolder toFolder() throws IOException {
+        if (isDelta() && base == null) {
+            throw new IOException("base page not loaded");
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(meta, attributesOffset, meta.length - attributesOffset));
+        return ImapFolderSerializer.readAttributes(in, new PagedMessageList(this));
+    }
+
+    private ImapMessage load(int index) {
+        ImapPageFile page = this;
+        int offset;
+        int r = deltaIndexes == null ? -1 : Arrays.binarySearch(deltaIndexes, index);
+        if (r >= 0) {
+            offset = HEADER_SIZE + r * DELTA_RECORD_SIZE + 4;
+        } else {
+            if (deltaIndexes != null) {
+                page = base;
+            }
+            offset = HEADER_SIZE + index * RECORD_SIZE;
+        }
+        ByteBuffer buf = page.buffer;
+        long key = flagDict[buf.getInt(offset + 8)];
+        int tagIndex = buf.getInt(offset + 12);
+        ImapMessage i4msg = new ImapMessage(buf.getInt(offset + 4), buf.getInt(offset), (int) (key >>> 16), (short) key,
+                tagIndex < 0 ? null : tagDict[tagIndex]);
+        i4msg.sequence = index + 1;
+        return i4msg;
+    }
+
+    /**
+     * Writes the folder to a new page file. If a full base page of the same folder is given and the folder differs
+     * from it in few enough messages, a delta page holding just those messages is written instead.
+     *
+     * @return true if a delta page was written
+     */
+    static boolean write(File file, ImapFolder folder, ImapPageFile base) throws IOException {
+        if (base != null && base.isDelta()) {
+            base = null;
+        }
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream(1024);
+        DataOutputStream meta = new DataOutputStream(metaBytes);
+        int size;
+        int[] records;
+        int[] changed = null;
+        int nchanged = 0;
+        synchronized (folder) {
+            List<ImapMessage> sequence = folder.getSequence();
+            size = sequence.size();
+
+            // seed the dictionaries with the base page's so that unchanged records encode identically
+            Map<Long, Integer> flagIndex = new HashMap<Long, Integer>();
+            List<Long> flags = new ArrayList<Long>();
+            Map<List<String>, Integer> tagIndex = new HashMap<List<String>, Integer>();
+            List<String[]> tagSets = new ArrayList<String[]>();
+            if (base != null) {
+                for (long key : base.flagDict) {
+                    flagIndex.put(key, flags.size());
+                    flags.add(key);
+                }
+                for (String[] tags : base.tagDict) {
+                    tagIndex.put(Arrays.asList(tags), tagSets.size());
+                    tagSets.add(tags);
+                }
+            }
+
+            records = new int[size * 4];
+            for (int i = 0; i < size; i++) {
+                ImapMessage i4msg = sequence.get(i);
+                int r = i * 4;
+                records[r] = i4msg.imapUid;
+                records[r + 1] = i4msg.msgId;
+                Long key = ImapFolderSerializer.flagKey(i4msg);
+                Integer fi = flagIndex.get(key);
+                if (fi == null) {
+                    flagIndex.put(key, fi = flags.size());
+                    flags.add(key);
+                }
+                records[r + 2] = fi;
+                if (i4msg.tags == null) {
+                    records[r + 3] = -1;
+                } else {
+                    List<String> tagKey = Arrays.asList(i4msg.tags);
+                    Integer ti = tagIndex.get(tagKey);
+                    if (ti == null) {
+                        tagIndex.put(tagKey, ti = tagSets.size());
+                        tagSets.add(i4msg.tags.clone());
+                    }
+                    records[r + 3] = ti;
+                }
+            }
+
+            if (base != null) {
+                changed = new int[size / MAX_DELTA_RATIO];
+                for (int i = 0; i < size; i++) {
+                    if (i >= base.size || !base.matches(i, records)) {
+                        if (nchanged == changed.length) {
+                            changed = null;
+                            break;
+                        }
+                        changed[nchanged++] = i;
+                    }
+                }
+            }
+
+            if (changed != null) {
+                ImapFolderSerializer.writeString(meta, base.file.getName());
+                ImapFolderSerializer.writeVarint(meta, base.size);
+            }
+            ImapFolderSerializer.writeVarint(meta, flags.size());
+            for (long key : flags) {
+                ImapFolderSerializer.writeSignedVarlong(meta, key);
+            }
+            ImapFolderSerializer.writeVarint(meta, tagSets.size());
+            for (String[] tags : tagSets) {
+                ImapFolderSerializer.writeVarint(meta, tags.length);
+                for (String tag : tags) {
+                    ImapFolderSerializer.writeString(meta, tag);
+                }
+            }
+            ImapFolderSerializer.writeAttributes(meta, folder);
+        }
+        meta.flush();
+
+        boolean delta = changed != null;
+        int nrecords = delta ? nchanged : size;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(delta ? FLAG_DELTA : 0);
+            out.writeInt(size);
+            out.writeInt(nrecords);
+            out.writeInt(metaBytes.size());
+            out.writeLong(HEADER_SIZE + (long) nrecords * (delta ? DELTA_RECORD_SIZE : RECORD_SIZE));
+            for (int n = 0; n < nrecords; n++) {
+                int i = delta ? changed[n] : n;
+                if (delta) {
+                    out.writeInt(i);
+                }
+                for (int r = i * 4, end = r + 4; r < end; r++) {
+                    out.writeInt(records[r]);
+                }
+            }
+            metaBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        ZimbraLog.imap.debug("wrote %s IMAP page %s (%d of %d records)", delta ? "delta" : "full", file.getName(),
+                nrecords, size);
+        return delta;
+    }
+
+    private boolean matches(int index, int[] records) {
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        int r = index * 4;
+        return buffer.getInt(offset) == records[r] && buffer.getInt(offset + 4) == records[r + 1] &&
+                buffer.getInt(offset + 8) == records[r + 2] && buffer.getInt(offset + 12) == records[r + 3];
+    }
+
+    /**
+     * Message list backed by a page file. Messages are materialized on first access and keep their identity from
+     * then on; the first structural change copies the list to the heap and releases the page.
+     */
+    private static final class PagedMessageList extends AbstractList<ImapMessage>
+            implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 4406185620185063012L;
+
+        private transient ImapPageFile page;
+        private transient ImapMessage[] loaded;
+        private transient ArrayList<ImapMessage> materialized;
+
+        PagedMessageList(ImapPageFile page) {
+            this.page = page;
+            this.loaded = new ImapMessage[page.size()];
+        }
+
+        @Override
+        public synchronized ImapMessage get(int index) {
+            if (materialized != null) {
+                return materialized.get(index);
+            }
+            if (index < 0 || index >= loaded.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + loaded.length);
+            }
+            ImapMessage i4msg = loaded[index];
+            if (i4msg == null) {
+                loaded[index] = i4msg = page.load(index);
+            }
+            return i4msg;
+        }
+
+        @Override
+        public synchronized int size() {
+            return materialized != null ? materialized.size() : loaded.length;
+        }
+
+        @Override
+        public synchronized ImapMessage set(int index, ImapMessage i4msg) {
+            if (materialized != null) {
+                return materialized.set(index, i4msg);
+            }
+            ImapMessage old = get(index);
+            loaded[index] = i4msg;
+            return old;
+        }
+
+        @Override
+        public synchronized void add(int index, ImapMessage i4msg) {
+            materialize().add(index, i4msg);
+            modCount++;
+        }
+
+        @Override
+        public synchronized ImapMessage remove(int index) {
+            ImapMessage old = materialize().remove(index);
+            modCount++;
+            return old;
+        }
+
+        private ArrayList<ImapMessage> materialize() {
+            if (materialized == null) {
+                ArrayList<ImapMessage> list = new ArrayList<ImapMessage>(loaded.length + 16);
+                for (int i = 0; i < loaded.length; i++) {
+                    list.add(get(i));
+                }
+                materialized = list;
+                loaded = null;
+                page = null;
+            }
+            return materialized;
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<ImapMessage>(this);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -30,6 +31,7 @@ import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimePart;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.ZimbraMailItem;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
@@ -37,7 +39,10 @@ import com.zimbra.common.util.InputStreamWithSize;
 import com.zimbra.common.util.StartOutOfBoundsException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.store.StoreManager;
 
 class ImapPartSpecifier {
     static class BinaryDecodingException extends Exception {
@@ -182,9 +187,54 @@ class ImapPartSpecifier {
 
     void write(PrintStream ps, OutputStream os, ZimbraMailItem zmi)
     throws IOException, BinaryDecodingException, ServiceException {
+        if (os instanceof NioOutputStream && writeFileRegion(ps, (NioOutputStream) os, zmi)) {
+            return;
+        }
         write(ps, os, new ZimbraMailItemGettableInputStreamWithSize(zmi));
     }
 
+    /**
+     * Sends a full-message <tt>BODY[]</tt> or <tt>RFC822</tt> literal straight from the blob file, if the blob is
+     * stored uncompressed on local disk and nothing between us and the socket needs to see the bytes.
+     *
+     * @return false if the literal has to be streamed instead; nothing has been written in that case
+     */
+    private boolean writeFileRegion(PrintStream ps, NioOutputStream os, ZimbraMailItem zmi)
+    throws IOException, ServiceException {
+        if (!(command.equals("BODY") || command.equals("RFC822")) || !isEntireMessage() || requestedHeaders != null ||
+                octetStart != -1 || !(zmi instanceof Message)) {
+            return false;
+        }
+        long length = zmi.getSize();
+        if (length < LC.zimbra_blob_zero_copy_min_size.longValue() || !os.isFileRegionSupported()) {
+            return false;
+        }
+        FileChannel channel = StoreManager.getInstance().openRawContentChannel(((Message) zmi).getBlob());
+        if (channel == null) {
+            return false;
+        }
+        try {
+            if (channel.size() != length) {
+                ZimbraLog.imap.debug("blob size %d does not match size %d of item %d; streaming it",
+                        channel.size(), length, zmi.getIdInMailbox());
+                channel.close();
+                return false;
+            }
+            ps.print(this);
+            ps.print(" {");
+            ps.print(length);
+            ps.write('}');   /* } added to fix vim buggy brace matching code */
+            os.write(ImapHandler.LINE_SEPARATOR_BYTES);
+            os.transferFrom(channel, 0, length);
+            channel = null;
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return true;
+    }
+
     void write(PrintStream ps, OutputStream os, MimeMessage mimeMsg)
     throws IOException, BinaryDecodingException, ServiceException {
         write(ps, os, new MimeMessageGettableInputStreamWithSize(mimeMsg));
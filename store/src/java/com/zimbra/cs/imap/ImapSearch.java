@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import com.google.common.base.Joiner;
 import com.zimbra.common.util.Constants;
@@ -40,7 +39,7 @@ abstract class ImapSearch {
     }
 
     protected static String sequenceAsSearchTerm(
-            ImapFolder i4folder, TreeSet<ImapMessage> i4set, boolean abbreviateAll) {
+            ImapFolder i4folder, ImapMessageSet i4set, boolean abbreviateAll) {
         i4set.remove(null);
         if (i4set.isEmpty()) {
             return "item:none";
@@ -261,7 +260,7 @@ abstract class ImapSearch {
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)    { return "item:none"; }
         @Override
-        protected ImapMessageSet evaluate(ImapFolder i4folder)  { return new ImapMessageSet(); }
+        protected ImapMessageSet evaluate(ImapFolder i4folder)  { return new ImapMessageSet(i4folder); }
 
         @Override
         public boolean equals(Object obj) {
@@ -353,7 +352,7 @@ abstract class ImapSearch {
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
             ImapFlag i4flag = i4folder.getFlagByName(mFlagName);
             if (i4flag == null) {
-                return new ImapMessageSet();
+                return new ImapMessageSet(i4folder);
             } else if (i4flag.mPositive) {
                 return i4folder.getFlaggedMessages(i4flag);
             } else {
@@ -426,9 +425,9 @@ abstract class ImapSearch {
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
             if (mTimestamp < 0) {
-                return (mRelation == Relation.after ? i4folder.getAllMessages() : new ImapMessageSet());
+                return (mRelation == Relation.after ? i4folder.getAllMessages() : new ImapMessageSet(i4folder));
             } else if (mTimestamp > System.currentTimeMillis() + 36 * Constants.MILLIS_PER_MONTH) {
-                return (mRelation == Relation.before ? i4folder.getAllMessages() : new ImapMessageSet());
+                return (mRelation == Relation.before ? i4folder.getAllMessages() : new ImapMessageSet(i4folder));
             } else {
                 throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
             }
@@ -0,0 +1,698 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints, laid out like a Roaring bitmap: values are grouped into chunks by their high
+ * 16 bits, and each chunk keeps its low 16 bits in whichever container is smallest for it, a sorted array for sparse
+ * chunks, a 65536-bit bitmap for dense ones, or a list of runs for ranges.  A folder's UIDs ascend in long dense
+ * stretches, so "1:*" over a million messages takes a few kilobytes instead of a tree node per message.
+ * <p>
+ * Values added in ascending order are appended without shifting anything, and {@link #optimize} then picks the
+ * smallest container for each chunk.  Set operations work chunk by chunk and leave every chunk in its smallest form.
+ * Not thread-safe.
+ */
+final class IntBitmap {
+
+    private static final int ARRAY_MAX = 4096;  // beyond this many values a bitmap is smaller than an array
+    private static final int WORDS = 1024;      // 64-bit words in a chunk's bitmap
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;  // number of chunks in use
+
+    IntBitmap() {
+        this(new char[4], new Container[4], 0);
+    }
+
+    private IntBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    IntBitmap copy() {
+        Container[] copies = new Container[size];
+        for (int i = 0; i < size; i++) {
+            copies[i] = containers[i].copy();
+        }
+        return new IntBitmap(Arrays.copyOf(keys, size), copies, size);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int cardinality() {
+        int card = 0;
+        for (int i = 0; i < size; i++) {
+            card += containers[i].cardinality();
+        }
+        return card;
+    }
+
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains(value & 0xFFFF);
+    }
+
+    /** Adds the value, which must not be negative.  Returns false if it was already present. */
+    boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value: " + value);
+        }
+        char key = (char) (value >>> 16);
+        int low = value & 0xFFFF;
+        // fast path for ascending adds: append to the last chunk
+        int i = size > 0 && keys[size - 1] == key ? size - 1 : indexOf(key);
+        if (i < 0) {
+            insert(-i - 1, key, new ArrayContainer().add(low));
+            return true;
+        }
+        Container c = containers[i];
+        int card = c.cardinality();
+        containers[i] = c = c.add(low);
+        return c.cardinality() != card;
+    }
+
+    /** Returns false if the value was not present. */
+    boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0 || !containers[i].contains(value & 0xFFFF)) {
+            return false;
+        }
+        Container c = containers[i].remove(value & 0xFFFF);
+        if (c == null) {
+            delete(i);
+        } else {
+            containers[i] = c;
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(containers, 0, size, null);
+        size = 0;
+    }
+
+    /** Returns the smallest value, or -1 if the set is empty. */
+    int first() {
+        return size == 0 ? -1 : keys[0] << 16 | containers[0].first();
+    }
+
+    /** Returns the largest value, or -1 if the set is empty. */
+    int last() {
+        return size == 0 ? -1 : keys[size - 1] << 16 | containers[size - 1].last();
+    }
+
+    /** Returns the smallest value that is at least {@code from}, or -1 if there is none. */
+    int next(int from) {
+        from = Math.max(from, 0);
+        char key = (char) (from >>> 16);
+        int i = indexOf(key);
+        if (i >= 0) {
+            int low = containers[i].next(from & 0xFFFF);
+            if (low >= 0) {
+                return key << 16 | low;
+            }
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        return i < size ? keys[i] << 16 | containers[i].first() : -1;
+    }
+
+    /** Copies the values into an ascending array. */
+    int[] toArray() {
+        int[] values = new int[cardinality()];
+        int n = 0;
+        for (int v = next(0); v >= 0; v = v == Integer.MAX_VALUE ? -1 : next(v + 1)) {
+            values[n++] = v;
+        }
+        return values;
+    }
+
+    /** Switches every chunk to its smallest container. */
+    void optimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].optimize();
+        }
+    }
+
+    /** Adds all the values of {@code other} to this set. */
+    void or(IntBitmap other) {
+        char[] k = new char[size + other.size];
+        Container[] c = new Container[size + other.size];
+        int n = 0, i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                k[n] = keys[i];
+                c[n++] = containers[i++];
+            } else if (i == size || other.keys[j] < keys[i]) {
+                k[n] = other.keys[j];
+                c[n++] = other.containers[j++].copy();
+            } else {
+                k[n] = keys[i];
+                c[n++] = or(containers[i++], other.containers[j++]);
+            }
+        }
+        keys = k;
+        containers = c;
+        size = n;
+    }
+
+    /** Keeps only the values that are also in {@code other}. */
+    void and(IntBitmap other) {
+        int n = 0, i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Container c = and(containers[i], other.containers[j++]);
+                if (c != null) {
+                    keys[n] = keys[i];
+                    containers[n++] = c;
+                }
+                i++;
+            }
+        }
+        Arrays.fill(containers, n, size, null);
+        size = n;
+    }
+
+    /** Removes all the values of {@code other} from this set. */
+    void andNot(IntBitmap other) {
+        int n = 0, i = 0, j = 0;
+        while (i < size) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container c = containers[i];
+            if (j < other.size && other.keys[j] == keys[i]) {
+                c = andNot(c, other.containers[j]);
+            }
+            if (c != null) {
+                keys[n] = keys[i];
+                containers[n++] = c;
+            }
+            i++;
+        }
+        Arrays.fill(containers, n, size, null);
+        size = n;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void delete(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer &&
+                a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+            return ((ArrayContainer) a).or((ArrayContainer) b);
+        }
+        long[] words = new long[WORDS];
+        a.orInto(words);
+        b.orInto(words);
+        return fromWords(words);
+    }
+
+    private static Container and(Container a, Container b) {
+        if (b instanceof ArrayContainer) {
+            Container t = a;  a = b;  b = t;
+        }
+        if (a instanceof ArrayContainer) {
+            return ((ArrayContainer) a).filter(b, true);
+        }
+        long[] words = new long[WORDS];
+        long[] other = new long[WORDS];
+        a.orInto(words);
+        b.orInto(other);
+        for (int i = 0; i < WORDS; i++) {
+            words[i] &= other[i];
+        }
+        return fromWords(words);
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            return ((ArrayContainer) a).filter(b, false);
+        }
+        long[] words = new long[WORDS];
+        long[] other = new long[WORDS];
+        a.orInto(words);
+        b.orInto(other);
+        for (int i = 0; i < WORDS; i++) {
+            words[i] &= ~other[i];
+        }
+        return fromWords(words);
+    }
+
+    /** Returns the smallest container holding the bits set in {@code words}, or null if there are none. */
+    private static Container fromWords(long[] words) {
+        int card = 0, runs = 0;
+        long carry = 0;
+        for (long w : words) {
+            card += Long.bitCount(w);
+            runs += Long.bitCount(w & ~(w << 1 | carry));  // bits that start a run
+            carry = w >>> 63;
+        }
+        if (card == 0) {
+            return null;
+        } else if (runs * 4 < Math.min(card * 2, WORDS * 8)) {
+            return RunContainer.fromWords(words, runs);
+        } else if (card <= ARRAY_MAX) {
+            return ArrayContainer.fromWords(words, card);
+        } else {
+            return new BitmapContainer(words, card);
+        }
+    }
+
+    private static void setRange(long[] words, int start, int end) {
+        int first = start >>> 6, last = end >>> 6;
+        long startMask = -1L << start, endMask = -1L >>> (63 - (end & 63));
+        if (first == last) {
+            words[first] |= startMask & endMask;
+            return;
+        }
+        words[first] |= startMask;
+        for (int i = first + 1; i < last; i++) {
+            words[i] = -1L;
+        }
+        words[last] |= endMask;
+    }
+
+    /** The low 16 bits of the values in one chunk. */
+    private abstract static class Container {
+        abstract int cardinality();
+        abstract boolean contains(int low);
+        /** Returns the container holding the result, which may be a new one. */
+        abstract Container add(int low);
+        /** Returns the container holding the result, or null if it is empty. */
+        abstract Container remove(int low);
+        abstract int first();
+        abstract int last();
+        /** Returns the smallest value that is at least {@code low}, or -1. */
+        abstract int next(int low);
+        abstract void orInto(long[] words);
+        abstract Container copy();
+
+        Container optimize() {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return fromWords(words);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int n;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        static ArrayContainer fromWords(long[] words, int card) {
+            char[] values = new char[card];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                for (long w = words[i]; w != 0; w &= w - 1) {
+                    values[n++] = (char) (i << 6 | Long.numberOfTrailingZeros(w));
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        @Override
+        int cardinality() {
+            return n;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, n, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int i = n > 0 && values[n - 1] < low ? -n - 1 : Arrays.binarySearch(values, 0, n, (char) low);
+            if (i >= 0) {
+                return this;
+            }
+            if (n == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            i = -i - 1;
+            if (n == values.length) {
+                values = Arrays.copyOf(values, Math.min(n * 2, ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, n - i);
+            values[i] = (char) low;
+            n++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int i = Arrays.binarySearch(values, 0, n, (char) low);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, n - i - 1);
+                n--;
+            }
+            return n == 0 ? null : this;
+        }
+
+        @Override
+        int first() {
+            return values[0];
+        }
+
+        @Override
+        int last() {
+            return values[n - 1];
+        }
+
+        @Override
+        int next(int low) {
+            int i = Arrays.binarySearch(values, 0, n, (char) low);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < n ? values[i] : -1;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int i = 0; i < n; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, n), n);
+        }
+
+        @Override
+        Container optimize() {
+            int runs = n == 0 ? 0 : 1;
+            for (int i = 1; i < n; i++) {
+                if (values[i] != values[i - 1] + 1) {
+                    runs++;
+                }
+            }
+            return runs * 4 < n * 2 ? super.optimize() : this;
+        }
+
+        BitmapContainer toBitmap() {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return new BitmapContainer(words, n);
+        }
+
+        /** Merges two arrays whose combined size fits in an array. */
+        ArrayContainer or(ArrayContainer other) {
+            char[] merged = new char[n + other.n];
+            int k = 0, i = 0, j = 0;
+            while (i < n && j < other.n) {
+                char a = values[i], b = other.values[j];
+                merged[k++] = a <= b ? a : b;
+                if (a <= b) {
+                    i++;
+                }
+                if (b <= a) {
+                    j++;
+                }
+            }
+            while (i < n) {
+                merged[k++] = values[i++];
+            }
+            while (j < other.n) {
+                merged[k++] = other.values[j++];
+            }
+            return new ArrayContainer(merged, k);
+        }
+
+        /** Returns the values that are ({@code keep}) or are not (!{@code keep}) in {@code other}, or null. */
+        Container filter(Container other, boolean keep) {
+            char[] kept = new char[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (other.contains(values[i]) == keep) {
+                    kept[k++] = values[i];
+                }
+            }
+            return k == 0 ? null : new ArrayContainer(kept, k);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int card;
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & 1L << low) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            if (!contains(low)) {
+                words[low >>> 6] |= 1L << low;
+                card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            if (contains(low)) {
+                words[low >>> 6] &= ~(1L << low);
+                if (--card <= ARRAY_MAX) {
+                    return card == 0 ? null : ArrayContainer.fromWords(words, card);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int first() {
+            return next(0);
+        }
+
+        @Override
+        int last() {
+            for (int i = WORDS - 1; i >= 0; i--) {
+                if (words[i] != 0) {
+                    return i << 6 | 63 - Long.numberOfLeadingZeros(words[i]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int next(int low) {
+            int i = low >>> 6;
+            long w = words[i] & -1L << low;
+            while (w == 0) {
+                if (++i == WORDS) {
+                    return -1;
+                }
+                w = words[i];
+            }
+            return i << 6 | Long.numberOfTrailingZeros(w);
+        }
+
+        @Override
+        void orInto(long[] dest) {
+            for (int i = 0; i < WORDS; i++) {
+                dest[i] |= words[i];
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        @Override
+        Container optimize() {
+            return fromWords(words);
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        private final char[] starts;
+        private final char[] ends;  // inclusive
+        private final int n;
+        private final int card;
+
+        RunContainer(char[] starts, char[] ends, int n) {
+            this.starts = starts;
+            this.ends = ends;
+            this.n = n;
+            int c = 0;
+            for (int i = 0; i < n; i++) {
+                c += ends[i] - starts[i] + 1;
+            }
+            this.card = c;
+        }
+
+        static RunContainer fromWords(long[] words, int runs) {
+            char[] starts = new char[runs], ends = new char[runs];
+            int n = 0;
+            int v = 0;
+            while (v < 65536) {
+                int start = nextBit(words, v, true);
+                if (start < 0) {
+                    break;
+                }
+                int end = nextBit(words, start, false);
+                end = end < 0 ? 65535 : end - 1;
+                starts[n] = (char) start;
+                ends[n++] = (char) end;
+                v = end + 1;
+            }
+            return new RunContainer(starts, ends, n);
+        }
+
+        /** Returns the first position at or after {@code from} whose bit is {@code set}, or -1. */
+        private static int nextBit(long[] words, int from, boolean set) {
+            int i = from >>> 6;
+            long w = (set ? words[i] : ~words[i]) & -1L << from;
+            while (w == 0) {
+                if (++i == WORDS) {
+                    return -1;
+                }
+                w = set ? words[i] : ~words[i];
+            }
+            return i << 6 | Long.numberOfTrailingZeros(w);
+        }
+
+        /** Returns the index of the last run starting at or before {@code low}, or -1. */
+        private int runOf(int low) {
+            int i = Arrays.binarySearch(starts, 0, n, (char) low);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int i = runOf(low);
+            return i >= 0 && low <= ends[i];
+        }
+
+        @Override
+        Container add(int low) {
+            return contains(low) ? this : toMutable().add(low);
+        }
+
+        @Override
+        Container remove(int low) {
+            return contains(low) ? toMutable().remove(low) : this;
+        }
+
+        /** Runs are immutable, so the first change converts the chunk to a form that can take further ones. */
+        private Container toMutable() {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return card <= ARRAY_MAX ? ArrayContainer.fromWords(words, card) : new BitmapContainer(words, card);
+        }
+
+        @Override
+        int first() {
+            return starts[0];
+        }
+
+        @Override
+        int last() {
+            return ends[n - 1];
+        }
+
+        @Override
+        int next(int low) {
+            int i = runOf(low);
+            if (i >= 0 && low <= ends[i]) {
+                return low;
+            }
+            return i + 1 < n ? starts[i + 1] : -1;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int i = 0; i < n; i++) {
+                setRange(words, starts[i], ends[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return this;  // immutable
+        }
+
+        @Override
+        Container optimize() {
+            return this;  // fromWords only builds runs when they are the smallest form
+        }
+    }
+}
@@ -16,23 +16,11 @@
  */
 package com.zimbra.cs.imap;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.HashSet;
-import java.util.Set;
-
-import org.apache.commons.io.output.ByteArrayOutputStream;
-
-import com.google.common.io.Closeables;
-import com.zimbra.common.mailbox.ItemIdentifier;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.common.util.memcached.MemcachedKey;
 import com.zimbra.common.util.memcached.MemcachedMap;
 import com.zimbra.common.util.memcached.MemcachedSerializer;
-import com.zimbra.cs.io.SecureObjectInputStream;
-import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.memcached.MemcachedConnector;
 import com.zimbra.cs.memcached.MemcachedKeyPrefix;
 
@@ -49,9 +37,7 @@ final class MemcachedImapCache implements ImapSessionManager.Cache<String, ImapF
     @Override
     public void put(String key, ImapFolder value) {
         try {
-            synchronized (value) {
-                map.put(new ImapMemcachedKey(key), value);
-            }
+            map.put(new ImapMemcachedKey(key), value);
         } catch (ServiceException e) {
             ZimbraLog.imap.warn("Failed to store into cache", e);
         }
@@ -99,39 +85,26 @@ final class MemcachedImapCache implements ImapSessionManager.Cache<String, ImapF
     }
 
     private static final class ImapMemcachedSerializer implements MemcachedSerializer<ImapFolder> {
-        private Set<String> validClassNames;
-
-        public ImapMemcachedSerializer() {
-            this.validClassNames = new HashSet<String>();
-            this.validClassNames.add(ImapFolder.class.getName());
-            this.validClassNames.add(ItemIdentifier.class.getName());
-            this.validClassNames.add(ImapMessage.class.getName());
-            this.validClassNames.add(ImapFlagCache.class.getName());
-            this.validClassNames.add(MailItem.Type.class.getName());
-        }
 
         @Override
         public Object serialize(ImapFolder folder) throws ServiceException {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            try (ObjectOutputStream oout = new ObjectOutputStream(bout)) {
-                oout.writeObject(folder);
+            try {
+                return ImapFolderSerializer.serialize(folder);
             } catch (Exception e) {
                 throw ServiceException.FAILURE("Failed to serialize ImapFolder", e);
             }
-            return bout.toByteArray();
         }
 
         @Override
         public ImapFolder deserialize(Object obj) throws ServiceException {
-            ObjectInputStream in = null;
-
+            // values written by older servers were Java-serialized and fail the header check
+            if (!(obj instanceof byte[]) || !ImapFolderSerializer.isEncoded((byte[]) obj)) {
+                throw ServiceException.FAILURE("Failed to deserialize ImapFolder: unrecognized encoding", null);
+            }
             try {
-                in = new SecureObjectInputStream(new ByteArrayInputStream((byte[]) obj), this.validClassNames);
-                return (ImapFolder) in.readObject();
+                return ImapFolderSerializer.deserialize((byte[]) obj);
             } catch (Exception e) {
                 throw ServiceException.FAILURE("Failed to deserialize ImapFolder", e);
-            } finally {
-                Closeables.closeQuietly(in);
             }
         }
 
@@ -942,44 +942,80 @@ public class DBQueryOperation extends QueryOperation {
                 long low = Long.parseLong(cursor.getSortValue());
                 long high = cursor.getEndSortValue() != null ? Long.parseLong(cursor.getEndSortValue()) : -1;
                 DbSearchConstraints.Leaf top = getTopLeafConstraint();
+                int keysetId = getKeysetItemId(cursor);
                 if (calcOffset) {
                     offsetConstraints = top.clone();
-                    offsetConstraints.addDateRange(-1, false, low, false, true);
+                    if (keysetId > 0) {
+                        offsetConstraints.addDateRange(-1, false, low, true, true);
+                        offsetConstraints.setKeyset(low, keysetId, false, sort);
+                    } else {
+                        offsetConstraints.addDateRange(-1, false, low, false, true);
+                    }
                 }
                 top.addDateRange(low, true, high, false, true);
+                if (keysetId > 0) {
+                    top.setKeyset(low, keysetId, true, sort);
+                }
                 break;
             }
             case DATE_DESC: {
                 long high = Long.parseLong(cursor.getSortValue());
                 long low = cursor.getEndSortValue() != null ? Long.parseLong(cursor.getEndSortValue()) : -1;
                 DbSearchConstraints.Leaf top = getTopLeafConstraint();
+                int keysetId = getKeysetItemId(cursor);
                 if (calcOffset) {
                     offsetConstraints = top.clone();
-                    offsetConstraints.addDateRange(high, false, -1, false, true);
+                    if (keysetId > 0) {
+                        offsetConstraints.addDateRange(high, true, -1, false, true);
+                        offsetConstraints.setKeyset(high, keysetId, false, sort);
+                    } else {
+                        offsetConstraints.addDateRange(high, false, -1, false, true);
+                    }
                 }
                 top.addDateRange(low, false, high, true, true);
+                if (keysetId > 0) {
+                    top.setKeyset(high, keysetId, true, sort);
+                }
                 break;
             }
             case SIZE_ASC: {
                 long low = Long.parseLong(cursor.getSortValue());
                 long high = cursor.getEndSortValue() != null ? Long.parseLong(cursor.getEndSortValue()) : -1;
                 DbSearchConstraints.Leaf top = getTopLeafConstraint();
+                int keysetId = getKeysetItemId(cursor);
                 if (calcOffset) {
                     offsetConstraints = top.clone();
-                    offsetConstraints.addSizeRange(-1, false, low, false, true);
+                    if (keysetId > 0) {
+                        offsetConstraints.addSizeRange(-1, false, low, true, true);
+                        offsetConstraints.setKeyset(low, keysetId, false, sort);
+                    } else {
+                        offsetConstraints.addSizeRange(-1, false, low, false, true);
+                    }
                 }
                 top.addSizeRange(low, true, high, false, true);
+                if (keysetId > 0) {
+                    top.setKeyset(low, keysetId, true, sort);
+                }
                 break;
             }
             case SIZE_DESC: {
                 long high = Long.parseLong(cursor.getSortValue());
                 long low = cursor.getEndSortValue() != null ? Long.parseLong(cursor.getEndSortValue()) : -1;
                 DbSearchConstraints.Leaf top = getTopLeafConstraint();
+                int keysetId = getKeysetItemId(cursor);
                 if (calcOffset) {
                     offsetConstraints = top.clone();
-                    offsetConstraints.addSizeRange(high, false, -1, false, true);
+                    if (keysetId > 0) {
+                        offsetConstraints.addSizeRange(high, true, -1, false, true);
+                        offsetConstraints.setKeyset(high, keysetId, false, sort);
+                    } else {
+                        offsetConstraints.addSizeRange(high, false, -1, false, true);
+                    }
                 }
                 top.addSizeRange(low, false, high, true, true);
+                if (keysetId > 0) {
+                    top.setKeyset(high, keysetId, true, sort);
+                }
                 break;
             }
             case READ_ASC:
@@ -1030,6 +1066,19 @@ public class DBQueryOperation extends QueryOperation {
         }
     }
 
+    /**
+     * Returns the ID of the item the cursor points at if the search can seek past it with a keyset constraint, so
+     * that the database skips the cursor item's ties on the sort value instead of returning them to
+     * {@link ResultsPager}, otherwise 0.
+     */
+    private int getKeysetItemId(SearchParams.Cursor cursor) {
+        ItemId iid = cursor.getItemId();
+        if (iid == null || iid.getId() <= 0 || !iid.belongsTo(context.getMailbox())) {
+            return 0;
+        }
+        return iid.getId();
+    }
+
     @Override
     QueryOperation optimize(Mailbox mbox) {
         return this;
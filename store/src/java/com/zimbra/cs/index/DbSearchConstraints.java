@@ -159,7 +159,8 @@ public interface DbSearchConstraints extends Cloneable {
             hasIndexId == null &&
             excludeHasRecipients == false &&
             ranges.isEmpty() &&
-            cursorRange == null) {
+            cursorRange == null &&
+            keyset == null) {
                 return true;
             } else {
                 return false;
@@ -256,6 +257,7 @@ public interface DbSearchConstraints extends Cloneable {
                 }
         );
         public CursorRange cursorRange; // optional
+        public Keyset keyset; // optional
 
         public boolean typesFactoredOut = false;
         public boolean excludeHasRecipients = false;
@@ -354,6 +356,7 @@ public interface DbSearchConstraints extends Cloneable {
             for (Map.Entry<RangeType, Range> entry : ranges.entries()) {
                 result.ranges.put(entry.getKey(), entry.getValue().clone());
             }
+            result.keyset = keyset;
             return result;
         }
 
@@ -810,6 +813,11 @@ public interface DbSearchConstraints extends Cloneable {
             cursorRange = new CursorRange(min, minInclusive, max, maxInclusive, sort);
         }
 
+        void setKeyset(long sortValue, int itemId, boolean after, SortBy sort) {
+            assert keyset == null : keyset;
+            keyset = new Keyset(sortValue, itemId, after, sort);
+        }
+
         public void addItemIdRange(int min, boolean minInclusive, int max, boolean maxInclusive, boolean bool) {
             if (min < 0 && max < 0) {
                 return;
@@ -1141,7 +1149,8 @@ public interface DbSearchConstraints extends Cloneable {
                 leaf.hasIndexId == null &&
                 leaf.excludeHasRecipients == false &&
                 leaf.ranges.isEmpty() &&
-                leaf.cursorRange == null) {
+                leaf.cursorRange == null &&
+                leaf.keyset == null) {
                     onlyFolderConstraints.add(leaf);
                 } else {
                     otherConstraints.add(leaf);
@@ -1540,6 +1549,31 @@ public interface DbSearchConstraints extends Cloneable {
         }
     }
 
+    /**
+     * Seek position for keyset pagination. Matches the items that sort strictly after (or strictly before) the item
+     * with the given sort value and ID, breaking ties on the sort value by item ID the way the ORDER BY does. Unlike
+     * a sort value range, the database can seek straight to the cursor item instead of returning all of its ties.
+     */
+    public static final class Keyset {
+        public final long sortValue; // as in the cursor, i.e. milliseconds for date sorts
+        public final int itemId;
+        public final boolean after;
+        public final SortBy sortBy;
+
+        public Keyset(long sortValue, int itemId, boolean after, SortBy sort) {
+            this.sortValue = sortValue;
+            this.itemId = itemId;
+            this.after = after;
+            this.sortBy = sort;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).add("sortValue", sortValue).add("id", itemId)
+                    .add("after", after).add("sort", sortBy).toString();
+        }
+    }
+
     public static final class RemoteFolderDescriptor {
         private final ItemId folderId;
         private String subfolderPath;
@@ -78,6 +78,14 @@ public abstract class IndexStore {
      */
     public abstract void optimize();
 
+    /**
+     * Returns true if searchers may lag behind indexing by a bounded time, and are brought up to date in the
+     * background.  Callers then need not index deferred items before searching.
+     */
+    public boolean isNearRealTime() {
+        return false;
+    }
+
     /**
      * Runs a sanity check for the index data.  Used by the "VerifyIndexRequest" SOAP Admin request
      */
@@ -19,10 +19,15 @@ package com.zimbra.cs.index;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -48,15 +53,18 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.NoSuchDirectoryException;
 import org.apache.lucene.util.Version;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.common.localconfig.LC;
@@ -114,10 +122,45 @@ public final class LuceneIndex extends IndexStore {
         })
         .build();
 
+    /**
+     * Near real time mode.  Index commits no longer reopen the cached searcher on the indexing thread; they mark the
+     * index stale, and the refresher thread reopens the searcher from the live {@link IndexWriter}, which is much
+     * cheaper than reopening it from the directory.  A search that finds the searcher stale for longer than
+     * {@link #NRT_MAX_STALENESS} reopens it first.  Cached searchers don't hold on to the writer, which is closed
+     * as usual once indexing is done; the searcher is then reopened from the directory.
+     */
+    private static final long NRT_MAX_STALENESS = LC.zimbra_index_nrt_max_staleness_ms.longValue();
+    private static final Set<LuceneIndex> STALE_INDEXES =
+        Collections.newSetFromMap(new ConcurrentHashMap<LuceneIndex, Boolean>());
+    private static final ScheduledExecutorService REFRESHER = NRT_MAX_STALENESS <= 0 ? null :
+        Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("IndexRefresher").setDaemon(true).build());
+    static {
+        if (REFRESHER != null) {
+            long period = Math.max(NRT_MAX_STALENESS / 2, 1);
+            REFRESHER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (LuceneIndex index : STALE_INDEXES) {
+                        STALE_INDEXES.remove(index);
+                        try {
+                            index.refreshSearcher();
+                        } catch (Throwable t) {
+                            ZimbraLog.index.warn("Failed to refresh searcher %s", index, t);
+                        }
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static volatile boolean nearRealTime = REFRESHER != null;
+
     private final Mailbox mailbox;
     private final LuceneDirectory luceneDirectory;
     private final AtomicBoolean pendingDelete = new AtomicBoolean(false);
     private final WriterInfo writerInfo = new WriterInfo();
+    private volatile long staleSince; // when the cached searcher fell behind the index, or 0
 
     /**
      * Holds information related to writers to the index.
@@ -374,12 +417,11 @@ public final class LuceneIndex extends IndexStore {
      */
     @Override
     public synchronized ZimbraIndexSearcher openSearcher() throws IOException {
-        IndexSearcherImpl searcher = null;
-        if (mailbox.isGalSyncMailbox()) {
-            searcher = GAL_SEARCHER_CACHE.get(mailbox.getId());
-        } else {
-            searcher = SEARCHER_CACHE.getIfPresent(mailbox.getId());
+        long since = staleSince;
+        if (since > 0 && System.currentTimeMillis() - since >= NRT_MAX_STALENESS) {
+            refreshSearcher(); // too stale to wait for the refresher
         }
+        IndexSearcherImpl searcher = getCachedSearcher();
         if (searcher != null) {
             ZimbraLog.search.debug("CacheHitLuceneSearcher %s", searcher);
             searcher.inc();
@@ -389,7 +431,12 @@ public final class LuceneIndex extends IndexStore {
         READER_THROTTLE.acquireUninterruptibly();
         long start = System.currentTimeMillis();
         try {
-            searcher = new IndexSearcherImpl(openIndexReader(true));
+            if (isNearRealTime()) {
+                searcher = openNearRealTimeSearcher();
+            }
+            if (searcher == null) {
+                searcher = new IndexSearcherImpl(openIndexReader(true));
+            }
         } catch (IOException e) {
             // Handle the special case of trying to open a not-yet-created index, by opening for write and immediately
             // closing. Index directory should get initialized as a result.
@@ -410,12 +457,110 @@ public final class LuceneIndex extends IndexStore {
 
         ZimbraLog.search.debug("OpenLuceneSearcher %s,elapsed=%d", searcher, System.currentTimeMillis() - start);
         searcher.inc();
+        cacheSearcher(searcher);
+        return searcher;
+    }
+
+    private IndexSearcherImpl getCachedSearcher() {
+        if (mailbox.isGalSyncMailbox()) {
+            return GAL_SEARCHER_CACHE.get(mailbox.getId());
+        } else {
+            return SEARCHER_CACHE.getIfPresent(mailbox.getId());
+        }
+    }
+
+    private void cacheSearcher(IndexSearcherImpl searcher) {
         if (mailbox.isGalSyncMailbox()) {
             IOUtil.closeQuietly(GAL_SEARCHER_CACHE.put(mailbox.getId(), searcher));
         } else {
+            // the removal listener closes the previous searcher
             SEARCHER_CACHE.asMap().put(mailbox.getId(), searcher);
         }
-        return searcher;
+    }
+
+    @Override
+    public boolean isNearRealTime() {
+        return nearRealTime;
+    }
+
+    /**
+     * Turns near real time mode on without the refresher thread; stale searchers are then refreshed by the next
+     * search.
+     */
+    @VisibleForTesting
+    static void setNearRealTime(boolean enabled) {
+        nearRealTime = enabled;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isWriterOpen() {
+        return writerInfo.getWriterRef() != null;
+    }
+
+    /**
+     * Returns a searcher on the live writer, including changes that are not committed yet, or null if no writer is
+     * open.
+     */
+    private IndexSearcherImpl openNearRealTimeSearcher() throws IOException {
+        assert(Thread.holdsLock(this));
+        IndexWriterRef ref = writerInfo.getWriterRef();
+        if (ref == null || isPendingDelete()) {
+            return null;
+        }
+        try {
+            return new IndexSearcherImpl(IndexReader.open(ref.get(), true), true);
+        } catch (AlreadyClosedException e) { // closed by a failed commit or merge
+            return null;
+        }
+    }
+
+    /**
+     * Records that the cached searcher is missing recent changes, and schedules it for refresh.
+     */
+    private void markStale() {
+        if (staleSince == 0) {
+            staleSince = System.currentTimeMillis();
+        }
+        if (REFRESHER != null) {
+            STALE_INDEXES.add(this);
+        }
+    }
+
+    /**
+     * Reopens the cached searcher if the index has changed, from the live writer if one is open.  A near real time
+     * reader whose writer has been closed can't be reopened incrementally, because that goes through its writer.
+     */
+    private synchronized void refreshSearcher() {
+        staleSince = 0;
+        IndexSearcherImpl searcher = getCachedSearcher();
+        if (searcher == null) {
+            return; // the next search opens a new one
+        }
+        IndexReader reader = ((ZimbraLuceneIndexReader) searcher.getIndexReader()).getLuceneReader();
+        long start = System.currentTimeMillis();
+        try {
+            IndexWriterRef ref = isPendingDelete() ? null : writerInfo.getWriterRef();
+            IndexReader newReader;
+            if (ref != null) {
+                newReader = IndexReader.openIfChanged(reader, ref.get(), true);
+                if (newReader != null) {
+                    cacheSearcher(new IndexSearcherImpl(newReader, true));
+                }
+            } else if (searcher.isNearRealTime()) {
+                newReader = openIndexReader(false);
+                cacheSearcher(new IndexSearcherImpl(newReader));
+            } else {
+                newReader = IndexReader.openIfChanged(reader, true);
+                if (newReader != null) {
+                    cacheSearcher(new IndexSearcherImpl(newReader));
+                }
+            }
+            ZimbraLog.search.debug("RefreshLuceneSearcher %s,changed=%b,elapsed=%d",
+                    this, newReader != null, System.currentTimeMillis() - start);
+        } catch (IOException | AlreadyClosedException e) {
+            ZimbraLog.search.warn("Failed to refresh searcher %s", this, e);
+            evict();
+        }
     }
 
     /**
@@ -519,7 +664,7 @@ public final class LuceneIndex extends IndexStore {
             mailbox.index.submit(task); // merge must run in background
             success = true;
         } catch (RejectedExecutionException e) {
-            ZimbraLog.index.warn("Skipping merge because all index threads are busy");
+            ZimbraLog.index.warn("Skipping merge because all merge threads are busy");
         } finally {
             if (!success) {
                 writerInfo.getWriterRef().dec();
@@ -797,6 +942,10 @@ public final class LuceneIndex extends IndexStore {
         @Override
         public void close() throws IOException {
             writer.index.commitWriter();
+            if (writer.index.isNearRealTime()) {
+                writer.index.markStale();
+                return;
+            }
             ZimbraIndexSearcher searcher = null;
             if (writer.getIndex().mailbox.isGalSyncMailbox()) {
                 searcher = GAL_SEARCHER_CACHE.get(writer.getIndex().mailbox.getId());
@@ -943,10 +1092,20 @@ public final class LuceneIndex extends IndexStore {
         private final AtomicInteger count = new AtomicInteger(1);
         private final IndexSearcher luceneSearcher;
         private final ZimbraIndexReader luceneReader;
+        private final boolean nearRealTime; // opened from an IndexWriter
 
         IndexSearcherImpl(IndexReader reader) {
+            this(reader, false);
+        }
+
+        IndexSearcherImpl(IndexReader reader, boolean nearRealTime) {
             luceneSearcher = new IndexSearcher(reader);
             luceneReader = new ZimbraLuceneIndexReader(luceneSearcher.getIndexReader());
+            this.nearRealTime = nearRealTime;
+        }
+
+        boolean isNearRealTime() {
+            return nearRealTime;
         }
 
         void inc() {
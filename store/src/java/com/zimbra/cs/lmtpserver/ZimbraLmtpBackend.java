@@ -24,10 +24,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -41,6 +46,8 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.lmtp.LmtpClient;
 import com.zimbra.common.lmtp.LmtpProtocolException;
@@ -76,6 +83,7 @@ import com.zimbra.cs.mailbox.QuotaWarning;
 import com.zimbra.cs.mime.ParsedMessage;
 import com.zimbra.cs.mime.ParsedMessageOptions;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.MailboxBlob;
@@ -535,177 +543,21 @@ public class ZimbraLmtpBackend implements LmtpBackend {
 
             // We now know which addresses are valid and which ParsedMessage
             // version each recipient needs.  Deliver!
-            for (LmtpAddress recipient : recipients) {
-                String rcptEmail = recipient.getEmailAddress();
-                LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
-                RecipientDetail rd = rcptMap.get(recipient);
-                if (rd == null) {
-                    // Account or mailbox not found.
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
-                            envSender, rcptEmail);
-                    recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
-                    continue;
-                }
-                if (rd.account != null) {
-                    ZimbraLog.addAccountNameToContext(rd.account.getName());
-                }
-                if (rd.mbox != null) {
-                    ZimbraLog.addMboxToContext(rd.mbox.getId());
-                }
-
-                boolean success = false;
-                try {
-                    switch (rd.action) {
-                    case discard:
-                        ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
-                                envSender, rcptEmail);
-                        if (rd.account.getPrefMailForwardingAddress() != null) {
-                            // mail forwarding is set up
-                            for (LmtpCallback callback : callbacks) {
-                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case deliver:
-                        Account account = rd.account;
-                        Mailbox mbox = rd.mbox;
-                        ParsedMessage pm = rd.pm;
-                        List<ItemId> addedMessageIds = null;
-                        ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
-                        boolean acquiredLock;
-                        try {
-                            // Wait for the lock, up to the timeout
-                            acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
-                            acquiredLock = false;
-                        }
-                        if (!acquiredLock) {
-                            ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
-                                    envSender, rcptEmail);
-                            reply = LmtpReply.TEMPORARY_FAILURE;
-                            break;
-                        }
-                        try {
-                            if (dedupe(pm, mbox)) {
-                                // message was already delivered to this mailbox
-                                ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
-                            } else if (mbox.dedupeForSelfMsg(pm)) {
-                                ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
-                                        pm.getMessageID());
-
-                            } else if (recipient.getSkipFilters()) {
-                                msgId = pm.getMessageID();
-                                int folderId = Mailbox.ID_FOLDER_INBOX;
-                                if (recipient.getFolder() != null) {
-                                    try {
-                                        Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
-                                        folderId = folder.getId();
-                                    } catch (ServiceException se) {
-                                        if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
-                                            Folder folder = mbox.createFolder(null, recipient.getFolder(),
-                                                    new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
-                                            folderId = folder.getId();
-                                        } else {
-                                            throw se;
-                                        }
-                                    }
-                                }
-                                int flags = Flag.BITMASK_UNREAD;
-                                if (recipient.getFlags() != null) {
-                                    flags = Flag.toBitmask(recipient.getFlags());
-                                }
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
-                                dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            } else if (!DebugConfig.disableIncomingFilter) {
-                                // Get msgid first, to avoid having to reopen and reparse the blob
-                                // file if Mailbox.addMessageInternal() closes it.
-                                pm.getMessageID();
-                                addedMessageIds = RuleManager.applyRulesToIncomingMessage(
-                                        null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
-                                        Mailbox.ID_FOLDER_INBOX, false, true);
-                            } else {
-                                pm.getMessageID();
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
-                                dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            }
-                            success = true;
-                            if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                addToDedupeCache(pm, mbox);
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-
-                        if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                            // Execute callbacks
-                            for (LmtpCallback callback : callbacks) {
-                                for (ItemId id : addedMessageIds) {
-                                    if (id.belongsTo(mbox)) {
-                                        // Message was added to the local mailbox, as opposed to a mountpoint.
-                                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                        try {
-                                            Message msg = mbox.getMessageById(null, id.getId());
-                                            callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
-                                        } catch (OutOfMemoryError oome) {
-                                            Zimbra.halt("LMTP callback failed", oome);
-                                        } catch (Throwable t) {
-                                            ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case defer:
-                        // Delivery to mailbox skipped.  Let MTA retry again later.
-                        // This case happens for shared delivery to a mailbox in
-                        // backup mode.
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
-                                envSender, rcptEmail);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                        break;
-                    }
-                } catch (DeliveryServiceException e) {
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
-                    reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
-                } catch (ServiceException e) {
-                    if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
-                        if (config.isPermanentFailureWhenOverQuota()) {
-                            reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
-                        } else {
-                            reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
-                        }
-                    } else if (e.isReceiversFault()) {
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                    } else {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (Exception e) {
-                    reply = LmtpReply.TEMPORARY_FAILURE;
-                    ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                } finally {
-                    if (rd.action == DeliveryAction.deliver && !success) {
-                        // Message was not delivered.  Remove it from the dedupe
-                        // cache so we don't dedupe it on LMTP retry.
-                        removeFromDedupeCache(msgId, rd.mbox);
-                    }
-                    recipient.setDeliveryStatus(reply);
-                    if (shared && rd != null && rd.esd) {
-                        rd.mbox.endSharedDelivery();
-                        rd.esd = false;
-                    }
+            long fanoutStart = System.currentTimeMillis();
+            int parallelism = LC.zimbra_lmtp_delivery_threads.intValue();
+            if (parallelism > 0 && mm == null &&
+                    targetMailboxIds.size() >= LC.zimbra_lmtp_parallel_delivery_min_recipients.intValue()) {
+                deliverInParallel(recipients, rcptMap, pmAttachIndex, msgId, blob, data, env, sharedDeliveryCtxt,
+                        parallelism);
+            } else {
+                for (LmtpAddress recipient : recipients) {
+                    RecipientDetail rd = rcptMap.get(recipient);
+                    deliverToRecipient(recipient, rd, rd == null ? null : rd.pm, msgId, blob, env, sharedDeliveryCtxt);
                 }
             }
+            if (shared) {
+                ZimbraPerf.HISTOGRAM_LMTP_FANOUT_LATENCY.increment(System.currentTimeMillis() - fanoutStart);
+            }
 
             // If this message is being streamed from disk, cache it
             ParsedMessage mimeSource = pmAttachIndex != null ? pmAttachIndex : pmNoAttachIndex;
@@ -739,6 +591,310 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         }
     }
 
+    /**
+     * Delivers the message to one local recipient and sets its delivery status.
+     *
+     * @param pm the recipient's version of the message; {@code rd.pm}, or a copy of it
+     */
+    private void deliverToRecipient(LmtpAddress recipient, RecipientDetail rd, ParsedMessage pm, String msgId,
+            Blob blob, LmtpEnvelope env, DeliveryContext sharedDeliveryCtxt) {
+        String envSender = env.getSender().getEmailAddress();
+        String rcptEmail = recipient.getEmailAddress();
+        LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+        if (rd == null) {
+            // Account or mailbox not found.
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
+                    envSender, rcptEmail);
+            recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
+            return;
+        }
+        if (rd.account != null) {
+            ZimbraLog.addAccountNameToContext(rd.account.getName());
+        }
+        if (rd.mbox != null) {
+            ZimbraLog.addMboxToContext(rd.mbox.getId());
+        }
+
+        boolean success = false;
+        try {
+            switch (rd.action) {
+            case discard:
+                ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
+                        envSender, rcptEmail);
+                if (rd.account.getPrefMailForwardingAddress() != null) {
+                    // mail forwarding is set up
+                    for (LmtpCallback callback : callbacks) {
+                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                        callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, pm);
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case deliver:
+                Account account = rd.account;
+                Mailbox mbox = rd.mbox;
+                List<ItemId> addedMessageIds = null;
+                ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
+                boolean acquiredLock;
+                try {
+                    // Wait for the lock, up to the timeout
+                    acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    acquiredLock = false;
+                }
+                if (!acquiredLock) {
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
+                            envSender, rcptEmail);
+                    reply = LmtpReply.TEMPORARY_FAILURE;
+                    break;
+                }
+                try {
+                    if (dedupe(pm, mbox)) {
+                        // message was already delivered to this mailbox
+                        ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
+                    } else if (mbox.dedupeForSelfMsg(pm)) {
+                        ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
+                                pm.getMessageID());
+
+                    } else if (recipient.getSkipFilters()) {
+                        msgId = pm.getMessageID();
+                        int folderId = Mailbox.ID_FOLDER_INBOX;
+                        if (recipient.getFolder() != null) {
+                            try {
+                                Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
+                                folderId = folder.getId();
+                            } catch (ServiceException se) {
+                                if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
+                                    Folder folder = mbox.createFolder(null, recipient.getFolder(),
+                                            new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+                                    folderId = folder.getId();
+                                } else {
+                                    throw se;
+                                }
+                            }
+                        }
+                        int flags = Flag.BITMASK_UNREAD;
+                        if (recipient.getFlags() != null) {
+                            flags = Flag.toBitmask(recipient.getFlags());
+                        }
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
+                        dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    } else if (!DebugConfig.disableIncomingFilter) {
+                        // Get msgid first, to avoid having to reopen and reparse the blob
+                        // file if Mailbox.addMessageInternal() closes it.
+                        pm.getMessageID();
+                        addedMessageIds = RuleManager.applyRulesToIncomingMessage(
+                                null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
+                                Mailbox.ID_FOLDER_INBOX, false, true);
+                    } else {
+                        pm.getMessageID();
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+                        dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    }
+                    success = true;
+                    if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                        addToDedupeCache(pm, mbox);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                    // Execute callbacks
+                    for (LmtpCallback callback : callbacks) {
+                        for (ItemId id : addedMessageIds) {
+                            if (id.belongsTo(mbox)) {
+                                // Message was added to the local mailbox, as opposed to a mountpoint.
+                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                                try {
+                                    Message msg = mbox.getMessageById(null, id.getId());
+                                    callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
+                                } catch (OutOfMemoryError oome) {
+                                    Zimbra.halt("LMTP callback failed", oome);
+                                } catch (Throwable t) {
+                                    ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
+                                }
+                            }
+                        }
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case defer:
+                // Delivery to mailbox skipped.  Let MTA retry again later.
+                // This case happens for shared delivery to a mailbox in
+                // backup mode.
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
+                        envSender, rcptEmail);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+                break;
+            }
+        } catch (DeliveryServiceException e) {
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
+            reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
+        } catch (ServiceException e) {
+            if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
+                if (config.isPermanentFailureWhenOverQuota()) {
+                    reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
+                } else {
+                    reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                }
+            } else if (e.isReceiversFault()) {
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+            } else {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (Exception e) {
+            reply = LmtpReply.TEMPORARY_FAILURE;
+            ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+        } finally {
+            if (rd.action == DeliveryAction.deliver && !success) {
+                // Message was not delivered.  Remove it from the dedupe
+                // cache so we don't dedupe it on LMTP retry.
+                removeFromDedupeCache(msgId, rd.mbox);
+            }
+            recipient.setDeliveryStatus(reply);
+            if (sharedDeliveryCtxt.getShared() && rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+        }
+    }
+
+    /**
+     * Delivers to the local recipients on up to {@code parallelism} delivery threads in addition to the calling
+     * thread.  Recipients are processed in order until the first delivery has stored the shared blob, which the
+     * remaining deliveries then link to.  After that, all recipients of one mailbox go to the same lane and are
+     * delivered in envelope order.  Each lane parses its own copy of the message, since the mailbox modifies the
+     * {@link ParsedMessage} while adding it.
+     */
+    private void deliverInParallel(List<LmtpAddress> recipients, Map<LmtpAddress, RecipientDetail> rcptMap,
+            ParsedMessage pmAttachIndex, String msgId, Blob blob, byte[] data, LmtpEnvelope env,
+            DeliveryContext sharedDeliveryCtxt, int parallelism) {
+        int next = 0;
+        while (next < recipients.size() && sharedDeliveryCtxt.isFirst()) {
+            LmtpAddress recipient = recipients.get(next++);
+            RecipientDetail rd = rcptMap.get(recipient);
+            deliverToRecipient(recipient, rd, rd == null ? null : rd.pm, msgId, blob, env, sharedDeliveryCtxt);
+        }
+
+        Map<Integer, List<LmtpAddress>> byMailbox = new LinkedHashMap<Integer, List<LmtpAddress>>();
+        for (LmtpAddress recipient : recipients.subList(next, recipients.size())) {
+            RecipientDetail rd = rcptMap.get(recipient);
+            if (rd == null || rd.mbox == null) {
+                deliverToRecipient(recipient, rd, rd == null ? null : rd.pm, msgId, blob, env, sharedDeliveryCtxt);
+                continue;
+            }
+            List<LmtpAddress> group = byMailbox.get(rd.mbox.getId());
+            if (group == null) {
+                byMailbox.put(rd.mbox.getId(), group = new ArrayList<LmtpAddress>());
+            }
+            group.add(recipient);
+        }
+        if (byMailbox.isEmpty()) {
+            return;
+        }
+
+        // lane 0 runs on this thread and reuses the messages that are already parsed
+        List<DeliveryLane> lanes = new ArrayList<DeliveryLane>();
+        int numLanes = Math.min(parallelism + 1, byMailbox.size());
+        for (int i = 0; i < numLanes; i++) {
+            lanes.add(new DeliveryLane(i == 0, rcptMap, pmAttachIndex, msgId, blob, data, env, sharedDeliveryCtxt));
+        }
+        int i = 0;
+        for (List<LmtpAddress> group : byMailbox.values()) {
+            lanes.get(i++ % numLanes).recipients.addAll(group);
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(numLanes - 1);
+        for (DeliveryLane lane : lanes.subList(1, numLanes)) {
+            futures.add(DeliveryExecutorHolder.EXECUTOR.submit(lane));
+        }
+        lanes.get(0).run();
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                ZimbraLog.lmtp.warn("error in parallel delivery", e.getCause());
+            }
+        }
+    }
+
+    private static final class DeliveryExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(LC.zimbra_lmtp_delivery_threads.intValue(),
+                new ThreadFactoryBuilder().setNameFormat("LmtpDelivery-%d").setDaemon(true).build());
+    }
+
+    private final class DeliveryLane implements Runnable {
+        final List<LmtpAddress> recipients = new ArrayList<LmtpAddress>();
+        private final boolean reuseParsedMessages;
+        private final Map<LmtpAddress, RecipientDetail> rcptMap;
+        private final ParsedMessage pmAttachIndex;
+        private final String msgId;
+        private final Blob blob;
+        private final byte[] data;
+        private final LmtpEnvelope env;
+        private final DeliveryContext sharedDeliveryCtxt;
+        private ParsedMessage copyAttachIndex;
+        private ParsedMessage copyNoAttachIndex;
+
+        DeliveryLane(boolean reuseParsedMessages, Map<LmtpAddress, RecipientDetail> rcptMap,
+                ParsedMessage pmAttachIndex, String msgId, Blob blob, byte[] data, LmtpEnvelope env,
+                DeliveryContext sharedDeliveryCtxt) {
+            this.reuseParsedMessages = reuseParsedMessages;
+            this.rcptMap = rcptMap;
+            this.pmAttachIndex = pmAttachIndex;
+            this.msgId = msgId;
+            this.blob = blob;
+            this.data = data;
+            this.env = env;
+            this.sharedDeliveryCtxt = sharedDeliveryCtxt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (LmtpAddress recipient : recipients) {
+                    RecipientDetail rd = rcptMap.get(recipient);
+                    ParsedMessage pm;
+                    try {
+                        pm = getParsedMessage(rd);
+                    } catch (IOException | ServiceException e) {
+                        ZimbraLog.lmtp.warn("try again for message to=%s: unable to parse message",
+                                recipient.getEmailAddress(), e);
+                        recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+                        continue;
+                    }
+                    deliverToRecipient(recipient, rd, pm, msgId, blob, env, sharedDeliveryCtxt);
+                }
+            } finally {
+                if (!reuseParsedMessages) {
+                    ZimbraLog.clearContext();
+                }
+            }
+        }
+
+        private ParsedMessage getParsedMessage(RecipientDetail rd) throws IOException, ServiceException {
+            if (reuseParsedMessages || rd.pm == null) {
+                return rd.pm;
+            }
+            boolean attachmentIndexing = rd.pm == pmAttachIndex;
+            if (attachmentIndexing && copyAttachIndex == null) {
+                copyAttachIndex = new ParsedMessage(new ParsedMessageOptions(blob, data).setAttachmentIndexing(true));
+            } else if (!attachmentIndexing && copyNoAttachIndex == null) {
+                copyNoAttachIndex = new ParsedMessage(new ParsedMessageOptions(blob, data).setAttachmentIndexing(false));
+            }
+            return attachmentIndexing ? copyAttachIndex : copyNoAttachIndex;
+        }
+    }
+
     private void deliverMessageToRemoteMailboxes(Blob blob, byte[] data, LmtpEnvelope env) {
         Multimap<String, LmtpAddress> serverToRecipientsMap = env.getRemoteServerToRecipientsMap();
         for (String server : serverToRecipientsMap.keySet()) {
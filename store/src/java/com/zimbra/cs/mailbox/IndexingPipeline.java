@@ -0,0 +1,276 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Mailbox.IndexItemEntry;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * Server-wide pipeline that indexes the deferred items of mailboxes in the background.
+ * <p>
+ * Mailboxes wait in a bounded priority queue: a mailbox that a search is waiting for goes ahead of routine batches,
+ * and a mailbox is never queued twice. Parser threads take a mailbox, fetch its deferred items and generate their
+ * index data, and hand the results on in chunks through a bounded queue, so a parser that gets ahead of the writers
+ * waits for them. Writer threads take every chunk that is waiting and commit the chunks of each mailbox together, in
+ * one transaction and one index writer session.
+ * <p>
+ * When the mailbox queue is full the request is counted and turned away; the mailbox is queued again by its next
+ * indexing trigger.
+ */
+public final class IndexingPipeline {
+    static final int PRIORITY_SEARCH = 0;
+    static final int PRIORITY_BATCH = 1;
+
+    private static final IndexingPipeline INSTANCE = new IndexingPipeline(LC.zimbra_index_queue_size.intValue(),
+            Math.max(LC.zimbra_index_threads.intValue(), 1), Math.max(LC.zimbra_index_write_threads.intValue(), 1));
+
+    private final int capacity;
+    private final PriorityBlockingQueue<Unit> queue = new PriorityBlockingQueue<Unit>();
+    private final Map<Integer, Unit> queued = new HashMap<Integer, Unit>(); // mailbox ID -> its unit, guarded by this
+    private final BlockingQueue<Chunk> chunks;
+    private long sequence = 0; // guarded by this
+
+    IndexingPipeline(int capacity, int numParsers, int numWriters) {
+        this.capacity = capacity;
+        chunks = new ArrayBlockingQueue<Chunk>(Math.max(numParsers, 1) * 2);
+
+        ThreadFactory parsers = new ThreadFactoryBuilder().setNameFormat("IndexParse-%d").setDaemon(true).build();
+        for (int i = 0; i < numParsers; i++) {
+            parsers.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    parse();
+                }
+            }).start();
+        }
+        ThreadFactory writers = new ThreadFactoryBuilder().setNameFormat("IndexWrite-%d").setDaemon(true).build();
+        for (int i = 0; i < numWriters; i++) {
+            writers.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }).start();
+        }
+    }
+
+    static IndexingPipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /** Returns the number of mailboxes waiting to be indexed. */
+    public static int getQueueSize() {
+        return INSTANCE.size();
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Queues the mailbox to have its deferred items indexed. A mailbox that is already queued keeps its place, and
+     * moves up if the new priority is higher.
+     *
+     * @param priority {@link #PRIORITY_SEARCH} or {@link #PRIORITY_BATCH}
+     * @return false if the queue is full
+     */
+    synchronized boolean submit(MailboxIndex index, int priority) {
+        int mailboxId = index.getMailbox().getId();
+        Unit unit = queued.get(mailboxId);
+        if (unit != null) {
+            if (priority < unit.priority && queue.remove(unit)) {
+                unit = new Unit(index, priority, unit.queuedAt, unit.sequence);
+                queued.put(mailboxId, unit);
+                queue.add(unit);
+            }
+            return true;
+        }
+        if (queued.size() >= capacity) {
+            ZimbraPerf.COUNTER_INDEX_QUEUE_REJECTED.increment();
+            ZimbraLog.index.debug("Skipping batch index because the index queue is full size=%d", capacity);
+            return false;
+        }
+        unit = new Unit(index, priority, System.currentTimeMillis(), ++sequence);
+        queued.put(mailboxId, unit);
+        queue.add(unit);
+        return true;
+    }
+
+    Unit take() throws InterruptedException {
+        Unit unit = queue.take();
+        synchronized (this) {
+            // from here on, a new request for the mailbox queues it again
+            queued.remove(unit.index.getMailbox().getId());
+        }
+        return unit;
+    }
+
+    private void parse() {
+        while (true) {
+            Unit unit;
+            try {
+                unit = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ZimbraPerf.HISTOGRAM_INDEX_QUEUE_WAIT.increment(System.currentTimeMillis() - unit.queuedAt);
+            MailboxIndex index = unit.index;
+            Batch batch = null;
+            try {
+                ZimbraLog.addMboxToContext(index.getMailbox().getId());
+                ZimbraLog.addAccountNameToContext(index.getMailbox().getAccount().getName());
+                if (index.tryBeginBatch()) {
+                    batch = new Batch(index);
+                    index.tokenizeItemList(index.getDeferredIds(EnumSet.noneOf(MailItem.Type.class)),
+                            batch.status, batch);
+                }
+            } catch (OutOfMemoryError e) {
+                Zimbra.halt("out of memory", e);
+            } catch (Throwable t) {
+                ZimbraLog.index.error(t.getMessage(), t);
+            } finally {
+                if (batch != null) {
+                    batch.release();
+                }
+                ZimbraLog.clearContext();
+            }
+        }
+    }
+
+    private void write() {
+        List<Chunk> taken = new ArrayList<Chunk>();
+        while (true) {
+            try {
+                taken.add(chunks.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            chunks.drainTo(taken);
+
+            Map<Batch, List<IndexItemEntry>> groups = new LinkedHashMap<Batch, List<IndexItemEntry>>();
+            for (Chunk chunk : taken) {
+                List<IndexItemEntry> entries = groups.get(chunk.batch);
+                if (entries == null) {
+                    groups.put(chunk.batch, entries = new ArrayList<IndexItemEntry>());
+                }
+                entries.addAll(chunk.entries);
+            }
+            for (Map.Entry<Batch, List<IndexItemEntry>> group : groups.entrySet()) {
+                Batch batch = group.getKey();
+                try {
+                    ZimbraLog.addMboxToContext(batch.index.getMailbox().getId());
+                    batch.index.commitIndexItems(group.getValue(), batch.status);
+                    ZimbraPerf.HISTOGRAM_INDEX_WRITE_BATCH.increment(group.getValue().size());
+                } catch (OutOfMemoryError e) {
+                    Zimbra.halt("out of memory", e);
+                } catch (Throwable t) {
+                    ZimbraLog.index.error(t.getMessage(), t);
+                    batch.status.addFailed(group.getValue().size());
+                } finally {
+                    ZimbraLog.clearContext();
+                }
+            }
+            for (Chunk chunk : taken) {
+                chunk.batch.release();
+            }
+            taken.clear();
+        }
+    }
+
+    /** A mailbox waiting in the queue. */
+    static final class Unit implements Comparable<Unit> {
+        final MailboxIndex index;
+        final int priority;
+        final long queuedAt;
+        final long sequence;
+
+        Unit(MailboxIndex index, int priority, long queuedAt, long sequence) {
+            this.index = index;
+            this.priority = priority;
+            this.queuedAt = queuedAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Unit other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * One run over the deferred items of a mailbox. It holds the mailbox's index lock until its parser is done and
+     * every chunk it handed on is committed.
+     */
+    private final class Batch implements MailboxIndex.ChunkHandler {
+        final MailboxIndex index;
+        final MailboxIndex.SharedBatchStatus status = new MailboxIndex.SharedBatchStatus();
+        final long start = System.currentTimeMillis();
+        final AtomicInteger pending = new AtomicInteger(1); // chunks not committed yet, plus one for the parser
+
+        Batch(MailboxIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public void handle(List<IndexItemEntry> entries) {
+            pending.incrementAndGet();
+            Chunk chunk = new Chunk(this, entries);
+            if (!chunks.offer(chunk)) {
+                long stalled = System.currentTimeMillis();
+                Uninterruptibles.putUninterruptibly(chunks, chunk);
+                ZimbraPerf.COUNTER_INDEX_WRITE_STALL.increment(System.currentTimeMillis() - stalled);
+            }
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                index.endBatch();
+                MailboxIndex.logBatchComplete(status, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final Batch batch;
+        final List<IndexItemEntry> entries;
+
+        Chunk(Batch batch, List<IndexItemEntry> entries) {
+            this.batch = batch;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.MailItem.UnderlyingData;
+
+/**
+ * Off-heap second tier for the per-mailbox item caches.  Items trimmed or evicted from a mailbox's on-heap cache are
+ * spilled here as their serialized {@link UnderlyingData}, and a later cache miss rebuilds the item from these bytes
+ * instead of reloading it from the database.  Under heap pressure only the on-heap tier shrinks; the working set
+ * kept here survives GC.
+ * <p>
+ * The memory is split into shards, each a fixed-size direct buffer used as a ring: entries are appended at the
+ * write position and dropped when the ring wraps over them, so the oldest spills go first and nothing is allocated
+ * per entry.  Each shard has its own lock and index, and all critical sections are a few buffer reads or writes.
+ * <p>
+ * Every entry is tagged with the generation of the item cache that spilled it.  An item cache takes a new generation
+ * when it is created or cleared, which invalidates all of its older spills at once.
+ */
+public final class ItemOverflowCache {
+
+    private static final ItemOverflowCache INSTANCE = new ItemOverflowCache(
+            LC.zimbra_mailbox_overflow_cache_size.longValue(), LC.zimbra_mailbox_overflow_cache_shards.intValue());
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    private static final int HEADER_LENGTH = 8 + 4 + 4;  // key, generation, payload length
+    private static final long SKIP = -1L;  // key of the filler that pads a shard to the end of the ring
+
+    private final Shard[] shards;
+    private final ConcurrentMap<Integer, AtomicLong> weights = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    ItemOverflowCache(long capacity, int numShards) {
+        numShards = Math.max(numShards, 1);
+        int shardCapacity = (int) Math.min(capacity / numShards, Integer.MAX_VALUE);
+        if (shardCapacity < HEADER_LENGTH * 64) {
+            shards = new Shard[0];
+        } else {
+            shards = new Shard[numShards];
+            for (int i = 0; i < numShards; i++) {
+                shards[i] = new Shard(shardCapacity);
+            }
+        }
+    }
+
+    static ItemOverflowCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** Returns a generation that no item cache has used before. */
+    static int newGeneration() {
+        return GENERATION.incrementAndGet();
+    }
+
+    boolean isEnabled() {
+        return shards.length > 0;
+    }
+
+    /**
+     * Spills the item, replacing any earlier spill of it.  {@code spilledAt} is stored alongside and handed back by
+     * {@link #take}, so that the caller can tell whether the copy predates a later invalidation.
+     *
+     * @return false if the item was not stored
+     */
+    boolean put(int mailboxId, int generation, MailItem item, long spilledAt) {
+        if (!isEnabled() || item.getId() <= 0) {
+            return false;
+        }
+        byte[] meta = item.serializeUnderlyingData().toString().getBytes(Charsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + meta.length);
+        payload.putLong(spilledAt).put(meta);
+        return put(key(mailboxId, item.getId()), generation, payload.array());
+    }
+
+    /**
+     * Removes the spilled item from the cache and rebuilds it.
+     *
+     * @return null if the item is not in the cache, or was spilled under another generation
+     */
+    Spilled take(Mailbox mbox, int generation, int id) throws ServiceException {
+        if (!isEnabled()) {
+            return null;
+        }
+        byte[] data = take(key(mbox.getId(), id), generation);
+        if (data == null) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.wrap(data);
+        long spilledAt = payload.getLong();
+        UnderlyingData ud = new UnderlyingData();
+        ud.deserialize(new Metadata(new String(data, payload.position(), payload.remaining(), Charsets.UTF_8)));
+        return new Spilled(MailItem.constructItem(mbox, ud, true), spilledAt);
+    }
+
+    void remove(int mailboxId, int id) {
+        if (isEnabled()) {
+            remove(key(mailboxId, id));
+        }
+    }
+
+    /** An item rebuilt from the cache, and the time the caller gave when spilling it. */
+    static final class Spilled {
+        final MailItem item;
+        final long spilledAt;
+
+        Spilled(MailItem item, long spilledAt) {
+            this.item = item;
+            this.spilledAt = spilledAt;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of direct memory held by the mailbox's spilled items, including spills of older
+     * generations that have not been overwritten yet.
+     */
+    public static long getWeight(int mailboxId) {
+        return INSTANCE.weight(mailboxId);
+    }
+
+    /** Returns the number of items in the cache. */
+    public static int getSize() {
+        int size = 0;
+        for (Shard shard : INSTANCE.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /** Returns the number of bytes of direct memory held by items in the cache. */
+    public static long getDataSize() {
+        long size = 0;
+        for (AtomicLong weight : INSTANCE.weights.values()) {
+            size += weight.get();
+        }
+        return size;
+    }
+
+    long weight(int mailboxId) {
+        AtomicLong weight = weights.get(mailboxId);
+        return weight == null ? 0 : weight.get();
+    }
+
+    static long key(int mailboxId, int id) {
+        return ((long) mailboxId << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    boolean put(long key, int generation, byte[] data) {
+        return shard(key).put(key, generation, data);
+    }
+
+    byte[] take(long key, int generation) {
+        return shard(key).take(key, generation);
+    }
+
+    void remove(long key) {
+        shard(key).remove(key);
+    }
+
+    private Shard shard(long key) {
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return shards[(hash >>> 1) % shards.length];
+    }
+
+    private void weigh(long key, int delta) {
+        int mailboxId = (int) (key >>> 32);
+        AtomicLong weight = weights.get(mailboxId);
+        if (weight == null) {
+            AtomicLong existing = weights.putIfAbsent(mailboxId, weight = new AtomicLong());
+            if (existing != null) {
+                weight = existing;
+            }
+        }
+        weight.addAndGet(delta);
+    }
+
+    /**
+     * One ring of entries.  Positions are logical and only ever grow; the physical offset of a position is its
+     * remainder modulo the capacity, and the bytes at a position have been overwritten once the write position is
+     * more than one capacity ahead of it.
+     */
+    private final class Shard {
+        private final int capacity;
+        private final Map<Long, Long> index = new HashMap<Long, Long>();  // key -> position of its entry
+        private ByteBuffer buf;  // allocated on the first put
+        private long writePos;   // where the next entry goes
+        private long reclaimPos; // the oldest entry not overwritten yet
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+
+        synchronized boolean put(long key, int generation, byte[] data) {
+            int length = HEADER_LENGTH + data.length;
+            if (length > capacity / 4) {
+                return false;
+            }
+            if (buf == null) {
+                buf = ByteBuffer.allocateDirect(capacity);
+            }
+            drop(key);
+
+            int offset = (int) (writePos % capacity);
+            long pos = offset + length <= capacity ? writePos : writePos + capacity - offset;
+            reclaim(pos + length - capacity);
+            if (pos != writePos && capacity - offset >= HEADER_LENGTH) {
+                buf.putLong(offset, SKIP);
+            }
+            offset = (int) (pos % capacity);
+            buf.putLong(offset, key);
+            buf.putInt(offset + 8, generation);
+            buf.putInt(offset + 12, data.length);
+            ByteBuffer dst = buf.duplicate();
+            dst.position(offset + HEADER_LENGTH);
+            dst.put(data);
+
+            index.put(key, pos);
+            weigh(key, length);
+            writePos = pos + length;
+            return true;
+        }
+
+        synchronized byte[] take(long key, int generation) {
+            Long pos = index.get(key);
+            if (pos == null) {
+                return null;
+            }
+            int offset = (int) (pos % capacity);
+            byte[] data = null;
+            if (buf.getInt(offset + 8) == generation) {
+                data = new byte[buf.getInt(offset + 12)];
+                ByteBuffer src = buf.duplicate();
+                src.position(offset + HEADER_LENGTH);
+                src.get(data);
+            }
+            drop(key);
+            return data;
+        }
+
+        synchronized void remove(long key) {
+            drop(key);
+        }
+
+        /** Unindexes the key's entry.  Its bytes stay in the ring until they are overwritten. */
+        private void drop(long key) {
+            Long pos = index.remove(key);
+            if (pos != null) {
+                weigh(key, -(HEADER_LENGTH + buf.getInt((int) (pos % capacity) + 12)));
+            }
+        }
+
+        /** Unindexes every entry that starts before {@code target}, which is about to be overwritten. */
+        private void reclaim(long target) {
+            while (reclaimPos < target) {
+                int offset = (int) (reclaimPos % capacity);
+                long key = capacity - offset >= HEADER_LENGTH ? buf.getLong(offset) : SKIP;
+                if (key == SKIP) {
+                    reclaimPos += capacity - offset;
+                    continue;
+                }
+                Long pos = index.get(key);
+                if (pos != null && pos == reclaimPos) {
+                    drop(key);
+                }
+                reclaimPos += HEADER_LENGTH + buf.getInt(offset + 12);
+            }
+        }
+    }
+}
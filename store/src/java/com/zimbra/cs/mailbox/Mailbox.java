@@ -21,7 +21,6 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -42,6 +41,7 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
@@ -57,6 +57,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.client.ZFolder;
 import com.zimbra.client.ZMailbox;
 import com.zimbra.client.ZMailbox.Options;
@@ -122,6 +123,7 @@ import com.zimbra.cs.db.DbVolumeBlobs;
 import com.zimbra.cs.fb.FreeBusy;
 import com.zimbra.cs.fb.FreeBusyQuery;
 import com.zimbra.cs.fb.LocalFreeBusyProvider;
+import com.zimbra.cs.imap.ImapFetchStructure;
 import com.zimbra.cs.imap.ImapMessage;
 import com.zimbra.cs.index.BrowseTerm;
 import com.zimbra.cs.index.DomainBrowseTerm;
@@ -245,6 +247,7 @@ import com.zimbra.cs.session.AllAccountsRedoCommitCallback;
 import com.zimbra.cs.session.PendingLocalModifications;
 import com.zimbra.cs.session.PendingModifications;
 import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
 import com.zimbra.cs.session.Session;
 import com.zimbra.cs.session.SessionCache;
 import com.zimbra.cs.session.SoapSession;
@@ -600,18 +603,113 @@ public class Mailbox implements MailboxStore {
         }
     }
 
+    /**
+     * Items evicted from the on-heap map are spilled to the shared {@link ItemOverflowCache} and rebuilt from there
+     * on a later miss.  A spilled item is dropped whenever the item itself is cached, uncached or removed.  Its
+     * children are not tracked by id, so uncaching a parent records when that happened, and spills of its children
+     * from before then are treated as misses.
+     */
     private static class ItemCache {
         private final Map<Integer /* id */, MailItem> mapById;
         private final Map<String /* uuid */, Integer /* id */> uuid2id;
         private final Mailbox mbox;
         private boolean isAlwaysOn = false;
+        private final ItemOverflowCache overflow;
+        private volatile int overflowGeneration = ItemOverflowCache.newGeneration();
+        private final AtomicLong overflowClock = new AtomicLong();
+        private final Map<Integer /* parent id */, Long /* overflow clock */> uncachedParents;
 
         public ItemCache(Mailbox mbox) {
-            mapById = new ConcurrentLinkedHashMap.Builder<Integer, MailItem>().maximumWeightedCapacity(
-                            MAX_ITEM_CACHE_WITH_LISTENERS).build();
-            uuid2id = new ConcurrentHashMap<String, Integer>(MAX_ITEM_CACHE_WITH_LISTENERS);
             this.mbox = mbox;
             this.isAlwaysOn = Zimbra.isAlwaysOn();
+            overflow = isAlwaysOn ? null : ItemOverflowCache.getInstance();
+            mapById = new ConcurrentLinkedHashMap.Builder<Integer, MailItem>().maximumWeightedCapacity(
+                            MAX_ITEM_CACHE_WITH_LISTENERS).listener(new EvictionListener<Integer, MailItem>() {
+                                @Override
+                                public void onEviction(Integer id, MailItem item) {
+                                    spill(item);
+                                }
+                            }).build();
+            uuid2id = new ConcurrentHashMap<String, Integer>(MAX_ITEM_CACHE_WITH_LISTENERS);
+            // once an invalidation is forgotten, no spill older than it can be trusted
+            uncachedParents = new ConcurrentLinkedHashMap.Builder<Integer, Long>().maximumWeightedCapacity(
+                            MAX_ITEM_CACHE_WITH_LISTENERS).listener(new EvictionListener<Integer, Long>() {
+                                @Override
+                                public void onEviction(Integer parentId, Long when) {
+                                    overflowGeneration = ItemOverflowCache.newGeneration();
+                                }
+                            }).build();
+        }
+
+        private boolean hasOverflow() {
+            return overflow != null && overflow.isEnabled();
+        }
+
+        /**
+         * Moves the item to the overflow cache.  The caller must already have removed it from the on-heap map.
+         */
+        void spill(MailItem item) {
+            if (hasOverflow() && !item.isTagged(Flag.FlagInfo.UNCACHED)) {
+                overflow.put(mbox.getId(), overflowGeneration, item, overflowClock.incrementAndGet());
+            }
+        }
+
+        /**
+         * Drops spilled copies of the items a transaction touched.  An item can be evicted, and spilled, while the
+         * transaction still holds it and goes on to modify it.
+         */
+        void dropSpilled(PendingLocalModifications dirty) {
+            if (!hasOverflow() || dirty == null) {
+                return;
+            }
+            if (dirty.created != null) {
+                dropSpilled(dirty.created.keySet());
+            }
+            if (dirty.modified != null) {
+                dropSpilled(dirty.modified.keySet());
+            }
+            if (dirty.deleted != null) {
+                dropSpilled(dirty.deleted.keySet());
+            }
+        }
+
+        private void dropSpilled(Collection<ModificationKey> keys) {
+            for (ModificationKey key : keys) {
+                overflow.remove(mbox.getId(), key.getItemId());
+            }
+        }
+
+        /**
+         * Records that the children of the item have been uncached, which makes their spilled copies stale.
+         */
+        void uncacheChildren(int parentId) {
+            if (hasOverflow()) {
+                uncachedParents.put(parentId, overflowClock.incrementAndGet());
+            }
+        }
+
+        private MailItem getSpilled(int id) {
+            if (!hasOverflow()) {
+                return null;
+            }
+            MailItem item = null;
+            try {
+                ItemOverflowCache.Spilled spilled = overflow.take(mbox, overflowGeneration, id);
+                if (spilled != null && spilled.item != null) {
+                    Long uncachedAt = uncachedParents.get(spilled.item.getParentId());
+                    if (uncachedAt == null || uncachedAt < spilled.spilledAt) {
+                        item = spilled.item;
+                        MailItem existing = mapById.putIfAbsent(id, item);
+                        if (existing != null) {
+                            item = existing;
+                        }
+                    }
+                }
+            } catch (ServiceException e) {
+                ZimbraLog.cache.debug("error rebuilding item %d of mailbox %d from overflow cache", id, mbox.getId(), e);
+            }
+            ZimbraPerf.COUNTER_MBOX_ITEM_OVERFLOW.increment(item == null ? 0 : 100);
+            return item;
         }
 
         public void put(MailItem item) {
@@ -628,6 +726,9 @@ public class Mailbox implements MailboxStore {
                 if (uuid != null) {
                     uuid2id.put(uuid, id);
                 }
+                if (hasOverflow()) {
+                    overflow.remove(mbox.getId(), id);
+                }
             }
         }
 
@@ -641,7 +742,8 @@ public class Mailbox implements MailboxStore {
                 }
                 return item;
             } else {
-                return mapById.get(id);
+                MailItem item = mapById.get(id);
+                return item != null ? item : getSpilled(id);
             }
         }
 
@@ -657,7 +759,7 @@ public class Mailbox implements MailboxStore {
             } else {
                 // Always fetch item from mapById map to preserve LRU's access time ordering.
                 Integer id = uuid2id.get(uuid);
-                return id != null ? mapById.get(id) : null;
+                return id != null ? get(id) : null;
             }
         }
 
@@ -682,6 +784,9 @@ public class Mailbox implements MailboxStore {
                         uuid2id.remove(uuid);
                     }
                 }
+                if (hasOverflow()) {
+                    overflow.remove(mbox.getId(), id);
+                }
                 return removed;
             }
         }
@@ -719,6 +824,8 @@ public class Mailbox implements MailboxStore {
         public void clear() {
             mapById.clear();
             uuid2id.clear();
+            overflowGeneration = ItemOverflowCache.newGeneration();
+            uncachedParents.clear();
         }
     }
 
@@ -746,7 +853,7 @@ public class Mailbox implements MailboxStore {
 
     private FolderCache mFolderCache;
     private Map<Object, Tag> mTagCache;
-    private SoftReference<ItemCache> mItemCache = new SoftReference<ItemCache>(null);
+    private final ItemCache mItemCache = new ItemCache(this);
     private final Map<String, Integer> mConvHashes = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
     private final Map<String, Integer> mSentMessageIDs = new ConcurrentLinkedHashMap.Builder<String, Integer>()
@@ -1839,14 +1946,7 @@ public class Mailbox implements MailboxStore {
             recorder.setChangeId(getOperationChangeID());
         }
 
-        // keep a hard reference to the item cache to avoid having it GCed during the op
-        ItemCache cache = mItemCache.get();
-        if (cache == null) {
-            cache = new ItemCache(this);
-            mItemCache = new SoftReference<ItemCache>(cache);
-            ZimbraLog.cache.debug("created a new MailItem cache for mailbox " + getId());
-        }
-        currentChange().itemCache = cache;
+        currentChange().itemCache = mItemCache;
 
         // don't permit mailbox access during maintenance
         if (maintenance != null && !maintenance.canAccess()) {
@@ -2095,6 +2195,7 @@ public class Mailbox implements MailboxStore {
 
         Collection<? extends MailItem> cached;
         if (!(parent instanceof Folder)) {
+            getItemCache().uncacheChildren(parent.getId());
             cached = getItemCache().values();
         } else if (mFolderCache != null) {
             cached = mFolderCache.values();
@@ -2640,6 +2741,38 @@ public class Mailbox implements MailboxStore {
         }
     }
 
+    /**
+     * Stores IMAP FETCH structures computed for messages that were stored without them.  Each entry maps a message
+     * id to the content sequence the structures were computed at, so a message whose content changed since is
+     * skipped.  Like {@link #reanalyze}, this only caches data derived from the blob, so it isn't redo-logged; unlike
+     * it, the messages keep their modified sequence, so no client sees them as changed.
+     *
+     * @return the number of messages updated
+     */
+    public int cacheImapFetchStructures(Map<Integer, Pair<Integer, ImapFetchStructure>> structures)
+            throws ServiceException {
+        int count = 0;
+        boolean success = false;
+        try {
+            beginTransaction("cacheImapFetchStructures", null);
+            for (Map.Entry<Integer, Pair<Integer, ImapFetchStructure>> entry : structures.entrySet()) {
+                Message msg;
+                try {
+                    msg = getMessageById(entry.getKey());
+                } catch (NoSuchItemException e) {
+                    continue;
+                }
+                if (msg.cacheImapFetchStructure(entry.getValue().getFirst(), entry.getValue().getSecond())) {
+                    count++;
+                }
+            }
+            success = true;
+        } finally {
+            endTransaction(success);
+        }
+        return count;
+    }
+
 
     /** Returns the access rights that the user has been granted on this
      *  item.  The owner of the {@link Mailbox} has all rights on all items
@@ -2816,7 +2949,7 @@ public class Mailbox implements MailboxStore {
         }
         assert (currentChange().depth == 0);
 
-        ItemCache cache = mItemCache.get();
+        ItemCache cache = mItemCache;
         FolderCache folders = mFolderCache == null || Collections.disjoint(pms.changedTypes, FOLDER_TYPES) ? mFolderCache
                         : snapshotFolders();
 
@@ -9003,6 +9136,14 @@ public class Mailbox implements MailboxStore {
      * messages to purge in any folder exceeded {@code maxItemsPerFolder}.
      */
     public boolean purgeMessages(OperationContext octxt) throws ServiceException {
+        return purgeMessages(octxt, null);
+    }
+
+    /**
+     * Purges messages as {@link #purgeMessages(OperationContext)} does, and adds the number of items and blobs the
+     * purge deleted to {@code deleted} if it is not null.
+     */
+    boolean purgeMessages(OperationContext octxt, PurgeThread.DeleteCount deleted) throws ServiceException {
         Account acct = getAccount();
         int maxItemsPerFolder = Provisioning.getInstance().getLocalServer().getMailPurgeBatchSize();
         if (ZimbraLog.purge.isDebugEnabled()) {
@@ -9180,6 +9321,12 @@ public class Mailbox implements MailboxStore {
                 DbMailbox.updateLastPurgeAt(this, System.currentTimeMillis());
             }
 
+            PendingDelete deletes = currentChange().deletes;
+            if (deleted != null && deletes != null) {
+                deleted.items += deletes.itemIds.size();
+                deleted.blobs += deletes.blobs.size();
+            }
+
             success = true;
             ZimbraLog.purge.debug("purgedAll=%b", purgedAll);
             return purgedAll;
@@ -10010,6 +10157,9 @@ public class Mailbox implements MailboxStore {
         assert (!change.hasChanges() || lock.isWriteLockedByCurrentThread());
 
         try {
+            if (change.itemCache != null) {
+                change.itemCache.dropSpilled(dirty);
+            }
             // the mailbox data has changed, so commit the changes
             if (change.sync != null) {
                 mData.trackSync = change.sync;
@@ -10097,6 +10247,9 @@ public class Mailbox implements MailboxStore {
             return null;
         }
         try {
+            if (change.itemCache != null) {
+                change.itemCache.dropSpilled(change.dirty);
+            }
             // rolling back changes, so purge dirty items from the various caches
             for (Map<?, ?> map : new Map[] {change.dirty.created, change.dirty.deleted, change.dirty.modified}) {
                 if (map != null) {
@@ -10163,7 +10316,7 @@ public class Mailbox implements MailboxStore {
                     break;
                 }
             }
-            // trim the excess; note that "uncache" can cascade and take out child items
+            // trim the excess into the overflow cache; note that "uncache" can cascade and take out child items
             while (--i >= 0) {
                 if (cache.size() <= sizeTarget) {
                     return;
@@ -10171,6 +10324,7 @@ public class Mailbox implements MailboxStore {
 
                 try {
                     uncache(overflow[i]);
+                    cache.spill(overflow[i]);
                 } catch (ServiceException e) {
                 }
             }
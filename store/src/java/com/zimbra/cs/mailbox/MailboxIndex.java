@@ -87,10 +87,12 @@ public final class MailboxIndex {
     private static final int MAX_TX_ITEMS = LC.zimbra_index_max_transaction_items.intValue();
     private static final long FAILURE_DELAY = LC.zimbra_index_deferred_items_failure_delay.intValue() * 1000;
 
-    private static final ThreadPoolExecutor INDEX_EXECUTOR = new ThreadPoolExecutor(
-            LC.zimbra_index_threads.intValue(), LC.zimbra_index_threads.intValue(),
-            Long.MAX_VALUE, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(),
-            new ThreadFactoryBuilder().setNameFormat("Index-%d").setDaemon(true).build());
+    // Indexing itself runs on IndexingPipeline; this only runs the merges that follow a commit. Merge threads are
+    // created on demand and capped at the number of index writer threads.
+    private static final ExecutorService MERGE_EXECUTOR = new ThreadPoolExecutor(
+            0, Math.max(LC.zimbra_index_write_threads.intValue(), 1), 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("IndexMerge-%d").setDaemon(true).build());
     // Re-index threads are created on demand basis. The number of threads are capped.
     private static final ExecutorService REINDEX_EXECUTOR = new ThreadPoolExecutor(
             0, LC.zimbra_reindex_threads.intValue(), 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
@@ -125,13 +127,17 @@ public final class MailboxIndex {
      * Starts all index threads.
      */
     public static void startup() {
-        INDEX_EXECUTOR.prestartAllCoreThreads();
+        IndexingPipeline.getInstance();
     }
 
     public static void shutdown() {
         IndexStore.getFactory().destroy();
     }
 
+    Mailbox getMailbox() {
+        return mailbox;
+    }
+
     public Analyzer getAnalyzer() {
         return analyzer;
     }
@@ -165,13 +171,8 @@ public final class MailboxIndex {
         ZimbraQuery query = new ZimbraQuery(octx, proto, mailbox, params);
         Set<MailItem.Type> types = toIndexTypes(params.getTypes());
         // no need to index if the search doesn't involve Lucene
-        if (!params.isQuick() && query.hasTextOperation() && getDeferredCount(types) > 0) {
-            try {
-                // don't wait if an indexing is in progress by other thread
-                indexDeferredItems(types, new BatchStatus(), false);
-            } catch (ServiceException e) {
-                ZimbraLog.index.error("Failed to index deferred items", e);
-            }
+        if (!params.isQuick() && query.hasTextOperation()) {
+            indexDeferredItemsBeforeSearch(types);
         }
         return search(query);
     }
@@ -266,14 +267,7 @@ public final class MailboxIndex {
      * Returns true if any of the specified email addresses exists in contacts, otherwise false.
      */
     public boolean existsInContacts(Collection<InternetAddress> addrs) throws IOException {
-        Set<MailItem.Type> types = EnumSet.of(MailItem.Type.CONTACT);
-        if (getDeferredCount(types) > 0) {
-            try {
-                indexDeferredItems(types, new BatchStatus(), false);
-            } catch (ServiceException e) {
-                ZimbraLog.index.error("Failed to index deferred items", e);
-            }
-        }
+        indexDeferredItemsBeforeSearch(EnumSet.of(MailItem.Type.CONTACT));
 
         try (ZimbraIndexSearcher searcher = indexStore.openSearcher()) {
             for (InternetAddress addr : addrs) {
@@ -325,13 +319,13 @@ public final class MailboxIndex {
     }
 
     /**
-     * Submits a task to {@link #INDEX_EXECUTOR}.
+     * Submits a task to {@link #MERGE_EXECUTOR}.
      *
      * @param task index task
-     * @throws RejectedExecutionException if all index threads are busy
+     * @throws RejectedExecutionException if all merge threads are busy
      */
     public void submit(IndexTask task) {
-        INDEX_EXECUTOR.submit(task);
+        MERGE_EXECUTOR.submit(task);
     }
 
     void setIndexingSuspended( boolean suspended) {
@@ -343,6 +337,26 @@ public final class MailboxIndex {
         }
     }
 
+    /**
+     * Indexes deferred items of the given types so that a search finds them.  A near real time index picks them up
+     * in the background instead, so the search doesn't wait for them.
+     */
+    private void indexDeferredItemsBeforeSearch(Set<MailItem.Type> types) {
+        if (getDeferredCount(types) <= 0) {
+            return;
+        }
+        if (indexStore != null && indexStore.isNearRealTime()) {
+            IndexingPipeline.getInstance().submit(this, IndexingPipeline.PRIORITY_SEARCH);
+            return;
+        }
+        try {
+            // don't wait if an indexing is in progress by other thread
+            indexDeferredItems(types, new BatchStatus(), false);
+        } catch (ServiceException e) {
+            ZimbraLog.index.error("Failed to index deferred items", e);
+        }
+    }
+
     /**
      * Attempts to index deferred items.
      */
@@ -364,11 +378,7 @@ public final class MailboxIndex {
         // If there was a failure, we trigger indexing even if the deferred count is still low.
         if ((lastFailedTime >= 0 && System.currentTimeMillis() - lastFailedTime > FAILURE_DELAY) ||
                 getDeferredCount(EnumSet.noneOf(MailItem.Type.class)) >= getBatchThreshold()) {
-            try {
-                INDEX_EXECUTOR.submit(new BatchIndexTask());
-            } catch (RejectedExecutionException e) {
-                ZimbraLog.index.warn("Skipping batch index because all index threads are busy");
-            }
+            IndexingPipeline.getInstance().submit(this, IndexingPipeline.PRIORITY_BATCH);
         }
     }
 
@@ -409,16 +419,41 @@ public final class MailboxIndex {
             long start = System.currentTimeMillis();
             Collection<Integer> ids = getDeferredIds(types);
             indexItemList(ids, status);
-
-            long elapsed = System.currentTimeMillis() - start;
-            ZimbraLog.index.info("Batch complete processed=%d,failed=%d,elapsed=%d (%.2f items/sec)",
-                    status.getProcessed(), status.getFailed(), elapsed,
-                    1000.0 * (status.getProcessed() - status.getFailed()) / elapsed);
+            logBatchComplete(status, System.currentTimeMillis() - start);
         } finally {
             indexLock.release();
         }
     }
 
+    /**
+     * Starts a batch run by {@link IndexingPipeline}, which must call {@link #endBatch()} once its last chunk is
+     * committed.
+     *
+     * @return false if the index is being deleted, or an indexing is in progress by other thread
+     */
+    boolean tryBeginBatch() {
+        if ((indexStore != null) && indexStore.isPendingDelete()) {
+            ZimbraLog.index.debug("index delete is in progress by other thread, skipping");
+            return false;
+        }
+        if (!indexLock.tryAcquire()) {
+            ZimbraLog.index.debug("index is in progress by other thread, skipping");
+            return false;
+        }
+        lastFailedTime = -1; // reset
+        return true;
+    }
+
+    void endBatch() {
+        indexLock.release();
+    }
+
+    static void logBatchComplete(BatchStatus status, long elapsed) {
+        ZimbraLog.index.info("Batch complete processed=%d,failed=%d,elapsed=%d (%.2f items/sec)",
+                status.getProcessed(), status.getFailed(), elapsed,
+                1000.0 * (status.getProcessed() - status.getFailed()) / elapsed);
+    }
+
     @VisibleForTesting
     public void indexDeferredItems() throws ServiceException {
         indexDeferredItems(EnumSet.noneOf(MailItem.Type.class), new BatchStatus(), true);
@@ -722,7 +757,32 @@ public final class MailboxIndex {
      * @param status progress will be written to the status
      * @throws ServiceException {@link ServiceException#INTERRUPTED} if {@link #cancelReIndex()} is called
      */
-    private void indexItemList(Collection<Integer> ids, BatchStatus status) throws ServiceException {
+    private void indexItemList(Collection<Integer> ids, final BatchStatus status) throws ServiceException {
+        tokenizeItemList(ids, status, new ChunkHandler() {
+            @Override
+            public void handle(List<Mailbox.IndexItemEntry> chunk) throws ServiceException {
+                if (status.isCancelled()) {
+                    throw ServiceException.INTERRUPTED("cancelled");
+                }
+                commitIndexItems(chunk, status);
+            }
+        });
+    }
+
+    /**
+     * Receives the chunks of tokenized items from {@link MailboxIndex#tokenizeItemList}.
+     */
+    interface ChunkHandler {
+        void handle(List<Mailbox.IndexItemEntry> chunk) throws ServiceException;
+    }
+
+    /**
+     * Fetches each item and generates its index data without holding the mailbox lock, and passes them on to the
+     * handler in chunks of up to {@link #MAX_TX_BYTES} or {@link #MAX_TX_ITEMS}. The handler owns each chunk it is
+     * given.
+     */
+    void tokenizeItemList(Collection<Integer> ids, BatchStatus status, ChunkHandler handler)
+            throws ServiceException {
         assert(mailbox.lock.isUnlocked());
 
         status.setTotal(ids.size());
@@ -738,9 +798,6 @@ public final class MailboxIndex {
             i++;
             status.addProcessed(1);
 
-            // Fetch the item and generate the list of Lucene documents to index. Do this without holding the Mailbox
-            // lock. Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
-            // index.
             ZimbraLog.index.debug("Tokenizing id=%d", id);
             MailItem item = null;
             try {
@@ -780,35 +837,37 @@ public final class MailboxIndex {
             }
             chunkByteSize += item.getSize();
 
-            if (i == ids.size() || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
-                // we have a chunk of items and their corresponding index data -- add them to the index
-                try {
-                    ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
-
-                    if (status.isCancelled()) {
-                        throw ServiceException.INTERRUPTED("cancelled");
-                    }
+            if (chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
+                ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+                handler.handle(chunk);
+                chunk = new ArrayList<Mailbox.IndexItemEntry>();
+                chunkByteSize = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+            handler.handle(chunk);
+        }
+    }
 
-                    try {
-                        boolean success = false;
-                        try {
-                            mailbox.beginTransaction("IndexItemList-Commit", null);
-                            for (Mailbox.IndexItemEntry entry : chunk) {
-                                mailbox.addIndexItemToCurrentChange(entry);
-                            }
-                            success = true;
-                        } finally {
-                            mailbox.endTransaction(success);
-                        }
-                    } catch (ServiceException e) {
-                        ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
-                        status.addFailed(chunk.size());
-                    }
-                } finally {
-                    chunk.clear();
-                    chunkByteSize = 0;
+    /**
+     * Adds the tokenized items to the index in one mailbox transaction.
+     */
+    void commitIndexItems(List<Mailbox.IndexItemEntry> chunk, BatchStatus status) {
+        try {
+            boolean success = false;
+            try {
+                mailbox.beginTransaction("IndexItemList-Commit", null);
+                for (Mailbox.IndexItemEntry entry : chunk) {
+                    mailbox.addIndexItemToCurrentChange(entry);
                 }
+                success = true;
+            } finally {
+                mailbox.endTransaction(success);
             }
+        } catch (ServiceException e) {
+            ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
+            status.addFailed(chunk.size());
         }
     }
 
@@ -1228,7 +1287,7 @@ public final class MailboxIndex {
         return deferredIds;
     }
 
-    private synchronized Collection<Integer> getDeferredIds(Set<MailItem.Type> types) throws ServiceException {
+    synchronized Collection<Integer> getDeferredIds(Set<MailItem.Type> types) throws ServiceException {
         SetMultimap<MailItem.Type, Integer> ids = getDeferredIds();
         if (ids == null || ids.isEmpty()) {
             return Collections.emptyList();
@@ -1305,7 +1364,7 @@ public final class MailboxIndex {
     /**
      * Batch index progress information. The counters are not thread safe.
      */
-    private static class BatchStatus {
+    static class BatchStatus {
         private int total = -1;
         private int processed = 0;
         private int failed = 0;
@@ -1348,6 +1407,41 @@ public final class MailboxIndex {
         }
     }
 
+    /**
+     * Batch index progress information shared by the stages of {@link IndexingPipeline}. The counters are thread safe.
+     */
+    static final class SharedBatchStatus extends BatchStatus {
+        @Override
+        synchronized void setTotal(int value) {
+            super.setTotal(value);
+        }
+
+        @Override
+        synchronized void addProcessed(int delta) {
+            super.addProcessed(delta);
+        }
+
+        @Override
+        synchronized void addFailed(int delta) {
+            super.addFailed(delta);
+        }
+
+        @Override
+        public synchronized int getTotal() {
+            return super.getTotal();
+        }
+
+        @Override
+        public synchronized int getProcessed() {
+            return super.getProcessed();
+        }
+
+        @Override
+        public synchronized int getFailed() {
+            return super.getFailed();
+        }
+    }
+
     /**
      * Re-index progress information. The counters are thread safe.
      */
@@ -1428,19 +1522,6 @@ public final class MailboxIndex {
         protected abstract void exec() throws Exception;
     }
 
-    private final class BatchIndexTask extends IndexTask {
-
-        BatchIndexTask() {
-            super(mailbox);
-        }
-
-        @Override
-        protected void exec() throws Exception {
-            indexDeferredItems(EnumSet.noneOf(MailItem.Type.class), new BatchStatus(), false);
-        }
-
-    }
-
     private static final class ItemSearchResult extends DbSearch.Result {
         private final MailItem item;
 
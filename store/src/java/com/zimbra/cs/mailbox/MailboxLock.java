@@ -20,8 +20,6 @@ import java.util.EmptyStackException;
 import java.util.Stack;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
-
 import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.localconfig.LC;
@@ -29,8 +27,10 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mailbox.lock.DebugZLock;
 import com.zimbra.cs.mailbox.lock.ZLock;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zookeeper.CuratorManager;
+import com.zimbra.cs.zookeeper.DistributedReadWriteLock;
 
 /**
  * {@link MailboxLock} is a replacement of the implicit monitor lock using {@code synchronized} methods or statements on
@@ -43,14 +43,15 @@ import com.zimbra.cs.zookeeper.CuratorManager;
  */
 public final class MailboxLock {
     private final ZLock zLock = DebugConfig.debugMailboxLock ? new DebugZLock() : new ZLock();
-    private InterProcessSemaphoreMutex dLock = null;
+    private DistributedReadWriteLock dLock = null;
+    private final ThreadLocal<Long> dLockAcquiredAt = new ThreadLocal<Long>();
     private final Stack<Boolean> lockStack = new Stack<Boolean>();
     private Mailbox mbox;
 
     public MailboxLock(String id, Mailbox mbox) {
         if (Zimbra.isAlwaysOn()) {
             try {
-                dLock = CuratorManager.getInstance().createLock(id);
+                dLock = CuratorManager.getInstance().createReadWriteLock(id);
             } catch (ServiceException se) {
                 ZimbraLog.mailbox.error("could not initialize distributed lock", se);
             }
@@ -58,25 +59,40 @@ public final class MailboxLock {
         this.mbox = mbox;
     }
 
+    /**
+     * Readers on different nodes share the distributed lock, and readers on the same node share a single (leased)
+     * grant, so only writers serialize cluster-wide.
+     */
     private void acquireDistributedLock(boolean write) throws ServiceException {
-        //TODO: consider read/write distributed lock
         if (dLock != null && getHoldCount() == 1) {
+            long start = ZimbraPerf.HISTOGRAM_MBOX_DLOCK_WAIT.start();
+            boolean acquired;
             try {
-                dLock.acquire(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                acquired = dLock.acquire(write, LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
             } catch (Exception e) {
-                throw new LockFailedException("could not acquire distributed lock", e);
+                throw ServiceException.FAILURE("could not acquire distributed lock", e);
             }
+            if (!acquired) {
+                throw ServiceException.FAILURE("timeout acquiring distributed lock", null);
+            }
+            dLockAcquiredAt.set(System.currentTimeMillis());
+            ZimbraPerf.HISTOGRAM_MBOX_DLOCK_WAIT.stop(start);
         }
     }
 
     private void releaseDistributedLock(boolean write) {
-        //TODO: consider read/write distributed lock
         if (dLock != null && getHoldCount() == 1) {
+            Long acquiredAt = dLockAcquiredAt.get();
+            if (acquiredAt == null) {
+                return; // acquisition failed, nothing to release
+            }
+            dLockAcquiredAt.remove();
             try {
-                dLock.release();
+                dLock.release(write);
             } catch (Exception e) {
                 ZimbraLog.mailbox.warn("error while releasing distributed lock", e);
             }
+            ZimbraPerf.HISTOGRAM_MBOX_DLOCK_HOLD.stop(acquiredAt);
         }
     }
 
@@ -749,6 +749,16 @@ public class MailboxManager {
 
     }
 
+    public List<DbMailbox.PurgeStatus> getPurgeStatus() throws ServiceException {
+        DbConnection conn = null;
+        try {
+            conn = DbPool.getConnection();
+            return DbMailbox.listPurgeStatus(conn);
+        } finally {
+            DbPool.quietClose(conn);
+        }
+    }
+
     /** Returns an array of the account IDs of all the mailboxes on this host.
      *  Note that <code>Mailbox</code>es are lazily created, so this is not
      *  the same as the set of accounts whose <code>zimbraMailHost</code> LDAP
@@ -51,6 +51,7 @@ import com.zimbra.cs.account.CalendarResource;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.Rights.User;
 import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.imap.ImapFetchStructure;
 import com.zimbra.cs.index.IndexDocument;
 import com.zimbra.cs.index.SortBy;
 import com.zimbra.cs.mailbox.MailItem.CustomMetadata.CustomMetadataList;
@@ -212,6 +213,7 @@ public class Message extends MailItem {
     private DraftInfo draftInfo;
     private ArrayList<CalendarItemInfo> calendarItemInfos;
     private String calendarIntendedFor;
+    private ImapFetchStructure imapStructure;
 
     Message(Mailbox mbox, UnderlyingData ud) throws ServiceException {
         this(mbox, ud, false);
@@ -592,7 +594,8 @@ public class Message extends MailItem {
         data.setFlags(flags & (Flag.FLAGS_MESSAGE | Flag.FLAGS_GENERIC));
         data.setTags(ntags);
         data.setSubject(pm.getNormalizedSubject());
-        data.metadata = encodeMetadata(DEFAULT_COLOR_RGB, 1, 1, extended, pm, pm.getFragment(acct.getLocale()), dinfo, null, null).toString();
+        data.metadata = encodeMetadata(DEFAULT_COLOR_RGB, 1, 1, extended, pm, pm.getFragment(acct.getLocale()), dinfo, null, null,
+                ImapFetchStructure.compute(pm)).toString();
         data.unreadCount = unread ? 1 : 0;
         data.contentChanged(mbox);
 
@@ -1374,6 +1377,32 @@ public class Message extends MailItem {
         return moved;
     }
 
+    /** Returns the ENVELOPE, BODY and BODYSTRUCTURE kept for IMAP FETCH, or null if they weren't computed. */
+    public ImapFetchStructure getImapFetchStructure() {
+        return imapStructure;
+    }
+
+    /**
+     * Stores IMAP FETCH structures computed from this message's content at {@code savedSequence}, unless the
+     * content has changed since or structures are already there.  They only restate the content, so the message
+     * isn't marked modified: a CONDSTORE client or a sync shouldn't refetch it because of them.
+     */
+    boolean cacheImapFetchStructure(int savedSequence, ImapFetchStructure structure) throws ServiceException {
+        if (imapStructure != null || getSavedSequence() != savedSequence) {
+            return false;
+        }
+        imapStructure = structure;
+        DbMailItem.saveDerivedMetadata(this, encodeMetadata().toString());
+        return true;
+    }
+
+    @Override
+    MailboxBlob setContent(StagedBlob staged, Object content) throws ServiceException, IOException {
+        // the structures describe the old content; reanalyze() recomputes them from the new one if it can
+        imapStructure = null;
+        return super.setContent(staged, content);
+    }
+
     public ParsedMessage getParsedMessage() throws ServiceException {
         ParsedMessage pm = null;
         mMailbox.lock.lock();
@@ -1475,9 +1504,15 @@ public class Message extends MailItem {
             mData.size = newSize;
         }
 
+        // a reindex leaves the content alone, so keep what we had if the new pm can't provide the IMAP structures
+        ImapFetchStructure structure = ImapFetchStructure.compute(pm);
+        if (structure != null) {
+            imapStructure = structure;
+        }
+
         // rewrite the DB row to reflect our new view
         saveData(new DbMailItem(mMailbox), encodeMetadata(mRGBColor, mMetaVersion, mVersion, mExtendedData, pm, fragment,
-                draftInfo, calendarItemInfos, calendarIntendedFor));
+                draftInfo, calendarItemInfos, calendarIntendedFor, imapStructure));
 
         if (parent instanceof VirtualConversation) {
             ((VirtualConversation) parent).recalculateMetadata(Collections.singletonList(this));
@@ -1531,6 +1566,7 @@ public class Message extends MailItem {
             }
         }
         calendarIntendedFor = meta.get(Metadata.FN_CAL_INTENDED_FOR, null);
+        imapStructure = ImapFetchStructure.decodeMetadata(meta.getMap(Metadata.FN_IMAP_STRUCTURE, true));
 
         Metadata draftMeta = meta.getMap(Metadata.FN_DRAFT, true);
         if (draftMeta != null) {
@@ -1552,19 +1588,20 @@ public class Message extends MailItem {
     @Override
     Metadata encodeMetadata(Metadata meta) {
         return encodeMetadata(meta, mRGBColor, mMetaVersion, mVersion, mExtendedData, sender, recipients, fragment,
-                mData.getSubject(), rawSubject, draftInfo, calendarItemInfos, calendarIntendedFor);
+                mData.getSubject(), rawSubject, draftInfo, calendarItemInfos, calendarIntendedFor, imapStructure);
     }
 
     private static Metadata encodeMetadata(Color color, int metaVersion, int version, CustomMetadataList extended, ParsedMessage pm,
-            String fragment, DraftInfo dinfo, List<CalendarItemInfo> calItemInfos, String calIntendedFor) {
+            String fragment, DraftInfo dinfo, List<CalendarItemInfo> calItemInfos, String calIntendedFor,
+            ImapFetchStructure imapStructure) {
         return encodeMetadata(new Metadata(), color, metaVersion, version, extended, pm.getSender(), pm.getRecipients(),
                 fragment, pm.getNormalizedSubject(), pm.getSubject(), dinfo,
-                calItemInfos, calIntendedFor);
+                calItemInfos, calIntendedFor, imapStructure);
     }
 
     static Metadata encodeMetadata(Metadata meta, Color color, int metaVersion, int version, CustomMetadataList extended, String sender,
             String recipients, String fragment, String subject, String rawSubj, DraftInfo dinfo,
-            List<CalendarItemInfo> calItemInfos, String calIntendedFor) {
+            List<CalendarItemInfo> calItemInfos, String calIntendedFor, ImapFetchStructure imapStructure) {
         // try to figure out a simple way to make the raw subject from the normalized one
         String prefix = null;
         if (rawSubj == null || rawSubj.equals(subject)) {
@@ -1588,6 +1625,9 @@ public class Message extends MailItem {
             meta.put(Metadata.FN_CALITEM_IDS, mdList);
         }
         meta.put(Metadata.FN_CAL_INTENDED_FOR, calIntendedFor);
+        if (imapStructure != null) {
+            meta.put(Metadata.FN_IMAP_STRUCTURE, imapStructure.encodeMetadata());
+        }
 
         if (dinfo != null) {
             Metadata dmeta = new Metadata();
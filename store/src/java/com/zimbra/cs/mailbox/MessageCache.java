@@ -18,14 +18,23 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimeConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
@@ -48,19 +57,71 @@ public class MessageCache {
 
     private static final class CacheNode {
         CacheNode()  { }
-        MimeMessage message;
-        MimeMessage expanded;
-        Map<Integer, String> smimeAccessInfo = new HashMap<Integer, String>();
-        long size = 0;
+        volatile MimeMessage message;
+        volatile MimeMessage expanded;
+        Map<Integer, String> smimeAccessInfo = Collections.synchronizedMap(new HashMap<Integer, String>());
+        volatile long size = 0;
+        /** Set once the node's data has been subtracted from {@link #sDataSize}. */
+        final AtomicBoolean released = new AtomicBoolean();
     }
 
-    /** Cache mapping message digest to the corresponding message structure. */
-    private static Map<String, CacheNode> sCache = new LinkedHashMap<String, CacheNode>(150, (float) 0.75, true);
+    /** Weighs each node as one entry plus its in-memory message data, expressed in
+     *  entries, so that a single weight bound caps both the number of cached
+     *  messages and the bytes of message data held in memory. */
+    private static final class NodeWeigher implements Weigher<String, CacheNode> {
+        private final int maxCount;
+        private final long maxDataSize;
+
+        NodeWeigher(int maxCount, long maxDataSize) {
+            this.maxCount = maxCount;
+            this.maxDataSize = maxDataSize;
+        }
+
+        @Override
+        public int weigh(String digest, CacheNode node) {
+            if (maxDataSize <= 0 || node.size <= 0) {
+                return 1;
+            }
+            return 1 + (int) Math.min(maxCount, (node.size * maxCount + maxDataSize - 1) / maxDataSize);
+        }
+    }
+
+    private static final RemovalListener<String, CacheNode> sRemovalListener =
+        new RemovalListener<String, CacheNode>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, CacheNode> notification) {
+                CacheNode node = notification.getValue();
+                if (node == null) {
+                    return;
+                }
+                if (notification.getCause() == RemovalCause.REPLACED &&
+                        sCache.asMap().get(notification.getKey()) == node) {
+                    // same node put back to update its weight
+                    return;
+                }
+                if (!node.released.compareAndSet(false, true)) {
+                    // a node put back to update its weight and then evicted for it is reported twice
+                    return;
+                }
+                if (notification.wasEvicted()) {
+                    sLog.debug("Pruning digest %s from the cache.", notification.getKey());
+                    ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICTION.increment();
+                } else if (notification.getCause() == RemovalCause.EXPLICIT) {
+                    sLog.debug("Purged digest %s from the message cache.", notification.getKey());
+                }
+                sDataSize.addAndGet(-node.size);
+            }
+        };
+
+    /** Cache mapping message digest to the corresponding message structure.  The cache
+     *  is segmented, so lookups don't contend on a global monitor, and evicts in LRU
+     *  order within each segment. */
+    private static volatile Cache<String, CacheNode> sCache;
     /** Maximum number of items in {@link #sCache}. */
     private static int sMaxCacheSize;
     /** Number of bytes of message data stored in the cache.  This value includes only
      * messages that are read into memory, not streamed from disk. */
-    private volatile static long sDataSize = 0;
+    private static final AtomicLong sDataSize = new AtomicLong();
 
     static {
         try {
@@ -72,24 +133,40 @@ public class MessageCache {
 
     public static void loadSettings() throws ServiceException {
         sMaxCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
+        long maxDataSize = LC.zimbra_message_cache_max_data_size.longValue();
         ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize);
+        Cache<String, CacheNode> cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(Math.max(4, Runtime.getRuntime().availableProcessors()))
+            .maximumWeight(sMaxCacheSize)
+            .weigher(new NodeWeigher(sMaxCacheSize, maxDataSize))
+            .removalListener(sRemovalListener)
+            .build();
+        // carry over the existing entries when the cache size is changed at runtime
+        Cache<String, CacheNode> old = sCache;
+        if (old != null) {
+            cache.putAll(old.asMap());
+        }
+        sCache = cache;
     }
 
     /** Returns the number of messages in the cache. */
     public static int getSize() {
-        synchronized (sCache) {
-            return sCache.size();
-        }
+        return (int) sCache.size();
     }
 
     public static boolean contains(String digest) {
-        synchronized (sCache) {
-            return sCache.containsKey(digest);
-        }
+        return digest != null && sCache.asMap().containsKey(digest);
     }
 
     public static long getDataSize() {
-        return sDataSize;
+        return sDataSize.get();
+    }
+
+    /** Empties the cache and resets the data size, so that a test starts from nothing. */
+    @VisibleForTesting
+    static void clear() {
+        sCache.invalidateAll();
+        sDataSize.set(0);
     }
 
     /** Uncaches any data associated with the given item.  This must be done
@@ -124,13 +201,7 @@ public class MessageCache {
      *  stale data. */
     public static void purge(String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.remove(digest);
-                if (node != null) {
-                    sLog.debug("Purged digest %s from the message cache.", digest);
-                    sDataSize -= node.size;
-                }
-            }
+            sCache.invalidate(digest);
         }
     }
 
@@ -157,13 +228,14 @@ public class MessageCache {
         int mboxId = item.getMailboxId();
         boolean isEncrypted = false;
 
-        synchronized (sCache) {
-            cnode = sCache.get(digest);
-            if (cnode == null) {
-                newNode = true;
-                cnode = new CacheNode();
-            }
+        if (digest != null) {
+            cnode = sCache.getIfPresent(digest);
         }
+        if (cnode == null) {
+            newNode = true;
+            cnode = new CacheNode();
+        }
+        long sizeBefore = cnode.size;
 
         try {
             if (cnode.message == null) {
@@ -177,7 +249,7 @@ public class MessageCache {
                         // Not the best place to increment the data size, but cacheItem()
                         // won't get called if we're expanding a message for an existing
                         // node.
-                        sDataSize += cnode.size;
+                        sDataSize.addAndGet(cnode.size);
                     }
                 } finally {
                     ByteUtil.closeStream(in);
@@ -220,6 +292,9 @@ public class MessageCache {
 
             if (newNode) {
                 cacheItem(digest, cnode);
+            } else if (cnode.size != sizeBefore && digest != null) {
+                // put the node back so that the cache picks up its new weight
+                sCache.asMap().replace(digest, cnode, cnode);
             }
         } catch (IOException e) {
             throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
@@ -286,7 +361,7 @@ public class MessageCache {
         expander.expand();
         cnode.expanded = expander.getExpanded();
         if (cnode.expanded != cnode.message) {
-            sDataSize += cnode.size;
+            sDataSize.addAndGet(cnode.size);
             cnode.size *= 2;
         }
     }
@@ -361,40 +436,27 @@ public class MessageCache {
     }
 
     private static void cacheItem(String digest, CacheNode cnode) {
-        sLog.debug("Caching MimeMessage for digest %s.", digest);
-        synchronized (sCache) {
-            sCache.put(digest, cnode);
-            // Cache data size was incremented in getMimeMessage().
-
-            // trim the cache if needed
-            if (sCache.size() > sMaxCacheSize) {
-                Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-                while (sCache.size() > sMaxCacheSize && it.hasNext()) {
-                    Map.Entry<String, CacheNode> entry = it.next();
-                    sLog.debug("Pruning digest %s from the cache.", entry.getKey());
-                    it.remove();
-                    sDataSize -= entry.getValue().size;
-                }
-            }
+        if (digest == null) {
+            return;
         }
+        sLog.debug("Caching MimeMessage for digest %s.", digest);
+        // Cache data size was incremented in getMimeMessage().  The cache trims itself
+        // and the removal listener accounts for the evicted data.
+        sCache.put(digest, cnode);
     }
 
     public static void removeDecryptedMessages(int mboxId) {
         sLog.debug("Start removing decrypted messages for mboxId=%d", mboxId);
-        synchronized (sCache) {
-            Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, CacheNode> entry = it.next();
-                CacheNode cacheNode = entry.getValue();
-                try {
-                    if (Mime.isEncrypted(cacheNode.message.getContentType())
-                        && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
-                        cacheNode.smimeAccessInfo.remove(mboxId);
-                    }
-                } catch (MessagingException e) {
-                    sLog.warn("MessagingException while checking content type for cache node with digest = %s",
-                        entry.getKey(), e);
+        for (Map.Entry<String, CacheNode> entry : sCache.asMap().entrySet()) {
+            CacheNode cacheNode = entry.getValue();
+            try {
+                if (cacheNode.message != null && Mime.isEncrypted(cacheNode.message.getContentType())
+                    && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
+                    cacheNode.smimeAccessInfo.remove(mboxId);
                 }
+            } catch (MessagingException e) {
+                sLog.warn("MessagingException while checking content type for cache node with digest = %s",
+                    entry.getKey(), e);
             }
         }
         sLog.debug("Removed decrypted messages for mboxId=%d", mboxId);
@@ -402,11 +464,9 @@ public class MessageCache {
 
     public static String getDecryptionError(int id, String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.get(digest);
-                if (node != null) {
-                    return node.smimeAccessInfo.get(id);
-                }
+            CacheNode node = sCache.getIfPresent(digest);
+            if (node != null) {
+                return node.smimeAccessInfo.get(id);
             }
         }
         return null;
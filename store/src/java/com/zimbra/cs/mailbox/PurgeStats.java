@@ -0,0 +1,117 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and throughput of the {@link PurgeThread}, exposed as a MBean.
+ */
+final class PurgeStats implements PurgeStatsMBean {
+    private final AtomicLong cycles = new AtomicLong();
+    private volatile long cycleStartTime;
+    private final AtomicInteger cycleMailboxes = new AtomicInteger();
+    private final AtomicInteger cycleMailboxesDone = new AtomicInteger();
+    private final AtomicLong cycleDeletes = new AtomicLong();
+    private volatile long lastCycleDuration;
+    private final AtomicInteger activePurges = new AtomicInteger();
+    private final AtomicLong mailboxesPurged = new AtomicLong();
+    private final AtomicLong itemsDeleted = new AtomicLong();
+    private final AtomicLong blobsDeleted = new AtomicLong();
+
+    void startCycle(int numMailboxes) {
+        cycles.incrementAndGet();
+        cycleStartTime = System.currentTimeMillis();
+        cycleMailboxes.set(numMailboxes);
+        cycleMailboxesDone.set(0);
+        cycleDeletes.set(0);
+    }
+
+    void endCycle() {
+        lastCycleDuration = System.currentTimeMillis() - cycleStartTime;
+    }
+
+    /** Counts a mailbox that is purged again in the same cycle. */
+    void reschedule() {
+        cycleMailboxes.incrementAndGet();
+    }
+
+    void startPurge() {
+        activePurges.incrementAndGet();
+    }
+
+    void endPurge(PurgeThread.DeleteCount deleted) {
+        activePurges.decrementAndGet();
+        cycleMailboxesDone.incrementAndGet();
+        mailboxesPurged.incrementAndGet();
+        itemsDeleted.addAndGet(deleted.items);
+        blobsDeleted.addAndGet(deleted.blobs);
+        cycleDeletes.addAndGet(deleted.items + deleted.blobs);
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles.get();
+    }
+
+    @Override
+    public long getCycleStartTime() {
+        return cycleStartTime;
+    }
+
+    @Override
+    public int getCycleMailboxes() {
+        return cycleMailboxes.get();
+    }
+
+    @Override
+    public int getCycleMailboxesDone() {
+        return cycleMailboxesDone.get();
+    }
+
+    @Override
+    public long getLastCycleDuration() {
+        return lastCycleDuration;
+    }
+
+    @Override
+    public int getActivePurges() {
+        return activePurges.get();
+    }
+
+    @Override
+    public long getMailboxesPurged() {
+        return mailboxesPurged.get();
+    }
+
+    @Override
+    public long getItemsDeleted() {
+        return itemsDeleted.get();
+    }
+
+    @Override
+    public long getBlobsDeleted() {
+        return blobsDeleted.get();
+    }
+
+    @Override
+    public double getCycleDeletesPerSecond() {
+        long elapsed = System.currentTimeMillis() - cycleStartTime;
+        return elapsed > 0 ? cycleDeletes.get() * 1000.0 / elapsed : 0;
+    }
+}
@@ -16,25 +16,47 @@
  */
 package com.zimbra.cs.mailbox;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.management.ObjectName;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.callback.CallbackUtil;
-import com.zimbra.cs.util.Config;
+import com.zimbra.cs.db.DbMailbox;
 import com.zimbra.cs.util.Zimbra;
 
 /**
- * Iterates all the mailboxes in the system, purges them one at a time
- * and sleeps between purges for a time interval specified by
- * {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
+ * Purges all the mailboxes in the system in cycles.  Each cycle orders the
+ * mailboxes by how long ago they were last purged and how many items they
+ * have, and purges them on {@link LC#purge_threads} worker threads, each of
+ * which sleeps between purges for a time interval specified by
+ * {@link Provisioning#A_zimbraMailPurgeSleepInterval}.  The items and blobs
+ * deleted by all workers together are limited to
+ * {@link LC#purge_max_deletes_per_second}.
+ * <p>
+ * Cycle progress and throughput are exposed through the
+ * {@link PurgeStatsMBean}.
  *
  * @author bburtin
  */
@@ -43,12 +65,21 @@ extends Thread {
 
     private static volatile PurgeThread sPurgeThread = null;
     private static Object THREAD_CONTROL_LOCK = new Object();
-    private boolean mShutdownRequested = false;
+    private static final PurgeStats sStats = new PurgeStats();
+    private static boolean sMBeanRegistered = false;
+    private volatile boolean mShutdownRequested = false;
+    private RateLimiter mDeleteBudget;
 
     private PurgeThread() {
         setName("MailboxPurge");
     }
 
+    /** The number of items and blobs deleted by a purge. */
+    static final class DeleteCount {
+        int items;
+        int blobs;
+    }
+
     /**
      * Starts up the mailbox purge thread.
      */
@@ -69,6 +100,16 @@ extends Thread {
                 return;
             }
 
+            if (!sMBeanRegistered) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(sStats,
+                            new ObjectName("ZimbraCollaborationSuite:type=MailboxPurge"));
+                    sMBeanRegistered = true;
+                } catch (Exception e) {
+                    ZimbraLog.purge.warn("Unable to register PurgeStats mbean", e);
+                }
+            }
+
             // Start thread
             sPurgeThread = new PurgeThread();
             sPurgeThread.start();
@@ -104,8 +145,7 @@ extends Thread {
     }
 
     /**
-     * Iterates all mailboxes, purging one at a time and sleeping
-     * between purges.
+     * Purges the mailboxes cycle by cycle, until shutdown is requested.
      */
     @Override public void run() {
         // Sleep before doing work, to give the server time to warm up.  Also limits the amount
@@ -121,80 +161,110 @@ extends Thread {
             return;
         }
 
-        Set<Integer> purgePendingMailboxes = new HashSet<Integer>();
-        while (true) {
-            List<Integer> mailboxIds = getMailboxIds();
-            boolean slept = false;
-
-            for (int i = 0; i < mailboxIds.size(); i++) {
-                int mailboxId = mailboxIds.get(i);
-                if (mShutdownRequested) {
-                    ZimbraLog.purge.info("Shutting down purge thread.");
-                    sPurgeThread = null;
-                    return;
+        int numWorkers = Math.max(LC.purge_threads.intValue(), 1);
+        int maxDeletesPerSecond = LC.purge_max_deletes_per_second.intValue();
+        mDeleteBudget = maxDeletesPerSecond > 0 ? RateLimiter.create(maxDeletesPerSecond) : null;
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers,
+                new ThreadFactoryBuilder().setNameFormat("MailboxPurge-%d").setDaemon(true).build());
+        try {
+            while (!mShutdownRequested) {
+                final Queue<Integer> queue = new ConcurrentLinkedQueue<Integer>(getMailboxIds());
+                sStats.startCycle(queue.size());
+                List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(numWorkers);
+                for (int i = 0; i < numWorkers; i++) {
+                    results.add(workers.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return purgeMailboxes(queue);
+                        }
+                    }));
                 }
-                ZimbraLog.addMboxToContext(mailboxId);
 
-                // Purge the next mailbox
-                boolean attemptedPurge = false;
-                try {
-                    MailboxManager mm = MailboxManager.getInstance();
-                    if (mm.isMailboxLoadedAndAvailable(mailboxId) || purgePendingMailboxes.contains(mailboxId)) {
-                        attemptedPurge = true;
-                        Mailbox mbox = mm.getMailboxById(mailboxId);
-                        Account account = mbox.getAccount();
-                        Provisioning prov = Provisioning.getInstance();
-                        if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
-                                !account.isIsExternalVirtualAccount()) {
-                            ZimbraLog.addAccountNameToContext(account.getName());
-                            boolean purgedAll = mbox.purgeMessages(null);
-                            if (!purgedAll) {
-                                ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
-                                mailboxIds.add(mailboxId);
-                            }
-                            Config.setInt(Config.KEY_PURGE_LAST_MAILBOX_ID, mbox.getId());
-                        } else {
-                            ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mailboxId);
-                        }
-                    } else {
-                        ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
-                    }
-                } catch (ServiceException se) {
-                    if (ServiceException.WRONG_HOST.equals(se.getCode())) {
-                        if (ZimbraLog.purge.isDebugEnabled()) {
-                            ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
-                        } else {
-                            ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mailboxId);
-                        }
-                    } else {
-                        ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, se);
+                boolean slept = false;
+                for (Future<Boolean> result : results) {
+                    try {
+                        slept |= result.get();
+                    } catch (InterruptedException e) {
+                        mShutdownRequested = true;
+                        break;
+                    } catch (ExecutionException e) {
+                        ZimbraLog.purge.warn("Purge worker failed", e.getCause());
                     }
-                } catch (OutOfMemoryError oome) {
-                    Zimbra.halt("Ran out of memory while purging mailboxes", oome);
-                } catch (Throwable t) {
-                    ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, t);
                 }
+                sStats.endCycle();
 
-                ZimbraLog.clearContext();
-                if (attemptedPurge) {
-                    // Sleep after every purge attempt.
+                // If nothing's getting purged, sleep to avoid a tight loop
+                if (!slept && !mShutdownRequested) {
                     sleep();
-                    slept = true;
                 }
-           }
-
-            // If nothing's getting purged, sleep to avoid a tight loop
-            if (!slept) {
-                sleep();
             }
+        } finally {
+            workers.shutdownNow();
+            ZimbraLog.purge.info("Shutting down purge thread.");
+            sPurgeThread = null;
+        }
+    }
 
+    /**
+     * Purges mailboxes from the queue until it is empty, sleeping between
+     * purges.  Mailboxes that could not be purged completely are added back
+     * to the end of the queue.
+     *
+     * @return <tt>true</tt> if any purge was attempted
+     */
+    private boolean purgeMailboxes(Queue<Integer> queue) {
+        boolean slept = false;
+        Integer mailboxId;
+        while (!mShutdownRequested && (mailboxId = queue.poll()) != null) {
+            ZimbraLog.addMboxToContext(mailboxId);
+
+            // Purge the next mailbox
+            DeleteCount deleted = new DeleteCount();
+            sStats.startPurge();
             try {
-                long lastPurgeMaxDuration = Provisioning.getInstance().getLocalServer().getLastPurgeMaxDuration();
-                purgePendingMailboxes = MailboxManager.getInstance().getPurgePendingMailboxes(System.currentTimeMillis() - lastPurgeMaxDuration);
-            } catch (ServiceException e) {
-                ZimbraLog.purge.warn("Unable to get purge pending mailboxes ", e);
+                Mailbox mbox = MailboxManager.getInstance().getMailboxById(mailboxId);
+                Account account = mbox.getAccount();
+                Provisioning prov = Provisioning.getInstance();
+                if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
+                        !account.isIsExternalVirtualAccount()) {
+                    ZimbraLog.addAccountNameToContext(account.getName());
+                    boolean purgedAll = mbox.purgeMessages(null, deleted);
+                    if (!purgedAll) {
+                        ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
+                        queue.add(mailboxId);
+                        sStats.reschedule();
+                    }
+                } else {
+                    ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mailboxId);
+                }
+            } catch (ServiceException se) {
+                if (ServiceException.WRONG_HOST.equals(se.getCode())) {
+                    if (ZimbraLog.purge.isDebugEnabled()) {
+                        ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
+                    } else {
+                        ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mailboxId);
+                    }
+                } else {
+                    ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, se);
+                }
+            } catch (OutOfMemoryError oome) {
+                Zimbra.halt("Ran out of memory while purging mailboxes", oome);
+            } catch (Throwable t) {
+                ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, t);
+            } finally {
+                sStats.endPurge(deleted);
             }
+
+            ZimbraLog.clearContext();
+            if (deleted.items + deleted.blobs > 0 && mDeleteBudget != null) {
+                // pays for this purge by delaying the next one on any worker
+                mDeleteBudget.acquire(deleted.items + deleted.blobs);
+            }
+            // Sleep after every purge attempt.
+            sleep();
+            slept = true;
         }
+        return slept;
     }
 
     /**
@@ -225,7 +295,7 @@ extends Thread {
      * Stores the sleep interval, so that the purge thread doesn't
      * die if there's a problem talking to LDAP.  See bug 32639.
      */
-    private static long sSleepInterval = 0;
+    private static volatile long sSleepInterval = 0;
 
     /**
      * Returns the current value of {@link Provisioning#A_zimbraMailPurgeSleepInterval},
@@ -237,28 +307,60 @@ extends Thread {
     }
 
     /**
-     * Returns all the mailbox id's in purge order, starting with the one
-     * after {@link Config#KEY_PURGE_LAST_MAILBOX_ID}.
+     * Returns the id's of the mailboxes to purge in this cycle, in purge
+     * order: mailboxes that are loaded into memory, and mailboxes whose
+     * last purge is older than {@link Provisioning#A_zimbraLastPurgeMaxDuration}.
      */
     private List<Integer> getMailboxIds() {
-        List<Integer> mailboxIds = new ArrayList<Integer>();
-
         try {
-            mailboxIds = CallbackUtil.getSortedMailboxIdList();
-            // Reorder id's so that we start with the one after the last purged
-            int lastId = Config.getInt(Config.KEY_PURGE_LAST_MAILBOX_ID, 0);
-            for (int i = 0; i < mailboxIds.size(); i++) {
-                if (mailboxIds.get(i) > lastId) {
-                    Collections.rotate(mailboxIds, -i);
-                    break;
+            MailboxManager mm = MailboxManager.getInstance();
+            long lastPurgeMaxDuration = Provisioning.getInstance().getLocalServer().getLastPurgeMaxDuration();
+            long purgePendingCutoff = System.currentTimeMillis() - lastPurgeMaxDuration;
+            Map<Integer, DbMailbox.PurgeStatus> status = new HashMap<Integer, DbMailbox.PurgeStatus>();
+            Set<Integer> purgePendingMailboxes = new HashSet<Integer>();
+            for (DbMailbox.PurgeStatus ps : mm.getPurgeStatus()) {
+                status.put(ps.mailboxId, ps);
+                if (ps.lastPurgeAt < purgePendingCutoff) {
+                    purgePendingMailboxes.add(ps.mailboxId);
                 }
             }
 
+            List<Integer> mailboxIds = new ArrayList<Integer>();
+            for (int mailboxId : CallbackUtil.getSortedMailboxIdList()) {
+                if (mm.isMailboxLoadedAndAvailable(mailboxId) || purgePendingMailboxes.contains(mailboxId)) {
+                    mailboxIds.add(mailboxId);
+                } else {
+                    ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
+                }
+            }
+            return prioritize(mailboxIds, status, System.currentTimeMillis());
         } catch (ServiceException e) {
             ZimbraLog.purge.warn("Unable to get mailbox id's", e);
             return Collections.emptyList();
         }
+    }
 
-        return mailboxIds;
+    /**
+     * Sorts the mailbox id's so that the mailboxes that were purged longest
+     * ago come first.  The time since the last purge is weighted by the log
+     * of the mailbox's item count, so that among mailboxes that were purged
+     * at about the same time, the big ones come first.
+     */
+    static List<Integer> prioritize(List<Integer> mailboxIds, Map<Integer, DbMailbox.PurgeStatus> status, long now) {
+        final Map<Integer, Double> priority = new HashMap<Integer, Double>();
+        for (int mailboxId : mailboxIds) {
+            DbMailbox.PurgeStatus ps = status.get(mailboxId);
+            long age = ps == null ? now : now - ps.lastPurgeAt;
+            int items = ps == null ? 0 : ps.itemIdCheckpoint;
+            priority.put(mailboxId, Math.max(age, 0) * Math.log(2.0 + Math.max(items, 0)));
+        }
+        List<Integer> result = new ArrayList<Integer>(mailboxIds);
+        Collections.sort(result, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer m1, Integer m2) {
+                return Double.compare(priority.get(m2), priority.get(m1));
+            }
+        });
+        return result;
     }
 }
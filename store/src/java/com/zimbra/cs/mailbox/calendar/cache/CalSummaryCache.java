@@ -17,11 +17,13 @@
 
 package com.zimbra.cs.mailbox.calendar.cache;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -346,11 +348,52 @@ public class CalSummaryCache {
     }
 
 
+    /**
+     * Widens cached calendar data to a range that contains it.  Unchanged items are only expanded over the parts of
+     * the new range outside the cached one, and keep their cached instances for the rest; other items are expanded
+     * over the whole range.
+     */
+    private static CalendarData widenCalendarOverRange(OperationContext octxt, Mailbox mbox, int folderId,
+            MailItem.Type type, CalendarData cached, long rangeStart, long rangeEnd) throws ServiceException {
+        long cachedStart = cached.getRangeStart();
+        long cachedEnd = cached.getRangeEnd();
+        Folder folder = mbox.getFolderById(octxt, folderId);
+        CalendarData calData = new CalendarData(folderId, folder.getImapMODSEQ(), rangeStart, rangeEnd);
+        Collection<CalendarItem> calItems = mbox.getCalendarItemsForRange(octxt, type, rangeStart, rangeEnd,
+                folderId, null);
+        for (CalendarItem calItem : calItems) {
+            CalendarItemData cur = cached.getCalendarItemData(calItem.getId());
+            CalendarItemData calItemData;
+            if (cur != null && cur.getModMetadata() == calItem.getModifiedSequence() &&
+                    !cached.isItemStale(calItem.getId())) {
+                List<CalendarItemData> parts = new ArrayList<CalendarItemData>(3);
+                if (rangeStart < cachedStart) {
+                    CalendarItemData before = reloadCalendarItemOverRange(calItem, rangeStart, cachedStart);
+                    if (before != null)
+                        parts.add(before);
+                }
+                parts.add(cur);
+                if (rangeEnd > cachedEnd) {
+                    CalendarItemData after = reloadCalendarItemOverRange(calItem, cachedEnd, rangeEnd);
+                    if (after != null)
+                        parts.add(after);
+                }
+                calItemData = CalendarItemData.merge(cur, parts);
+            } else {
+                calItemData = reloadCalendarItemOverRange(calItem, rangeStart, rangeEnd);
+            }
+            if (calItemData != null)
+                calData.addCalendarItem(calItemData);
+        }
+        return calData;  // return a non-null object even if there are no items in the range
+    }
+
     private static final int sRangeMonthFrom;
     private static final int sRangeNumMonths;
     private static final int sMaxStaleItems;
     private static final int sMaxStaleItemsBeforeInvalidatingCalendar;
     private static final int sMaxSearchDays;
+    private static final int sMaxRangeDays;
 
     private static final long MSEC_PER_DAY = 1000 * 60 * 60 * 24;
 
@@ -360,6 +403,7 @@ public class CalSummaryCache {
         sMaxStaleItems = LC.calendar_cache_max_stale_items.intValue();
         sMaxStaleItemsBeforeInvalidatingCalendar = 100;
         sMaxSearchDays = LC.calendar_search_max_days.intValueWithinRange(0, 3660);
+        sMaxRangeDays = Math.min(LC.calendar_cache_max_range_days.intValue(), sMaxSearchDays);
     }
 
     @SuppressWarnings("serial")
@@ -630,12 +674,12 @@ public class CalSummaryCache {
                     reusableCalData = calData;
                 calData = null;  // force recompute further down
             } else if (rangeStart < calData.getRangeStart() || rangeEnd > calData.getRangeEnd()) {
-                // Requested range is not within cached range.  Recompute cached range in the hope
-                // that the new range will cover the requested range.
+                // Requested range is not within cached range.  Recompute cached range if it no longer
+                // covers the default range; otherwise it gets widened further down.
                 defaultRange = Util.getMonthsRange(System.currentTimeMillis(),
                                                    sRangeMonthFrom, sRangeNumMonths);
-                if (calData.getRangeStart() != defaultRange.getFirst() ||
-                    calData.getRangeEnd() != defaultRange.getSecond()) {
+                if (calData.getRangeStart() > defaultRange.getFirst() ||
+                    calData.getRangeEnd() < defaultRange.getSecond()) {
                     calData = null;
                 }
             }
@@ -665,6 +709,38 @@ public class CalSummaryCache {
 
         assert(calData != null);
 
+        if (rangeStart < calData.getRangeStart() || rangeEnd > calData.getRangeEnd()) {
+            // Requested range is outside the cached range, typically because the client paged to the next
+            // week or month.  Widen the cached range to cover it, so that only the new part gets expanded now
+            // and paging back and forth after that is a cache hit.
+            long widenedStart = Math.min(rangeStart, calData.getRangeStart());
+            long widenedEnd = Math.max(rangeEnd, calData.getRangeEnd());
+            if (widenedEnd - widenedStart <= sMaxRangeDays * MSEC_PER_DAY) {
+                CalendarData widened = widenCalendarOverRange(ownerOctxt, mbox, folderId, type, calData,
+                        widenedStart, widenedEnd);
+                // Carry over the items that changed while we were widening.
+                Set<Integer> staleItemIds = new HashSet<Integer>();
+                calData.copyStaleItemIdsTo(staleItemIds);
+                for (int calItemId : staleItemIds) {
+                    widened.markItemStale(calItemId);
+                }
+                calData = widened;
+                synchronized (mSummaryCache) {
+                    if (mLRUCapacity > 0) {
+                        mSummaryCache.put(key, calData);
+                        lruSize = mSummaryCache.size();
+                    }
+                }
+                dataFrom = CacheLevel.Miss;
+
+                try {
+                    FileStore.saveCalendarData(mbox.getId(), calData);  // persist it
+                } catch (ServiceException e) {
+                    ZimbraLog.calendar.warn("Error persisting calendar summary cache", e);
+                }
+            }
+        }
+
         // Put data in memcached if it didn't come from memcached.
         if (!CacheLevel.Memcached.equals(dataFrom))
                 mMemcachedCache.put(key, calData);
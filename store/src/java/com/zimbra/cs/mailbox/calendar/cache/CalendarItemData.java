@@ -18,8 +18,10 @@
 package com.zimbra.cs.mailbox.calendar.cache;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.db.DbTag;
@@ -160,6 +162,35 @@ public class CalendarItemData {
             return null;
     }
 
+    /**
+     * Combines expansions of the same item over adjacent ranges, given in time order, into one.  Item level data
+     * comes from {@code base}.  An instance that overlaps the boundary between two ranges is in both expansions and
+     * is kept once.
+     */
+    static CalendarItemData merge(CalendarItemData base, List<CalendarItemData> parts) {
+        if (parts.size() == 1 && parts.get(0) == base)
+            return base;
+        CalendarItemData merged = new CalendarItemData(base.type, base.mFolderId, base.mCalItemId, base.mFlags,
+                base.mTags, base.mTagIds, base.mModMetadata, base.mModContent, base.mDate, base.mChangeDate,
+                base.mSize, base.mUid, base.mIsRecurring, base.mHasExceptions, base.mIsPublic, base.mAlarm,
+                base.mDefaultData);
+        Set<String> seen = new HashSet<String>();
+        long start = 0;
+        long end = 0;
+        for (CalendarItemData part : parts) {
+            for (InstanceData inst : part.mInstances) {
+                if (seen.add(inst.getRecurIdZ() + "@" + inst.getDtStart()))
+                    merged.addInstance(inst);
+            }
+            if (part.mActualRangeStart != 0 && (start == 0 || part.mActualRangeStart < start))
+                start = part.mActualRangeStart;
+            if (part.mActualRangeEnd > end)
+                end = part.mActualRangeEnd;
+        }
+        merged.setActualRange(start, end);
+        return merged;
+    }
+
     private static final String FN_TYPE = "type";
     private static final String FN_FOLDER_ID = "fid";
     private static final String FN_CALITEM_ID = "ciid";
@@ -18,6 +18,7 @@ package com.zimbra.cs.mailclient.imap;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.IOException;
 
 public class PerfTest {
@@ -37,6 +38,52 @@ public class PerfTest {
         }
         p("Created %d out of %d connections", connections.size(), count);
     }
+
+    /**
+     * Has every connection fetch the full content of all messages in INBOX
+     * concurrently, {@code rounds} times, and reports the throughput.
+     */
+    public void fetch(final int rounds) throws InterruptedException {
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>(connections.size());
+        for (final ImapConnection connection : connections) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    FetchResponseHandler handler = new FetchResponseHandler() {
+                        @Override
+                        public void handleFetchResponse(MessageData md) {
+                            messages.incrementAndGet();
+                            Body[] sections = md.getBodySections();
+                            if (sections != null) {
+                                for (Body body : sections) {
+                                    bytes.addAndGet(body.getImapData().getSize());
+                                }
+                            }
+                        }
+                    };
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            connection.fetch("1:*", "BODY.PEEK[]", handler);
+                        }
+                    } catch (IOException e) {
+                        p("FETCH failed: %s", e);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        p("Fetched %d messages (%d bytes) in %.2fs: %.0f msgs/s, %.1f MB/s", messages.get(), bytes.get(), secs,
+                messages.get() / secs, bytes.get() / secs / (1024 * 1024));
+    }
     
     private static ImapConnection newConnection() throws IOException {
         ImapConfig config = new ImapConfig();
@@ -61,8 +108,13 @@ public class PerfTest {
 
     public static void main(String[] args) throws Throwable {
         int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int fetchRounds = args.length > 1 ? Integer.parseInt(args[1]) : 0;
         PerfTest test = new PerfTest(count);
         test.run();
+        if (fetchRounds > 0) {
+            test.fetch(fetchRounds);
+            System.exit(0);
+        }
         Thread.sleep(1000000000);
     }
 }
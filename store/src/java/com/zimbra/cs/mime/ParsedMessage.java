@@ -308,6 +308,14 @@ public final class ParsedMessage {
         return wasMutated;
     }
 
+    /**
+     * Returns whether the original message was parsed from raw MIME data rather than built in memory, in which case
+     * its parts' sizes and line counts match the data that gets stored.
+     */
+    public boolean isParsedFromRawData() {
+        return sharedStream != null;
+    }
+
     public ParsedMessage setDefaultCharset(String charset) {
         defaultCharset = charset;
         if (mimeMessage instanceof ZMimeMessage) {
@@ -26,10 +26,17 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.redolog.logger.FileLogReader;
@@ -47,6 +54,7 @@ import com.zimbra.cs.redolog.op.StoreIncomingBlob;
 public class RedoPlayer {
 
     private static final int INITIAL_MAP_SIZE = 1000;
+    private static final int PROGRESS_INTERVAL = 1000;
 
     // Use a separate guard object to synchronize access to mOpsMap.
     // Don't synchronize on mOpsMap itself because it can get reassigned.
@@ -418,12 +426,10 @@ public class RedoPlayer {
             return 0;
         }
 
+        List<RedoableOp> ops = new ArrayList<RedoableOp>(numOps);
         synchronized (mOpsMapGuard) {
-            Set entrySet = mOpsMap.entrySet();
             ZimbraLog.redolog.info("Redoing " + numOps + " uncommitted transactions");
-            for (Iterator it = entrySet.iterator(); it.hasNext(); ) {
-                Map.Entry entry = (Entry) it.next();
-                RedoableOp op = (RedoableOp) entry.getValue();
+            for (RedoableOp op : mOpsMap.values()) {
                 if (op == null)
                     continue;
 
@@ -432,34 +438,110 @@ public class RedoPlayer {
                     postStartupRecoveryOps.add(op);
                     continue;
                 }
-
-                if (ZimbraLog.redolog.isInfoEnabled())
-                    ZimbraLog.redolog.info("REDOING: " + op);
-
-                boolean success = false;
-                try {
-                    op.redo();
-                    success = true;
-                } catch (Exception e) {
-                    ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
-                            "  Backend state of affected item is indeterminate." +
-                            "  Marking operation as aborted and moving on.", e);
-                } finally {
-                    if (success) {
-                        CommitTxn commit = new CommitTxn(op);
-                        redoLogMgr.logOnly(commit, true);
-                    } else {
-                        AbortTxn abort = new AbortTxn(op);
-                        redoLogMgr.logOnly(abort, true);
-                    }
-                }
+                ops.add(op);
             }
             mOpsMap.clear();
         }
+        redoInParallel(ops, redoLogMgr, LC.redolog_crash_recovery_threads.intValue());
 
         return numOps;
     }
 
+    /**
+     * Redoes the ops on a pool of worker threads.  Each op is assigned to a worker by its mailbox ID, so the ops for
+     * any one mailbox are redone in log order while different mailboxes are recovered concurrently.  An op that is
+     * not tied to a single mailbox (e.g. {@link StoreIncomingBlob}) acts as a barrier: it runs only after every op
+     * before it has finished, and before any op after it starts.
+     */
+    void redoInParallel(List<RedoableOp> ops, final RedoLogManager redoLogMgr, int numThreads) throws ServiceException {
+        final int total = ops.size();
+        final AtomicInteger done = new AtomicInteger();
+        if (numThreads <= 1) {
+            for (RedoableOp op : ops) {
+                recoverOp(op, redoLogMgr);
+                reportProgress(done.incrementAndGet(), total);
+            }
+            return;
+        }
+
+        ZimbraLog.redolog.info("Redoing %d transactions using %d threads", total, numThreads);
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("RedoPlayer-%d").setDaemon(true).build();
+        ExecutorService[] workers = new ExecutorService[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        try {
+            for (final RedoableOp op : ops) {
+                int mboxId = op.getMailboxId();
+                if (mboxId == RedoableOp.MAILBOX_ID_ALL || mboxId == RedoableOp.UNKNOWN_ID) {
+                    awaitAll(pending);
+                    recoverOp(op, redoLogMgr);
+                    reportProgress(done.incrementAndGet(), total);
+                    continue;
+                }
+                pending.add(workers[(mboxId & Integer.MAX_VALUE) % numThreads].submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        recoverOp(op, redoLogMgr);
+                        reportProgress(done.incrementAndGet(), total);
+                    }
+                }));
+            }
+            awaitAll(pending);
+        } finally {
+            for (ExecutorService worker : workers) {
+                worker.shutdownNow();
+            }
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws ServiceException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw ServiceException.INTERRUPTED("crash recovery");
+        } catch (ExecutionException e) {
+            throw ServiceException.FAILURE("Error executing redoOp", e.getCause());
+        }
+        futures.clear();
+    }
+
+    private static void reportProgress(int done, int total) {
+        if (done % PROGRESS_INTERVAL == 0 || done == total) {
+            ZimbraLog.redolog.info("Redone %d of %d uncommitted transactions", done, total);
+        }
+    }
+
+    /**
+     * Redoes an uncommitted op found during crash recovery, then logs a COMMIT or ABORT for it so that it isn't
+     * redone again by the next crash recovery.  A failed redo is logged and the op is aborted.
+     */
+    protected void recoverOp(RedoableOp op, RedoLogManager redoLogMgr) {
+        if (ZimbraLog.redolog.isInfoEnabled())
+            ZimbraLog.redolog.info("REDOING: " + op);
+
+        boolean success = false;
+        try {
+            op.redo();
+            success = true;
+        } catch (Exception e) {
+            ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
+                    "  Backend state of affected item is indeterminate." +
+                    "  Marking operation as aborted and moving on.", e);
+        } finally {
+            if (success) {
+                CommitTxn commit = new CommitTxn(op);
+                redoLogMgr.logOnly(commit, true);
+            } else {
+                AbortTxn abort = new AbortTxn(op);
+                redoLogMgr.logOnly(abort, true);
+            }
+        }
+    }
+
     /**
      * Returns a copy of the pending ops map.
      * @return
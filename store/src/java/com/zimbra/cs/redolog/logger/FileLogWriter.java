@@ -23,8 +23,10 @@
  */
 package com.zimbra.cs.redolog.logger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
@@ -35,16 +37,23 @@ import com.zimbra.cs.redolog.RedoLogManager;
 import com.zimbra.cs.redolog.RolloverManager;
 import com.zimbra.cs.redolog.op.CommitTxn;
 import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author jhahm
@@ -66,11 +75,22 @@ public class FileLogWriter implements LogWriter {
 
     protected RedoLogManager mRedoLogMgr;
 
-    // Synchronizes access to mRAF, mFileSize, mLogSeq, mFsyncSeq, mLogCount, and mFsyncCount.
+    // Synchronizes access to mRAF, mFileSize, mLogCount, and mFsyncCount.
     private final Object mLock = new Object();
 
-    // wait/notify between logger threads and fsync thread
-    private final Object mFsyncCond = new Object();
+    // Group commit: logger threads queue their records in mQueue, then take mCommitLock.  Whichever
+    // thread holds mCommitLock writes out everything queued so far with a single gathering write,
+    // and fsyncs once for the whole batch if any record in it is synchronous.  Threads that queued
+    // records meanwhile pile up on mCommitLock and form the next batch.  Lock order is always
+    // mCommitLock, then mLock.
+    @VisibleForTesting
+    final ReentrantLock mCommitLock = new ReentrantLock();
+    private final RingBuffer<LogRecord> mQueue = new RingBuffer<LogRecord>(QUEUE_CAPACITY);
+    private boolean mDirty;         // written but not fsynced; guarded by mCommitLock
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_BATCH = 256;
+    private static final int INLINE_DATA_LIMIT = 64 * 1024;  // larger records are streamed by the committer
 
     private FileHeader mHeader;
     private long mFirstOpTstamp;
@@ -87,9 +107,6 @@ public class FileLogWriter implements LogWriter {
 
     private FsyncThread mFsyncer;   // fsync thread
 
-    private int mLogSeq;            // last item logged
-    private int mFsyncSeq;          // last item fsynced
-
     // for gathering some stats; nonessential for functionality
     private int mLogCount;          // how many times log was called
     private int mFsyncCount;        // how many times fsync was called
@@ -212,8 +229,6 @@ public class FileLogWriter implements LogWriter {
             long len = mRAF.length();
             mRAF.seek(len);
             mFileSize = len;
-
-            mLogSeq = mFsyncSeq = 0;
         }
 
         if (mFsyncIntervalMS > 0)
@@ -226,6 +241,15 @@ public class FileLogWriter implements LogWriter {
     @Override public synchronized void close() throws IOException {
         stopFsyncThread();
 
+        mCommitLock.lock();
+        try {
+            // write out whatever is still queued before the file goes away
+            if (mRAF != null)
+                fsync();
+        } finally {
+            mCommitLock.unlock();
+        }
+
         synchronized (mLock) {
             if (mRAF != null) {
                 if (mLastOpTstamp != 0)
@@ -247,115 +271,230 @@ public class FileLogWriter implements LogWriter {
     }
 
     /**
-     * Log the supplied bytes.  Depending on the value of synchronous argument
-     * and the setting of fsync interval, this method can do one of 3 things:
-     *
-     * case 1: !synchronous
-     * action: write() only; no flush/fsync
+     * Log the supplied bytes.  The record is queued and written out by
+     * whichever logger thread gets to commit the next batch, possibly this
+     * one; the method returns once the record has been written to the file.
+     * If synchronous is true, it also waits until the record is fsynced.
      *
-     * case 2: synchronous && fsyncInterval > 0
-     * action: write(), then wait() until notified by fsync thread
-     * Current thread only calls write() on the RandomAccessFile, and blocks to
-     * wait for the next scheduled fsync.  Fsync thread periodically flushes
-     * the output stream and fsync's the file.  After each fsync, all waiting
-     * logger threads are notified to continue.  This method batches multiple
-     * log items before each fsync, and results in greater throughput than
-     * calling fsync after each log item because fsync to physical disk is
-     * a high-latency operation.
+     * Fsync is done once per batch rather than once per record.  While one
+     * thread is busy writing and fsyncing a batch, records logged by other
+     * threads accumulate in the queue and are all committed together in the
+     * next batch, so the number of fsyncs per second is bounded by the disk
+     * rather than by the number of logger threads.
      *
-     * case 3: synchronous && fsyncInterval <= 0
-     * action: write(), then fsync() in the current thread
-     * Fsync is required, but the sleep interval for fsync thread is 0.  We
-     * special case this condition to mean fsync should be done by the calling
-     * thread.
+     * Non-synchronous records are fsynced along with the next synchronous
+     * batch, or by the fsync thread within the fsync interval, whichever
+     * comes first.
      */
     @Override public void log(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
-        int seq;
-        boolean sameMboxAsLastOp = false;
-
         synchronized (mLock) {
             if (mRAF == null)
                 throw new IOException("Redolog file closed");
+            mLogCount++;
+        }
+        LogRecord rec = new LogRecord(op, data, synchronous && !mFsyncDisabled);
+
+        while (!mQueue.offer(rec)) {
+            // queue is full; wait for the current committer, then help drain it
+            mCommitLock.lock();
+            try {
+                commitBatch();
+            } finally {
+                mCommitLock.unlock();
+            }
+        }
+
+        mCommitLock.lock();
+        try {
+            // keep committing until our record is out; it may be behind a record that was claimed
+            // but not yet published when the previous batch was drained
+            while (!rec.mDone) {
+                if (!commitBatch())
+                    Thread.yield();  // a producer has claimed a slot ahead of ours but not published it yet
+            }
+        } finally {
+            mCommitLock.unlock();
+        }
+        if (rec.mError != null)
+            throw new IOException("Error while writing redolog " + mFile.getAbsolutePath(), rec.mError);
+    }
+
+    /**
+     * Writes out the records queued so far as one batch, then fsyncs if any
+     * of them is synchronous.  Must be called with mCommitLock held.  If the
+     * batch fails, the error goes to the records in it only; it is not thrown,
+     * since the calling thread's own record may be in another batch.
+     * @return false if there was nothing to write
+     */
+    private boolean commitBatch() {
+        List<LogRecord> batch = new ArrayList<LogRecord>();
+        LogRecord rec;
+        while (batch.size() < MAX_BATCH && (rec = mQueue.poll()) != null)
+            batch.add(rec);
+        if (batch.isEmpty())
+            return false;
+
+        boolean sync = false;
+        IOException error = null;
+        try {
+            synchronized (mLock) {
+                if (mRAF == null)
+                    throw new IOException("Redolog file closed");
+                writeBatch(batch);
+            }
+            for (LogRecord r : batch)
+                sync |= r.mSynchronous;
+            mDirty = true;
+            if (sync)
+                force();
+        } catch (IOException e) {
+            error = e;
+            for (LogRecord r : batch)
+                ByteUtil.closeStream(r.mTail);
+        }
+
+        long now = System.nanoTime();
+        ZimbraPerf.HISTOGRAM_REDO_BATCH_SIZE.increment(batch.size());
+        for (LogRecord r : batch) {
+            if (r.mSynchronous && error == null)
+                ZimbraPerf.HISTOGRAM_REDO_COMMIT_LATENCY.increment((now - r.mQueuedAt) / 1000);
+            r.mError = error;
+            r.mDone = true;
+        }
+        if (error != null)
+            ZimbraLog.redolog.warn("Failed to commit a batch of %d redolog records", batch.size(), error);
+        return true;
+    }
+
+    /**
+     * Appends the batch to the file with as few write calls as possible.
+     * Must be called with mCommitLock and mLock held.
+     */
+    private void writeBatch(List<LogRecord> batch) throws IOException {
+        FileChannel channel = mRAF.getChannel();
+        List<ByteBuffer> pending = new ArrayList<ByteBuffer>(batch.size());
+        for (LogRecord rec : batch) {
+            RedoableOp op = rec.mOp;
 
             // Record first transaction in header.
             long tstamp = op.getTimestamp();
             mLastOpTstamp = Math.max(tstamp, mLastOpTstamp);
             if (mFirstOpTstamp == 0) {
-            	mFirstOpTstamp = tstamp;
+                mFirstOpTstamp = tstamp;
                 mHeader.setFirstOpTstamp(mFirstOpTstamp);
                 mHeader.setLastOpTstamp(mLastOpTstamp);
+                writeFully(channel, pending);
                 long pos = mRAF.getFilePointer();
                 mHeader.write(mRAF);
                 mRAF.seek(pos);
             }
 
-            mLogSeq++;
-            mLogCount++;
-            seq = mLogSeq;
-            int numRead;
-            byte[] buf = new byte[1024];
-            while ((numRead = data.read(buf)) >= 0) {
-                mRAF.write(buf, 0, numRead);
-                mFileSize += numRead;
+            pending.add(ByteBuffer.wrap(rec.mData));
+            mFileSize += rec.mData.length;
+            if (rec.mTail != null) {
+                // too big to buffer; stream the rest of it
+                writeFully(channel, pending);
+                try {
+                    byte[] buf = new byte[8192];
+                    int numRead;
+                    while ((numRead = rec.mTail.read(buf)) >= 0) {
+                        mRAF.write(buf, 0, numRead);
+                        mFileSize += numRead;
+                    }
+                } finally {
+                    ByteUtil.closeStream(rec.mTail);
+                }
             }
-            data.close();
 
-            // We do this with log writer lock held, so the commits and any
-            // callbacks made on their behalf are truly in the correct order.
+            // Commit callbacks are queued in log order, so they are made in the same order as the
+            // commit records, and only after the commit record has been fsynced.
             if (op instanceof CommitTxn) {
                 CommitTxn cmt = (CommitTxn) op;
                 RedoCommitCallback cb = cmt.getCallback();
                 if (cb != null) {
                     long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
-                    CommitId cid = new CommitId(redoSeq, (CommitTxn) op);
-                    Notif notif = new Notif(cb, cid);
-                    // We queue it instead making the callback right away.
-                    // Call it only after the commit record has been fsynced.
-                    mCommitNotifyQueue.push(notif);
+                    CommitId cid = new CommitId(redoSeq, cmt);
+                    mCommitNotifyQueue.push(new Notif(cb, cid));
                 }
             }
-
-            mLastLogTime = System.currentTimeMillis();
-
-            sameMboxAsLastOp = mLastOpMboxId == op.getMailboxId();
-            mLastOpMboxId = op.getMailboxId();
         }
+        writeFully(channel, pending);
+        mLastLogTime = System.currentTimeMillis();
+    }
 
-        // cases 1 above
-        if (!synchronous)
+    private static void writeFully(FileChannel channel, List<ByteBuffer> buffers) throws IOException {
+        if (buffers.isEmpty())
             return;
+        ByteBuffer[] bufs = buffers.toArray(new ByteBuffer[buffers.size()]);
+        int offset = 0;
+        while (offset < bufs.length) {
+            channel.write(bufs, offset, bufs.length - offset);
+            while (offset < bufs.length && !bufs[offset].hasRemaining())
+                offset++;
+        }
+        buffers.clear();
+    }
 
-        if (mFsyncIntervalMS > 0) {
-            if (!sameMboxAsLastOp) {
-                // case 2
-                try {
-                    // wait for fsync thread to write this entry to disk
-                    synchronized (mFsyncCond) {
-                        mFsyncCond.wait(10000);
+    /**
+     * Fsyncs the file and makes the commit callbacks that were waiting for
+     * it.  Must be called with mCommitLock held.
+     */
+    private void force() throws IOException {
+        if (!mFsyncDisabled) {
+            synchronized (mLock) {
+                if (mRAF == null)
+                    throw new IOException("Redolog file closed");
+                mRAF.getChannel().force(false);
+                mFsyncCount++;
+            }
+        }
+        mDirty = false;
+        mCommitNotifyQueue.flush();
+    }
+
+    /**
+     * A queued log record.  Small records are read into memory by the logging
+     * thread so that the committer only has to gather them; the remainder of
+     * large ones is streamed by the committer.
+     */
+    private static final class LogRecord {
+        final RedoableOp mOp;
+        final byte[] mData;
+        final InputStream mTail;  // rest of the data beyond mData, if any
+        final boolean mSynchronous;
+        final long mQueuedAt = System.nanoTime();
+
+        // set by the committer, read by the logging thread; both under mCommitLock
+        boolean mDone;
+        IOException mError;
+
+        LogRecord(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
+            mOp = op;
+            mSynchronous = synchronous;
+            byte[] buf = new byte[1024];
+            int len = 0;
+            int numRead = 0;
+            boolean close = true;
+            try {
+                while ((numRead = data.read(buf, len, buf.length - len)) >= 0) {
+                    len += numRead;
+                    if (len == buf.length) {
+                        if (len >= INLINE_DATA_LIMIT) {
+                            close = false;
+                            break;
+                        }
+                        buf = Arrays.copyOf(buf, len * 2);
                     }
-                } catch (InterruptedException e) {
-                    ZimbraLog.redolog.info("Thread interrupted during fsync");
-                }
-                synchronized (mLock) {
-                    // timed out, so fsync in this thread
-                    if (seq > mFsyncSeq)
-                        fsync();
                 }
-            } else {
-                // If this op is on same mailbox as last op, let's assume there's a thread issuing
-                // many updates on a single mailbox in a loop, such as when importing a large ics file.
-                // We don't want to pause for mFsyncIntervalMS between every op (because all writes
-                // to a single mailbox are synchronized), so fsync inline and return immediately.
-                fsync();
+            } finally {
+                if (close)
+                    data.close();
             }
-        } else {
-            // case 3
-            fsync();
+            mData = len == buf.length ? buf : Arrays.copyOf(buf, len);
+            mTail = close ? null : data;
         }
     }
 
-    private int mLastOpMboxId;
-
     @Override public void flush() throws IOException {
         fsync();
     }
@@ -449,46 +588,23 @@ public class FileLogWriter implements LogWriter {
         }
     }
 
-    // do fsync if there are items logged since last fsync
+    // write out everything logged so far and fsync it, if not already fsynced
     private void fsync() throws IOException {
-        boolean fsyncNeeded = false;
-        int seq = 0;
-        synchronized (mLock) {
-            if (mFsyncSeq < mLogSeq) {
-                if (mRAF == null)
-                    throw new IOException("Redolog file closed");
-                fsyncNeeded = true;
-                seq = mLogSeq;
-                if (!mFsyncDisabled)
-                    mFsyncCount++;
-            }
-        }
-        if (fsyncNeeded) {
-            if (!mFsyncDisabled) {
-                synchronized (mLock) {
-                    if (mRAF != null)
-                        mRAF.getChannel().force(false);
-                    else
-                        throw new IOException("Redolog file closed");
-                    mCommitNotifyQueue.flush(false);
-                }
-            }
-            synchronized (mLock) {
-                mFsyncSeq = seq;
-            }
-            if (mFsyncIntervalMS > 0) {
-                synchronized (mFsyncCond) {
-                    mFsyncCond.notifyAll();
-                }
-            }
+        mCommitLock.lock();
+        try {
+            while (commitBatch())
+                ;
+            if (mDirty)
+                force();
+        } finally {
+            mCommitLock.unlock();
         }
     }
 
 
-    // Thread that calls fsync() periodically.  Threads that call log()
-    // will write the log entry and wait for this thread to signal them
-    // after sync to disk has occurred.  This way, there are fewer fsyncs
-    // than there are calls to log(), resulting in improved throughput.
+    // Thread that calls fsync() periodically, so that non-synchronous records
+    // and the commit callbacks waiting for them are fsynced within the fsync
+    // interval even when no synchronous record comes along.
     private class FsyncThread extends Thread {
         private long mSleepMS;
         private Object mFsyncLock;  // synchronizes access to mRunning
@@ -590,9 +706,9 @@ public class FileLogWriter implements LogWriter {
             mFull = false;
         }
 
-        public synchronized void push(Notif notif) throws IOException {
+        public synchronized void push(Notif notif) {
             if (notif != null) {
-                if (mFull) flush(true);  // queue is full
+                if (mFull) grow();  // callbacks have to wait for the next fsync
                 assert(!mFull);
                 mQueue[mTail] = notif;
                 mTail++;
@@ -601,6 +717,16 @@ public class FileLogWriter implements LogWriter {
             }
         }
 
+        private void grow() {
+            Notif[] queue = new Notif[mQueue.length * 2];
+            for (int i = 0; i < mQueue.length; i++)
+                queue[i] = mQueue[(mHead + i) % mQueue.length];
+            mHead = 0;
+            mTail = mQueue.length;
+            mQueue = queue;
+            mFull = false;
+        }
+
         private synchronized Notif pop() {
             if (mHead == mTail && !mFull) return null;  // queue is empty
             Notif n = mQueue[mHead];
@@ -611,9 +737,7 @@ public class FileLogWriter implements LogWriter {
             return n;
         }
 
-        public synchronized void flush(boolean fsync) throws IOException {
-            if (fsync)
-                fsync();
+        public synchronized void flush() {
             Notif notif;
             while ((notif = pop()) != null) {
                 RedoCommitCallback cb = notif.getCallback();
@@ -0,0 +1,93 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer ring buffer.  Any number of threads may
+ * {@link #offer} concurrently, but only one thread at a time may {@link #poll};
+ * callers are responsible for serializing consumers.
+ * <p>
+ * Each slot carries a sequence number that tells producers whether the slot
+ * is free for the current lap and tells the consumer whether its element has
+ * been published, so neither side ever blocks the other.
+ */
+final class RingBuffer<E> {
+
+    private final AtomicReferenceArray<E> mSlots;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();  // next position to be claimed by a producer
+    private long mHead;  // next position to be consumed; guarded by the caller's consumer lock
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mSlots = new AtomicReferenceArray<E>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Appends the element, unless the buffer is full.
+     * @return false if the buffer is full
+     */
+    boolean offer(E e) {
+        long pos = mTail.get();
+        while (true) {
+            int idx = (int) pos & mMask;
+            long diff = mSequences.get(idx) - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    mSlots.set(idx, e);
+                    mSequences.set(idx, pos + 1);  // publish
+                    return true;
+                }
+                pos = mTail.get();
+            } else if (diff < 0) {
+                return false;  // slot still holds an element from the previous lap
+            } else {
+                pos = mTail.get();  // another producer claimed this position
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element.  Returns null if the buffer is empty, or if
+     * the oldest position has been claimed but not yet published.
+     */
+    E poll() {
+        int idx = (int) mHead & mMask;
+        if (mSequences.get(idx) != mHead + 1) {
+            return null;
+        }
+        E e = mSlots.get(idx);
+        mSlots.set(idx, null);
+        mSequences.set(idx, mHead + mMask + 1);  // free for the next lap
+        mHead++;
+        return e;
+    }
+}
@@ -19,10 +19,17 @@ package com.zimbra.cs.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
 
 import com.google.common.base.Charsets;
 import com.zimbra.common.util.ZimbraLog;
@@ -32,6 +39,7 @@ public final class NioOutputStream extends OutputStream {
     private IoBuffer buf;
     private int maxScheduledBytes;
     private int maxWritePause;
+    private WriteFuture pendingRegion;
 
     NioOutputStream(IoSession session, int chunkSize, int maxScheduleBytes, int maxWritePause) {
         this.session = session;
@@ -88,20 +96,67 @@ public final class NioOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Returns true if a {@link #transferFrom} region would reach the socket as is.  That is only the case when no
+     * filter in the session's chain needs to see the bytes, so not once TLS or a SASL security layer is started.
+     */
+    public boolean isFileRegionSupported() {
+        for (IoFilterChain.Entry entry : session.getFilterChain().getAll()) {
+            IoFilter filter = entry.getFilter();
+            if (!(filter instanceof ExecutorFilter || filter instanceof NioLoggingFilter ||
+                    filter instanceof ProtocolCodecFilter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes {@code count} bytes of the file starting at {@code position} without copying them through the heap;
+     * the I/O processor sends them with {@link FileChannel#transferTo}.  Takes ownership of the channel, which is
+     * closed once the region has been written.  At most one region per connection is in flight, so a slow client
+     * pins at most two open files.
+     *
+     * @see #isFileRegionSupported()
+     */
+    public synchronized void transferFrom(final FileChannel channel, long position, long count) throws IOException {
+        flush();
+        if (pendingRegion != null) {
+            await(pendingRegion);
+            pendingRegion = null;
+        }
+        WriteFuture future = session.write(new DefaultFileRegion(channel, position, count));
+        future.addListener(new IoFutureListener<WriteFuture>() {
+            @Override
+            public void operationComplete(WriteFuture f) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    ZimbraLog.nio.debug("error closing file region channel", e);
+                }
+            }
+        });
+        pendingRegion = future;
+    }
+
+    private void await(WriteFuture future) throws IOException {
+        if (maxWritePause > 0) {
+            boolean done = future.awaitUninterruptibly(maxWritePause);
+            if (!done) {
+                throw new IOException("Write stalled, client may have gone away");
+            }
+        } else {
+            future.awaitUninterruptibly();
+        }
+    }
+
     private synchronized void writeToSession(Object output) throws IOException {
         long writeBytes = session.getScheduledWriteBytes();
         WriteFuture future = session.write(output);
         if (writeBytes > maxScheduledBytes) {
             ZimbraLog.nio.debug("IOSession has %d scheduled write bytes; waiting for buffer to catch up", writeBytes);
             long start = System.currentTimeMillis();
-            if (maxWritePause > 0) {
-                boolean done = future.awaitUninterruptibly(maxWritePause);
-                if (!done) {
-                    throw new IOException("Write stalled, client may have gone away");
-                }
-            } else {
-                future.awaitUninterruptibly();
-            }
+            await(future);
             if (ZimbraLog.nio.isDebugEnabled()) {
                 ZimbraLog.nio.debug("waited %d for %d scheduled bytes", (System.currentTimeMillis()-start), writeBytes);
                 ZimbraLog.nio.debug("now have %d scheduled bytes, %d messages; %d written bytes %d messages", session.getScheduledWriteBytes(), session.getScheduledWriteMessages(), session.getWrittenBytes(), session.getWrittenMessages());
@@ -17,6 +17,7 @@
 package com.zimbra.cs.service.formatter;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -44,8 +45,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import javax.mail.Part;
 import javax.mail.internet.MimeMessage;
@@ -58,6 +63,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.calendar.ZCalendar.ZCalendarBuilder;
 import com.zimbra.common.calendar.ZCalendar.ZICalendarParseHandler;
 import com.zimbra.common.calendar.ZCalendar.ZVCalendar;
@@ -160,6 +166,11 @@ public abstract class ArchiveFormatter extends Formatter {
     public abstract interface ArchiveOutputEntry {
         public void setUnread();
         public void setSize(long size);
+        /**
+         * Content is already compressed; store it as is.  {@code crc} is its CRC-32, or -1 if it wasn't computed
+         * because the format doesn't need it (see {@link ArchiveFormatter#storeNeedsCrc()}).
+         */
+        public void setCompressed(long crc);
     }
 
     public abstract interface ArchiveInputStream extends Closeable {
@@ -194,6 +205,52 @@ public abstract class ArchiveFormatter extends Formatter {
     protected abstract ArchiveOutputStream getOutputStream(UserServletContext context, String charset)
     throws IOException;
 
+    private static final int GZIP_BLOCK_SIZE = 1024 * 1024;
+    private static ExecutorService prefetchPool;
+    private static ExecutorService compressionPool;
+
+    /**
+     * Pool shared by all exports for reading blobs ahead, or null if disabled.  Compression has a pool of its own
+     * so that the writer never waits for a block queued behind blob reads.
+     */
+    private static synchronized ExecutorService getPrefetchPool() {
+        if (LC.zimbra_archive_formatter_threads.intValue() <= 0) {
+            return null;
+        }
+        if (prefetchPool == null) {
+            prefetchPool = Executors.newFixedThreadPool(LC.zimbra_archive_formatter_threads.intValue(),
+                    new ThreadFactoryBuilder().setNameFormat("ArchivePrefetch-%d").setDaemon(true).build());
+        }
+        return prefetchPool;
+    }
+
+    private static synchronized ExecutorService getCompressionPool() {
+        if (LC.zimbra_archive_formatter_threads.intValue() <= 0) {
+            return null;
+        }
+        if (compressionPool == null) {
+            compressionPool = Executors.newFixedThreadPool(LC.zimbra_archive_formatter_threads.intValue(),
+                    new ThreadFactoryBuilder().setNameFormat("ArchiveCompress-%d").setDaemon(true).build());
+        }
+        return compressionPool;
+    }
+
+    /**
+     * Whether storing already-compressed content as is needs its CRC-32 up front.
+     */
+    protected boolean storeNeedsCrc() {
+        return false;
+    }
+
+    protected static OutputStream newGzipOutputStream(OutputStream os) throws IOException {
+        ExecutorService pool = getCompressionPool();
+        if (pool == null) {
+            return new GZIPOutputStream(os);
+        }
+        return new ParallelGzipOutputStream(os, pool, GZIP_BLOCK_SIZE,
+                LC.zimbra_archive_formatter_threads.intValue() * 2, Deflater.DEFAULT_COMPRESSION);
+    }
+
     @Override
     public void formatCallback(UserServletContext context)
     throws IOException, ServiceException, UserServletException {
@@ -217,6 +274,11 @@ public abstract class ArchiveFormatter extends Formatter {
         ArchiveOutputStream aos = null;
         String types = context.getTypesString();
         MailboxMaintenance maintenance = null;
+        long start = System.currentTimeMillis();
+        BlobPrefetcher prefetcher = new BlobPrefetcher(getPrefetchPool(),
+                LC.zimbra_archive_formatter_prefetch_bytes.longValue(),
+                LC.zimbra_archive_formatter_prefetch_item_size.longValue(),
+                LC.zimbra_archive_formatter_store_compressed.booleanValue(), storeNeedsCrc());
         try {
             if (filename == null || filename.equals("")) {
                 Date date = new Date();
@@ -360,13 +422,24 @@ public abstract class ArchiveFormatter extends Formatter {
                                 saveTargetFolder = false;
                                 aos = saveItem(context, context.target, fldrs, cnts, false, aos, encoder, names);
                             }
-                            aos = saveItem(context, results.getNext().getMailItem(), fldrs, cnts, false, aos, encoder, names);
+                            // blobs are read ahead on the prefetch pool; entries are still written in search order.
+                            // The search itself stays on this thread: with lock=1 the mailbox is in maintenance
+                            // and only this thread may access it.  It fetches item metadata in chunks of
+                            // zimbra_archive_formatter_search_chunk_size, which overlaps with the reads.
+                            prefetcher.add(results.getNext().getMailItem());
+                            while (prefetcher.isFull()) {
+                                aos = saveItem(context, prefetcher.take(), fldrs, cnts, aos, encoder, names);
+                            }
+                        }
+                        while (!prefetcher.isEmpty()) {
+                            aos = saveItem(context, prefetcher.take(), fldrs, cnts, aos, encoder, names);
                         }
                         IOUtil.closeQuietly(results);
                         results = null;
                     } catch (Exception e) {
                         warn(e);
                     } finally {
+                        prefetcher.cancel();
                         IOUtil.closeQuietly(results);
                     }
                 }
@@ -389,6 +462,12 @@ public abstract class ArchiveFormatter extends Formatter {
                 } catch (Exception e) {
                 }
             }
+            if (prefetcher.getItemCount() > 0) {
+                long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+                ZimbraLog.misc.info("%s export of %d items (%d bytes) took %d ms, %.1f MB/s", getType(),
+                        prefetcher.getItemCount(), prefetcher.getByteCount(), elapsed,
+                        prefetcher.getByteCount() * 1000.0 / elapsed / (1024 * 1024));
+            }
         }
     }
 
@@ -416,10 +495,25 @@ public abstract class ArchiveFormatter extends Formatter {
         }
     }
 
+    private ArchiveOutputStream saveItem(UserServletContext context, BlobPrefetcher.Prefetch prefetch,
+        Map<Integer, String> fldrs, Map<Integer, Integer> cnts, ArchiveOutputStream aos,
+        CharsetEncoder charsetEncoder, Set<String> names) throws ServiceException {
+        return saveItem(context, prefetch.item, prefetch.getBlob(), prefetch.compressed, fldrs, cnts, false, aos,
+                charsetEncoder, names);
+    }
+
     private ArchiveOutputStream saveItem(UserServletContext context, MailItem mi,
         Map<Integer, String> fldrs, Map<Integer, Integer> cnts,
         boolean version, ArchiveOutputStream aos,
         CharsetEncoder charsetEncoder, Set<String> names) throws ServiceException {
+        return saveItem(context, mi, null, false, fldrs, cnts, version, aos, charsetEncoder, names);
+    }
+
+    private ArchiveOutputStream saveItem(UserServletContext context, MailItem mi, BlobPrefetcher.Blob blob,
+        boolean compressed,
+        Map<Integer, String> fldrs, Map<Integer, Integer> cnts,
+        boolean version, ArchiveOutputStream aos,
+        CharsetEncoder charsetEncoder, Set<String> names) throws ServiceException {
 
         String ext = null, name = null;
         String extra = null;
@@ -573,7 +667,7 @@ public abstract class ArchiveFormatter extends Formatter {
                 return aos;
             }
             try {
-                is = mi.getContentStream();
+                is = blob != null && blob.data != null ? new ByteArrayInputStream(blob.data) : mi.getContentStream();
             } catch (Exception e) {
                 ZimbraLog.misc.error("missing blob for item %d: expected %d", mi.getId(), miSize);
                 return aos;
@@ -688,6 +782,9 @@ public abstract class ArchiveFormatter extends Formatter {
                     long remain = miSize;
 
                     aoe.setSize(miSize);
+                    if (compressed) {
+                        aoe.setCompressed(blob != null && blob.crc >= 0 && blob.length == miSize ? blob.crc : -1);
+                    }
                     aos.putNextEntry(aoe);
                     while (remain > 0 && (in = is.read(buf)) >= 0) {
                         aos.write(buf, 0, remain < in ? (int)remain : in);
@@ -0,0 +1,213 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.formatter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Document;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Message;
+
+/**
+ * Bounded look-ahead window over the items of an archive export. Blobs of
+ * the queued items are read on a shared pool while the request thread is
+ * still writing earlier entries, and items come back out in the order they
+ * were added so the archive layout doesn't change. Small blobs are held in
+ * memory. Documents with an already-compressed content type are flagged so
+ * the writer stores them without recompressing; if the archive format needs
+ * a CRC for that (zip), it is computed here, streaming large blobs.
+ */
+final class BlobPrefetcher {
+    private static final int MAX_ITEMS = 64;
+
+    private static final ImmutableSet<String> COMPRESSED_TYPES = ImmutableSet.of(
+            "application/zip", "application/x-zip-compressed", "application/java-archive",
+            "application/gzip", "application/x-gzip", "application/x-compressed-tar",
+            "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar",
+            "image/jpeg", "image/png", "image/gif", "image/webp",
+            "audio/mpeg", "audio/mp4", "audio/ogg", "video/mp4", "video/mpeg", "video/quicktime", "video/webm");
+
+    /** Blob of a prefetched item; {@code crc} is -1 unless it was computed for storing the content as is. */
+    static final class Blob {
+        final byte[] data;
+        final long length;
+        final long crc;
+
+        Blob(byte[] data, long length, long crc) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    static final class Prefetch {
+        final MailItem item;
+        final boolean compressed; // content is already compressed and may be stored as is
+        private final Future<Blob> future;
+        private final long reserved;
+
+        Prefetch(MailItem item, boolean compressed, Future<Blob> future, long reserved) {
+            this.item = item;
+            this.compressed = compressed;
+            this.future = future;
+            this.reserved = reserved;
+        }
+
+        /** Returns the prefetched blob, or null to have the writer read the item itself. */
+        Blob getBlob() {
+            if (future == null) {
+                return null;
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the writer reads the blob again and reports the error in place
+                ZimbraLog.misc.debug("prefetch failed for item %d", item.getId(), e.getCause());
+            }
+            return null;
+        }
+    }
+
+    private final ExecutorService pool;
+    private final long maxBytes;
+    private final long maxItemSize;
+    private final boolean storeCompressed;
+    private final boolean computeCrc;
+    private final ArrayDeque<Prefetch> queue = new ArrayDeque<Prefetch>();
+    private long bytes;
+    private int taken;
+    private long takenBytes;
+
+    /** With a null {@code pool} nothing is read ahead and every item is handed back as soon as it's added. */
+    BlobPrefetcher(ExecutorService pool, long maxBytes, long maxItemSize, boolean storeCompressed,
+            boolean computeCrc) {
+        this.pool = pool;
+        this.maxBytes = maxBytes;
+        this.maxItemSize = maxItemSize;
+        this.storeCompressed = storeCompressed;
+        this.computeCrc = computeCrc;
+    }
+
+    void add(final MailItem item) {
+        final long size = item.getSize();
+        final boolean compressed = storeCompressed && isCompressed(item);
+        final boolean needCrc = compressed && computeCrc;
+        final boolean inMemory = size <= maxItemSize;
+        if (pool == null || size <= 0 || item.getDigest() == null || !(item instanceof Message || item instanceof Document) ||
+                !(inMemory || needCrc)) {
+            queue.add(new Prefetch(item, compressed, null, 0));
+            return;
+        }
+        long reserved = inMemory ? size : 0;
+        Future<Blob> future = pool.submit(new Callable<Blob>() {
+            @Override
+            public Blob call() throws Exception {
+                InputStream is = item.getContentStream();
+                try {
+                    if (inMemory) {
+                        byte[] data = ByteUtil.getPartialContent(is, (int) size, (int) size);
+                        long crc = -1;
+                        if (needCrc) {
+                            CRC32 crc32 = new CRC32();
+                            crc32.update(data);
+                            crc = crc32.getValue();
+                        }
+                        return new Blob(data, data.length, crc);
+                    }
+                    CRC32 crc32 = new CRC32();
+                    byte[] buf = new byte[64 * 1024];
+                    long length = 0;
+                    int in;
+                    while ((in = is.read(buf)) >= 0) {
+                        crc32.update(buf, 0, in);
+                        length += in;
+                    }
+                    return new Blob(null, length, crc32.getValue());
+                } finally {
+                    ByteUtil.closeStream(is);
+                }
+            }
+        });
+        bytes += reserved;
+        queue.add(new Prefetch(item, compressed, future, reserved));
+    }
+
+    boolean isFull() {
+        return queue.size() >= (pool == null ? 1 : MAX_ITEMS) || bytes >= maxBytes;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    Prefetch take() {
+        Prefetch prefetch = queue.remove();
+        bytes -= prefetch.reserved;
+        taken++;
+        takenBytes += prefetch.item.getSize();
+        return prefetch;
+    }
+
+    int getItemCount() {
+        return taken;
+    }
+
+    long getByteCount() {
+        return takenBytes;
+    }
+
+    /** Cancels reads that haven't been taken yet, e.g. when the client went away. */
+    void cancel() {
+        for (Prefetch prefetch : queue) {
+            if (prefetch.future != null) {
+                prefetch.future.cancel(true);
+            }
+        }
+        queue.clear();
+        bytes = 0;
+    }
+
+    static boolean isCompressed(MailItem item) {
+        return item instanceof Document && isCompressedType(((Document) item).getContentType());
+    }
+
+    @VisibleForTesting
+    static boolean isCompressedType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semi = contentType.indexOf(';');
+        String ct = (semi == -1 ? contentType : contentType.substring(0, semi)).trim().toLowerCase(Locale.ENGLISH);
+        return COMPRESSED_TYPES.contains(ct) || ct.startsWith("application/vnd.openxmlformats-officedocument.") ||
+                ct.startsWith("application/vnd.oasis.opendocument.");
+    }
+}
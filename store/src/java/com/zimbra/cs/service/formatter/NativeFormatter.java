@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
@@ -38,11 +40,16 @@ import javax.mail.Part;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimePart;
 import javax.mail.internet.MimeUtility;
+import javax.servlet.AsyncContext;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
@@ -168,11 +175,61 @@ public final class NativeFormatter extends Formatter {
             long size = msg.getSize();
             if (size > 0)
                 context.resp.setContentLength((int)size);
+            if (size >= LC.zimbra_blob_zero_copy_min_size.longValue() && sendBlobAsync(context, msg)) {
+                return;
+            }
             InputStream is = msg.getContentStream();
             ByteUtil.copy(is, true, context.resp.getOutputStream(), false);
         }
     }
 
+    /**
+     * Sends the raw blob of the item by handing a memory-mapped view of the blob file to Jetty, which writes it to
+     * the connection without copying it through the JVM heap.  The request is put in async mode, so the request
+     * thread is released as soon as the transfer has started.
+     *
+     * @return false if nothing was sent because the blob or the response doesn't allow it
+     */
+    private static boolean sendBlobAsync(UserServletContext context, MailItem item)
+    throws IOException, ServiceException {
+        HttpServletRequest req = context.req;
+        if (!req.isAsyncSupported() || req.isAsyncStarted() || context.params.get(QP_CALLBACK) != null) {
+            return false;
+        }
+        ServletOutputStream out = context.resp.getOutputStream();
+        if (!(out instanceof HttpOutput)) {
+            return false;  // response wrapped by a filter
+        }
+        FileChannel channel = StoreManager.getInstance().openRawContentChannel(item.getBlob());
+        if (channel == null) {
+            return false;
+        }
+        ByteBuffer content;
+        try {
+            // the mapping stays valid after the channel is closed
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        context.resp.setContentLengthLong(content.remaining());
+        final AsyncContext async = req.startAsync();
+        async.setTimeout(0);  // the connection's idle timeout still applies
+        ((HttpOutput) out).sendContent(content, new Callback() {
+            @Override
+            public void succeeded() {
+                async.complete();
+            }
+
+            @Override
+            public void failed(Throwable t) {
+                log.debug("error sending blob", t);
+                async.complete();
+            }
+        });
+        return true;
+    }
+
     private void handleCalendarItem(UserServletContext context, CalendarItem calItem) throws IOException, ServiceException, MessagingException, ServletException {
         if (context.hasPart()) {
             MimePart mp;
@@ -0,0 +1,244 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.formatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream that cuts its input into fixed size blocks and deflates them
+ * on a shared pool, the way pigz does. Each block is raw deflate data ending
+ * on a sync flush and primed with the tail of the previous block as its
+ * dictionary, so the blocks join into a single gzip member with one header
+ * and one trailer. A single member matters: {@link java.util.zip.GZIPInputStream}
+ * may stop at a member boundary when the underlying stream's
+ * {@code available()} is 0 (JDK-7036144), as it often is for a request body.
+ * The CRC is computed on the writing thread, which is cheap next to deflate.
+ * At most {@code maxPending} blocks are buffered at a time.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {
+        (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int blockSize;
+    private final int maxPending;
+    private final int level;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int count;
+    private byte[] previous;
+    private int previousCount;
+    private boolean compressing = true;
+    private boolean wroteHeader;
+    private long bytesIn;
+    private long bytesOut;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out, ExecutorService pool, int blockSize, int maxPending, int level) {
+        this.out = out;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.maxPending = Math.max(1, maxPending);
+        this.level = level;
+        this.block = new byte[blockSize];
+    }
+
+    /**
+     * Turns compression off for data that is already compressed, such as an
+     * image or zip attachment. The current block is cut at this point so the
+     * data goes out in stored deflate blocks.
+     */
+    void setCompressing(boolean compressing) throws IOException {
+        if (this.compressing != compressing) {
+            submit();
+            this.compressing = compressing;
+        }
+    }
+
+    long getBytesIn() {
+        return bytesIn;
+    }
+
+    long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == blockSize) {
+            submit();
+        }
+        block[count++] = (byte) b;
+        bytesIn++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        bytesIn += len;
+        while (len > 0) {
+            if (count == blockSize) {
+                submit();
+            }
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Writes out every complete block; the partial block is kept so flushes don't fragment the stream. */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit();
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeHeader();
+            // an empty final block ends the deflate stream
+            Deflater def = new Deflater(level, true);
+            byte[] end = new byte[16];
+            int n;
+            try {
+                def.finish();
+                n = def.deflate(end);
+            } finally {
+                def.end();
+            }
+            write(end, n);
+            byte[] trailer = new byte[8];
+            writeInt(trailer, 0, crc.getValue());
+            writeInt(trailer, 4, bytesIn);
+            write(trailer, trailer.length);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        final byte[] data = block;
+        final int length = count;
+        final int lvl = compressing ? level : Deflater.NO_COMPRESSION;
+        final byte[] dict = previous;
+        final int dictOffset = Math.max(0, previousCount - DICTIONARY_SIZE);
+        final int dictLength = previousCount - dictOffset;
+        crc.update(data, 0, length);
+        previous = data;
+        previousCount = length;
+        block = new byte[blockSize];
+        count = 0;
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+        pending.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(data, length, lvl, dict, dictOffset, dictLength);
+            }
+        }));
+    }
+
+    private void writeNext() throws IOException {
+        byte[] deflated;
+        try {
+            deflated = pending.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("compression failed", e.getCause());
+        }
+        pending.remove();
+        writeHeader();
+        write(deflated, deflated.length);
+    }
+
+    private void writeHeader() throws IOException {
+        if (!wroteHeader) {
+            wroteHeader = true;
+            write(HEADER, HEADER.length);
+        }
+    }
+
+    private void write(byte[] b, int len) throws IOException {
+        out.write(b, 0, len);
+        bytesOut += len;
+    }
+
+    private static void writeInt(byte[] b, int off, long value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+    /** Raw deflate of one block, ending on a byte boundary so the next block can follow it directly. */
+    static byte[] deflate(byte[] data, int length, int level, byte[] dict, int dictOffset, int dictLength) {
+        Deflater def = new Deflater(level, true);
+        try {
+            if (dict != null) {
+                def.setDictionary(dict, dictOffset, dictLength);
+            }
+            def.setInput(data, 0, length);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    level == Deflater.NO_COMPRESSION ? length + 64 : length / 2 + 64);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            do {
+                n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                baos.write(buf, 0, n);
+            } while (n == buf.length);
+            return baos.toByteArray();
+        } finally {
+            def.end();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.zimbra.cs.service.formatter.ArchiveFormatter.ArchiveOutputStream;
 public class TarArchiveOutputStream implements ArchiveOutputStream {
     public class TarArchiveOutputEntry implements ArchiveOutputEntry {
         private TarEntry entry;
+        private boolean compressed;
 
         public TarArchiveOutputEntry(String path, String name, int type, long
             date) {
@@ -40,19 +41,32 @@ public class TarArchiveOutputStream implements ArchiveOutputStream {
         public void setUnread() { entry.setMode(entry.getMode() & ~0200); }
         @Override
         public void setSize(long size) { entry.setSize(size); }
+        @Override
+        public void setCompressed(long crc) { compressed = true; }
     }
 
     private TarOutputStream os;
+    private ParallelGzipOutputStream gzip;
+    private boolean storing;
 
     public TarArchiveOutputStream(OutputStream os, String cset) throws
         IOException {
+        if (os instanceof ParallelGzipOutputStream) {
+            gzip = (ParallelGzipOutputStream) os;
+        }
         this.os = new TarOutputStream(os, cset);
         this.os.setLongFileMode(TarOutputStream.LONGFILE_GNU);
     }
     @Override
     public void close() throws IOException { os.close(); }
     @Override
-    public void closeEntry() throws IOException { os.closeEntry(); }
+    public void closeEntry() throws IOException {
+        os.closeEntry();
+        if (storing) {
+            storing = false;
+            gzip.setCompressing(true);
+        }
+    }
     @Override
     public OutputStream getOutputStream() { return os; }
     @Override
@@ -64,7 +78,12 @@ public class TarArchiveOutputStream implements ArchiveOutputStream {
     }
     @Override
     public void putNextEntry(ArchiveOutputEntry entry) throws IOException {
-        os.putNextEntry(((TarArchiveOutputEntry)entry).entry);
+        TarArchiveOutputEntry tae = (TarArchiveOutputEntry)entry;
+        if (tae.compressed && gzip != null) {
+            storing = true;
+            gzip.setCompressing(false);
+        }
+        os.putNextEntry(tae.entry);
     }
     @Override
     public void write(byte[] buf) throws IOException { os.write(buf); }
@@ -18,7 +18,6 @@ package com.zimbra.cs.service.formatter;
 
 import java.io.IOException;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.service.UserServletContext;
@@ -43,7 +42,7 @@ public class TgzFormatter extends TarFormatter {
 
     protected ArchiveOutputStream getOutputStream(UserServletContext context, String
         charset) throws IOException {
-        return new TarArchiveOutputStream(new GZIPOutputStream(
+        return new TarArchiveOutputStream(newGzipOutputStream(
             context.resp.getOutputStream()), charset);
     }
 }
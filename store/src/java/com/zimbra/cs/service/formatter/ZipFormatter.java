@@ -82,6 +82,13 @@ public class ZipFormatter extends ArchiveFormatter {
                 entry.setComment(entry.getComment() + "-unread");
             }
             public void setSize(long size) { entry.setSize(size); }
+            public void setCompressed(long crc) {
+                // a STORED entry needs its CRC before the data, since the stream can't seek back
+                if (crc >= 0) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setCrc(crc);
+                }
+            }
         }
         
         private ZipOutputStream os;
@@ -120,6 +127,8 @@ public class ZipFormatter extends ArchiveFormatter {
     }
 
     @Override protected boolean getDefaultMeta() { return false; }
+
+    @Override protected boolean storeNeedsCrc() { return true; }
     
     protected ArchiveInputStream getInputStream(UserServletContext context,
         String charset) throws IOException, ServiceException, UserServletException {
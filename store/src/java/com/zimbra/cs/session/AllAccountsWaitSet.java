@@ -56,11 +56,17 @@ public final class AllAccountsWaitSet extends WaitSetBase {
     private String mNextSeqNo; // set to the commitId of the most recently signalled event....we use this to update mCurrentSeqNo when we send data..
 
     /** Callback from the Mailbox object when a transaction has completed in some Mailbox */
-    public static final void mailboxChangeCommitted(String commitIdStr, String accountId,
-            Set<MailItem.Type> changedTypes) {
+    public static final void mailboxChangeCommitted(final String commitIdStr, final String accountId,
+            final Set<MailItem.Type> changedTypes) {
         if (!Collections.disjoint(changedTypes, interestTypes)) {
-            for (AllAccountsWaitSet ws : sAllAccountsWaitSets.keySet()) {
-                ws.onMailboxChangeCommitted(commitIdStr, accountId, changedTypes);
+            for (final AllAccountsWaitSet ws : sAllAccountsWaitSets.keySet()) {
+                // not coalesced: each commit moves the waitset's sequence number
+                WaitSetDispatcher.getInstance().execute(ws, new Runnable() {
+                    @Override
+                    public void run() {
+                        ws.onMailboxChangeCommitted(commitIdStr, accountId, changedTypes);
+                    }
+                });
             }
         }
     }
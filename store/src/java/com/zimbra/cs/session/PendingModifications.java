@@ -246,6 +246,39 @@ public abstract class PendingModifications<T extends ZimbraMailItem> {
         return count;
     }
 
+    /**
+     * Returns how much {@link #getScaledNotificationCount()} would grow if {@code other} were merged into this set.
+     * Changes to items that already have a notification pending here coalesce with it and are not counted again.
+     */
+    public int getScaledNotificationCount(PendingModifications<?> other) {
+        int count = 0;
+        if (other.deleted != null) {
+            int deletes = 0;
+            for (ModificationKey key : other.deleted.keySet()) {
+                if (deleted == null || !deleted.containsKey(key)) {
+                    deletes++;
+                }
+            }
+            count += (deletes + 3) / 4;
+        }
+        if (other.created != null) {
+            for (ModificationKey key : other.created.keySet()) {
+                if (created == null || !created.containsKey(key)) {
+                    count++;
+                }
+            }
+        }
+        if (other.modified != null) {
+            for (ModificationKey key : other.modified.keySet()) {
+                if ((modified == null || !modified.containsKey(key)) && (created == null || !created.containsKey(key))
+                        && (deleted == null || !deleted.containsKey(key))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     public boolean overlapsWithAccount(String acctId) {
         acctId = acctId == null ? null : acctId.toLowerCase();
         if (deleted != null) {
@@ -25,6 +25,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.zimbra.common.account.Key;
 import com.zimbra.common.account.Key.AccountBy;
@@ -70,6 +76,7 @@ import com.zimbra.cs.service.util.ItemId;
 import com.zimbra.cs.service.util.ItemIdFormatter;
 import com.zimbra.cs.session.PendingModifications.Change;
 import com.zimbra.cs.session.PendingModifications.ModificationKey;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.BuildInfo;
 import com.zimbra.cs.util.IOUtil;
 import com.zimbra.cs.util.Zimbra;
@@ -424,6 +431,12 @@ public class SoapSession extends Session {
                    (mRemoteChanges == null  ? 0 : mRemoteChanges.getScaledNotificationCount());
         }
 
+        /** Returns how much {@link #getScaledNotificationCount()} would grow if {@code pms} were added. */
+        int getScaledNotificationCount(PendingLocalModifications pms) {
+            return mMailboxChanges == null ? pms.getScaledNotificationCount() :
+                   mMailboxChanges.getScaledNotificationCount(pms);
+        }
+
         void addNotification(ExternalEventNotification extra) {
             if (mExternalNotifications == null)
                 mExternalNotifications = new LinkedList<ExternalEventNotification>();
@@ -459,6 +472,26 @@ public class SoapSession extends Session {
     private static final long MINIMUM_PING_RETRY_TIME = 30 * Constants.MILLIS_PER_SECOND;
     private static final int MAX_QUEUED_NOTIFICATIONS = LC.zimbra_session_max_pending_notifications.intValue();
 
+    /** Wakes up push channels on behalf of the committing threads; null if they are woken up inline. */
+    private static final ThreadPoolExecutor PUSH_EXECUTOR =
+            createPushExecutor(LC.zimbra_session_notify_threads.intValue());
+
+    private static ThreadPoolExecutor createPushExecutor(int threads) {
+        if (threads <= 0) {
+            return null;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("SoapNotify-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Returns the number of sessions waiting for their push channel to be woken up. */
+    public static int getPushQueueSize() {
+        return PUSH_EXECUTOR == null ? 0 : PUSH_EXECUTOR.getQueue().size();
+    }
+
     // Read/write access to all these members requires synchronizing on "this".
     private String queryString = "";
     private String groupBy = "";
@@ -474,6 +507,9 @@ public class SoapSession extends Session {
     protected QueuedNotifications changes = new QueuedNotifications(1);
     private PushChannel pushChannel;
     private boolean unregistered;
+    // a push is waiting on PUSH_EXECUTOR, and whether anything it carries changes the authenticated account
+    private final AtomicBoolean pushScheduled = new AtomicBoolean();
+    private final AtomicBoolean pushLocalChanges = new AtomicBoolean();
     private final Map<String, DelegateSession> delegateSessions = new HashMap<String, DelegateSession>(3);
     private List<RemoteSessionInfo> remoteSessions;
     private final boolean asAdmin;
@@ -841,7 +877,7 @@ public class SoapSession extends Session {
         }
         try {
             // if we're in a hanging no-op, alert the client that there are changes
-            notifyPushChannel(null);
+            notifyPushChannel(true);
         } catch (ServiceException e) {
             ZimbraLog.session.warn("ServiceException in notifyExternalEvent", e);
         }
@@ -928,13 +964,53 @@ public class SoapSession extends Session {
         if (!hasSerializableChanges(pms)) {
             return;
         }
-        try {
-            // update the set of notifications not yet sent to the client
-            cacheNotifications(pms, fromThisSession);
-            // if we're in a hanging no-op, alert the client that there are changes
-            notifyPushChannel(pms);
-            // FIXME: this query result cache purge seems a little aggressive
+        // update the set of notifications not yet sent to the client
+        cacheNotifications(pms, fromThisSession);
+        if (fromThisSession) {
+            // the session's next request must not see results cached before its own change
             clearCachedQueryResults();
+        }
+        // if we're in a hanging no-op, alert the client that there are changes
+        schedulePush(pms.overlapsWithAccount(mAuthenticatedAccountId), !fromThisSession);
+    }
+
+    /**
+     * Wakes up the push channel and, if {@code clearQueryResults}, purges the cached query results.  Both take the
+     * session lock, which a request on this session may hold for a while, so they are handed to
+     * {@link #PUSH_EXECUTOR} rather than run on the committing thread.  A session has at most one push queued:
+     * changes committed while it waits are already in the queued notifications and ride along with it.
+     */
+    private void schedulePush(boolean localChanges, boolean clearQueryResults) {
+        if (PUSH_EXECUTOR == null) {
+            push(localChanges, clearQueryResults);
+            return;
+        }
+        if (localChanges) {
+            pushLocalChanges.set(true);
+        }
+        if (!pushScheduled.compareAndSet(false, true)) {
+            ZimbraPerf.COUNTER_SOAP_NOTIFY_COALESCED.increment(1);
+            return;
+        }
+        ZimbraPerf.COUNTER_SOAP_NOTIFY_COALESCED.increment(0);
+        final long queued = System.currentTimeMillis();
+        PUSH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ZimbraPerf.HISTOGRAM_SOAP_NOTIFY_LAG.increment(System.currentTimeMillis() - queued);
+                pushScheduled.set(false);
+                push(pushLocalChanges.getAndSet(false), true);
+            }
+        });
+    }
+
+    private void push(boolean localChanges, boolean clearQueryResults) {
+        try {
+            if (clearQueryResults) {
+                // FIXME: this query result cache purge seems a little aggressive
+                clearCachedQueryResults();
+            }
+            notifyPushChannel(localChanges);
         } catch (ServiceException e) {
             ZimbraLog.session.warn("ServiceException in notifyPendingChanges ", e);
         }
@@ -944,7 +1020,8 @@ public class SoapSession extends Session {
         // XXX: should constrain to folders, tags, and stuff relevant to the current query?
 
         synchronized (sentChanges) {
-            if (!skipNotifications(pms.getScaledNotificationCount(), fromThisSession)) {
+            // changes to items that already have a notification queued coalesce with it and don't count again
+            if (!skipNotifications(changes.getScaledNotificationCount(pms), fromThisSession)) {
                 // if we're here, these changes either
                 //   a) do not cause the session's notification cache to overflow, or
                 //   b) originate from this session and hence must be notified back to the session
@@ -961,7 +1038,6 @@ public class SoapSession extends Session {
         }
         // determine whether this set of notifications would cause the cached set to overflow
         if (forceRefresh != currentSequence && MAX_QUEUED_NOTIFICATIONS > 0) {
-            // XXX: more accurate would be to combine pms and mChanges and take the count...
             int count = notificationCount + changes.getScaledNotificationCount();
             if (count > MAX_QUEUED_NOTIFICATIONS) {
                 // if we've overflowed, jettison the pending change set
@@ -987,26 +1063,26 @@ public class SoapSession extends Session {
 
     public void forcePush() {
         try {
-            notifyPushChannel(null, false);
+            notifyPushChannel(true, false);
         } catch (ServiceException e) {
             ZimbraLog.session.warn("ServiceException in forcePush", e);
         }
     }
 
-    private synchronized void notifyPushChannel(final PendingLocalModifications pms) throws ServiceException {
+    private synchronized void notifyPushChannel(final boolean localChanges) throws ServiceException {
         // don't clear the persistent push channels after each use
         boolean persistent = pushChannel == null ? false : pushChannel.isPersistent();
-        notifyPushChannel(pms, !persistent);
+        notifyPushChannel(localChanges, !persistent);
     }
 
-    private synchronized void notifyPushChannel(final PendingLocalModifications pms, final boolean clearChannel)
+    private synchronized void notifyPushChannel(final boolean localChanges, final boolean clearChannel)
             throws ServiceException {
         // don't have to lock the Mailbox before locking the Session to avoid deadlock because we're not calling any ToXML functions
         if (pushChannel == null) {
             return;
         }
         // ignore the notification if we're only interested in local changes and these aren't local
-        if (pushChannel.localChangesOnly() && pms != null && !pms.overlapsWithAccount(mAuthenticatedAccountId)) {
+        if (pushChannel.localChangesOnly() && !localChanges) {
             return;
         }
         pushChannel.notificationsReady();
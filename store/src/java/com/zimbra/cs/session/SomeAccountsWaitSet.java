@@ -287,7 +287,7 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
      * @param session
      */
     synchronized protected void signalDataReady(WaitSetSession session) {
-        signalDataReady(session, null);
+        signalDataReady(session, (PendingModifications) null);
     }
 
     /**
@@ -310,6 +310,21 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
         if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady done");
     }
 
+    /**
+     * Called by the {@link WaitSetDispatcher} to deliver a burst of changes to the session's account under one lock
+     * @param session
+     * @param mods the changes, possibly empty
+     */
+    synchronized protected void signalDataReady(WaitSetSession session, List<PendingModifications> mods) {
+        if (mods.isEmpty()) {
+            signalDataReady(session, (PendingModifications) null);
+        } else {
+            for (PendingModifications pms : mods) {
+                signalDataReady(session, pms);
+            }
+        }
+    }
+
     @Override
     public synchronized WaitSetInfo handleQuery() {
         WaitSetInfo info = super.handleQuery();
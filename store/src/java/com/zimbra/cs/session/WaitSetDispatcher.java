@@ -0,0 +1,197 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * Delivers waitset notifications on a few dispatcher threads, so that the mailbox thread committing a change never
+ * takes a waitset lock or runs a waitset callback.
+ * <p>
+ * Each waitset is served by one dispatcher lane, so its notifications are delivered in the order they were queued.
+ * While a session's signal is still waiting in its lane, further changes to the account are folded into it: the
+ * waitset is locked once and the client is woken once for the whole burst.
+ */
+public final class WaitSetDispatcher {
+
+    private static final WaitSetDispatcher INSTANCE =
+            new WaitSetDispatcher(Math.max(LC.zimbra_waitset_notify_threads.intValue(), 0));
+
+    private final Lane[] lanes;
+    private final ConcurrentMap<WaitSetSession, Signal> pending = new ConcurrentHashMap<WaitSetSession, Signal>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    WaitSetDispatcher(int numLanes) {
+        lanes = new Lane[numLanes];
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("WaitSetNotify-%d").setDaemon(true).build();
+        for (int i = 0; i < numLanes; i++) {
+            lanes[i] = new Lane();
+            factory.newThread(lanes[i]).start();
+        }
+    }
+
+    static WaitSetDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /** Returns the number of notifications waiting to be delivered. */
+    public static int getQueueSize() {
+        return INSTANCE.size();
+    }
+
+    int size() {
+        return queued.get();
+    }
+
+    /**
+     * Signals the session's waitset that the session's account changed.
+     *
+     * @param changeId the change that triggered the signal
+     * @param pms the changes, or null
+     */
+    void signal(WaitSetSession session, int changeId, PendingModifications pms) {
+        if (lanes.length == 0) {
+            session.mWs.signalDataReady(session, pms);
+            return;
+        }
+        while (true) {
+            Signal signal = pending.get(session);
+            if (signal != null) {
+                if (signal.add(changeId, pms)) {
+                    ZimbraPerf.COUNTER_WAITSET_NOTIFY_COALESCED.increment(1);
+                    return;
+                }
+                // already being delivered
+                pending.remove(session, signal);
+            }
+            signal = new Signal(session, changeId, pms);
+            if (pending.putIfAbsent(session, signal) == null) {
+                ZimbraPerf.COUNTER_WAITSET_NOTIFY_COALESCED.increment(0);
+                enqueue(session.mWs, signal);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the waitset's lane, after any notification already queued for the waitset.
+     */
+    void execute(WaitSetBase ws, Runnable task) {
+        if (lanes.length == 0) {
+            task.run();
+        } else {
+            enqueue(ws, new Task(task));
+        }
+    }
+
+    private void enqueue(WaitSetBase ws, Task task) {
+        queued.incrementAndGet();
+        lanes[(ws.getWaitSetId().hashCode() & Integer.MAX_VALUE) % lanes.length].queue.add(task);
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final long queuedAt = System.currentTimeMillis();
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        void run() {
+            runnable.run();
+        }
+    }
+
+    /**
+     * A pending signal for one session, and the changes folded into it.
+     */
+    private final class Signal extends Task {
+        private final WaitSetSession session;
+        private final List<PendingModifications> mods = new ArrayList<PendingModifications>(1);
+        private int changeId;
+        private boolean closed = false;
+
+        Signal(WaitSetSession session, int changeId, PendingModifications pms) {
+            super(null);
+            this.session = session;
+            add(changeId, pms);
+        }
+
+        /** @return false if the signal is already being delivered */
+        synchronized boolean add(int changeId, PendingModifications pms) {
+            if (closed) {
+                return false;
+            }
+            this.changeId = Math.max(this.changeId, changeId);
+            if (pms != null) {
+                mods.add(pms);
+            }
+            return true;
+        }
+
+        @Override
+        void run() {
+            pending.remove(session, this);
+            synchronized (this) {
+                closed = true;
+            }
+            // the client may have caught up while the signal was queued
+            if (session.mSyncToken != null && session.mSyncToken.after(changeId)) {
+                return;
+            }
+            session.mWs.signalDataReady(session, mods);
+        }
+    }
+
+    private final class Lane implements Runnable {
+        final BlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queued.decrementAndGet();
+                ZimbraPerf.HISTOGRAM_WAITSET_NOTIFY_LAG.increment(System.currentTimeMillis() - task.queuedAt);
+                try {
+                    task.run();
+                } catch (OutOfMemoryError e) {
+                    Zimbra.halt("out of memory", e);
+                } catch (Throwable t) {
+                    ZimbraLog.session.warn("error delivering waitset notification", t);
+                }
+            }
+        }
+    }
+}
@@ -17,12 +17,12 @@
 package com.zimbra.cs.session;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.zimbra.common.account.Key;
 import com.zimbra.common.localconfig.LC;
@@ -64,9 +64,22 @@ public class WaitSetMgr {
         }
     };
 
-    private static final HashMap<String, WaitSetBase> sWaitSets = new HashMap<String, WaitSetBase>();
+    /**
+     * Lookups by waitset ID take no lock.  Changes to the waitsets of one owner account are made under that owner's
+     * stripe lock, which is always taken before any WaitSet lock.
+     */
+    private static final ConcurrentMap<String, WaitSetBase> sWaitSets = new ConcurrentHashMap<String, WaitSetBase>();
 
-    private static final HashMap<String /*AccountId*/, List<String /*WaitSetId*/>> sWaitSetsByAccountId = new HashMap<String, List<String>>();
+    /** owner account ID -> IDs of its waitsets; each list is guarded by the owner's stripe lock */
+    private static final ConcurrentMap<String /*AccountId*/, List<String /*WaitSetId*/>> sWaitSetsByAccountId =
+            new ConcurrentHashMap<String, List<String>>();
+
+    private static final Object[] sOwnerLocks = new Object[64];
+    static {
+        for (int i = 0; i < sOwnerLocks.length; i++) {
+            sOwnerLocks[i] = new Object();
+        }
+    }
 
     private static final int WAITSET_SWEEP_DELAY = 1000 * 60; // once every minute
 
@@ -113,7 +126,7 @@ public class WaitSetMgr {
             ws = sws;
         }
 
-        synchronized(sWaitSets) {
+        synchronized(ownerLock(ownerAccountId)) {
             if (!allowMultiple) {
                 List<String> list = sWaitSetsByAccountId.get(ownerAccountId);
                 if (list != null) {
@@ -123,26 +136,25 @@ public class WaitSetMgr {
                         String oldestId = null;
                         for (String wsid : list) {
                             WaitSetBase existingWs = lookupInternal(wsid);
+                            if (existingWs == null) {
+                                continue;
+                            }
                             long time = existingWs.getLastAccessedTime();
                             if (time < oldestTime) {
                                 oldestTime = time;
                                 oldestId = wsid;
                             }
                         }
-                        destroy(null, ownerAccountId, oldestId);
+                        if (oldestId != null) {
+                            destroy(null, ownerAccountId, oldestId);
+                        }
                     }
                 }
             }
 
             // bookkeeping: update access time, add to static wait set maps
             ws.setLastAccessedTime(System.currentTimeMillis());
-            sWaitSets.put(id, ws);
-            List<String> list = sWaitSetsByAccountId.get(ownerAccountId);
-            if (list == null) {
-                list = new ArrayList<String>();
-                sWaitSetsByAccountId.put(ownerAccountId, list);
-            }
-            list.add(id);
+            register(id, ws);
 
             // return!
             return new Pair<String, List<WaitSetError>>(id, errors);
@@ -159,39 +171,33 @@ public class WaitSetMgr {
      * @throws ServiceException
      */
     public static void destroy(ZimbraSoapContext zsc, String requestingAcctId, String id) throws ServiceException {
-        synchronized(sWaitSets) {
-            WaitSetBase ws = lookupInternal(id);
-            if (ws == null) {
-                throw MailServiceException.NO_SUCH_WAITSET(id);
-            }
-            assert(!Thread.holdsLock(ws));
-
-            // skip permission checking if zsc is null
-            if (zsc != null) {
-                if (id.startsWith(WaitSetMgr.ALL_ACCOUNTS_ID_PREFIX)) {
-                    checkRightForAllAccounts(zsc);
-                } else {
-                    checkRightForOwnerAccount(ws, requestingAcctId);
-                }
+        WaitSetBase ws = lookupInternal(id);
+        if (ws == null) {
+            throw MailServiceException.NO_SUCH_WAITSET(id);
+        }
+        assert(!Thread.holdsLock(ws));
+
+        // skip permission checking if zsc is null
+        if (zsc != null) {
+            if (id.startsWith(WaitSetMgr.ALL_ACCOUNTS_ID_PREFIX)) {
+                checkRightForAllAccounts(zsc);
+            } else {
+                checkRightForOwnerAccount(ws, requestingAcctId);
             }
+        }
 
-            //remove from the by-id map
-            List<String> list = sWaitSetsByAccountId.get(ws.getOwnerAccountId());
-            assert(list != null);
-            list.remove(id);
-            if (list.size() == 0) {
-                sWaitSetsByAccountId.remove(ws.getOwnerAccountId());
+        synchronized(ownerLock(ws.getOwnerAccountId())) {
+            if (!unregister(id, ws)) {
+                // destroyed concurrently
+                throw MailServiceException.NO_SUCH_WAITSET(id);
             }
+        }
 
-            // remove the wait set
-            sWaitSets.remove(id);
-
-            Map<String, WaitSetAccount> toCleanup = ws.destroy();
-            if (toCleanup != null) {
-                assert(!Thread.holdsLock(ws));
-                for (WaitSetAccount wsa: toCleanup.values()) {
-                    wsa.cleanupSession();
-                }
+        Map<String, WaitSetAccount> toCleanup = ws.destroy();
+        if (toCleanup != null) {
+            assert(!Thread.holdsLock(ws));
+            for (WaitSetAccount wsa: toCleanup.values()) {
+                wsa.cleanupSession();
             }
         }
     }
@@ -218,10 +224,10 @@ public class WaitSetMgr {
      */
     public static IWaitSet lookupOrCreateForAllAccts(String ownerAccountId, String id,
             Set<MailItem.Type> defaultInterests, String lastKnownSeqNo) throws ServiceException {
-        synchronized(sWaitSets) {
-            if (!id.startsWith(ALL_ACCOUNTS_ID_PREFIX)) {
-                throw ServiceException.INVALID_REQUEST("Called WaitSetMgr.lookupOrCreate but wasn't an 'All-' waitset ID", null);
-            }
+        if (!id.startsWith(ALL_ACCOUNTS_ID_PREFIX)) {
+            throw ServiceException.INVALID_REQUEST("Called WaitSetMgr.lookupOrCreate but wasn't an 'All-' waitset ID", null);
+        }
+        synchronized(ownerLock(ownerAccountId)) {
 
             IWaitSet toRet = lookup(id);
             if (toRet == null) {
@@ -231,14 +237,7 @@ public class WaitSetMgr {
                 ws.setLastAccessedTime(System.currentTimeMillis());
 
                 // add the set to the two hashmaps
-                sWaitSets.put(id, ws);
-                List<String> list = sWaitSetsByAccountId.get(ownerAccountId);
-                if (list == null) {
-                    list = new ArrayList<String>();
-                    sWaitSetsByAccountId.put(ownerAccountId, list);
-                }
-                list.add(id);
-
+                register(id, ws);
             }
             assert(toRet instanceof AllAccountsWaitSet);
             return toRet;
@@ -255,25 +254,54 @@ public class WaitSetMgr {
     }
 
     public static List<IWaitSet> getAll() {
-        synchronized(sWaitSets) {
-            List<IWaitSet> toRet = new ArrayList<IWaitSet>(sWaitSets.size());
-            toRet.addAll(sWaitSets.values());
-            return toRet;
-        }
+        return new ArrayList<IWaitSet>(sWaitSets.values());
     }
 
 
     private static WaitSetBase lookupInternal(String id) {
-        synchronized(sWaitSets) {
-            WaitSetBase toRet = sWaitSets.get(id);
-            if (toRet != null) {
-                assert(!Thread.holdsLock(toRet));
-                synchronized(toRet) {
-                    toRet.setLastAccessedTime(System.currentTimeMillis());
-                }
+        WaitSetBase toRet = sWaitSets.get(id);
+        if (toRet != null) {
+            assert(!Thread.holdsLock(toRet));
+            synchronized(toRet) {
+                toRet.setLastAccessedTime(System.currentTimeMillis());
             }
-            return toRet;
         }
+        return toRet;
+    }
+
+    private static Object ownerLock(String ownerAccountId) {
+        return sOwnerLocks[(ownerAccountId.hashCode() & Integer.MAX_VALUE) % sOwnerLocks.length];
+    }
+
+    /** Adds the waitset to both maps.  Caller must hold the owner's stripe lock. */
+    private static void register(String id, WaitSetBase ws) {
+        assert(Thread.holdsLock(ownerLock(ws.getOwnerAccountId())));
+        sWaitSets.put(id, ws);
+        List<String> list = sWaitSetsByAccountId.get(ws.getOwnerAccountId());
+        if (list == null) {
+            list = new ArrayList<String>();
+            sWaitSetsByAccountId.put(ws.getOwnerAccountId(), list);
+        }
+        list.add(id);
+    }
+
+    /**
+     * Removes the waitset from both maps.  Caller must hold the owner's stripe lock.
+     *
+     * @return false if the ID is no longer mapped to this waitset
+     */
+    private static boolean unregister(String id, WaitSetBase ws) {
+        assert(Thread.holdsLock(ownerLock(ws.getOwnerAccountId())));
+        if (!sWaitSets.remove(id, ws)) {
+            return false;
+        }
+        List<String> list = sWaitSetsByAccountId.get(ws.getOwnerAccountId());
+        assert(list != null);
+        list.remove(id);
+        if (list.size() == 0) {
+            sWaitSetsByAccountId.remove(ws.getOwnerAccountId());
+        }
+        return true;
     }
 
     /**
@@ -284,31 +312,22 @@ public class WaitSetMgr {
         int activeSessions = 0;
         int removed = 0;
         int withCallback = 0;
-        synchronized(sWaitSets) {
-            ZimbraLog.session.debug("active waitset timeout = %d ms", WAITSET_TIMEOUT);
-            long cutoffTime = System.currentTimeMillis() - WAITSET_TIMEOUT;
+        ZimbraLog.session.debug("active waitset timeout = %d ms", WAITSET_TIMEOUT);
+        long cutoffTime = System.currentTimeMillis() - WAITSET_TIMEOUT;
 
-            for (Iterator<WaitSetBase> iter = sWaitSets.values().iterator(); iter.hasNext();) {
-                WaitSetBase ws = iter.next();
-                assert(!Thread.holdsLock(ws)); // must never lock WS before sWaitSets or deadlock
+        for (WaitSetBase ws : sWaitSets.values()) {
+            assert(!Thread.holdsLock(ws)); // must never lock WS before the owner stripe or deadlock
 
-                Map<String, WaitSetAccount> toCleanup = null;
+            Map<String, WaitSetAccount> toCleanup = null;
 
+            synchronized(ownerLock(ws.getOwnerAccountId())) {
                 synchronized(ws) {
                     // only timeout if no cb AND if not accessed for a timeout
                     if (ws.getCb() == null && ws.getLastAccessedTime() < cutoffTime) {
-                        //remove from the by-id map
-                        List<String> list = sWaitSetsByAccountId.get(ws.getOwnerAccountId());
-                        assert(list != null);
-                        list.remove(ws.getWaitSetId());
-                        if (list.size() == 0) {
-                            sWaitSetsByAccountId.remove(ws.getOwnerAccountId());
+                        if (unregister(ws.getWaitSetId(), ws)) {
+                            toCleanup = ws.destroy();
+                            removed++;
                         }
-
-                        // remove
-                        iter.remove();
-                        toCleanup = ws.destroy();
-                        removed++;
                     } else {
                         if (ws.getCb() != null) {
                             withCallback++;
@@ -317,13 +336,13 @@ public class WaitSetMgr {
                         activeSessions+=ws.countSessions();
                     }
                 }
+            }
 
-                // cleanup w/o WaitSet lock held
-                if (toCleanup != null) {
-                    assert(!Thread.holdsLock(ws));
-                    for (WaitSetAccount wsa : toCleanup.values()) {
-                        wsa.cleanupSession();
-                    }
+            // cleanup w/o WaitSet lock held
+            if (toCleanup != null) {
+                assert(!Thread.holdsLock(ws));
+                for (WaitSetAccount wsa : toCleanup.values()) {
+                    wsa.cleanupSession();
                 }
             }
         }
@@ -338,13 +357,11 @@ public class WaitSetMgr {
     }
 
     public static boolean isMonitoringFolderForImap(String accountId, int folderId) {
-        synchronized(sWaitSets) {
-            for (IWaitSet ws : sWaitSets.values()) {
-                if (ws instanceof SomeAccountsWaitSet) {
-                    SomeAccountsWaitSet saWs = (SomeAccountsWaitSet) ws;
-                    if (saWs.isMonitoringFolder(accountId, folderId)) {
-                        return true;
-                    }
+        for (IWaitSet ws : sWaitSets.values()) {
+            if (ws instanceof SomeAccountsWaitSet) {
+                SomeAccountsWaitSet saWs = (SomeAccountsWaitSet) ws;
+                if (saWs.isMonitoringFolder(accountId, folderId)) {
+                    return true;
                 }
             }
         }
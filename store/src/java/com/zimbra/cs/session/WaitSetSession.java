@@ -139,7 +139,7 @@ public class WaitSetSession extends Session {
         if (trace) {
             ZimbraLog.session.trace("Signaling waitset");
         }
-        mWs.signalDataReady(this, pns);
+        WaitSetDispatcher.getInstance().signal(this, changeId, pns);
         if (trace) {
             ZimbraLog.session.trace("WaitSetSession.notifyPendingChanges done");
         }
@@ -24,7 +24,11 @@ import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.PermissionCache;
 import com.zimbra.cs.account.ldap.LdapProv;
+import com.zimbra.cs.mailbox.IndexingPipeline;
+import com.zimbra.cs.mailbox.ItemOverflowCache;
 import com.zimbra.cs.mailbox.MessageCache;
+import com.zimbra.cs.session.SoapSession;
+import com.zimbra.cs.session.WaitSetDispatcher;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.FileDescriptorCache;
 
@@ -35,6 +39,12 @@ public class ServerStatsCallback implements RealtimeStatsCallback {
         Map<String, Object> data = new HashMap<String, Object>();
         data.put(ZimbraPerf.RTS_MBOX_CACHE_SIZE, ZimbraPerf.getMailboxCacheSize());
         data.put(ZimbraPerf.RTS_MSG_CACHE_SIZE, MessageCache.getSize());
+        data.put(ZimbraPerf.RTS_MSG_CACHE_DATA_SIZE, MessageCache.getDataSize());
+        data.put(ZimbraPerf.RTS_ITEM_OVERFLOW_SIZE, ItemOverflowCache.getSize());
+        data.put(ZimbraPerf.RTS_ITEM_OVERFLOW_DATA_SIZE, ItemOverflowCache.getDataSize());
+        data.put(ZimbraPerf.RTS_INDEX_QUEUE_SIZE, IndexingPipeline.getQueueSize());
+        data.put(ZimbraPerf.RTS_WAITSET_NOTIFY_QUEUE_SIZE, WaitSetDispatcher.getQueueSize());
+        data.put(ZimbraPerf.RTS_SOAP_NOTIFY_QUEUE_SIZE, SoapSession.getPushQueueSize());
         
         FileDescriptorCache fdc = BlobInputStream.getFileDescriptorCache();
         data.put(ZimbraPerf.RTS_FD_CACHE_SIZE, fdc.getSize());
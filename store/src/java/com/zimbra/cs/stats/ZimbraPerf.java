@@ -40,6 +40,8 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.Histogram;
+import com.zimbra.common.stats.HistogramCalculator;
 import com.zimbra.common.stats.RealtimeStats;
 import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.common.stats.StatsDumper;
@@ -112,6 +114,24 @@ public class ZimbraPerf {
     @Description("Number of message structures cached in memory")
     public static final String RTS_MSG_CACHE_SIZE = "msg_cache_size";
 
+    @Description("Number of bytes of message data held in memory by the message cache")
+    public static final String RTS_MSG_CACHE_DATA_SIZE = "msg_cache_data_size";
+
+    @Description("Number of mail items held off-heap by the overflow item cache")
+    public static final String RTS_ITEM_OVERFLOW_SIZE = "item_overflow_size";
+
+    @Description("Number of bytes of direct memory held by the overflow item cache")
+    public static final String RTS_ITEM_OVERFLOW_DATA_SIZE = "item_overflow_data_size";
+
+    @Description("Number of mailboxes waiting in the indexing pipeline")
+    public static final String RTS_INDEX_QUEUE_SIZE = "index_queue_size";
+
+    @Description("Number of waitset notifications waiting to be delivered")
+    public static final String RTS_WAITSET_NOTIFY_QUEUE_SIZE = "waitset_notify_queue_size";
+
+    @Description("Number of SOAP sessions waiting for their push channel to be woken up")
+    public static final String RTS_SOAP_NOTIFY_QUEUE_SIZE = "soap_notify_queue_size";
+
     @Description("Number of open file descriptors that reference message content")
     public static final String RTS_FD_CACHE_SIZE = "fd_cache_size";
 
@@ -178,12 +198,17 @@ public class ZimbraPerf {
     public static final Counter COUNTER_LMTP_DLVD_MSGS = new Counter();
     public static final Counter COUNTER_LMTP_DLVD_BYTES = new Counter();
     public static final StopWatch STOPWATCH_DB_CONN = new StopWatch();
+    public static final Histogram HISTOGRAM_DB_POOL_WAIT = new Histogram();  // ms waiting on the pool itself
+    public static final Histogram HISTOGRAM_DB_CONN_HOLD = new Histogram();  // ms from getting to closing a connection
+    public static final Counter COUNTER_DB_POOL_EXHAUSTED = new Counter();
     public static final StopWatch STOPWATCH_LDAP_DC = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_ADD_MSG = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_GET = new StopWatch();         // Mailbox accessor response time
     public static final Counter COUNTER_MBOX_CACHE = new Counter();           // Mailbox cache hit rate
     public static final Counter COUNTER_MBOX_MSG_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_EVICTION = new Counter();
     public static final Counter COUNTER_MBOX_ITEM_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_ITEM_OVERFLOW = new Counter();  // overflow hit rate on item cache misses
     public static final StopWatch STOPWATCH_SOAP = new StopWatch();
     public static final StopWatch STOPWATCH_IMAP = new StopWatch();
     public static final StopWatch STOPWATCH_POP = new StopWatch();
@@ -198,6 +223,22 @@ public class ZimbraPerf {
     public static final Counter COUNTER_BLOB_INPUT_STREAM_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_SEEK_RATE = new Counter();
     public static final StopWatch STOPWATCH_EWS = new StopWatch();
+    public static final Histogram HISTOGRAM_MBOX_DLOCK_WAIT = new Histogram();  // distributed mailbox lock contention
+    public static final Histogram HISTOGRAM_MBOX_DLOCK_HOLD = new Histogram();
+    public static final Counter COUNTER_MBOX_DLOCK_READ_LEASE = new Counter();  // distributed read lease hit rate
+    public static final Histogram HISTOGRAM_REDO_BATCH_SIZE = new Histogram();  // redo log records per group commit
+    public static final Histogram HISTOGRAM_REDO_COMMIT_LATENCY = new Histogram();  // microseconds
+    public static final Counter COUNTER_BLOB_DEDUP = new Counter();  // inline blob dedup hit rate
+    public static final Counter COUNTER_BLOB_DEDUP_BYTES_SAVED = new Counter();
+    public static final Histogram HISTOGRAM_LMTP_FANOUT_LATENCY = new Histogram();  // multi-recipient local delivery
+    public static final Counter COUNTER_INDEX_QUEUE_REJECTED = new Counter();  // indexing pipeline backpressure
+    public static final Counter COUNTER_INDEX_WRITE_STALL = new Counter();  // ms parsers waited on writers
+    public static final Histogram HISTOGRAM_INDEX_QUEUE_WAIT = new Histogram();
+    public static final Histogram HISTOGRAM_INDEX_WRITE_BATCH = new Histogram();  // items per index commit
+    public static final Histogram HISTOGRAM_WAITSET_NOTIFY_LAG = new Histogram();  // ms from commit to delivery
+    public static final Counter COUNTER_WAITSET_NOTIFY_COALESCED = new Counter();
+    public static final Histogram HISTOGRAM_SOAP_NOTIFY_LAG = new Histogram();  // ms from commit to push
+    public static final Counter COUNTER_SOAP_NOTIFY_COALESCED = new Counter();
 
     public static final ActivityTracker SOAP_TRACKER = new ActivityTracker("soap.csv");
     public static final ActivityTracker IMAP_TRACKER = new ActivityTracker("imap.csv");
@@ -219,7 +260,9 @@ public class ZimbraPerf {
             RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS,
             RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS,
             RTS_HTTP_IDLE_THREADS, RTS_HTTP_THREADS, RTS_SOAP_SESSIONS,
-            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE,
+            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE, RTS_MSG_CACHE_DATA_SIZE,
+            RTS_ITEM_OVERFLOW_SIZE, RTS_ITEM_OVERFLOW_DATA_SIZE,
+            RTS_INDEX_QUEUE_SIZE, RTS_WAITSET_NOTIFY_QUEUE_SIZE, RTS_SOAP_NOTIFY_QUEUE_SIZE,
             RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE,
             RTS_ACL_CACHE_HIT_RATE,
             RTS_ACCOUNT_CACHE_SIZE, RTS_ACCOUNT_CACHE_HIT_RATE,
@@ -258,6 +301,18 @@ public class ZimbraPerf {
     @Description("Average latency (ms) of getting a database connection from the pool")
     private static final String DC_DB_CONN_MS_AVG = "db_conn_ms_avg";
 
+    @Description("99th percentile time (ms) spent waiting for the database connection pool")
+    private static final String DC_DB_POOL_WAIT_MS_P99 = "db_pool_wait_ms_p99";
+
+    @Description("Average time (ms) a database connection was held before being returned to the pool")
+    private static final String DC_DB_CONN_HOLD_MS_AVG = "db_conn_hold_ms_avg";
+
+    @Description("99th percentile time (ms) a database connection was held before being returned to the pool")
+    private static final String DC_DB_CONN_HOLD_MS_P99 = "db_conn_hold_ms_p99";
+
+    @Description("Number of times that the database connection pool was exhausted when a connection was requested")
+    private static final String DC_DB_POOL_EXHAUSTED = "db_pool_exhausted";
+
     @Description("Number of times that the server got an LDAP directory context")
     private static final String DC_LDAP_DC_COUNT = "ldap_dc_count";
 
@@ -282,9 +337,15 @@ public class ZimbraPerf {
     @Description("Message cache hit rate")
     private static final String DC_MBOX_MSG_CACHE = "mbox_msg_cache";
 
+    @Description("Number of message structures evicted from the message cache")
+    private static final String DC_MBOX_MSG_CACHE_EVICTIONS = "mbox_msg_cache_evictions";
+
     @Description("Item cache hit rate")
     private static final String DC_MBOX_ITEM_CACHE = "mbox_item_cache";
 
+    @Description("Percentage of item cache misses served from the off-heap overflow item cache")
+    private static final String DC_MBOX_ITEM_OVERFLOW = "mbox_item_overflow";
+
     @Description("Number of SOAP requests received")
     private static final String DC_SOAP_COUNT = "soap_count";
 
@@ -339,6 +400,90 @@ public class ZimbraPerf {
     @Description("Number of calendars (folders) in the calendar summary cache LRU in Java heap")
     private static final String DC_CALCACHE_LRU_SIZE = "calcache_lru_size";
 
+    @Description("Number of times that the server acquired a distributed mailbox lock")
+    private static final String DC_MBOX_DLOCK_WAIT_COUNT = "mbox_dlock_wait_count";
+
+    @Description("Average latency (ms) of acquiring a distributed mailbox lock")
+    private static final String DC_MBOX_DLOCK_WAIT_MS_AVG = "mbox_dlock_wait_ms_avg";
+
+    @Description("99th percentile latency (ms) of acquiring a distributed mailbox lock")
+    private static final String DC_MBOX_DLOCK_WAIT_MS_P99 = "mbox_dlock_wait_ms_p99";
+
+    @Description("Average time (ms) a distributed mailbox lock was held")
+    private static final String DC_MBOX_DLOCK_HOLD_MS_AVG = "mbox_dlock_hold_ms_avg";
+
+    @Description("99th percentile time (ms) a distributed mailbox lock was held")
+    private static final String DC_MBOX_DLOCK_HOLD_MS_P99 = "mbox_dlock_hold_ms_p99";
+
+    @Description("Percentage of distributed mailbox read locks served from a locally cached lease")
+    private static final String DC_MBOX_DLOCK_READ_LEASE = "mbox_dlock_read_lease";
+
+    @Description("Number of redo log group commits")
+    private static final String DC_REDO_BATCH_COUNT = "redo_batch_count";
+
+    @Description("Average number of redo log records written per group commit")
+    private static final String DC_REDO_BATCH_SIZE_AVG = "redo_batch_size_avg";
+
+    @Description("99th percentile number of redo log records written per group commit")
+    private static final String DC_REDO_BATCH_SIZE_P99 = "redo_batch_size_p99";
+
+    @Description("Median latency (us) of a synchronous redo log write, including fsync")
+    private static final String DC_REDO_COMMIT_US_P50 = "redo_commit_us_p50";
+
+    @Description("99th percentile latency (us) of a synchronous redo log write, including fsync")
+    private static final String DC_REDO_COMMIT_US_P99 = "redo_commit_us_p99";
+
+    @Description("Percentage of delivered blobs that were hard linked to an existing copy instead of stored again")
+    private static final String DC_BLOB_DEDUP = "blob_dedup";
+
+    @Description("Number of bytes of blob storage saved by hard linking delivered blobs to existing copies")
+    private static final String DC_BLOB_DEDUP_BYTES_SAVED = "blob_dedup_bytes_saved";
+
+    @Description("Number of LMTP messages delivered to more than one local recipient")
+    private static final String DC_LMTP_FANOUT_COUNT = "lmtp_fanout_count";
+
+    @Description("Median time (ms) to deliver an LMTP message to all of its local recipients")
+    private static final String DC_LMTP_FANOUT_MS_P50 = "lmtp_fanout_ms_p50";
+
+    @Description("99th percentile time (ms) to deliver an LMTP message to all of its local recipients")
+    private static final String DC_LMTP_FANOUT_MS_P99 = "lmtp_fanout_ms_p99";
+
+    @Description("Number of mailboxes turned away because the indexing pipeline queue was full")
+    private static final String DC_INDEX_QUEUE_REJECTED = "index_queue_rejected";
+
+    @Description("99th percentile time (ms) a mailbox waited in the indexing pipeline queue")
+    private static final String DC_INDEX_QUEUE_WAIT_MS_P99 = "index_queue_wait_ms_p99";
+
+    @Description("Accumulated time (ms) indexing pipeline parsers waited for the index writers to catch up")
+    private static final String DC_INDEX_WRITE_STALL_MS = "index_write_stall_ms";
+
+    @Description("Number of index commits made by the indexing pipeline")
+    private static final String DC_INDEX_WRITE_COUNT = "index_write_count";
+
+    @Description("Average number of items per index commit made by the indexing pipeline")
+    private static final String DC_INDEX_WRITE_BATCH_AVG = "index_write_batch_avg";
+
+    @Description("Number of waitset notifications delivered")
+    private static final String DC_WAITSET_NOTIFY_COUNT = "waitset_notify_count";
+
+    @Description("Median time (ms) a waitset notification waited to be delivered")
+    private static final String DC_WAITSET_NOTIFY_LAG_MS_P50 = "waitset_notify_lag_ms_p50";
+
+    @Description("99th percentile time (ms) a waitset notification waited to be delivered")
+    private static final String DC_WAITSET_NOTIFY_LAG_MS_P99 = "waitset_notify_lag_ms_p99";
+
+    @Description("Percentage of waitset signals folded into a signal that was already queued")
+    private static final String DC_WAITSET_NOTIFY_COALESCED = "waitset_notify_coalesced";
+
+    @Description("Number of SOAP session pushes made off the committing thread")
+    private static final String DC_SOAP_NOTIFY_COUNT = "soap_notify_count";
+
+    @Description("99th percentile time (ms) a SOAP session push waited to be made")
+    private static final String DC_SOAP_NOTIFY_LAG_MS_P99 = "soap_notify_lag_ms_p99";
+
+    @Description("Percentage of SOAP session changes folded into a push that was already queued")
+    private static final String DC_SOAP_NOTIFY_COALESCED = "soap_notify_coalesced";
+
     private static CopyOnWriteArrayList<Accumulator> sAccumulators = null;
 
     private static final long CSV_DUMP_FREQUENCY = Constants.MILLIS_PER_MINUTE;
@@ -471,6 +616,11 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_LMTP_DLVD_BYTES).setTotalName(DC_LMTP_DLVD_BYTES),
                             new DeltaCalculator(STOPWATCH_DB_CONN).setCountName(DC_DB_CONN_COUNT)
                                     .setAverageName(DC_DB_CONN_MS_AVG),
+                            new HistogramCalculator(HISTOGRAM_DB_POOL_WAIT)
+                                    .addPercentileName(0.99, DC_DB_POOL_WAIT_MS_P99),
+                            new HistogramCalculator(HISTOGRAM_DB_CONN_HOLD).setAverageName(DC_DB_CONN_HOLD_MS_AVG)
+                                    .addPercentileName(0.99, DC_DB_CONN_HOLD_MS_P99),
+                            new DeltaCalculator(COUNTER_DB_POOL_EXHAUSTED).setTotalName(DC_DB_POOL_EXHAUSTED),
                             new DeltaCalculator(STOPWATCH_LDAP_DC).setCountName(DC_LDAP_DC_COUNT)
                                     .setAverageName(DC_LDAP_DC_MS_AVG),
                             new DeltaCalculator(STOPWATCH_MBOX_ADD_MSG).setCountName(DC_MBOX_ADD_MSG_COUNT)
@@ -479,7 +629,10 @@ public class ZimbraPerf {
                                     .setAverageName(DC_MBOX_GET_MS_AVG),
                             new DeltaCalculator(COUNTER_MBOX_CACHE).setAverageName(DC_MBOX_CACHE),
                             new DeltaCalculator(COUNTER_MBOX_MSG_CACHE).setAverageName(DC_MBOX_MSG_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_EVICTION)
+                                    .setCountName(DC_MBOX_MSG_CACHE_EVICTIONS),
                             new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE).setAverageName(DC_MBOX_ITEM_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_ITEM_OVERFLOW).setAverageName(DC_MBOX_ITEM_OVERFLOW),
                             new DeltaCalculator(STOPWATCH_SOAP).setCountName(DC_SOAP_COUNT)
                                     .setAverageName(DC_SOAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_IMAP).setCountName(DC_IMAP_COUNT)
@@ -503,6 +656,39 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_READ).setTotalName(DC_BIS_READ),
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_SEEK_RATE)
                                     .setAverageName(DC_BIS_SEEK_RATE),
+                            new HistogramCalculator(HISTOGRAM_MBOX_DLOCK_WAIT).setCountName(DC_MBOX_DLOCK_WAIT_COUNT)
+                                    .setAverageName(DC_MBOX_DLOCK_WAIT_MS_AVG)
+                                    .addPercentileName(0.99, DC_MBOX_DLOCK_WAIT_MS_P99),
+                            new HistogramCalculator(HISTOGRAM_MBOX_DLOCK_HOLD)
+                                    .setAverageName(DC_MBOX_DLOCK_HOLD_MS_AVG)
+                                    .addPercentileName(0.99, DC_MBOX_DLOCK_HOLD_MS_P99),
+                            new DeltaCalculator(COUNTER_MBOX_DLOCK_READ_LEASE).setAverageName(DC_MBOX_DLOCK_READ_LEASE),
+                            new HistogramCalculator(HISTOGRAM_REDO_BATCH_SIZE).setCountName(DC_REDO_BATCH_COUNT)
+                                    .setAverageName(DC_REDO_BATCH_SIZE_AVG)
+                                    .addPercentileName(0.99, DC_REDO_BATCH_SIZE_P99),
+                            new HistogramCalculator(HISTOGRAM_REDO_COMMIT_LATENCY)
+                                    .addPercentileName(0.5, DC_REDO_COMMIT_US_P50)
+                                    .addPercentileName(0.99, DC_REDO_COMMIT_US_P99),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUP).setAverageName(DC_BLOB_DEDUP),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUP_BYTES_SAVED).setTotalName(DC_BLOB_DEDUP_BYTES_SAVED),
+                            new HistogramCalculator(HISTOGRAM_LMTP_FANOUT_LATENCY).setCountName(DC_LMTP_FANOUT_COUNT)
+                                    .addPercentileName(0.5, DC_LMTP_FANOUT_MS_P50)
+                                    .addPercentileName(0.99, DC_LMTP_FANOUT_MS_P99),
+                            new DeltaCalculator(COUNTER_INDEX_QUEUE_REJECTED).setTotalName(DC_INDEX_QUEUE_REJECTED),
+                            new HistogramCalculator(HISTOGRAM_INDEX_QUEUE_WAIT)
+                                    .addPercentileName(0.99, DC_INDEX_QUEUE_WAIT_MS_P99),
+                            new DeltaCalculator(COUNTER_INDEX_WRITE_STALL).setTotalName(DC_INDEX_WRITE_STALL_MS),
+                            new HistogramCalculator(HISTOGRAM_INDEX_WRITE_BATCH).setCountName(DC_INDEX_WRITE_COUNT)
+                                    .setAverageName(DC_INDEX_WRITE_BATCH_AVG),
+                            new HistogramCalculator(HISTOGRAM_WAITSET_NOTIFY_LAG).setCountName(DC_WAITSET_NOTIFY_COUNT)
+                                    .addPercentileName(0.5, DC_WAITSET_NOTIFY_LAG_MS_P50)
+                                    .addPercentileName(0.99, DC_WAITSET_NOTIFY_LAG_MS_P99),
+                            new DeltaCalculator(COUNTER_WAITSET_NOTIFY_COALESCED)
+                                    .setAverageName(DC_WAITSET_NOTIFY_COALESCED),
+                            new HistogramCalculator(HISTOGRAM_SOAP_NOTIFY_LAG).setCountName(DC_SOAP_NOTIFY_COUNT)
+                                    .addPercentileName(0.99, DC_SOAP_NOTIFY_LAG_MS_P99),
+                            new DeltaCalculator(COUNTER_SOAP_NOTIFY_COALESCED)
+                                    .setAverageName(DC_SOAP_NOTIFY_COALESCED),
                             realtimeStats
                     }
                 );
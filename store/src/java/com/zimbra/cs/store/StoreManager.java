@@ -18,9 +18,21 @@ package com.zimbra.cs.store;
 
 import java.io.IOException;
 import java.io.InputStream;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
@@ -400,6 +412,150 @@ public abstract class StoreManager {
      */
     public abstract InputStream getContent(Blob blob) throws IOException;
 
+    /**
+     * Opens a channel over the stored bytes of the blob, if they are the blob's content as is (e.g. not compressed),
+     * so that callers can send them with {@link FileChannel#transferTo} or map them instead of copying them through
+     * {@link #getContent(MailboxBlob)}.  Caller should close the channel when done.
+     *
+     * @return the channel, or {@code null} if the store can't provide one for this blob
+     */
+    public FileChannel openRawContentChannel(MailboxBlob mboxBlob) throws IOException {
+        return null;
+    }
+
+    /**
+     * Asynchronously writes the content of the blob to a channel in blocking mode.
+     *
+     * @return a future for the number of bytes written
+     */
+    public CompletableFuture<Long> transferContent(final MailboxBlob mboxBlob, final WritableByteChannel target) {
+        checkBlocking(target);
+        return supplyAsync(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return copyContent(mboxBlob, target);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously writes the content of the blob to an asynchronous channel, e.g. an
+     * {@link java.nio.channels.AsynchronousSocketChannel}.
+     *
+     * @return a future for the number of bytes written
+     */
+    public CompletableFuture<Long> transferContent(final MailboxBlob mboxBlob, final AsynchronousByteChannel target) {
+        return supplyAsync(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException, ExecutionException, InterruptedException {
+                InputStream in = getContent(mboxBlob);
+                try {
+                    ByteBuffer buf = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+                    long total = 0;
+                    int n;
+                    while ((n = in.read(buf.array())) >= 0) {
+                        buf.limit(n);
+                        while (buf.hasRemaining()) {
+                            target.write(buf).get();
+                        }
+                        buf.clear();
+                        total += n;
+                    }
+                    return total;
+                } finally {
+                    ByteUtil.closeStream(in);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #stage(InputStream, long, Mailbox)}.
+     */
+    public CompletableFuture<StagedBlob> stageAsync(final InputStream data, final long actualSize, final Mailbox mbox) {
+        return supplyAsync(new Callable<StagedBlob>() {
+            @Override
+            public StagedBlob call() throws IOException, ServiceException {
+                return stage(data, actualSize, mbox);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #link(StagedBlob, Mailbox, int, int)}.
+     */
+    public CompletableFuture<MailboxBlob> linkAsync(final StagedBlob src, final Mailbox destMbox, final int destMsgId,
+            final int destRevision) {
+        return supplyAsync(new Callable<MailboxBlob>() {
+            @Override
+            public MailboxBlob call() throws IOException, ServiceException {
+                return link(src, destMbox, destMsgId, destRevision);
+            }
+        });
+    }
+
+    protected static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private static final class AsyncExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                LC.zimbra_blob_store_async_threads.intValue(),
+                new ThreadFactoryBuilder().setNameFormat("BlobStoreAsync-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Returns the executor that runs the blocking parts of the asynchronous blob operations.
+     */
+    protected static ExecutorService getAsyncExecutor() {
+        return AsyncExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Runs the task on the {@link #getAsyncExecutor() async executor}.
+     */
+    protected static <T> CompletableFuture<T> supplyAsync(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        getAsyncExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    protected static void checkBlocking(WritableByteChannel target) {
+        if (target instanceof SelectableChannel && !((SelectableChannel) target).isBlocking()) {
+            throw new IllegalArgumentException("channel must be in blocking mode");
+        }
+    }
+
+    /**
+     * Copies the content of the blob to the channel through {@link #getContent(MailboxBlob)}.
+     */
+    protected long copyContent(MailboxBlob mboxBlob, WritableByteChannel target) throws IOException {
+        InputStream in = getContent(mboxBlob);
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            long total = 0;
+            int n;
+            while ((n = in.read(buf.array())) >= 0) {
+                buf.limit(n);
+                while (buf.hasRemaining()) {
+                    target.write(buf);
+                }
+                buf.clear();
+                total += n;
+            }
+            return total;
+        } finally {
+            ByteUtil.closeStream(in);
+        }
+    }
+
     /**
      * Deletes a user's entire store.  SHOULD BE CALLED CAREFULLY.  No going back.
      * @param mbox
@@ -0,0 +1,267 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Bounded map from blob digest to the file of a mailbox blob with that content, kept in memory in LRU order and
+ * persisted as an append-only journal.
+ * <p>
+ * Every record in the journal carries a checksum, and loading stops at (and truncates) the first record that is
+ * incomplete or corrupt, so a crash in the middle of an append costs at most that one entry.  The journal is
+ * compacted by writing the live entries to a temporary file and renaming it over the journal.  Appends are not
+ * fsynced: the index is only a hint, and callers must check an entry with {@link Entry#matches} before using it.
+ */
+final class BlobDigestIndex {
+
+    private static final int MAGIC = 0x42444958;  // "BDIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    static final class Entry {
+        final String path;
+        final long length;
+        final long modified;
+
+        Entry(String path, long length, long modified) {
+            this.path = path;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        Entry(File file) {
+            this(file.getPath(), file.length(), file.lastModified());
+        }
+
+        File getFile() {
+            return new File(path);
+        }
+
+        /** Returns true if the file is still the one that was indexed. */
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == modified && file.isFile();
+        }
+    }
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+    private FileChannel journal;
+    private int journalRecords;
+
+    BlobDigestIndex(File file, final int maxEntries) throws IOException {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        new File(file.getPath() + ".tmp").delete();  // left behind by an interrupted compaction
+        load();
+        openJournal();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized Entry get(String digest) {
+        return entries.get(digest);
+    }
+
+    /**
+     * Indexes the blob file under its digest, unless the digest is already indexed.
+     */
+    synchronized void putIfAbsent(String digest, File blobFile) throws IOException {
+        if (entries.containsKey(digest)) {
+            return;
+        }
+        Entry entry = new Entry(blobFile);
+        entries.put(digest, entry);
+        if (journal == null) {
+            return;
+        }
+        try {
+            append(journal, digest, entry);
+            if (++journalRecords > Math.max(2 * maxEntries, 1000)) {
+                compact();
+            }
+        } catch (IOException e) {
+            // keep going with the in-memory index only
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the entry if it is still mapped to the digest.  Removals are not journaled; the entry may come back
+     * after a restart, and will fail {@link Entry#matches} again.
+     */
+    synchronized void remove(String digest, Entry entry) {
+        if (entries.get(digest) == entry) {
+            entries.remove(digest);
+        }
+    }
+
+    synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                ZimbraLog.store.debug("error closing blob digest index %s", file, e);
+            }
+            journal = null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                ZimbraLog.store.info("discarding blob digest index %s in unknown format", file);
+            } else {
+                validLength = HEADER_LENGTH;
+                byte[] buf = new byte[256];
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    if (buf.length < length) {
+                        buf = new byte[length];
+                    }
+                    in.readFully(buf, 0, length);
+                    crc.reset();
+                    crc.update(buf, 0, length);
+                    if (crc.getValue() != checksum) {
+                        break;
+                    }
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(buf, 0, length));
+                    String digest = record.readUTF();
+                    entries.put(digest, new Entry(record.readUTF(), record.readLong(), record.readLong()));
+                    journalRecords++;
+                    validLength += 8 + length;
+                }
+            }
+        } catch (EOFException e) {
+            // torn final record
+        } finally {
+            in.close();
+        }
+
+        if (validLength < file.length()) {
+            ZimbraLog.store.info("truncating blob digest index %s from %d to %d bytes",
+                    file, file.length(), validLength);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private void openJournal() throws IOException {
+        boolean created = !file.exists() || file.length() == 0;
+        journal = new FileOutputStream(file, true).getChannel();
+        if (created) {
+            writeHeader(journal);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live entries, eldest first so that replaying it restores their LRU order.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileChannel out = new FileOutputStream(tmp).getChannel();
+        try {
+            writeHeader(out);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                append(out, e.getKey(), e.getValue());
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        journal.close();
+        journal = null;
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalRecords = entries.size();
+        openJournal();
+        ZimbraLog.store.debug("compacted blob digest index %s to %d entries", file, journalRecords);
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(channel, header);
+    }
+
+    private static void append(FileChannel channel, String digest, Entry entry) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bout);
+        out.writeUTF(digest);
+        out.writeUTF(entry.path);
+        out.writeLong(entry.length);
+        out.writeLong(entry.modified);
+        byte[] data = bout.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        ByteBuffer record = ByteBuffer.allocate(8 + data.length);
+        record.putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+        writeFully(channel, record);  // one write, so a crash tears at most this record
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
@@ -19,6 +19,19 @@ package com.zimbra.cs.store.file;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.localconfig.LC;
@@ -28,6 +41,7 @@ import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.util.SystemUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobBuilder;
 import com.zimbra.cs.store.BlobInputStream;
@@ -36,6 +50,7 @@ import com.zimbra.cs.store.IncomingDirectory;
 import com.zimbra.cs.store.MailboxBlob;
 import com.zimbra.cs.store.StagedBlob;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.util.IOUtil;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
 import com.zimbra.znative.IO;
@@ -45,6 +60,11 @@ import com.zimbra.znative.IO;
  */
 public final class FileBlobStore extends StoreManager {
     private static final VolumeManager MANAGER = VolumeManager.getInstance();
+    private static final File DEDUP_INDEX_DIR = new File(LC.zimbra_home.value(),
+            "data" + File.separator + "mailboxd" + File.separator + "blobdedup");
+
+    /** Per-volume indexes of recently stored blobs by digest, for inline dedup. */
+    private final ConcurrentMap<Short, BlobDigestIndex> digestIndexes = new ConcurrentHashMap<Short, BlobDigestIndex>();
 
     @Override
     public void startup() throws IOException, ServiceException {
@@ -63,6 +83,10 @@ public final class FileBlobStore extends StoreManager {
     public void shutdown() {
         IncomingDirectory.stopSweeper();
         BlobInputStream.getFileDescriptorCache().shutdown();
+        for (BlobDigestIndex index : digestIndexes.values()) {
+            index.close();
+        }
+        digestIndexes.clear();
     }
 
     @Override
@@ -196,8 +220,14 @@ public final class FileBlobStore extends StoreManager {
     public VolumeMailboxBlob link(StagedBlob src, Mailbox destMbox, int destItemId, int destRevision)
     throws IOException, ServiceException {
         Volume volume = MANAGER.getCurrentMessageVolume();
-        VolumeBlob blob = ((VolumeStagedBlob) src).getLocalBlob();
-        return link(blob, destMbox, destItemId, destRevision, volume.getId());
+        VolumeStagedBlob staged = (VolumeStagedBlob) src;
+        VolumeMailboxBlob deduped = linkToDuplicate(staged, destMbox, destItemId, destRevision, volume);
+        if (deduped != null) {
+            return deduped;
+        }
+        VolumeMailboxBlob mblob = link(staged.getLocalBlob(), destMbox, destItemId, destRevision, volume.getId());
+        indexDigest(staged, mblob, volume);
+        return mblob;
     }
 
     public VolumeMailboxBlob link(Blob src, Mailbox destMbox, int destItemId, int destRevision, short destVolumeId)
@@ -267,13 +297,20 @@ public final class FileBlobStore extends StoreManager {
     public VolumeMailboxBlob renameTo(StagedBlob src, Mailbox destMbox, int destItemId, int destRevision)
     throws IOException, ServiceException {
         Volume volume = MANAGER.getCurrentMessageVolume();
-        VolumeBlob blob = ((VolumeStagedBlob) src).getLocalBlob();
+        VolumeStagedBlob staged = (VolumeStagedBlob) src;
+        VolumeBlob blob = staged.getLocalBlob();
         File srcFile = blob.getFile();
         String srcPath = srcFile.getAbsolutePath();
         if (!srcFile.exists()) {
             throw new IOException(srcFile.getPath() + " does not exist.");
         }
 
+        VolumeMailboxBlob deduped = linkToDuplicate(staged, destMbox, destItemId, destRevision, volume);
+        if (deduped != null) {
+            deleteFile(srcFile);
+            return deduped;
+        }
+
         File destFile = getMailboxBlobFile(destMbox, destItemId, destRevision, volume.getId(), false);
         String destPath = destFile.getAbsolutePath();
         BlobInputStream.getFileDescriptorCache().remove(destPath);  // Prevent stale cache read.
@@ -306,9 +343,113 @@ public final class FileBlobStore extends StoreManager {
         }
 
         VolumeBlob vblob = (VolumeBlob) new VolumeBlob(destFile, volume.getId()).copyCachedDataFrom(blob);
+        VolumeMailboxBlob mblob = new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
+        indexDigest(staged, mblob, volume);
+        return mblob;
+    }
+
+    private static boolean isDedupCandidate(StagedBlob staged) {
+        return LC.zimbra_blob_dedup_inline_enabled.booleanValue() &&
+            staged.getSize() >= LC.zimbra_blob_dedup_min_size.longValue() && staged.getDigest() != null;
+    }
+
+    private BlobDigestIndex getDigestIndex(short volumeId) {
+        BlobDigestIndex index = digestIndexes.get(volumeId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (digestIndexes) {
+            index = digestIndexes.get(volumeId);
+            if (index == null) {
+                try {
+                    ensureDirExists(DEDUP_INDEX_DIR);
+                    index = new BlobDigestIndex(new File(DEDUP_INDEX_DIR, volumeId + ".idx"),
+                            LC.zimbra_blob_dedup_index_size.intValue());
+                } catch (IOException e) {
+                    ZimbraLog.store.warn("unable to open blob digest index for volume %d; inline dedup disabled",
+                            volumeId, e);
+                    return null;
+                }
+                digestIndexes.put(volumeId, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Places a staged blob in the mailbox by hard linking an existing blob on the destination volume that has the
+     * same digest, so that a message delivered separately to many recipients is stored only once.
+     *
+     * @return the new mailbox blob, or {@code null} if no usable duplicate was found and the blob should be
+     *  linked or renamed as usual
+     */
+    private VolumeMailboxBlob linkToDuplicate(VolumeStagedBlob staged, Mailbox destMbox, int destItemId,
+            int destRevision, Volume volume) throws ServiceException {
+        if (!isDedupCandidate(staged)) {
+            return null;
+        }
+        BlobDigestIndex index = getDigestIndex(volume.getId());
+        if (index == null) {
+            return null;
+        }
+        String digest = staged.getDigest();
+        BlobDigestIndex.Entry existing = index.get(digest);
+        if (existing == null) {
+            ZimbraPerf.COUNTER_BLOB_DEDUP.increment(0);
+            return null;
+        }
+        File existingFile = existing.getFile();
+        File dest = getMailboxBlobFile(destMbox, destItemId, destRevision, volume.getId(), false);
+        try {
+            if (!existing.matches(existingFile)) {
+                // deleted, or replaced since it was indexed
+                index.remove(digest, existing);
+                ZimbraPerf.COUNTER_BLOB_DEDUP.increment(0);
+                return null;
+            }
+            if (dest.exists() || Files.isSameFile(existingFile.toPath(), staged.getLocalBlob().getFile().toPath())) {
+                // already shares storage with the duplicate (e.g. another recipient of the same delivery), or
+                // the destination needs to be backed up first
+                return null;
+            }
+            ensureParentDirExists(dest);
+            BlobInputStream.getFileDescriptorCache().remove(dest.getPath());  // Prevent stale cache read.
+            // not IO.link(), which falls back to copying the file
+            Files.createLink(dest.toPath(), existingFile.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the existing file reached the filesystem's hard link limit; the new blob takes its place
+            ZimbraLog.store.debug("unable to link %s to duplicate blob %s", dest, existingFile, e);
+            index.remove(digest, existing);
+            ZimbraPerf.COUNTER_BLOB_DEDUP.increment(0);
+            return null;
+        }
+        ZimbraPerf.COUNTER_BLOB_DEDUP.increment(100);
+        ZimbraPerf.COUNTER_BLOB_DEDUP_BYTES_SAVED.increment(existing.length);
+        ZimbraLog.store.debug("Linked %s to duplicate blob %s for mailbox %d, id %d.",
+                dest, existingFile, destMbox.getId(), destItemId);
+
+        VolumeBlob vblob = (VolumeBlob) new VolumeBlob(dest, volume.getId()).setDigest(digest).setRawSize(staged.getSize());
         return new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
     }
 
+    /**
+     * Makes a newly placed mailbox blob available to {@link #linkToDuplicate} for later deliveries.
+     */
+    private void indexDigest(VolumeStagedBlob staged, VolumeMailboxBlob mblob, Volume volume) {
+        if (!isDedupCandidate(staged)) {
+            return;
+        }
+        BlobDigestIndex index = getDigestIndex(volume.getId());
+        if (index == null) {
+            return;
+        }
+        try {
+            index.putIfAbsent(staged.getDigest(), mblob.getLocalBlob().getFile());
+        } catch (IOException e) {
+            ZimbraLog.store.warn("unable to update blob digest index for volume %d", volume.getId(), e);
+        }
+    }
+
     @Override
     public boolean delete(MailboxBlob mblob) throws IOException {
         if (mblob == null) {
@@ -379,6 +520,138 @@ public final class FileBlobStore extends StoreManager {
         return new BlobInputStream(blob);
     }
 
+    @Override
+    public FileChannel openRawContentChannel(MailboxBlob mboxBlob) throws IOException {
+        if (mboxBlob == null) {
+            return null;
+        }
+        Blob blob = mboxBlob.getLocalBlob();
+        if (blob.isCompressed()) {
+            return null;
+        }
+        return FileChannel.open(blob.getFile().toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Sends uncompressed blobs with {@link FileChannel#transferTo}, which lets the kernel copy the bytes from the
+     * page cache to the target (e.g. a socket) without passing them through the JVM.
+     */
+    @Override
+    public CompletableFuture<Long> transferContent(final MailboxBlob mboxBlob, final WritableByteChannel target) {
+        checkBlocking(target);
+        return supplyAsync(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                FileChannel channel = openRawContentChannel(mboxBlob);
+                if (channel == null) {
+                    return copyContent(mboxBlob, target);
+                }
+                try {
+                    long size = channel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                    return size;
+                } finally {
+                    channel.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads uncompressed blobs with an {@link AsynchronousFileChannel} and chains each read to a write on the
+     * target, so that no thread waits on either side of the transfer.
+     */
+    @Override
+    public CompletableFuture<Long> transferContent(MailboxBlob mboxBlob, AsynchronousByteChannel target) {
+        AsynchronousFileChannel file;
+        try {
+            Blob blob = mboxBlob.getLocalBlob();
+            if (blob.isCompressed()) {
+                return super.transferContent(mboxBlob, target);
+            }
+            file = AsynchronousFileChannel.open(blob.getFile().toPath(),
+                    Collections.singleton(StandardOpenOption.READ), getAsyncExecutor());
+        } catch (IOException e) {
+            CompletableFuture<Long> failed = new CompletableFuture<Long>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return new AsyncTransfer(file, target).start();
+    }
+
+    private static final class AsyncTransfer {
+        private final AsynchronousFileChannel file;
+        private final AsynchronousByteChannel target;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+        private final CompletableFuture<Long> result = new CompletableFuture<Long>();
+        private long position;
+
+        private final CompletionHandler<Integer, Void> onRead = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n < 0) {
+                    finish(null);
+                    return;
+                }
+                position += n;
+                buf.flip();
+                target.write(buf, null, onWrite);
+            }
+
+            @Override
+            public void failed(Throwable t, Void attachment) {
+                finish(t);
+            }
+        };
+
+        private final CompletionHandler<Integer, Void> onWrite = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (buf.hasRemaining()) {
+                    target.write(buf, null, this);
+                } else {
+                    readNext();
+                }
+            }
+
+            @Override
+            public void failed(Throwable t, Void attachment) {
+                finish(t);
+            }
+        };
+
+        AsyncTransfer(AsynchronousFileChannel file, AsynchronousByteChannel target) {
+            this.file = file;
+            this.target = target;
+        }
+
+        CompletableFuture<Long> start() {
+            readNext();
+            return result;
+        }
+
+        private void readNext() {
+            buf.clear();
+            try {
+                file.read(buf, position, null, onRead);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void finish(Throwable t) {
+            IOUtil.closeQuietly(file);
+            if (t == null) {
+                result.complete(position);
+            } else {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+
     @Override
     public boolean deleteStore(Mailbox mbox, Iterable<MailboxBlob.MailboxBlobInfo> blobs) throws IOException, ServiceException {
         assert blobs == null : "should not be passed a blob list since we support bulk blob delete";
@@ -34,7 +34,6 @@ import com.zimbra.cs.db.DbPool.DbConnection;
  */
 public final class Config {
 
-    public static final String KEY_PURGE_LAST_MAILBOX_ID = "purge.lastMailboxId";
     public static final String CONTACT_BACKUP_LAST_MAILBOX_ID = "contactBackup.lastMailboxId";
 
     public static final int D_LMTP_THREADS = 10;
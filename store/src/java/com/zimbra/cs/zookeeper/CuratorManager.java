@@ -35,6 +35,7 @@ import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
 import org.apache.curator.x.discovery.ServiceInstance;
 import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
@@ -113,6 +114,10 @@ public class CuratorManager {
         return new InterProcessSemaphoreMutex(client, LOCKS + id);
     }
 
+    public DistributedReadWriteLock createReadWriteLock(String id) {
+        return new DistributedReadWriteLock(client, LOCKS + id, LC.zimbra_mailbox_lock_read_lease_ms.longValue());
+    }
+
     public void setData(String key, String value) throws Exception {
         byte[] data;
         try {
@@ -0,0 +1,367 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.zookeeper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Cluster-wide read/write lock backed by ZooKeeper.
+ * <p>
+ * Each reader or writer creates an ephemeral sequential node under the lock path. A writer owns the lock once its
+ * node is the first child; a reader owns it once no writer node precedes it. Unlike Curator's
+ * {@code InterProcessReadWriteLock} a grant is not bound to the thread that acquired it, which allows all local
+ * readers of this node to share a single read grant.
+ * <p>
+ * When the last local reader releases, the shared read grant is kept as a lease for up to the configured lease time
+ * so that subsequent local readers don't pay a ZooKeeper round-trip. The lease is given up right away when a writer
+ * (local or remote) queues up behind it.
+ * <p>
+ * Local mutual exclusion between readers and writers is the caller's responsibility; {@link com.zimbra.cs.mailbox.
+ * MailboxLock} only calls in here after it has acquired its in-process lock.
+ */
+public final class DistributedReadWriteLock {
+
+    private static final String READ = "read-";
+    private static final String WRITE = "write-";
+
+    private static final ScheduledExecutorService leaseReaper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("DistributedLockLeaseReaper").setDaemon(true).build());
+
+    private static final Comparator<String> SEQUENCE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            return sequenceOf(o1).compareTo(sequenceOf(o2));
+        }
+    };
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final long leaseMillis;
+    private final ThreadLocal<ReadGrant> heldGrant = new ThreadLocal<ReadGrant>();
+    private ReadGrant sharedGrant; // guarded by this
+    private volatile String writePath;
+
+    DistributedReadWriteLock(CuratorFramework client, String basePath, long leaseMillis) {
+        this.client = client;
+        this.basePath = basePath;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Shared read grant plus the number of local threads currently holding it.
+     */
+    private static final class ReadGrant {
+        String path;
+        int holders;
+        boolean acquired;
+        boolean failed;
+        boolean revoked;
+        ScheduledFuture<?> expiry;
+
+        void cancelExpiry() {
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+        }
+    }
+
+    /**
+     * Acquires the lock in the given mode, waiting up to the given time.
+     *
+     * @return false if the lock could not be acquired within the given time
+     */
+    public boolean acquire(boolean write, long time, TimeUnit unit) throws Exception {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        return write ? acquireWrite(deadline) : acquireRead(deadline);
+    }
+
+    /**
+     * Releases a grant previously obtained by the calling thread with {@link #acquire}.
+     */
+    public void release(boolean write) throws Exception {
+        if (write) {
+            String path = writePath;
+            writePath = null;
+            if (path != null) {
+                deleteNode(path);
+            }
+        } else {
+            ReadGrant grant = heldGrant.get();
+            heldGrant.remove();
+            if (grant != null) {
+                releaseHolder(grant);
+            }
+        }
+    }
+
+    private boolean acquireWrite(long deadline) throws Exception {
+        // an idle read lease held by this node would otherwise queue ahead of our own writer
+        revokeIdleLease();
+        String path = attempt(true, deadline);
+        if (path == null) {
+            return false;
+        }
+        writePath = path;
+        return true;
+    }
+
+    private boolean acquireRead(long deadline) throws Exception {
+        ReadGrant grant;
+        boolean owner = false;
+        synchronized (this) {
+            grant = sharedGrant;
+            if (grant == null || grant.revoked || grant.failed) {
+                grant = new ReadGrant();
+                sharedGrant = grant;
+                owner = true;
+            }
+            grant.holders++;
+            grant.cancelExpiry();
+            if (grant.acquired) {
+                ZimbraPerf.COUNTER_MBOX_DLOCK_READ_LEASE.increment(100);
+                heldGrant.set(grant);
+                return true;
+            }
+        }
+        // a miss even if another local reader is the one talking to ZooKeeper, since we wait on it all the same
+        ZimbraPerf.COUNTER_MBOX_DLOCK_READ_LEASE.increment(0);
+        if (owner) {
+            String path = null;
+            try {
+                path = attempt(false, deadline);
+            } catch (Exception e) {
+                releaseHolder(grant);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    grant.path = path;
+                    grant.acquired = path != null;
+                    grant.failed = path == null;
+                    notifyAll();
+                }
+            }
+            if (path == null) {
+                releaseHolder(grant);
+                return false;
+            }
+            heldGrant.set(grant);
+            watchForWriters(grant);
+            return true;
+        }
+        // another local reader is already talking to ZooKeeper on our behalf
+        synchronized (this) {
+            while (!grant.acquired && !grant.failed) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            if (grant.acquired) {
+                heldGrant.set(grant);
+                return true;
+            }
+        }
+        releaseHolder(grant);
+        return false;
+    }
+
+    private void releaseHolder(ReadGrant grant) {
+        String toDelete = null;
+        synchronized (this) {
+            grant.holders--;
+            if (grant.holders > 0 || !grant.acquired || grant.path == null) {
+                return;
+            }
+            if (grant.revoked || leaseMillis <= 0) {
+                toDelete = detach(grant);
+            } else {
+                final ReadGrant idle = grant;
+                grant.expiry = leaseReaper.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        revoke(idle);
+                    }
+                }, leaseMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (toDelete != null) {
+            deleteNode(toDelete);
+        }
+    }
+
+    /**
+     * Gives up the grant as soon as no local reader holds it. New local readers will not join a revoked grant.
+     */
+    private void revoke(ReadGrant grant) {
+        String toDelete = null;
+        synchronized (this) {
+            grant.revoked = true;
+            if (sharedGrant == grant) {
+                sharedGrant = null;
+            }
+            if (grant.holders == 0 && grant.acquired) {
+                toDelete = detach(grant);
+            }
+        }
+        if (toDelete != null) {
+            deleteNode(toDelete);
+        }
+    }
+
+    private void revokeIdleLease() {
+        ReadGrant grant;
+        synchronized (this) {
+            grant = sharedGrant;
+            if (grant == null || grant.holders > 0) {
+                return;
+            }
+        }
+        revoke(grant);
+    }
+
+    /** Must be called with the monitor held. Returns the node to delete, if not already deleted. */
+    private String detach(ReadGrant grant) {
+        grant.revoked = true;
+        grant.cancelExpiry();
+        if (sharedGrant == grant) {
+            sharedGrant = null;
+        }
+        String path = grant.path;
+        grant.path = null;
+        return path;
+    }
+
+    /**
+     * Revokes the read grant as soon as a writer node shows up behind it, so that a cached lease never delays a
+     * writer by more than the duration of the local reads that are in progress.
+     */
+    private void watchForWriters(final ReadGrant grant) {
+        String path;
+        synchronized (this) {
+            path = grant.path;
+            if (path == null || grant.revoked) {
+                return;
+            }
+        }
+        String ourSequence = sequenceOf(ZKPaths.getNodeFromPath(path));
+        try {
+            List<String> children = client.getChildren().usingWatcher(new CuratorWatcher() {
+                @Override
+                public void process(WatchedEvent event) throws Exception {
+                    if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+                        watchForWriters(grant);
+                    }
+                }
+            }).forPath(basePath);
+            for (String child : children) {
+                if (child.startsWith(WRITE) && sequenceOf(child).compareTo(ourSequence) > 0) {
+                    revoke(grant);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            ZimbraLog.mailbox.debug("unable to watch %s for writers, giving up read lease", basePath, e);
+            revoke(grant);
+        }
+    }
+
+    /**
+     * Creates our node and waits until it owns the lock in the given mode.
+     *
+     * @return the path of our node, or null on timeout
+     */
+    private String attempt(boolean write, long deadline) throws Exception {
+        String ourPath = client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                .forPath(ZKPaths.makePath(basePath, write ? WRITE : READ));
+        String ourNode = ZKPaths.getNodeFromPath(ourPath);
+        boolean success = false;
+        try {
+            while (true) {
+                List<String> children = new ArrayList<String>(client.getChildren().forPath(basePath));
+                Collections.sort(children, SEQUENCE_ORDER);
+                int index = children.indexOf(ourNode);
+                if (index < 0) {
+                    throw new IllegalStateException("lock node disappeared: " + ourPath);
+                }
+                String blocker = null;
+                for (int i = index - 1; i >= 0; i--) {
+                    if (write || children.get(i).startsWith(WRITE)) {
+                        blocker = children.get(i);
+                        break;
+                    }
+                }
+                if (blocker == null) {
+                    success = true;
+                    return ourPath;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                final CountDownLatch changed = new CountDownLatch(1);
+                Stat stat = client.checkExists().usingWatcher(new Watcher() {
+                    @Override
+                    public void process(WatchedEvent event) {
+                        changed.countDown();
+                    }
+                }).forPath(ZKPaths.makePath(basePath, blocker));
+                if (stat != null) {
+                    changed.await(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        } finally {
+            if (!success) {
+                deleteNode(ourPath);
+            }
+        }
+    }
+
+    private void deleteNode(String path) {
+        try {
+            client.delete().guaranteed().forPath(path);
+        } catch (Exception e) {
+            ZimbraLog.mailbox.warn("error while deleting distributed lock node %s", path, e);
+        }
+    }
+
+    private static String sequenceOf(String node) {
+        int dash = node.lastIndexOf('-');
+        return dash < 0 ? node : node.substring(dash + 1);
+    }
+}